@@ -157,8 +157,8 @@ public class MainActivity extends BaseBluetoothActivity implements DeviceConnect
     @Override
     public void onConnectionAttemptSucceeded(@NonNull BluetoothDevice device,
             @NonNull Connection connection) {
-        // Fake something useful using the connection - required to get close
-        // notifications (these only trigger upon read/write error).
+        // Fake something useful using the connection. Lost links are reported
+        // even when idle, but other errors only surface upon read/write.
         final NoopConnectionHandler noopHandler = new NoopConnectionHandler();
         final ConnectionClient connectionClient = ConnectionClients.wrap(connection, 256,
                 noopHandler);
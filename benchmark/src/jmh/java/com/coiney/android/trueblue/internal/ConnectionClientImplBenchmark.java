@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.support.annotation.NonNull;
+
+import com.coiney.android.trueblue.ConnectionClient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * End to end latency benchmark for {@link ConnectionClientImpl}.
+ * </p>
+ *
+ * <p>
+ * The client's connection is looped back on itself, so every message makes a
+ * full round trip through the write queue, the write thread, the connection,
+ * the read thread and finally the read callback.
+ * </p>
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class ConnectionClientImplBenchmark implements ConnectionClient.Callback {
+
+    @Param({"64", "1024", "8192"})
+    public int bufferSize;
+    @Param({"16", "256", "4096"})
+    public int messageSize;
+
+    private final AtomicLong mBytesRead = new AtomicLong();
+    private long mBytesSent;
+    private ConnectionClientImpl mClient;
+    private byte[] mMessage;
+
+    @Setup
+    public void setUp() {
+        final MemoryPipe pipe = new MemoryPipe(ConnectionImplBenchmark.PIPE_CAPACITY);
+        mClient = new ConnectionClientImpl(new ConnectionImpl(null, pipe.getInputStream(),
+                pipe.getOutputStream(), ConnectionImplBenchmark.TRANSPORT_NAME), bufferSize,
+                this);
+        mClient.startReading();
+        mMessage = ConnectionImplBenchmark.createMessage(messageSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mClient.close();
+    }
+
+    @Benchmark
+    public void roundTrip() {
+        mClient.write(mMessage);
+        mBytesSent += mMessage.length;
+        while (mBytesRead.get() < mBytesSent) {
+            if (!mClient.isOpen()) {
+                throw new IllegalStateException("Connection closed unexpectedly.");
+            }
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public void onConnectionClosed(@NonNull ConnectionClient client, boolean wasClosedByError) {}
+
+    @Override
+    public void onDataRead(@NonNull ConnectionClient client, @NonNull byte[] data) {
+        mBytesRead.addAndGet(data.length);
+    }
+
+    @Override
+    public void onDataWritten(@NonNull ConnectionClient client, @NonNull byte[] data) {}
+
+    @Override
+    public void onReadErrorEncountered(@NonNull ConnectionClient client) {}
+
+    @Override
+    public void onWriteErrorEncountered(@NonNull ConnectionClient client,
+            @NonNull byte[] data) {}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Throughput benchmarks for {@link ConnectionImpl}, with a {@link MemoryPipe}
+ * standing in for the Bluetooth socket.
+ * </p>
+ *
+ * <p>
+ * Alongside operations per second, the {@code bytes} secondary metric reports
+ * the number of bytes transferred per second.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ConnectionImplBenchmark {
+
+    static final int PIPE_CAPACITY = 64 * 1024;
+    static final String TRANSPORT_NAME = "memory";
+
+    @Benchmark
+    public int read(ReadState state, ByteCounter counter) throws IOException {
+        final int numberOfBytesRead = state.mConnection.read(state.mBuffer);
+        counter.bytes += numberOfBytesRead;
+        return numberOfBytesRead;
+    }
+
+    @Benchmark
+    public void write(WriteState state, ByteCounter counter) throws IOException {
+        state.mConnection.write(state.mMessage);
+        counter.bytes += state.mMessage.length;
+    }
+
+    /**
+     * Create a message of the provided size.
+     *
+     * @param size of the message.
+     *
+     * @return message.
+     */
+    static byte[] createMessage(int size) {
+        final byte[] message = new byte[size];
+        Arrays.fill(message, (byte) 0x5A);
+        return message;
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class ByteCounter {
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Connection which is continuously fed with messages from a background
+     * thread, to be read with a buffer of the configured size.
+     */
+    @State(Scope.Thread)
+    public static class ReadState {
+
+        @Param({"64", "1024", "8192"})
+        public int bufferSize;
+        @Param({"16", "256", "4096"})
+        public int messageSize;
+
+        byte[] mBuffer;
+        ConnectionImpl mConnection;
+        private Thread mFillThread;
+
+        @Setup
+        public void setUp() {
+            final MemoryPipe pipe = new MemoryPipe(PIPE_CAPACITY);
+            mBuffer = new byte[bufferSize];
+            mConnection = new ConnectionImpl(null, pipe.getInputStream(),
+                    pipe.getOutputStream(), TRANSPORT_NAME);
+            mFillThread = pipe.fillInBackground(createMessage(messageSize));
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            mConnection.close();
+            mFillThread.join();
+        }
+    }
+
+    /**
+     * Connection which is continuously drained by a background thread, to be
+     * written to with messages of the configured size.
+     */
+    @State(Scope.Thread)
+    public static class WriteState {
+
+        @Param({"64", "1024", "8192"})
+        public int bufferSize;
+        @Param({"16", "256", "4096"})
+        public int messageSize;
+
+        ConnectionImpl mConnection;
+        private Thread mDrainThread;
+        byte[] mMessage;
+
+        @Setup
+        public void setUp() {
+            final MemoryPipe pipe = new MemoryPipe(PIPE_CAPACITY);
+            mConnection = new ConnectionImpl(null, pipe.getInputStream(),
+                    pipe.getOutputStream(), TRANSPORT_NAME);
+            mDrainThread = pipe.drainInBackground(bufferSize);
+            mMessage = createMessage(messageSize);
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            mConnection.close();
+            mDrainThread.join();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.support.annotation.NonNull;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * A bounded in-memory pipe, standing in for the streams of a Bluetooth socket
+ * so that the data path can be driven without any hardware.
+ * </p>
+ *
+ * <p>
+ * Unlike {@link java.io.PipedInputStream}, blocked readers are woken as soon
+ * as data is written rather than polling once a second, and either end may be
+ * used from any number of threads. Closing either stream closes the pipe, at
+ * which point reads return any remaining data followed by end of stream, and
+ * writes fail.
+ * </p>
+ */
+@ThreadSafe
+final class MemoryPipe {
+
+    private final byte[] mBuffer;
+    @GuardedBy("mLock")
+    private int mCount;
+    private final InputStream mInputStream = new PipeInputStream();
+    @GuardedBy("mLock")
+    private boolean mIsClosed;
+    private final Object mLock = new Object();
+    private final OutputStream mOutputStream = new PipeOutputStream();
+    @GuardedBy("mLock")
+    private int mReadPosition;
+
+    /**
+     * Create a pipe with the provided capacity.
+     *
+     * @param capacity in bytes.
+     *
+     * @throws IllegalArgumentException if capacity is less than 1.
+     */
+    MemoryPipe(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be at least 1.");
+        }
+        mBuffer = new byte[capacity];
+    }
+
+    /**
+     * Get the stream from which data written to the pipe can be read.
+     *
+     * @return input stream.
+     */
+    @NonNull
+    InputStream getInputStream() {
+        return mInputStream;
+    }
+
+    /**
+     * Get the stream via which data can be written to the pipe.
+     *
+     * @return output stream.
+     */
+    @NonNull
+    OutputStream getOutputStream() {
+        return mOutputStream;
+    }
+
+    /**
+     * Close the pipe, waking any blocked readers and writers.
+     */
+    void close() {
+        synchronized (mLock) {
+            mIsClosed = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Start a daemon thread which reads and discards everything written to
+     * the pipe until it is closed.
+     *
+     * @param bufferSize to read with.
+     *
+     * @return the started thread.
+     */
+    @NonNull
+    Thread drainInBackground(final int bufferSize) {
+        final Thread thread = new Thread("MemoryPipe-Drain") {
+            @Override
+            public void run() {
+                final byte[] buffer = new byte[bufferSize];
+                try {
+                    // noinspection StatementWithEmptyBody
+                    while (mInputStream.read(buffer) > -1) {}
+                } catch (IOException ignored) {}
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Start a daemon thread which repeatedly writes the provided message to
+     * the pipe until it is closed.
+     *
+     * @param message to write.
+     *
+     * @return the started thread.
+     */
+    @NonNull
+    Thread fillInBackground(@NonNull final byte[] message) {
+        final Thread thread = new Thread("MemoryPipe-Fill") {
+            @Override
+            public void run() {
+                try {
+                    // noinspection InfiniteLoopStatement
+                    while (true) {
+                        mOutputStream.write(message);
+                    }
+                } catch (IOException ignored) {}
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        synchronized (mLock) {
+            while (mCount == 0) {
+                if (mIsClosed) {
+                    return -1;
+                }
+                awaitChange();
+            }
+            final int numberOfBytes = Math.min(length,
+                    Math.min(mCount, mBuffer.length - mReadPosition));
+            System.arraycopy(mBuffer, mReadPosition, buffer, offset, numberOfBytes);
+            mReadPosition = (mReadPosition + numberOfBytes) % mBuffer.length;
+            mCount -= numberOfBytes;
+            mLock.notifyAll();
+            return numberOfBytes;
+        }
+    }
+
+    private void write(byte[] data, int offset, int length) throws IOException {
+        synchronized (mLock) {
+            while (length > 0) {
+                while (!mIsClosed && mCount == mBuffer.length) {
+                    awaitChange();
+                }
+                if (mIsClosed) {
+                    throw new IOException("Pipe closed.");
+                }
+                final int writePosition = (mReadPosition + mCount) % mBuffer.length;
+                final int numberOfBytes = Math.min(length,
+                        Math.min(mBuffer.length - mCount, mBuffer.length - writePosition));
+                System.arraycopy(data, offset, mBuffer, writePosition, numberOfBytes);
+                mCount += numberOfBytes;
+                offset += numberOfBytes;
+                length -= numberOfBytes;
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void awaitChange() throws InterruptedIOException {
+        try {
+            mLock.wait();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private final class PipeInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            final byte[] buffer = new byte[1];
+            return MemoryPipe.this.read(buffer, 0, 1) < 0 ? -1 : buffer[0] & 0xFF;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            return MemoryPipe.this.read(buffer, offset, length);
+        }
+
+        @Override
+        public void close() {
+            MemoryPipe.this.close();
+        }
+    }
+
+    private final class PipeOutputStream extends OutputStream {
+
+        @Override
+        public void write(int value) throws IOException {
+            MemoryPipe.this.write(new byte[] { (byte) value }, 0, 1);
+        }
+
+        @Override
+        public void write(@NonNull byte[] data, int offset, int length) throws IOException {
+            MemoryPipe.this.write(data, offset, length);
+        }
+
+        @Override
+        public void close() {
+            MemoryPipe.this.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.support.annotation.NonNull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency benchmark for {@link WriteThread}, measuring the time from a message
+ * being queued to it having been written to the underlying stream and
+ * reported to the write callback.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class WriteThreadBenchmark implements WriteThread.Callback {
+
+    @Param({"64", "1024", "8192"})
+    public int bufferSize;
+    @Param({"16", "256", "4096"})
+    public int messageSize;
+
+    private ConnectionImpl mConnection;
+    private Thread mDrainThread;
+    private byte[] mMessage;
+    private long mMessagesSent;
+    private final AtomicLong mMessagesWritten = new AtomicLong();
+    private WriteThread mWriteThread;
+
+    @Setup
+    public void setUp() {
+        final MemoryPipe pipe = new MemoryPipe(ConnectionImplBenchmark.PIPE_CAPACITY);
+        mConnection = new ConnectionImpl(null, pipe.getInputStream(), pipe.getOutputStream(),
+                ConnectionImplBenchmark.TRANSPORT_NAME);
+        mDrainThread = pipe.drainInBackground(bufferSize);
+        mMessage = ConnectionImplBenchmark.createMessage(messageSize);
+        mWriteThread = new WriteThread(mConnection, new ConnectionMetrics(), this);
+        mWriteThread.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        mWriteThread.interrupt();
+        mWriteThread.join();
+        mConnection.close();
+        mDrainThread.join();
+    }
+
+    @Benchmark
+    public void writeMessage() {
+        mWriteThread.write(mMessage);
+        mMessagesSent++;
+        while (mMessagesWritten.get() < mMessagesSent) {
+            if (!mConnection.isOpen()) {
+                throw new IllegalStateException("Connection closed unexpectedly.");
+            }
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public void onDataWritten(@NonNull byte[] data) {
+        mMessagesWritten.incrementAndGet();
+    }
+
+    @Override
+    public void onWriteErrorEncountered(@NonNull byte[] data) {}
+}
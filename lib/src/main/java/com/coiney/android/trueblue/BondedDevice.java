@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * <p>
+ * An immutable record of a Bluetooth device bonded (paired) with the system.
+ * </p>
+ *
+ * <p>
+ * The name and class are read once, when the device is first seen in the
+ * bonded device list, so that displaying a list of bonded devices does not
+ * require an IPC per device.
+ * </p>
+ */
+public final class BondedDevice {
+
+    private final BluetoothClass mBluetoothClass;
+    private final BluetoothDevice mDevice;
+    private final String mName;
+
+    /**
+     * Create a bonded device record with the provided parameters.
+     *
+     * @param device bonded with the system.
+     * @param name of the device, if known.
+     * @param bluetoothClass of the device, if known.
+     */
+    public BondedDevice(@NonNull BluetoothDevice device, @Nullable String name,
+            @Nullable BluetoothClass bluetoothClass) {
+        mBluetoothClass = bluetoothClass;
+        mDevice = device;
+        mName = name;
+    }
+
+    /**
+     * Get the bonded device.
+     *
+     * @return bonded device.
+     */
+    @NonNull
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    /**
+     * Get the hardware address of the bonded device.
+     *
+     * @return hardware address.
+     */
+    @NonNull
+    public String getAddress() {
+        return mDevice.getAddress();
+    }
+
+    /**
+     * Get the class of the device, as read when it was first seen.
+     *
+     * @return device class, or null if it was not known.
+     */
+    @Nullable
+    public BluetoothClass getBluetoothClass() {
+        return mBluetoothClass;
+    }
+
+    /**
+     * Get the friendly name of the device, as read when it was first seen.
+     *
+     * @return name, or null if it was not known.
+     */
+    @Nullable
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public String toString() {
+        return "BondedDevice{address=" + getAddress()
+                + ", name=" + mName
+                + ", bluetoothClass=" + mBluetoothClass + "}";
+    }
+}
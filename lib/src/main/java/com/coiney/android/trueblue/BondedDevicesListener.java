@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * Listener interface which reports changes to the set of devices bonded
+ * (paired) with the system. The bonded device list is refreshed whenever a
+ * bond state or Bluetooth adapter state change is broadcast, and listeners are
+ * only called if the refresh changed it. All methods are called on the main
+ * thread.
+ */
+public interface BondedDevicesListener {
+
+    /**
+     * Called when devices have been bonded with or unbonded from the system,
+     * or have appeared or disappeared from the list due to Bluetooth being
+     * enabled or disabled.
+     *
+     * @param addedDevices which are now bonded. May be empty.
+     * @param removedDevices which are no longer bonded. May be empty.
+     */
+    void onBondedDevicesChanged(@NonNull List<BondedDevice> addedDevices,
+            @NonNull List<BondedDevice> removedDevices);
+}
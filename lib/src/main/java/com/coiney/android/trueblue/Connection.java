@@ -117,6 +117,16 @@ public interface Connection {
      */
     void unregisterOnCloseListener(@NonNull OnCloseListener listener);
 
+    /**
+     * Get a snapshot of the statistics gathered for the connection since it
+     * was opened. This is safe to call at any time, including after the
+     * connection has been closed.
+     *
+     * @return statistics snapshot.
+     */
+    @NonNull
+    ConnectionStats getStats();
+
     /**
      * Listener interface for connection closure events.
      */
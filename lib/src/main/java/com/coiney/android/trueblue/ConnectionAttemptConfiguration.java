@@ -47,8 +47,10 @@ public final class ConnectionAttemptConfiguration {
         mConnectionConfiguration = connectionConfiguration;
     }
 
+    // A fresh copy for every attempt, so that configurations can be reused
+    // without sharing retry policy state.
     ConnectionConfiguration getInternalConnectionConfiguration() {
-        return mConnectionConfiguration;
+        return mConnectionConfiguration.copy();
     }
 
     /**
@@ -64,6 +66,7 @@ public final class ConnectionAttemptConfiguration {
         private final ConnectionRetryPolicy.Builder mConnectionRetryPolicyBuilder =
                 new ConnectionRetryPolicy.Builder();
         private boolean mIsSecure = true;
+        private Transport mTransport = Transports.rfcomm();
         private UUID mUuid;
 
         /**
@@ -225,6 +228,24 @@ public final class ConnectionAttemptConfiguration {
             return this;
         }
 
+        /**
+         * <p>
+         * Set the transport with which to create the socket to connect over.
+         * </p>
+         *
+         * <p>
+         * The default value if this is not set is {@link Transports#rfcomm()}.
+         * </p>
+         *
+         * @param transport to connect with.
+         *
+         * @return builder instance.
+         */
+        public Builder setTransport(@NonNull Transport transport) {
+            mTransport = transport;
+            return this;
+        }
+
         /**
          * Create the connection configuration instance with the set
          * parameters.
@@ -233,7 +254,8 @@ public final class ConnectionAttemptConfiguration {
          */
         public ConnectionAttemptConfiguration build() {
             return new ConnectionAttemptConfiguration(new ConnectionConfiguration(mUuid, mIsSecure,
-                    mCanInterruptDiscoveryScan, mConnectionRetryPolicyBuilder.build()));
+                    mCanInterruptDiscoveryScan, mConnectionRetryPolicyBuilder.build(),
+                    mTransport));
         }
     }
 }
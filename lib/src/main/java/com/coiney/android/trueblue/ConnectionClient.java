@@ -18,6 +18,9 @@
 package com.coiney.android.trueblue;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.util.List;
 
 /**
  * <p>
@@ -59,6 +62,41 @@ public interface ConnectionClient {
      */
     void close();
 
+    /**
+     * <p>
+     * Close the connection being managed once all queued data has been
+     * written, or once the provided timeout has elapsed, whichever comes
+     * first.
+     * </p>
+     *
+     * <p>
+     * Once this method has been called no further data will be accepted for
+     * writing - {@link #write(byte[])} will throw an exception. Any data which
+     * could not be written before the timeout elapsed is returned rather than
+     * silently discarded, allowing it to be resent on a new connection or
+     * otherwise dealt with.
+     * </p>
+     *
+     * <p>
+     * This method blocks until the connection has been closed, so should not
+     * be called on the main thread. Upon completion the {@link
+     * Callback#onConnectionClosed(ConnectionClient, boolean)} method will be
+     * called.
+     * </p>
+     *
+     * @param drainTimeoutMillis maximum time to wait for queued data to be
+     *                           written, in milliseconds.
+     *
+     * @return data which was queued but never written, in the order it was
+     *         queued. Empty if all queued data was written.
+     *
+     * @throws IllegalArgumentException if drainTimeoutMillis is less than
+     *                                  zero.
+     */
+    @NonNull
+    @WorkerThread
+    List<byte[]> close(long drainTimeoutMillis);
+
     /**
      * <p>
      * Start reading continuously and asynchronously from the connection being
@@ -107,10 +145,28 @@ public interface ConnectionClient {
      *
      * @param data to write.
      *
-     * @throws IllegalStateException if the connection has been closed.
+     * @throws IllegalStateException if the connection has been closed or is
+     *                               being closed via {@link #close(long)}.
      */
     void write(@NonNull byte[] data);
 
+    /**
+     * <p>
+     * Get a snapshot of the statistics gathered for the connection being
+     * managed.
+     * </p>
+     *
+     * <p>
+     * Unlike {@link Connection#getStats()}, the write latencies reported
+     * include the time spent waiting in the write queue, and the write queue
+     * depth is reported.
+     * </p>
+     *
+     * @return statistics snapshot.
+     */
+    @NonNull
+    ConnectionStats getStats();
+
     /**
      * Callback interface which reports the results of asynchronous operations
      * carried out on the connection.
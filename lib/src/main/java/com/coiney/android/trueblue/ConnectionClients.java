@@ -58,4 +58,41 @@ public final class ConnectionClients {
         }
         return new ConnectionClientImpl(connection, readBufferSize, callback);
     }
+
+    /**
+     * <p>
+     * As per {@link #wrap(Connection, int, ConnectionClient.Callback)}, but
+     * the client also sends heartbeats as described by the provided
+     * configuration once reading has been started via {@link
+     * ConnectionClient#startReading()}.
+     * </p>
+     *
+     * <p>
+     * If the remote device stops responding the connection is closed, which
+     * is reported via {@link
+     * ConnectionClient.Callback#onConnectionClosed(ConnectionClient, boolean)}
+     * as having been closed by error. Pongs are not passed to {@link
+     * ConnectionClient.Callback#onDataRead(ConnectionClient, byte[])}, and
+     * pings are not reported as written.
+     * </p>
+     *
+     * @param connection to manage.
+     * @param readBufferSize to use when reading data.
+     * @param heartbeatConfiguration describing the heartbeat.
+     * @param callback to report the results of asynchronous operations to.
+     *
+     * @return connection client.
+     *
+     * @throws IllegalArgumentException if readBufferSize is less than 1.
+     */
+    @NonNull
+    public static ConnectionClient wrap(@NonNull Connection connection,
+            int readBufferSize, @NonNull HeartbeatConfiguration heartbeatConfiguration,
+            @NonNull ConnectionClient.Callback callback) {
+        if (readBufferSize <= 0) {
+            throw new IllegalArgumentException("readBufferSize must be at least 1.");
+        }
+        return new ConnectionClientImpl(connection, readBufferSize, heartbeatConfiguration,
+                callback);
+    }
 }
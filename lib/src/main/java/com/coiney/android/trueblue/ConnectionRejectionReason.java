@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+/**
+ * Represents the reason an inbound connection accepted by a {@link Server}
+ * was rejected and closed.
+ */
+public enum ConnectionRejectionReason {
+
+    /**
+     * The device was already connected or being connected to, be it via this
+     * server, another server or an outbound connection attempt.
+     */
+    ALREADY_CONNECTED,
+
+    /**
+     * The server already had its maximum number of clients connected.
+     */
+    MAXIMUM_CLIENT_COUNT_REACHED,
+
+    /**
+     * The server callback declined the connection via {@link
+     * ServerCallback#shouldAcceptConnection(android.bluetooth.BluetoothDevice)}.
+     */
+    REJECTED_BY_CALLBACK,
+
+    /**
+     * The streams of the accepted socket could not be obtained.
+     */
+    ERROR
+}
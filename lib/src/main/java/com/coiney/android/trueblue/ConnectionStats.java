@@ -0,0 +1,611 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * An immutable snapshot of the statistics gathered for a {@link Connection}
+ * or {@link ConnectionClient}.
+ * </p>
+ *
+ * <p>
+ * Snapshots are taken without stopping I/O, so individual values are only
+ * weakly consistent with each other. They are intended for monitoring and
+ * diagnostics rather than for accounting.
+ * </p>
+ *
+ * <p>
+ * Instances are obtained via {@link Connection#getStats()} and {@link
+ * ConnectionClient#getStats()}. Custom connection implementations can create
+ * them using the contained Builder class.
+ * </p>
+ */
+public final class ConnectionStats {
+
+    private final long mBytesRead;
+    private final long mBytesWritten;
+    private final long mElapsedTimeMillis;
+    private final long mMessagesRead;
+    private final long mMessagesWritten;
+    private final Histogram mReadChunkSizeHistogram;
+    private final long mReadErrorCount;
+    private final Histogram mRoundTripTimeHistogram;
+    private final String mTransportName;
+    private final long mWriteErrorCount;
+    private final Histogram mWriteLatencyHistogram;
+    private final int mWriteQueueDepth;
+    private final int mWriteQueueDepthHighWaterMark;
+
+    private ConnectionStats(@NonNull Builder builder) {
+        mBytesRead = builder.mBytesRead;
+        mBytesWritten = builder.mBytesWritten;
+        mElapsedTimeMillis = builder.mElapsedTimeMillis;
+        mMessagesRead = builder.mMessagesRead;
+        mMessagesWritten = builder.mMessagesWritten;
+        mReadChunkSizeHistogram = builder.mReadChunkSizeHistogram;
+        mReadErrorCount = builder.mReadErrorCount;
+        mRoundTripTimeHistogram = builder.mRoundTripTimeHistogram;
+        mTransportName = builder.mTransportName;
+        mWriteErrorCount = builder.mWriteErrorCount;
+        mWriteLatencyHistogram = builder.mWriteLatencyHistogram;
+        mWriteQueueDepth = builder.mWriteQueueDepth;
+        mWriteQueueDepthHighWaterMark = builder.mWriteQueueDepthHighWaterMark;
+    }
+
+    /**
+     * Get the total number of bytes read from the connection.
+     *
+     * @return number of bytes read.
+     */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /**
+     * Get the average number of bytes read per second over the lifetime of the
+     * connection.
+     *
+     * @return bytes read per second, or 0 if no time has elapsed.
+     */
+    public double getBytesReadPerSecond() {
+        return getRatePerSecond(mBytesRead);
+    }
+
+    /**
+     * Get the total number of bytes written to the connection.
+     *
+     * @return number of bytes written.
+     */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * Get the average number of bytes written per second over the lifetime of
+     * the connection.
+     *
+     * @return bytes written per second, or 0 if no time has elapsed.
+     */
+    public double getBytesWrittenPerSecond() {
+        return getRatePerSecond(mBytesWritten);
+    }
+
+    /**
+     * Get the time in milliseconds between the connection being opened and
+     * either the snapshot being taken or the connection being closed,
+     * whichever came first.
+     *
+     * @return elapsed time in milliseconds.
+     */
+    public long getElapsedTimeMillis() {
+        return mElapsedTimeMillis;
+    }
+
+    /**
+     * Get the number of successful reads which returned data.
+     *
+     * @return number of messages read.
+     */
+    public long getMessagesRead() {
+        return mMessagesRead;
+    }
+
+    /**
+     * Get the number of successful writes.
+     *
+     * @return number of messages written.
+     */
+    public long getMessagesWritten() {
+        return mMessagesWritten;
+    }
+
+    /**
+     * Get the distribution of the number of bytes returned by each successful
+     * read, in bytes.
+     *
+     * @return read chunk size histogram.
+     */
+    @NonNull
+    public Histogram getReadChunkSizeHistogram() {
+        return mReadChunkSizeHistogram;
+    }
+
+    /**
+     * Get the number of read errors encountered.
+     *
+     * @return number of read errors.
+     */
+    public long getReadErrorCount() {
+        return mReadErrorCount;
+    }
+
+    /**
+     * <p>
+     * Get the distribution of heartbeat round trip times, in microseconds.
+     * </p>
+     *
+     * <p>
+     * This is only recorded by a {@link ConnectionClient} with a heartbeat
+     * (see {@link HeartbeatConfiguration}), and is empty otherwise. It is the
+     * time from each ping being queued until its pong was read, so also
+     * includes time spent waiting in the write queue. A rising trend
+     * indicates a degrading link.
+     * </p>
+     *
+     * @return round trip time histogram.
+     */
+    @NonNull
+    public Histogram getRoundTripTimeHistogram() {
+        return mRoundTripTimeHistogram;
+    }
+
+    /**
+     * Get the name of the transport carrying the connection (e.g. "rfcomm",
+     * "l2cap" or "gatt"), so that throughput can be compared across
+     * transports. Custom transports report {@link Transport#getName()}.
+     *
+     * @return transport name, or null if it is not known.
+     */
+    @Nullable
+    public String getTransportName() {
+        return mTransportName;
+    }
+
+    /**
+     * Get the number of write errors encountered.
+     *
+     * @return number of write errors.
+     */
+    public long getWriteErrorCount() {
+        return mWriteErrorCount;
+    }
+
+    /**
+     * <p>
+     * Get the distribution of write latencies, in microseconds.
+     * </p>
+     *
+     * <p>
+     * For a {@link Connection} this is the time spent blocked writing to the
+     * underlying stream. For a {@link ConnectionClient} it is the time from the
+     * data being queued via {@link ConnectionClient#write(byte[])} until it has
+     * been written, so also includes time spent waiting in the queue.
+     * </p>
+     *
+     * @return write latency histogram.
+     */
+    @NonNull
+    public Histogram getWriteLatencyHistogram() {
+        return mWriteLatencyHistogram;
+    }
+
+    /**
+     * Get the number of writes queued but not yet started at the time the
+     * snapshot was taken. This is always 0 for a {@link Connection}, which
+     * does not queue writes.
+     *
+     * @return write queue depth.
+     */
+    public int getWriteQueueDepth() {
+        return mWriteQueueDepth;
+    }
+
+    /**
+     * Get the largest write queue depth observed over the lifetime of the
+     * connection.
+     *
+     * @return write queue depth high water mark.
+     */
+    public int getWriteQueueDepthHighWaterMark() {
+        return mWriteQueueDepthHighWaterMark;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionStats{transport=" + mTransportName
+                + ", bytesRead=" + mBytesRead
+                + ", bytesWritten=" + mBytesWritten
+                + ", messagesRead=" + mMessagesRead
+                + ", messagesWritten=" + mMessagesWritten
+                + ", readErrors=" + mReadErrorCount
+                + ", writeErrors=" + mWriteErrorCount
+                + ", writeQueueDepth=" + mWriteQueueDepth
+                + ", writeQueueDepthHighWaterMark=" + mWriteQueueDepthHighWaterMark
+                + ", writeLatencyP50Us=" + mWriteLatencyHistogram.getValueAtPercentile(50)
+                + ", writeLatencyP99Us=" + mWriteLatencyHistogram.getValueAtPercentile(99)
+                + ", rttP50Us=" + mRoundTripTimeHistogram.getValueAtPercentile(50)
+                + ", rttP99Us=" + mRoundTripTimeHistogram.getValueAtPercentile(99)
+                + ", elapsedTimeMillis=" + mElapsedTimeMillis + "}";
+    }
+
+    private double getRatePerSecond(long value) {
+        if (mElapsedTimeMillis <= 0) {
+            return 0;
+        }
+        return value * 1000d / mElapsedTimeMillis;
+    }
+
+    /**
+     * <p>
+     * An immutable histogram with a fixed set of buckets, each of which counts
+     * the number of recorded values less than or equal to its upper bound and
+     * greater than the upper bound of the previous bucket.
+     * </p>
+     */
+    public static final class Histogram {
+
+        private static final Histogram EMPTY = new Histogram(new long[0], new long[0]);
+
+        private final long[] mBucketCounts;
+        private final long[] mBucketUpperBounds;
+        private final long mTotalCount;
+
+        /**
+         * Create a histogram with the provided buckets.
+         *
+         * @param bucketUpperBounds inclusive upper bound of each bucket, in
+         *                          ascending order.
+         * @param bucketCounts number of values recorded in each bucket.
+         *
+         * @throws IllegalArgumentException if the arrays differ in length.
+         */
+        public Histogram(@NonNull long[] bucketUpperBounds, @NonNull long[] bucketCounts) {
+            if (bucketUpperBounds.length != bucketCounts.length) {
+                throw new IllegalArgumentException("Bucket bounds and counts differ in length.");
+            }
+            mBucketCounts = bucketCounts.clone();
+            mBucketUpperBounds = bucketUpperBounds.clone();
+            long totalCount = 0;
+            for (long count : mBucketCounts) {
+                totalCount += count;
+            }
+            mTotalCount = totalCount;
+        }
+
+        /**
+         * Get a histogram with no buckets.
+         *
+         * @return empty histogram.
+         */
+        @NonNull
+        public static Histogram empty() {
+            return EMPTY;
+        }
+
+        /**
+         * Get the number of buckets in the histogram.
+         *
+         * @return number of buckets.
+         */
+        public int getBucketCount() {
+            return mBucketCounts.length;
+        }
+
+        /**
+         * Get the number of values recorded in the bucket at the provided
+         * index.
+         *
+         * @param index of the bucket.
+         *
+         * @return number of values recorded in the bucket.
+         */
+        public long getCountInBucket(int index) {
+            return mBucketCounts[index];
+        }
+
+        /**
+         * Get the inclusive upper bound of the bucket at the provided index.
+         *
+         * @param index of the bucket.
+         *
+         * @return upper bound of the bucket.
+         */
+        public long getBucketUpperBound(int index) {
+            return mBucketUpperBounds[index];
+        }
+
+        /**
+         * Get the total number of values recorded.
+         *
+         * @return total number of values recorded.
+         */
+        public long getTotalCount() {
+            return mTotalCount;
+        }
+
+        /**
+         * <p>
+         * Get an estimate of the value at the provided percentile.
+         * </p>
+         *
+         * <p>
+         * Since only bucket counts are kept the estimate is the upper bound of
+         * the bucket containing the percentile, so it will never understate the
+         * true value.
+         * </p>
+         *
+         * @param percentile to get the value at, between 0 and 100.
+         *
+         * @return estimated value at the percentile, or 0 if the histogram is
+         *         empty.
+         *
+         * @throws IllegalArgumentException if the percentile is out of range.
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+            }
+            if (mTotalCount == 0) {
+                return 0;
+            }
+            final long targetCount = Math.max(1, (long) Math.ceil(mTotalCount * percentile / 100));
+            long cumulativeCount = 0;
+            for (int i = 0; i < mBucketCounts.length; i++) {
+                cumulativeCount += mBucketCounts[i];
+                if (cumulativeCount >= targetCount) {
+                    return mBucketUpperBounds[i];
+                }
+            }
+            return mBucketUpperBounds[mBucketUpperBounds.length - 1];
+        }
+
+        @Override
+        public String toString() {
+            return "Histogram{upperBounds=" + Arrays.toString(mBucketUpperBounds)
+                    + ", counts=" + Arrays.toString(mBucketCounts) + "}";
+        }
+    }
+
+    /**
+     * Builds {@link ConnectionStats} instances.
+     */
+    public static final class Builder {
+
+        private long mBytesRead;
+        private long mBytesWritten;
+        private long mElapsedTimeMillis;
+        private long mMessagesRead;
+        private long mMessagesWritten;
+        private Histogram mReadChunkSizeHistogram = Histogram.empty();
+        private long mReadErrorCount;
+        private Histogram mRoundTripTimeHistogram = Histogram.empty();
+        private String mTransportName;
+        private long mWriteErrorCount;
+        private Histogram mWriteLatencyHistogram = Histogram.empty();
+        private int mWriteQueueDepth;
+        private int mWriteQueueDepthHighWaterMark;
+
+        /**
+         * Create a builder instance with all values set to zero and empty
+         * histograms.
+         */
+        public Builder() { /* Empty */ }
+
+        /**
+         * Create a builder instance initialised with the values of the
+         * provided statistics.
+         *
+         * @param stats to copy.
+         */
+        public Builder(@NonNull ConnectionStats stats) {
+            mBytesRead = stats.mBytesRead;
+            mBytesWritten = stats.mBytesWritten;
+            mElapsedTimeMillis = stats.mElapsedTimeMillis;
+            mMessagesRead = stats.mMessagesRead;
+            mMessagesWritten = stats.mMessagesWritten;
+            mReadChunkSizeHistogram = stats.mReadChunkSizeHistogram;
+            mReadErrorCount = stats.mReadErrorCount;
+            mRoundTripTimeHistogram = stats.mRoundTripTimeHistogram;
+            mTransportName = stats.mTransportName;
+            mWriteErrorCount = stats.mWriteErrorCount;
+            mWriteLatencyHistogram = stats.mWriteLatencyHistogram;
+            mWriteQueueDepth = stats.mWriteQueueDepth;
+            mWriteQueueDepthHighWaterMark = stats.mWriteQueueDepthHighWaterMark;
+        }
+
+        /**
+         * Set the total number of bytes read.
+         *
+         * @param bytesRead total.
+         *
+         * @return builder instance.
+         */
+        public Builder setBytesRead(long bytesRead) {
+            mBytesRead = bytesRead;
+            return this;
+        }
+
+        /**
+         * Set the total number of bytes written.
+         *
+         * @param bytesWritten total.
+         *
+         * @return builder instance.
+         */
+        public Builder setBytesWritten(long bytesWritten) {
+            mBytesWritten = bytesWritten;
+            return this;
+        }
+
+        /**
+         * Set the time elapsed since the connection was opened.
+         *
+         * @param elapsedTimeMillis in milliseconds.
+         *
+         * @return builder instance.
+         */
+        public Builder setElapsedTimeMillis(long elapsedTimeMillis) {
+            mElapsedTimeMillis = elapsedTimeMillis;
+            return this;
+        }
+
+        /**
+         * Set the number of successful reads which returned data.
+         *
+         * @param messagesRead total.
+         *
+         * @return builder instance.
+         */
+        public Builder setMessagesRead(long messagesRead) {
+            mMessagesRead = messagesRead;
+            return this;
+        }
+
+        /**
+         * Set the number of successful writes.
+         *
+         * @param messagesWritten total.
+         *
+         * @return builder instance.
+         */
+        public Builder setMessagesWritten(long messagesWritten) {
+            mMessagesWritten = messagesWritten;
+            return this;
+        }
+
+        /**
+         * Set the read chunk size histogram.
+         *
+         * @param histogram of read chunk sizes in bytes.
+         *
+         * @return builder instance.
+         */
+        public Builder setReadChunkSizeHistogram(@NonNull Histogram histogram) {
+            mReadChunkSizeHistogram = histogram;
+            return this;
+        }
+
+        /**
+         * Set the number of read errors encountered.
+         *
+         * @param readErrorCount total.
+         *
+         * @return builder instance.
+         */
+        public Builder setReadErrorCount(long readErrorCount) {
+            mReadErrorCount = readErrorCount;
+            return this;
+        }
+
+        /**
+         * Set the heartbeat round trip time histogram.
+         *
+         * @param histogram of round trip times in microseconds.
+         *
+         * @return builder instance.
+         */
+        public Builder setRoundTripTimeHistogram(@NonNull Histogram histogram) {
+            mRoundTripTimeHistogram = histogram;
+            return this;
+        }
+
+        /**
+         * Set the name of the transport carrying the connection.
+         *
+         * @param transportName or null if it is not known.
+         *
+         * @return builder instance.
+         */
+        public Builder setTransportName(@Nullable String transportName) {
+            mTransportName = transportName;
+            return this;
+        }
+
+        /**
+         * Set the number of write errors encountered.
+         *
+         * @param writeErrorCount total.
+         *
+         * @return builder instance.
+         */
+        public Builder setWriteErrorCount(long writeErrorCount) {
+            mWriteErrorCount = writeErrorCount;
+            return this;
+        }
+
+        /**
+         * Set the write latency histogram.
+         *
+         * @param histogram of write latencies in microseconds.
+         *
+         * @return builder instance.
+         */
+        public Builder setWriteLatencyHistogram(@NonNull Histogram histogram) {
+            mWriteLatencyHistogram = histogram;
+            return this;
+        }
+
+        /**
+         * Set the current write queue depth.
+         *
+         * @param writeQueueDepth current.
+         *
+         * @return builder instance.
+         */
+        public Builder setWriteQueueDepth(int writeQueueDepth) {
+            mWriteQueueDepth = writeQueueDepth;
+            return this;
+        }
+
+        /**
+         * Set the largest write queue depth observed.
+         *
+         * @param writeQueueDepthHighWaterMark largest depth observed.
+         *
+         * @return builder instance.
+         */
+        public Builder setWriteQueueDepthHighWaterMark(int writeQueueDepthHighWaterMark) {
+            mWriteQueueDepthHighWaterMark = writeQueueDepthHighWaterMark;
+            return this;
+        }
+
+        /**
+         * Create the statistics instance with the set values.
+         *
+         * @return statistics instance.
+         */
+        public ConnectionStats build() {
+            return new ConnectionStats(this);
+        }
+    }
+}
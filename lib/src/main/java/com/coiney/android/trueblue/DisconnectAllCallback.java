@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+
+import java.util.Map;
+
+/**
+ * Callback interface which reports the result of a {@link
+ * DisconnectAllOperation}.
+ */
+public interface DisconnectAllCallback {
+
+    /**
+     * Called on the main thread when every device has been disconnected, or
+     * the deadline for the operation has expired (whichever happens first).
+     *
+     * @param results for each device the operation covered.
+     */
+    void onDisconnectAllCompleted(@NonNull Map<BluetoothDevice, DisconnectResult> results);
+}
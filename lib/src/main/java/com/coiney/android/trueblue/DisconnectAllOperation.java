@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Handle for an asynchronous request to disconnect all Bluetooth devices,
+ * as started via {@link TrueBlue#disconnectAll(long, DisconnectAllCallback)}.
+ * </p>
+ *
+ * <p>
+ * The operation covers the devices which were connected or being connected
+ * to at the moment it was started. It is complete once every one of those
+ * devices has a result, or once its deadline expires - at which point every
+ * device still outstanding is reported as {@link DisconnectResult#TIMED_OUT}.
+ * Results never change once the operation is complete.
+ * </p>
+ */
+public interface DisconnectAllOperation {
+
+    /**
+     * Ask whether the operation is complete or not.
+     *
+     * @return flag indicating whether the operation is complete or not.
+     */
+    @AnyThread
+    boolean isComplete();
+
+    /**
+     * Block until the operation is complete, or the provided timeout elapses.
+     *
+     * @param timeout to wait for.
+     * @param unit of the timeout.
+     *
+     * @return flag indicating whether the operation is complete or not.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while
+     *                              waiting.
+     */
+    @WorkerThread
+    boolean await(long timeout, @NonNull TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Get the results reported so far. Devices which have not yet been
+     * processed are absent until the operation completes.
+     *
+     * @return unmodifiable snapshot of the results, keyed by device.
+     */
+    @AnyThread
+    @NonNull
+    Map<BluetoothDevice, DisconnectResult> getResults();
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+/**
+ * Represents the outcome of disconnecting a single Bluetooth device as part of
+ * a {@link DisconnectAllOperation}.
+ */
+public enum DisconnectResult {
+
+    /**
+     * The device was connected, and the connection to it has been closed.
+     */
+    DISCONNECTED,
+
+    /**
+     * The device was being connected to, and the connection attempt has been
+     * cancelled. Cancellation completes asynchronously, so the attempt may
+     * still be winding down when this result is reported.
+     */
+    CONNECTION_ATTEMPT_CANCELLED,
+
+    /**
+     * The device was neither connected nor being connected to by the time it
+     * was processed, generally because the connection closed or the
+     * connection attempt finished of its own accord in the meantime.
+     */
+    NOT_CONNECTED,
+
+    /**
+     * <p>
+     * The device had not finished disconnecting when the deadline for the
+     * operation expired.
+     * </p>
+     *
+     * <p>
+     * The disconnection continues in the background, so the device will
+     * usually still be disconnected shortly afterwards. Register a {@link
+     * DeviceConnectionListener} if you need to know exactly when.
+     * </p>
+     */
+    TIMED_OUT
+}
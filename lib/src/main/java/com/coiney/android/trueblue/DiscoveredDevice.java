@@ -0,0 +1,280 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * <p>
+ * An immutable record of a Bluetooth device found during discovery scanning,
+ * holding the most recent information reported for it.
+ * </p>
+ *
+ * <p>
+ * Timestamps are in the {@link android.os.SystemClock#elapsedRealtime()} time
+ * base, so are unaffected by changes to the wall clock.
+ * </p>
+ */
+public final class DiscoveredDevice {
+
+    /**
+     * Value returned by {@link #getRssi()} when no signal strength was
+     * reported for the device.
+     */
+    public static final int RSSI_UNAVAILABLE = Short.MIN_VALUE;
+
+    private final BluetoothClass mBluetoothClass;
+    private final BluetoothDevice mDevice;
+    private final long mFirstSeenMillis;
+    private final long mLastSeenMillis;
+    private final String mName;
+    private final int mRssi;
+    private final Set<UUID> mServiceUuids;
+
+    private DiscoveredDevice(@NonNull Builder builder) {
+        mBluetoothClass = builder.mBluetoothClass;
+        mDevice = builder.mDevice;
+        mFirstSeenMillis = builder.mFirstSeenMillis;
+        mLastSeenMillis = builder.mLastSeenMillis;
+        mName = builder.mName;
+        mRssi = builder.mRssi;
+        mServiceUuids = (null == builder.mServiceUuids) ? null :
+                Collections.unmodifiableSet(new HashSet<>(builder.mServiceUuids));
+    }
+
+    /**
+     * Get the discovered device.
+     *
+     * @return discovered device.
+     */
+    @NonNull
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    /**
+     * Get the hardware address of the discovered device.
+     *
+     * @return hardware address.
+     */
+    @NonNull
+    public String getAddress() {
+        return mDevice.getAddress();
+    }
+
+    /**
+     * Get the most recently reported class of the device.
+     *
+     * @return device class, or null if none has been reported.
+     */
+    @Nullable
+    public BluetoothClass getBluetoothClass() {
+        return mBluetoothClass;
+    }
+
+    /**
+     * Get the most recently reported friendly name of the device.
+     *
+     * @return name, or null if none has been reported.
+     */
+    @Nullable
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Get the most recently reported signal strength of the device.
+     *
+     * @return signal strength in dBm, or {@link #RSSI_UNAVAILABLE}.
+     */
+    public int getRssi() {
+        return mRssi;
+    }
+
+    /**
+     * Get the service UUIDs most recently reported for the device by a
+     * service discovery (SDP) query.
+     *
+     * @return unmodifiable set of service UUIDs, or null if the services of
+     *         the device have not been queried.
+     */
+    @Nullable
+    public Set<UUID> getServiceUuids() {
+        return mServiceUuids;
+    }
+
+    /**
+     * Get the time at which the device was first seen.
+     *
+     * @return time first seen, in milliseconds.
+     */
+    public long getFirstSeenMillis() {
+        return mFirstSeenMillis;
+    }
+
+    /**
+     * Get the time at which the device was most recently seen.
+     *
+     * @return time last seen, in milliseconds.
+     */
+    public long getLastSeenMillis() {
+        return mLastSeenMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "DiscoveredDevice{address=" + getAddress()
+                + ", name=" + mName
+                + ", rssi=" + mRssi
+                + ", bluetoothClass=" + mBluetoothClass
+                + ", serviceUuids=" + mServiceUuids
+                + ", firstSeenMillis=" + mFirstSeenMillis
+                + ", lastSeenMillis=" + mLastSeenMillis + "}";
+    }
+
+    /**
+     * Builder class for {@link DiscoveredDevice}.
+     */
+    public static final class Builder {
+
+        private BluetoothClass mBluetoothClass;
+        private final BluetoothDevice mDevice;
+        private long mFirstSeenMillis;
+        private long mLastSeenMillis;
+        private String mName;
+        private int mRssi = RSSI_UNAVAILABLE;
+        private Set<UUID> mServiceUuids;
+
+        /**
+         * Create a builder instance for the provided device, with no class,
+         * name, signal strength or service UUIDs and both timestamps set to
+         * zero.
+         *
+         * @param device discovered.
+         */
+        public Builder(@NonNull BluetoothDevice device) {
+            mDevice = device;
+        }
+
+        /**
+         * Create a builder instance initialised with the values of the
+         * provided discovered device.
+         *
+         * @param discoveredDevice to copy.
+         */
+        public Builder(@NonNull DiscoveredDevice discoveredDevice) {
+            mBluetoothClass = discoveredDevice.mBluetoothClass;
+            mDevice = discoveredDevice.mDevice;
+            mFirstSeenMillis = discoveredDevice.mFirstSeenMillis;
+            mLastSeenMillis = discoveredDevice.mLastSeenMillis;
+            mName = discoveredDevice.mName;
+            mRssi = discoveredDevice.mRssi;
+            mServiceUuids = discoveredDevice.mServiceUuids;
+        }
+
+        /**
+         * Set the class of the device.
+         *
+         * @param bluetoothClass of the device.
+         *
+         * @return builder instance.
+         */
+        public Builder setBluetoothClass(@Nullable BluetoothClass bluetoothClass) {
+            mBluetoothClass = bluetoothClass;
+            return this;
+        }
+
+        /**
+         * Set the time at which the device was first seen.
+         *
+         * @param firstSeenMillis time in milliseconds.
+         *
+         * @return builder instance.
+         */
+        public Builder setFirstSeenMillis(long firstSeenMillis) {
+            mFirstSeenMillis = firstSeenMillis;
+            return this;
+        }
+
+        /**
+         * Set the time at which the device was most recently seen.
+         *
+         * @param lastSeenMillis time in milliseconds.
+         *
+         * @return builder instance.
+         */
+        public Builder setLastSeenMillis(long lastSeenMillis) {
+            mLastSeenMillis = lastSeenMillis;
+            return this;
+        }
+
+        /**
+         * Set the friendly name of the device.
+         *
+         * @param name of the device.
+         *
+         * @return builder instance.
+         */
+        public Builder setName(@Nullable String name) {
+            mName = name;
+            return this;
+        }
+
+        /**
+         * Set the signal strength of the device.
+         *
+         * @param rssi in dBm, or {@link #RSSI_UNAVAILABLE}.
+         *
+         * @return builder instance.
+         */
+        public Builder setRssi(int rssi) {
+            mRssi = rssi;
+            return this;
+        }
+
+        /**
+         * Set the service UUIDs reported for the device.
+         *
+         * @param serviceUuids reported, or null if the services of the device
+         *                     have not been queried.
+         *
+         * @return builder instance.
+         */
+        public Builder setServiceUuids(@Nullable Set<UUID> serviceUuids) {
+            mServiceUuids = serviceUuids;
+            return this;
+        }
+
+        /**
+         * Create the discovered device instance with the set values.
+         *
+         * @return discovered device instance.
+         */
+        public DiscoveredDevice build() {
+            return new DiscoveredDevice(this);
+        }
+    }
+}
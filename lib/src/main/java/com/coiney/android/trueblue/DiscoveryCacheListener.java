@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.support.annotation.NonNull;
+
+/**
+ * <p>
+ * Listener interface which reports changes to the set of devices found by
+ * discovery scanning, as held in the discovery cache.
+ * </p>
+ *
+ * <p>
+ * Unlike {@link DiscoveryListener}, each device is only reported as added
+ * once, and is only reported as updated when its signal strength, class,
+ * name or service UUIDs change. Devices which have not been seen for longer
+ * than the cache's time to live are reported as removed. All methods are
+ * called on the main thread.
+ * </p>
+ */
+public interface DiscoveryCacheListener {
+
+    /**
+     * Called when a device not currently in the cache is discovered.
+     *
+     * @param discoveredDevice added.
+     */
+    void onDiscoveredDeviceAdded(@NonNull DiscoveredDevice discoveredDevice);
+
+    /**
+     * Called when a device already in the cache is discovered again with a
+     * different signal strength, class or name, or when a service discovery
+     * query reports different service UUIDs for it.
+     *
+     * @param discoveredDevice with the updated values.
+     */
+    void onDiscoveredDeviceUpdated(@NonNull DiscoveredDevice discoveredDevice);
+
+    /**
+     * Called when a device is evicted from the cache, having not been seen
+     * for longer than the time to live.
+     *
+     * @param discoveredDevice as last seen.
+     */
+    void onDiscoveredDeviceRemoved(@NonNull DiscoveredDevice discoveredDevice);
+}
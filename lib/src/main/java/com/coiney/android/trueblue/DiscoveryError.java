@@ -43,7 +43,9 @@ public enum DiscoveryError {
      *
      * <p>
      * This generally indicates that there is no
-     * Bluetooth hardware available.
+     * Bluetooth hardware available. It is also returned for Bluetooth LE
+     * scans when the API level is below 21, or when the hardware does not
+     * support a feature required by the scan.
      * </p>
      */
     BLUETOOTH_NOT_AVAILABLE,
@@ -61,6 +63,20 @@ public enum DiscoveryError {
      */
     COARSE_LOCATION_PERMISSION_REQUIRED,
 
+    /**
+     * <p>
+     * The request to start a Bluetooth LE scan failed because too many scans
+     * have been started recently.
+     * </p>
+     *
+     * <p>
+     * The system silently stops delivering results to applications which
+     * start scans too frequently, so starts are refused before that limit is
+     * reached. A new request should be made once some time has passed.
+     * </p>
+     */
+    SCAN_BUDGET_EXCEEDED,
+
     /**
      * <p>
      * The system indicated that it could not start a discovery scan.
@@ -34,7 +34,8 @@ public interface DiscoveryListener {
      *
      * <p>
      * Be aware that this method may be called with the same device multiple
-     * times in any given discovery scan.
+     * times in any given discovery scan. Register a {@link
+     * DiscoveryCacheListener} to receive each device only once.
      * </p>
      *
      * @param device discovered.
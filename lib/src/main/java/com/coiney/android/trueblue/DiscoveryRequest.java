@@ -0,0 +1,380 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.bluetooth.BluetoothClass;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.RequiresApi;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Describes which devices a discovery scan is looking for, and when it may
+ * stop.
+ * </p>
+ *
+ * <p>
+ * Filters are combined - a device must satisfy every filter which has been
+ * set in order to match. Devices which do not match are not reported to
+ * {@link DiscoveryListener}s while the scan is running. Filters are applied to
+ * the information merged across every sighting of the device, so a device
+ * whose name is only reported on a later sighting can still be matched by
+ * name.
+ * </p>
+ *
+ * <p>
+ * If required service UUIDs are set then devices which match every other
+ * filter have their services queried (via SDP) once the inquiry has finished,
+ * and are only reported if they advertise all of the required services. The
+ * scan is not reported as finished until the queries have completed. Query
+ * results are cached alongside the discovered device, so devices whose
+ * services are already known are not queried again.
+ * </p>
+ *
+ * <p>
+ * This class cannot be instantiated directly - instead, use an instance of
+ * the contained Builder class.
+ * </p>
+ */
+public final class DiscoveryRequest {
+
+    /**
+     * Value indicating that a filter on device class or major device class
+     * is not set.
+     */
+    public static final int ANY_CLASS = -1;
+
+    /**
+     * Default time to wait for the service query of a single device.
+     */
+    public static final long DEFAULT_SERVICE_QUERY_TIMEOUT_MILLIS = 10000;
+
+    private final Set<String> mAddresses;
+    private final int mDeviceClass;
+    private final int mMajorDeviceClass;
+    private final int mMaximumMatchCount;
+    private final int mMinimumRssi;
+    private final Pattern mNamePattern;
+    private final String mNamePrefix;
+    private final Set<UUID> mRequiredServiceUuids;
+    private final long mServiceQueryTimeoutMillis;
+
+    private DiscoveryRequest(@NonNull Builder builder) {
+        mAddresses = Collections.unmodifiableSet(new HashSet<>(builder.mAddresses));
+        mDeviceClass = builder.mDeviceClass;
+        mMajorDeviceClass = builder.mMajorDeviceClass;
+        mMaximumMatchCount = builder.mMaximumMatchCount;
+        mMinimumRssi = builder.mMinimumRssi;
+        mNamePattern = builder.mNamePattern;
+        mNamePrefix = builder.mNamePrefix;
+        mRequiredServiceUuids = Collections.unmodifiableSet(
+                new HashSet<>(builder.mRequiredServiceUuids));
+        mServiceQueryTimeoutMillis = builder.mServiceQueryTimeoutMillis;
+    }
+
+    /**
+     * Get the number of distinct matching devices after which the scan is
+     * stopped.
+     *
+     * @return maximum number of matches, or 0 if the scan runs to completion.
+     */
+    public int getMaximumMatchCount() {
+        return mMaximumMatchCount;
+    }
+
+    /**
+     * Get the service UUIDs which devices must advertise in order to match.
+     *
+     * @return unmodifiable set of required service UUIDs, which is empty if
+     *         there are none.
+     */
+    @NonNull
+    public Set<UUID> getRequiredServiceUuids() {
+        return mRequiredServiceUuids;
+    }
+
+    /**
+     * Get the time to wait for the service query of a single device.
+     *
+     * @return service query timeout in milliseconds.
+     */
+    public long getServiceQueryTimeoutMillis() {
+        return mServiceQueryTimeoutMillis;
+    }
+
+    /**
+     * Ask whether the provided discovered device satisfies every filter. A
+     * device whose services have not been queried never matches a request
+     * with required service UUIDs.
+     *
+     * @param discoveredDevice to check.
+     *
+     * @return flag indicating whether the device matches or not.
+     */
+    public boolean matches(@NonNull DiscoveredDevice discoveredDevice) {
+        if (!mRequiredServiceUuids.isEmpty()) {
+            final Set<UUID> serviceUuids = discoveredDevice.getServiceUuids();
+            if (null == serviceUuids || !serviceUuids.containsAll(mRequiredServiceUuids)) {
+                return false;
+            }
+        }
+        return matchesIgnoringServiceUuids(discoveredDevice);
+    }
+
+    /**
+     * Ask whether the provided discovered device satisfies every filter other
+     * than the required service UUIDs, i.e. whether its services are worth
+     * querying.
+     *
+     * @param discoveredDevice to check.
+     *
+     * @return flag indicating whether the device matches or not.
+     */
+    public boolean matchesIgnoringServiceUuids(@NonNull DiscoveredDevice discoveredDevice) {
+        if (!mAddresses.isEmpty() && !mAddresses.contains(
+                discoveredDevice.getAddress().toUpperCase(Locale.US))) {
+            return false;
+        }
+        if (mMinimumRssi != DiscoveredDevice.RSSI_UNAVAILABLE
+                && discoveredDevice.getRssi() < mMinimumRssi) {
+            return false;
+        }
+        if (mDeviceClass != ANY_CLASS || mMajorDeviceClass != ANY_CLASS) {
+            final BluetoothClass bluetoothClass = discoveredDevice.getBluetoothClass();
+            if (null == bluetoothClass) {
+                return false;
+            }
+            if (mDeviceClass != ANY_CLASS && bluetoothClass.getDeviceClass() != mDeviceClass) {
+                return false;
+            }
+            if (mMajorDeviceClass != ANY_CLASS
+                    && bluetoothClass.getMajorDeviceClass() != mMajorDeviceClass) {
+                return false;
+            }
+        }
+        if (mNamePrefix != null || mNamePattern != null) {
+            final String name = discoveredDevice.getName();
+            if (null == name) {
+                return false;
+            }
+            if (mNamePrefix != null && !name.startsWith(mNamePrefix)) {
+                return false;
+            }
+            if (mNamePattern != null && !mNamePattern.matcher(name).matches()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds {@link DiscoveryRequest} instances.
+     */
+    public static final class Builder {
+
+        private final Set<String> mAddresses = new HashSet<>();
+        private int mDeviceClass = ANY_CLASS;
+        private int mMajorDeviceClass = ANY_CLASS;
+        private int mMaximumMatchCount;
+        private int mMinimumRssi = DiscoveredDevice.RSSI_UNAVAILABLE;
+        private Pattern mNamePattern;
+        private String mNamePrefix;
+        private final Set<UUID> mRequiredServiceUuids = new HashSet<>();
+        private long mServiceQueryTimeoutMillis = DEFAULT_SERVICE_QUERY_TIMEOUT_MILLIS;
+
+        /**
+         * Create a builder instance with no filters set, which matches every
+         * device and runs the scan to completion.
+         */
+        public Builder() { /* Empty */ }
+
+        /**
+         * Create a builder instance initialised with the values of the
+         * provided request.
+         *
+         * @param request to copy.
+         */
+        public Builder(@NonNull DiscoveryRequest request) {
+            mAddresses.addAll(request.mAddresses);
+            mDeviceClass = request.mDeviceClass;
+            mMajorDeviceClass = request.mMajorDeviceClass;
+            mMaximumMatchCount = request.mMaximumMatchCount;
+            mMinimumRssi = request.mMinimumRssi;
+            mNamePattern = request.mNamePattern;
+            mNamePrefix = request.mNamePrefix;
+            mRequiredServiceUuids.addAll(request.mRequiredServiceUuids);
+            mServiceQueryTimeoutMillis = request.mServiceQueryTimeoutMillis;
+        }
+
+        /**
+         * Only match devices with one of the provided hardware addresses. An
+         * empty collection removes the filter.
+         *
+         * @param addresses to match, in any case.
+         *
+         * @return builder instance.
+         */
+        public Builder setAddresses(@NonNull Collection<String> addresses) {
+            mAddresses.clear();
+            for (String address : addresses) {
+                mAddresses.add(address.toUpperCase(Locale.US));
+            }
+            return this;
+        }
+
+        /**
+         * Only match devices with the provided device class.
+         *
+         * @param deviceClass as per {@link BluetoothClass.Device}, or {@link
+         *                    #ANY_CLASS}.
+         *
+         * @return builder instance.
+         */
+        public Builder setDeviceClass(int deviceClass) {
+            mDeviceClass = deviceClass;
+            return this;
+        }
+
+        /**
+         * Only match devices with the provided major device class.
+         *
+         * @param majorDeviceClass as per {@link BluetoothClass.Device.Major},
+         *                         or {@link #ANY_CLASS}.
+         *
+         * @return builder instance.
+         */
+        public Builder setMajorDeviceClass(int majorDeviceClass) {
+            mMajorDeviceClass = majorDeviceClass;
+            return this;
+        }
+
+        /**
+         * Stop the scan as soon as the provided number of distinct matching
+         * devices have been found.
+         *
+         * @param maximumMatchCount after which to stop, or 0 to run the scan
+         *                          to completion.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if maximumMatchCount is less than
+         *                                  zero.
+         */
+        public Builder setMaximumMatchCount(int maximumMatchCount) {
+            if (maximumMatchCount < 0) {
+                throw new IllegalArgumentException("Maximum match count must be at least 0.");
+            }
+            mMaximumMatchCount = maximumMatchCount;
+            return this;
+        }
+
+        /**
+         * Only match devices whose most recently reported signal strength is
+         * at least the provided value. Devices which did not report a signal
+         * strength never match.
+         *
+         * @param minimumRssi in dBm, or {@link DiscoveredDevice#RSSI_UNAVAILABLE}
+         *                    to remove the filter.
+         *
+         * @return builder instance.
+         */
+        public Builder setMinimumRssi(int minimumRssi) {
+            mMinimumRssi = minimumRssi;
+            return this;
+        }
+
+        /**
+         * Only match devices whose entire name matches the provided pattern.
+         *
+         * @param namePattern to match, or null to remove the filter.
+         *
+         * @return builder instance.
+         */
+        public Builder setNamePattern(@Nullable Pattern namePattern) {
+            mNamePattern = namePattern;
+            return this;
+        }
+
+        /**
+         * Only match devices whose name starts with the provided prefix.
+         *
+         * @param namePrefix to match (case sensitive), or null to remove the
+         *                   filter.
+         *
+         * @return builder instance.
+         */
+        public Builder setNamePrefix(@Nullable String namePrefix) {
+            mNamePrefix = namePrefix;
+            return this;
+        }
+
+        /**
+         * Only match devices which advertise all of the provided service
+         * UUIDs, as determined by querying their services once the inquiry
+         * has finished. An empty collection removes the filter.
+         *
+         * @param requiredServiceUuids to match.
+         *
+         * @return builder instance.
+         */
+        @RequiresApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
+        public Builder setRequiredServiceUuids(@NonNull Collection<UUID> requiredServiceUuids) {
+            mRequiredServiceUuids.clear();
+            mRequiredServiceUuids.addAll(requiredServiceUuids);
+            return this;
+        }
+
+        /**
+         * Set the time to wait for the service query of a single device,
+         * after which the device is not reported.
+         *
+         * @param serviceQueryTimeoutMillis to wait.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if serviceQueryTimeoutMillis is not
+         *                                  greater than zero.
+         */
+        public Builder setServiceQueryTimeoutMillis(long serviceQueryTimeoutMillis) {
+            if (serviceQueryTimeoutMillis <= 0) {
+                throw new IllegalArgumentException("Service query timeout must be greater " +
+                        "than 0.");
+            }
+            mServiceQueryTimeoutMillis = serviceQueryTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Create the discovery request instance with the set values.
+         *
+         * @return discovery request instance.
+         */
+        public DiscoveryRequest build() {
+            return new DiscoveryRequest(this);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * <p>
+ * Describes the duty cycle on which background discovery scans are run by
+ * {@link TrueBlue#startDiscoveryScheduler(DiscoverySchedule,
+ * DiscoverySchedulerListener)}.
+ * </p>
+ *
+ * <p>
+ * A scan is started once per interval and stopped after the scan window, so
+ * the planned duty cycle is the scan window divided by the interval. A
+ * scheduled scan is skipped (and retried shortly afterwards) while any
+ * connection attempt is in flight, or while the combined throughput of the
+ * open connections is above the throughput threshold, since discovery
+ * significantly reduces the bandwidth available to active links.
+ * </p>
+ *
+ * <p>
+ * This class cannot be instantiated directly - instead, use an instance of
+ * the contained Builder class.
+ * </p>
+ */
+public final class DiscoverySchedule {
+
+    private final int mAbsenceScanCount;
+    private final long mIntervalMillis;
+    private final DiscoveryRequest mRequest;
+    private final long mScanWindowMillis;
+    private final long mThroughputThresholdBytesPerSecond;
+
+    private DiscoverySchedule(@NonNull Builder builder) {
+        mAbsenceScanCount = builder.mAbsenceScanCount;
+        mIntervalMillis = builder.mIntervalMillis;
+        mRequest = builder.mRequest;
+        mScanWindowMillis = builder.mScanWindowMillis;
+        mThroughputThresholdBytesPerSecond = builder.mThroughputThresholdBytesPerSecond;
+    }
+
+    /**
+     * Get the number of consecutive completed scans a present device must be
+     * missing from before it is reported as absent.
+     *
+     * @return number of scans.
+     */
+    public int getAbsenceScanCount() {
+        return mAbsenceScanCount;
+    }
+
+    /**
+     * Get the time between the starts of consecutive scans.
+     *
+     * @return interval in milliseconds.
+     */
+    public long getIntervalMillis() {
+        return mIntervalMillis;
+    }
+
+    /**
+     * Get the request to run each scan with.
+     *
+     * @return discovery request, or null if every device is of interest.
+     */
+    @Nullable
+    public DiscoveryRequest getRequest() {
+        return mRequest;
+    }
+
+    /**
+     * Get the maximum duration of each scan.
+     *
+     * @return scan window in milliseconds.
+     */
+    public long getScanWindowMillis() {
+        return mScanWindowMillis;
+    }
+
+    /**
+     * Get the combined throughput of the open connections above which
+     * scheduled scans are skipped.
+     *
+     * @return throughput threshold in bytes per second.
+     */
+    public long getThroughputThresholdBytesPerSecond() {
+        return mThroughputThresholdBytesPerSecond;
+    }
+
+    /**
+     * Builds {@link DiscoverySchedule} instances.
+     */
+    public static final class Builder {
+
+        private static final int DEFAULT_ABSENCE_SCAN_COUNT = 2;
+        private static final long DEFAULT_INTERVAL_MILLIS = 60000;
+        // Long enough for a full inquiry (10.24 seconds) plus name requests.
+        private static final long DEFAULT_SCAN_WINDOW_MILLIS = 12000;
+        private static final long DEFAULT_THROUGHPUT_THRESHOLD_BYTES_PER_SECOND = 1024;
+
+        private int mAbsenceScanCount = DEFAULT_ABSENCE_SCAN_COUNT;
+        private long mIntervalMillis = DEFAULT_INTERVAL_MILLIS;
+        private DiscoveryRequest mRequest;
+        private long mScanWindowMillis = DEFAULT_SCAN_WINDOW_MILLIS;
+        private long mThroughputThresholdBytesPerSecond =
+                DEFAULT_THROUGHPUT_THRESHOLD_BYTES_PER_SECOND;
+
+        /**
+         * Create a builder instance with the default values - a 12 second
+         * scan every minute, skipped while connections are transferring more
+         * than 1 KiB/s, with devices reported absent after 2 missed scans.
+         */
+        public Builder() { /* Empty */ }
+
+        /**
+         * Set the number of consecutive completed scans a present device must
+         * be missing from before it is reported as absent.
+         *
+         * @param absenceScanCount number of scans.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if absenceScanCount is less than 1.
+         */
+        public Builder setAbsenceScanCount(int absenceScanCount) {
+            if (absenceScanCount < 1) {
+                throw new IllegalArgumentException("Absence scan count must be at least 1.");
+            }
+            mAbsenceScanCount = absenceScanCount;
+            return this;
+        }
+
+        /**
+         * Set the time between the starts of consecutive scans.
+         *
+         * @param intervalMillis in milliseconds.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if intervalMillis is not greater
+         *                                  than zero.
+         */
+        public Builder setIntervalMillis(long intervalMillis) {
+            if (intervalMillis <= 0) {
+                throw new IllegalArgumentException("Interval must be greater than 0.");
+            }
+            mIntervalMillis = intervalMillis;
+            return this;
+        }
+
+        /**
+         * Set the request to run each scan with. Any maximum number of matches
+         * set on the request still applies, so scans can finish well within
+         * the scan window.
+         *
+         * @param request to use, or null if every device is of interest.
+         *
+         * @return builder instance.
+         */
+        public Builder setRequest(@Nullable DiscoveryRequest request) {
+            mRequest = request;
+            return this;
+        }
+
+        /**
+         * Set the maximum duration of each scan.
+         *
+         * @param scanWindowMillis in milliseconds.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if scanWindowMillis is not greater
+         *                                  than zero.
+         */
+        public Builder setScanWindowMillis(long scanWindowMillis) {
+            if (scanWindowMillis <= 0) {
+                throw new IllegalArgumentException("Scan window must be greater than 0.");
+            }
+            mScanWindowMillis = scanWindowMillis;
+            return this;
+        }
+
+        /**
+         * Set the combined throughput of the open connections above which
+         * scheduled scans are skipped.
+         *
+         * @param throughputThresholdBytesPerSecond in bytes per second.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if throughputThresholdBytesPerSecond
+         *                                  is less than zero.
+         */
+        public Builder setThroughputThresholdBytesPerSecond(
+                long throughputThresholdBytesPerSecond) {
+            if (throughputThresholdBytesPerSecond < 0) {
+                throw new IllegalArgumentException("Throughput threshold must be at least 0.");
+            }
+            mThroughputThresholdBytesPerSecond = throughputThresholdBytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Create the discovery schedule instance with the set values.
+         *
+         * @return discovery schedule instance.
+         *
+         * @throws IllegalStateException if the scan window is longer than the
+         *                               interval.
+         */
+        public DiscoverySchedule build() {
+            if (mScanWindowMillis > mIntervalMillis) {
+                throw new IllegalStateException("Scan window must not be longer than the " +
+                        "interval.");
+            }
+            return new DiscoverySchedule(this);
+        }
+    }
+}
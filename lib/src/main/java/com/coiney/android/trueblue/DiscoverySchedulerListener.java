@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Listener interface which reports device presence changes and scan budget
+ * usage for the discovery scheduler. All methods are called on the main
+ * thread.
+ */
+public interface DiscoverySchedulerListener {
+
+    /**
+     * Called when a device which was not present is found by a scheduled
+     * scan.
+     *
+     * @param discoveredDevice which is now present.
+     */
+    void onDevicePresent(@NonNull DiscoveredDevice discoveredDevice);
+
+    /**
+     * Called when a present device has not been found by the configured
+     * number of consecutive scheduled scans.
+     *
+     * @param discoveredDevice as last seen.
+     */
+    void onDeviceAbsent(@NonNull DiscoveredDevice discoveredDevice);
+
+    /**
+     * Called after each scheduled scan completes or is skipped.
+     *
+     * @param usage of the scan budget so far.
+     */
+    void onScanBudgetUsageChanged(@NonNull ScanBudgetUsage usage);
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.UUID;
+
+/**
+ * <p>
+ * A client for a Bluetooth LE device's GATT server, as connected to via
+ * {@link TrueBlue#connectGatt(BluetoothDevice, GattClient.Callback)}.
+ * </p>
+ *
+ * <p>
+ * The Android GATT implementation only permits one operation to be
+ * outstanding at a time, so every operation is queued and carried out in
+ * order, with the next one started as soon as the previous one completes
+ * rather than waiting for the caller to react. Operations may be queued
+ * before the client is ready - they are started once the connection is
+ * established and the device's services have been discovered.
+ * </p>
+ *
+ * <p>
+ * Writes without response which are larger than the current MTU allows are
+ * split into chunks, each of which is sent as soon as the stack reports that
+ * the previous one has been accepted. Negotiating a larger MTU via {@link
+ * #requestMtu(int)} and requesting high connection priority via {@link
+ * #requestConnectionPriority(int)} both increase throughput considerably.
+ * </p>
+ *
+ * <p>
+ * The results of operations are reported via {@link Callback}. Note that all
+ * of the methods in the callback interface will be called from worker
+ * threads.
+ * </p>
+ */
+public interface GattClient {
+
+    /**
+     * The default ATT MTU, used until a larger one is negotiated.
+     */
+    int DEFAULT_MTU = 23;
+
+    /**
+     * Get the device the client is connected to.
+     *
+     * @return device.
+     */
+    @NonNull
+    BluetoothDevice getDevice();
+
+    /**
+     * Ask whether the client is open or not. A client is open from the moment
+     * it is created until it is closed, be it volitionally or due to the
+     * connection being lost.
+     *
+     * @return flag indicating whether the client is open or not.
+     */
+    boolean isOpen();
+
+    /**
+     * Ask whether the client is connected and has discovered the device's
+     * services, so that queued operations are being carried out.
+     *
+     * @return flag indicating whether the client is ready or not.
+     */
+    boolean isReady();
+
+    /**
+     * <p>
+     * Close the client, disconnecting from the device. Any queued operations
+     * are discarded.
+     * </p>
+     *
+     * <p>
+     * Upon completion the {@link Callback#onConnectionClosed(GattClient,
+     * boolean)} method will be called. Calling this method when the client
+     * has already been closed has no effect.
+     * </p>
+     */
+    void close();
+
+    /**
+     * Get the ATT MTU currently in use.
+     *
+     * @return MTU in bytes.
+     */
+    int getMtu();
+
+    /**
+     * Queue a read of the provided characteristic. The result is reported via
+     * {@link Callback#onCharacteristicRead(GattClient, UUID, byte[])}.
+     *
+     * @param serviceUuid of the service containing the characteristic.
+     * @param characteristicUuid of the characteristic to read.
+     *
+     * @throws IllegalStateException if the client has been closed.
+     */
+    void readCharacteristic(@NonNull UUID serviceUuid, @NonNull UUID characteristicUuid);
+
+    /**
+     * <p>
+     * Queue an acknowledged write of the provided data to the provided
+     * characteristic. The result is reported via {@link
+     * Callback#onCharacteristicWritten(GattClient, UUID, byte[])}.
+     * </p>
+     *
+     * <p>
+     * Note that for efficiency's sake the data provided is not copied. Do not
+     * modify the data after calling this method.
+     * </p>
+     *
+     * @param serviceUuid of the service containing the characteristic.
+     * @param characteristicUuid of the characteristic to write to.
+     * @param data to write, which must fit within the current MTU.
+     *
+     * @throws IllegalStateException if the client has been closed.
+     */
+    void writeCharacteristic(@NonNull UUID serviceUuid, @NonNull UUID characteristicUuid,
+            @NonNull byte[] data);
+
+    /**
+     * <p>
+     * Queue an unacknowledged write of the provided data to the provided
+     * characteristic. Data larger than the current MTU allows is split into
+     * chunks. The result is reported via {@link
+     * Callback#onCharacteristicWritten(GattClient, UUID, byte[])} once every
+     * chunk has been accepted by the stack.
+     * </p>
+     *
+     * <p>
+     * Note that for efficiency's sake the data provided is not copied. Do not
+     * modify the data after calling this method.
+     * </p>
+     *
+     * @param serviceUuid of the service containing the characteristic.
+     * @param characteristicUuid of the characteristic to write to.
+     * @param data to write.
+     *
+     * @throws IllegalStateException if the client has been closed.
+     */
+    void writeCharacteristicWithoutResponse(@NonNull UUID serviceUuid,
+            @NonNull UUID characteristicUuid, @NonNull byte[] data);
+
+    /**
+     * Queue enabling or disabling notifications for the provided
+     * characteristic. Notifications are reported via {@link
+     * Callback#onNotificationReceived(GattClient, UUID, byte[])}.
+     *
+     * @param serviceUuid of the service containing the characteristic.
+     * @param characteristicUuid of the characteristic.
+     * @param isEnabled or not.
+     *
+     * @throws IllegalStateException if the client has been closed.
+     */
+    void setNotificationsEnabled(@NonNull UUID serviceUuid, @NonNull UUID characteristicUuid,
+            boolean isEnabled);
+
+    /**
+     * Queue a request to negotiate the provided ATT MTU. The MTU actually
+     * agreed is reported via {@link Callback#onMtuChanged(GattClient, int)}.
+     * Requires API 21+ - on older versions the request fails.
+     *
+     * @param mtu to request, in bytes.
+     *
+     * @throws IllegalArgumentException if mtu is less than {@link
+     *                                  #DEFAULT_MTU}.
+     * @throws IllegalStateException if the client has been closed.
+     */
+    void requestMtu(int mtu);
+
+    /**
+     * Request a connection priority, which trades power consumption for
+     * latency and throughput. Unlike other operations, this takes effect
+     * immediately rather than being queued. Requires API 21+.
+     *
+     * @param connectionPriority as per {@link
+     *                           android.bluetooth.BluetoothGatt#requestConnectionPriority(int)}.
+     *
+     * @return flag indicating whether the request was accepted or not. Always
+     *         false below API 21, or if the client is not connected.
+     */
+    boolean requestConnectionPriority(int connectionPriority);
+
+    /**
+     * <p>
+     * Get a snapshot of the statistics gathered for the client.
+     * </p>
+     *
+     * <p>
+     * Characteristic reads and notifications count as reads, while
+     * characteristic writes of both kinds count as writes. Write latencies
+     * include the time spent waiting in the operation queue.
+     * </p>
+     *
+     * @return statistics snapshot.
+     */
+    @NonNull
+    ConnectionStats getStats();
+
+    /**
+     * Get the distribution of the time taken to complete operations of the
+     * provided type, in microseconds - from being queued to the stack
+     * reporting completion.
+     *
+     * @param operationType to get the latencies of.
+     *
+     * @return latency histogram.
+     */
+    @NonNull
+    ConnectionStats.Histogram getOperationLatencyHistogram(
+            @NonNull GattOperationType operationType);
+
+    /**
+     * Callback interface which reports the results of operations carried out
+     * by the client.
+     */
+    interface Callback {
+
+        /**
+         * Called when the client has connected and discovered the device's
+         * services, and is starting to carry out queued operations.
+         *
+         * @param client which is ready.
+         */
+        void onReady(@NonNull GattClient client);
+
+        /**
+         * Called when the client is closed.
+         *
+         * @param client which was closed.
+         * @param wasClosedByError or not (i.e. requested closure vs the
+         *                         connection failing or being lost).
+         */
+        void onConnectionClosed(@NonNull GattClient client, boolean wasClosedByError);
+
+        /**
+         * Called when a characteristic has been read.
+         *
+         * @param client which read the characteristic.
+         * @param characteristicUuid of the characteristic.
+         * @param data read.
+         */
+        void onCharacteristicRead(@NonNull GattClient client, @NonNull UUID characteristicUuid,
+                @NonNull byte[] data);
+
+        /**
+         * Called when data has been written to a characteristic, with or
+         * without response.
+         *
+         * @param client which wrote the data.
+         * @param characteristicUuid of the characteristic.
+         * @param data written.
+         */
+        void onCharacteristicWritten(@NonNull GattClient client,
+                @NonNull UUID characteristicUuid, @NonNull byte[] data);
+
+        /**
+         * Called when a notification is received for a characteristic.
+         *
+         * @param client which received the notification.
+         * @param characteristicUuid of the characteristic.
+         * @param data received.
+         */
+        void onNotificationReceived(@NonNull GattClient client,
+                @NonNull UUID characteristicUuid, @NonNull byte[] data);
+
+        /**
+         * Called when the ATT MTU has been negotiated.
+         *
+         * @param client which negotiated the MTU.
+         * @param mtu agreed, in bytes.
+         */
+        void onMtuChanged(@NonNull GattClient client, int mtu);
+
+        /**
+         * Called when an operation fails, be it because the stack refused to
+         * start it, the characteristic could not be found or the device
+         * reported an error.
+         *
+         * @param client which carried out the operation.
+         * @param operationType of the operation.
+         * @param characteristicUuid of the characteristic the operation
+         *                           related to, or null if none.
+         * @param status as per {@link android.bluetooth.BluetoothGatt}.
+         */
+        void onOperationFailed(@NonNull GattClient client,
+                @NonNull GattOperationType operationType, @Nullable UUID characteristicUuid,
+                int status);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+/**
+ * Represents the type of an operation carried out by a {@link GattClient}.
+ */
+public enum GattOperationType {
+
+    /**
+     * Reading the value of a characteristic.
+     */
+    READ_CHARACTERISTIC,
+
+    /**
+     * Writing the value of a characteristic, with the remote device
+     * acknowledging the write.
+     */
+    WRITE_CHARACTERISTIC,
+
+    /**
+     * Writing the value of a characteristic without the remote device
+     * acknowledging the write.
+     */
+    WRITE_CHARACTERISTIC_WITHOUT_RESPONSE,
+
+    /**
+     * Enabling or disabling notifications for a characteristic, which writes
+     * its client characteristic configuration descriptor.
+     */
+    SET_NOTIFICATIONS_ENABLED,
+
+    /**
+     * Negotiating the ATT MTU with the remote device.
+     */
+    REQUEST_MTU
+}
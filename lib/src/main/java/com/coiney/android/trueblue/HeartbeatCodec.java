@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.support.annotation.NonNull;
+
+/**
+ * <p>
+ * Encodes the pings sent, and recognises the pongs received, by a {@link
+ * ConnectionClient} heartbeat (see {@link HeartbeatConfiguration}).
+ * </p>
+ *
+ * <p>
+ * Each ping carries a sequence number which the remote device must echo in
+ * its pong, so that round trip times can be measured. Pongs are recognised
+ * per read, so should be short enough to be received in a single read - a
+ * pong which is split across reads or combined with other data is passed on
+ * as ordinary data, but still counts as a sign of life. Methods are called on
+ * the main thread and the read thread respectively, so must be thread safe.
+ * </p>
+ */
+public interface HeartbeatCodec {
+
+    /**
+     * Value returned by {@link #decodePong(byte[])} for data which is not a
+     * pong.
+     */
+    int NOT_A_PONG = -1;
+
+    /**
+     * Encode a ping.
+     *
+     * @param sequenceNumber to carry, which is never negative.
+     *
+     * @return ping data to write.
+     */
+    @NonNull
+    byte[] encodePing(int sequenceNumber);
+
+    /**
+     * Attempt to decode a pong from data read from the connection.
+     *
+     * @param data read from the connection.
+     *
+     * @return sequence number carried by the pong, or {@link #NOT_A_PONG} if
+     *         the data is not a pong, in which case it is passed on via
+     *         {@link ConnectionClient.Callback#onDataRead(ConnectionClient,
+     *         byte[])}.
+     */
+    int decodePong(@NonNull byte[] data);
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.support.annotation.NonNull;
+
+/**
+ * <p>
+ * Describes a heartbeat for a {@link ConnectionClient}, as passed to {@link
+ * ConnectionClients#wrap(Connection, int, HeartbeatConfiguration,
+ * ConnectionClient.Callback)}.
+ * </p>
+ *
+ * <p>
+ * A stream socket gives no indication that the remote device has hung while
+ * the link stays up - reads simply block forever. Once reading has started,
+ * the client writes a ping every interval. Any data read (not only pongs)
+ * shows that the remote device is alive. If nothing is read for the missed
+ * heartbeat threshold number of consecutive intervals, the connection is
+ * closed by error. The round trip time of each ping is recorded in {@link
+ * ConnectionStats#getRoundTripTimeHistogram()}.
+ * </p>
+ *
+ * <p>
+ * This class cannot be instantiated directly - instead, use an instance of
+ * the contained Builder class.
+ * </p>
+ */
+public final class HeartbeatConfiguration {
+
+    private final HeartbeatCodec mCodec;
+    private final long mIntervalMillis;
+    private final int mMissedHeartbeatThreshold;
+
+    private HeartbeatConfiguration(@NonNull Builder builder) {
+        mCodec = builder.mCodec;
+        mIntervalMillis = builder.mIntervalMillis;
+        mMissedHeartbeatThreshold = builder.mMissedHeartbeatThreshold;
+    }
+
+    /**
+     * Get the codec with which pings are encoded and pongs decoded.
+     *
+     * @return heartbeat codec.
+     */
+    @NonNull
+    public HeartbeatCodec getCodec() {
+        return mCodec;
+    }
+
+    /**
+     * Get the interval between pings.
+     *
+     * @return interval in milliseconds.
+     */
+    public long getIntervalMillis() {
+        return mIntervalMillis;
+    }
+
+    /**
+     * Get the number of consecutive intervals in which nothing may be read
+     * before the connection is closed by error.
+     *
+     * @return missed heartbeat threshold.
+     */
+    public int getMissedHeartbeatThreshold() {
+        return mMissedHeartbeatThreshold;
+    }
+
+    /**
+     * Builds {@link HeartbeatConfiguration} instances.
+     */
+    public static final class Builder {
+
+        private static final long DEFAULT_INTERVAL_MILLIS = 1000;
+        private static final int DEFAULT_MISSED_HEARTBEAT_THRESHOLD = 3;
+
+        private final HeartbeatCodec mCodec;
+        private long mIntervalMillis = DEFAULT_INTERVAL_MILLIS;
+        private int mMissedHeartbeatThreshold = DEFAULT_MISSED_HEARTBEAT_THRESHOLD;
+
+        /**
+         * Create a builder instance with the default values - a ping every
+         * second, closing the connection after 3 missed heartbeats, so that a
+         * hung remote device is detected within 3 to 4 seconds.
+         *
+         * @param codec with which to encode pings and decode pongs.
+         */
+        public Builder(@NonNull HeartbeatCodec codec) {
+            mCodec = codec;
+        }
+
+        /**
+         * Set the interval between pings.
+         *
+         * @param intervalMillis interval in milliseconds.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if intervalMillis is less than 1.
+         */
+        public Builder setIntervalMillis(long intervalMillis) {
+            if (intervalMillis < 1) {
+                throw new IllegalArgumentException("Interval must be at least 1 ms.");
+            }
+            mIntervalMillis = intervalMillis;
+            return this;
+        }
+
+        /**
+         * Set the number of consecutive intervals in which nothing may be
+         * read before the connection is closed by error.
+         *
+         * @param missedHeartbeatThreshold missed heartbeat threshold.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if missedHeartbeatThreshold is
+         *                                  less than 1.
+         */
+        public Builder setMissedHeartbeatThreshold(int missedHeartbeatThreshold) {
+            if (missedHeartbeatThreshold < 1) {
+                throw new IllegalArgumentException(
+                        "Missed heartbeat threshold must be at least 1.");
+            }
+            mMissedHeartbeatThreshold = missedHeartbeatThreshold;
+            return this;
+        }
+
+        /**
+         * Create the heartbeat configuration instance with the set values.
+         *
+         * @return heartbeat configuration instance.
+         */
+        public HeartbeatConfiguration build() {
+            return new HeartbeatConfiguration(this);
+        }
+    }
+}
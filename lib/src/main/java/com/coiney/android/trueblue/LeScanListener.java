@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * Listener interface which provides events related to Bluetooth LE scanning.
+ * All methods are called on the main thread.
+ */
+public interface LeScanListener {
+
+    /**
+     * <p>
+     * Called with a batch of devices which have been seen for the first time
+     * during the scan, or whose smoothed signal strength, name or advertised
+     * services have changed since they were last reported.
+     * </p>
+     *
+     * <p>
+     * Each device appears at most once per batch. Signal strengths are
+     * smoothed, so {@link DiscoveredDevice#getRssi()} will differ from the
+     * most recent advertisement's.
+     * </p>
+     *
+     * @param discoveredDevices found or updated.
+     */
+    void onLeDevicesDiscovered(@NonNull List<DiscoveredDevice> discoveredDevices);
+
+    /**
+     * Called when an LE scan has stopped, either on request or because of an
+     * error.
+     *
+     * @param error which stopped the scan, or null if it was stopped on
+     *              request.
+     */
+    void onLeScanStopped(@Nullable DiscoveryError error);
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.bluetooth.le.ScanSettings;
+import android.support.annotation.NonNull;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * <p>
+ * Describes which devices a Bluetooth LE scan is looking for, and how results
+ * are delivered.
+ * </p>
+ *
+ * <p>
+ * Address and service UUID filters are offloaded to the controller where the
+ * hardware supports it, so advertisers which do not match never wake the
+ * application. A device matches if it has one of the addresses (if any are
+ * set) and advertises one of the service UUIDs (if any are set).
+ * </p>
+ *
+ * <p>
+ * Each advertisement's signal strength is smoothed with an exponentially
+ * weighted moving average, and a device is only reported again once its
+ * smoothed signal strength has moved by at least the change threshold (or its
+ * name or advertised services have changed). Devices whose smoothed signal
+ * strength is below the minimum are not reported at all. Results are
+ * delivered in batches at most once per report delay, which is carried out in
+ * the controller where supported.
+ * </p>
+ *
+ * <p>
+ * This class cannot be instantiated directly - instead, use an instance of
+ * the contained Builder class.
+ * </p>
+ */
+public final class LeScanRequest {
+
+    /**
+     * Default time over which results are batched before being reported.
+     */
+    public static final long DEFAULT_REPORT_DELAY_MILLIS = 1000;
+
+    /**
+     * Default change in smoothed signal strength, in dBm, required for a
+     * device to be reported again.
+     */
+    public static final int DEFAULT_RSSI_CHANGE_THRESHOLD = 3;
+
+    /**
+     * Default weight given to each new signal strength reading when smoothing.
+     */
+    public static final double DEFAULT_RSSI_SMOOTHING_FACTOR = 0.25;
+
+    private final Set<String> mAddresses;
+    private final int mMinimumRssi;
+    private final long mReportDelayMillis;
+    private final int mRssiChangeThreshold;
+    private final double mRssiSmoothingFactor;
+    private final int mScanMode;
+    private final Set<UUID> mServiceUuids;
+
+    private LeScanRequest(@NonNull Builder builder) {
+        mAddresses = Collections.unmodifiableSet(new HashSet<>(builder.mAddresses));
+        mMinimumRssi = builder.mMinimumRssi;
+        mReportDelayMillis = builder.mReportDelayMillis;
+        mRssiChangeThreshold = builder.mRssiChangeThreshold;
+        mRssiSmoothingFactor = builder.mRssiSmoothingFactor;
+        mScanMode = builder.mScanMode;
+        mServiceUuids = Collections.unmodifiableSet(new HashSet<>(builder.mServiceUuids));
+    }
+
+    /**
+     * Get the hardware addresses of the devices to match.
+     *
+     * @return unmodifiable set of upper case addresses, which is empty if the
+     *         filter is not set.
+     */
+    @NonNull
+    public Set<String> getAddresses() {
+        return mAddresses;
+    }
+
+    /**
+     * Get the smoothed signal strength below which devices are not reported.
+     *
+     * @return minimum signal strength in dBm, or {@link
+     *         DiscoveredDevice#RSSI_UNAVAILABLE} if the filter is not set.
+     */
+    public int getMinimumRssi() {
+        return mMinimumRssi;
+    }
+
+    /**
+     * Get the time over which results are batched before being reported.
+     *
+     * @return report delay in milliseconds, or 0 to report results as soon as
+     *         they are received.
+     */
+    public long getReportDelayMillis() {
+        return mReportDelayMillis;
+    }
+
+    /**
+     * Get the change in smoothed signal strength required for a device to be
+     * reported again.
+     *
+     * @return change threshold in dBm.
+     */
+    public int getRssiChangeThreshold() {
+        return mRssiChangeThreshold;
+    }
+
+    /**
+     * Get the weight given to each new signal strength reading when
+     * smoothing.
+     *
+     * @return smoothing factor, where 1 disables smoothing.
+     */
+    public double getRssiSmoothingFactor() {
+        return mRssiSmoothingFactor;
+    }
+
+    /**
+     * Get the scan mode, which trades latency against power consumption.
+     *
+     * @return scan mode as per {@link ScanSettings}.
+     */
+    public int getScanMode() {
+        return mScanMode;
+    }
+
+    /**
+     * Get the service UUIDs of the devices to match.
+     *
+     * @return unmodifiable set of service UUIDs, which is empty if the filter
+     *         is not set.
+     */
+    @NonNull
+    public Set<UUID> getServiceUuids() {
+        return mServiceUuids;
+    }
+
+    /**
+     * Builds {@link LeScanRequest} instances.
+     */
+    public static final class Builder {
+
+        private final Set<String> mAddresses = new HashSet<>();
+        private int mMinimumRssi = DiscoveredDevice.RSSI_UNAVAILABLE;
+        private long mReportDelayMillis = DEFAULT_REPORT_DELAY_MILLIS;
+        private int mRssiChangeThreshold = DEFAULT_RSSI_CHANGE_THRESHOLD;
+        private double mRssiSmoothingFactor = DEFAULT_RSSI_SMOOTHING_FACTOR;
+        private int mScanMode = ScanSettings.SCAN_MODE_BALANCED;
+        private final Set<UUID> mServiceUuids = new HashSet<>();
+
+        /**
+         * Create a builder instance with no filters set and the default
+         * delivery settings.
+         */
+        public Builder() { /* Empty */ }
+
+        /**
+         * Create a builder instance initialised with the values of the
+         * provided request.
+         *
+         * @param request to copy.
+         */
+        public Builder(@NonNull LeScanRequest request) {
+            mAddresses.addAll(request.mAddresses);
+            mMinimumRssi = request.mMinimumRssi;
+            mReportDelayMillis = request.mReportDelayMillis;
+            mRssiChangeThreshold = request.mRssiChangeThreshold;
+            mRssiSmoothingFactor = request.mRssiSmoothingFactor;
+            mScanMode = request.mScanMode;
+            mServiceUuids.addAll(request.mServiceUuids);
+        }
+
+        /**
+         * Only match devices with one of the provided hardware addresses. An
+         * empty collection removes the filter.
+         *
+         * @param addresses to match, in any case.
+         *
+         * @return builder instance.
+         */
+        public Builder setAddresses(@NonNull Collection<String> addresses) {
+            mAddresses.clear();
+            for (String address : addresses) {
+                mAddresses.add(address.toUpperCase(Locale.US));
+            }
+            return this;
+        }
+
+        /**
+         * Only report devices whose smoothed signal strength is at least the
+         * provided value.
+         *
+         * @param minimumRssi in dBm, or {@link DiscoveredDevice#RSSI_UNAVAILABLE}
+         *                    to remove the filter.
+         *
+         * @return builder instance.
+         */
+        public Builder setMinimumRssi(int minimumRssi) {
+            mMinimumRssi = minimumRssi;
+            return this;
+        }
+
+        /**
+         * Set the time over which results are batched before being reported.
+         *
+         * @param reportDelayMillis to batch for, or 0 to report results as
+         *                          soon as they are received.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if reportDelayMillis is less than
+         *                                  zero.
+         */
+        public Builder setReportDelayMillis(long reportDelayMillis) {
+            if (reportDelayMillis < 0) {
+                throw new IllegalArgumentException("Report delay must be at least 0.");
+            }
+            mReportDelayMillis = reportDelayMillis;
+            return this;
+        }
+
+        /**
+         * Set the change in smoothed signal strength required for a device to
+         * be reported again.
+         *
+         * @param rssiChangeThreshold in dBm, or 0 to report every change.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if rssiChangeThreshold is less than
+         *                                  zero.
+         */
+        public Builder setRssiChangeThreshold(int rssiChangeThreshold) {
+            if (rssiChangeThreshold < 0) {
+                throw new IllegalArgumentException("RSSI change threshold must be at least 0.");
+            }
+            mRssiChangeThreshold = rssiChangeThreshold;
+            return this;
+        }
+
+        /**
+         * Set the weight given to each new signal strength reading when
+         * smoothing. Lower values smooth more heavily, but track movement
+         * more slowly.
+         *
+         * @param rssiSmoothingFactor greater than 0 and at most 1, where 1
+         *                            disables smoothing.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if rssiSmoothingFactor is not
+         *                                  greater than 0 and at most 1.
+         */
+        public Builder setRssiSmoothingFactor(double rssiSmoothingFactor) {
+            if (!(rssiSmoothingFactor > 0 && rssiSmoothingFactor <= 1)) {
+                throw new IllegalArgumentException("RSSI smoothing factor must be greater than " +
+                        "0 and at most 1.");
+            }
+            mRssiSmoothingFactor = rssiSmoothingFactor;
+            return this;
+        }
+
+        /**
+         * Set the scan mode, which trades latency against power consumption.
+         *
+         * @param scanMode as per {@link ScanSettings} - {@link
+         *                 ScanSettings#SCAN_MODE_OPPORTUNISTIC} requires API
+         *                 23+.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if scanMode is not a valid scan
+         *                                  mode.
+         */
+        public Builder setScanMode(int scanMode) {
+            if (scanMode < ScanSettings.SCAN_MODE_OPPORTUNISTIC
+                    || scanMode > ScanSettings.SCAN_MODE_LOW_LATENCY) {
+                throw new IllegalArgumentException("Invalid scan mode: " + scanMode + ".");
+            }
+            mScanMode = scanMode;
+            return this;
+        }
+
+        /**
+         * Only match devices which advertise one of the provided service
+         * UUIDs. An empty collection removes the filter.
+         *
+         * @param serviceUuids to match.
+         *
+         * @return builder instance.
+         */
+        public Builder setServiceUuids(@NonNull Collection<UUID> serviceUuids) {
+            mServiceUuids.clear();
+            mServiceUuids.addAll(serviceUuids);
+            return this;
+        }
+
+        /**
+         * Create the LE scan request instance with the set values.
+         *
+         * @return LE scan request instance.
+         */
+        public LeScanRequest build() {
+            return new LeScanRequest(this);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+
+/**
+ * Listener interface which reports changes to the connection state of
+ * devices for each configured Bluetooth profile. Changes are reported as they
+ * are broadcast, when a profile proxy is bound (for devices which were
+ * already connected) and when Bluetooth is disabled (for devices which are
+ * thereby disconnected). All methods are called on the main thread.
+ */
+public interface ProfileConnectionListener {
+
+    /**
+     * Called when the connection state of a device for a profile has changed.
+     *
+     * @param profile whose connection state has changed.
+     * @param device whose connection state has changed.
+     * @param state the new connection state, as per {@link
+     *              android.bluetooth.BluetoothProfile#STATE_CONNECTED} and
+     *              friends.
+     */
+    void onProfileConnectionStateChanged(@NonNull ProfileType profile,
+            @NonNull BluetoothDevice device, int state);
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+/**
+ * Represents a Bluetooth profile whose connection state can be tracked, as
+ * configured via {@link TrueBlue#init(android.content.Context, String,
+ * java.util.Set)}.
+ */
+public enum ProfileType {
+
+    /**
+     * Advanced Audio Distribution Profile, used for streaming audio to
+     * headphones and speakers.
+     */
+    A2DP,
+
+    /**
+     * Headset and hands-free profiles, used for calls.
+     */
+    HEADSET,
+
+    /**
+     * Human Interface Device host profile, used for keyboards, mice, barcode
+     * scanners and the like.
+     */
+    HID_HOST
+}
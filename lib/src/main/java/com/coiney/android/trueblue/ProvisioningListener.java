@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+
+/**
+ * Listener interface which reports the progress of a provisioning run. All
+ * methods are called on the main thread.
+ */
+public interface ProvisioningListener {
+
+    /**
+     * Called when provisioning of a single device has completed, successfully
+     * or otherwise.
+     *
+     * @param device which was provisioned.
+     * @param status of the device.
+     * @param progress of the run, including this device.
+     */
+    void onDeviceProvisioned(@NonNull BluetoothDevice device, @NonNull ProvisioningStatus status,
+            @NonNull ProvisioningProgress progress);
+
+    /**
+     * Called when every device in the run has been provisioned, or the run
+     * has been cancelled.
+     *
+     * @param progress of the run.
+     */
+    void onProvisioningFinished(@NonNull ProvisioningProgress progress);
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+/**
+ * An immutable snapshot of the progress of a provisioning run.
+ */
+public final class ProvisioningProgress {
+
+    private final int mCompletedCount;
+    private final long mElapsedTimeMillis;
+    private final int mSucceededCount;
+    private final int mTotalCount;
+
+    /**
+     * Create a progress snapshot with the provided values.
+     *
+     * @param totalCount number of devices in the run.
+     * @param completedCount number of devices for which provisioning has
+     *                       completed, successfully or otherwise.
+     * @param succeededCount number of devices provisioned successfully.
+     * @param elapsedTimeMillis since the run was started.
+     */
+    public ProvisioningProgress(int totalCount, int completedCount, int succeededCount,
+            long elapsedTimeMillis) {
+        mCompletedCount = completedCount;
+        mElapsedTimeMillis = elapsedTimeMillis;
+        mSucceededCount = succeededCount;
+        mTotalCount = totalCount;
+    }
+
+    /**
+     * Get the number of devices in the run.
+     *
+     * @return number of devices.
+     */
+    public int getTotalCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * Get the number of devices for which provisioning has completed,
+     * successfully or otherwise.
+     *
+     * @return number of devices.
+     */
+    public int getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    /**
+     * Get the number of devices provisioned successfully - that is, with a
+     * status of {@link ProvisioningStatus#ALREADY_BONDED}, {@link
+     * ProvisioningStatus#BONDED} or {@link ProvisioningStatus#VERIFIED}.
+     *
+     * @return number of devices.
+     */
+    public int getSucceededCount() {
+        return mSucceededCount;
+    }
+
+    /**
+     * Get the number of devices for which provisioning failed or was
+     * cancelled.
+     *
+     * @return number of devices.
+     */
+    public int getFailedCount() {
+        return mCompletedCount - mSucceededCount;
+    }
+
+    /**
+     * Get the time elapsed since the run was started.
+     *
+     * @return elapsed time in milliseconds.
+     */
+    public long getElapsedTimeMillis() {
+        return mElapsedTimeMillis;
+    }
+
+    /**
+     * Get the throughput of the run so far.
+     *
+     * @return completed devices per minute.
+     */
+    public double getDevicesPerMinute() {
+        if (mElapsedTimeMillis <= 0) {
+            return 0;
+        }
+        return mCompletedCount * 60000.0 / mElapsedTimeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ProvisioningProgress{totalCount=" + mTotalCount
+                + ", completedCount=" + mCompletedCount
+                + ", succeededCount=" + mSucceededCount
+                + ", elapsedTimeMillis=" + mElapsedTimeMillis + "}";
+    }
+}
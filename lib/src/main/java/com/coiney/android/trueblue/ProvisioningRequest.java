@@ -0,0 +1,237 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Describes a set of devices to provision via {@link
+ * TrueBlue#startProvisioning(ProvisioningRequest, ProvisioningListener)}.
+ * </p>
+ *
+ * <p>
+ * Devices are paired with one at a time, in the order provided, since the
+ * system only shows one pairing dialog at a time. Pairing attempts which fail
+ * or time out are retried after a delay, up to the maximum number of attempts
+ * per device. If a verification configuration is set then each bonded device
+ * is also connected to and immediately disconnected from, to check that it
+ * can actually be used.
+ * </p>
+ *
+ * <p>
+ * This class cannot be instantiated directly - instead, use an instance of
+ * the contained Builder class.
+ * </p>
+ */
+public final class ProvisioningRequest {
+
+    private final List<BluetoothDevice> mDevices;
+    private final int mMaximumAttemptCount;
+    private final long mPairingTimeoutMillis;
+    private final long mRetryDelayMillis;
+    private final ConnectionAttemptConfiguration mVerificationConfiguration;
+
+    private ProvisioningRequest(@NonNull Builder builder) {
+        mDevices = Collections.unmodifiableList(new ArrayList<>(builder.mDevices.values()));
+        mMaximumAttemptCount = builder.mMaximumAttemptCount;
+        mPairingTimeoutMillis = builder.mPairingTimeoutMillis;
+        mRetryDelayMillis = builder.mRetryDelayMillis;
+        mVerificationConfiguration = builder.mVerificationConfiguration;
+    }
+
+    /**
+     * Get the devices to provision, in the order they will be provisioned.
+     *
+     * @return devices to provision.
+     */
+    @NonNull
+    public List<BluetoothDevice> getDevices() {
+        return mDevices;
+    }
+
+    /**
+     * Get the maximum number of pairing attempts to make with each device.
+     *
+     * @return maximum number of attempts.
+     */
+    public int getMaximumAttemptCount() {
+        return mMaximumAttemptCount;
+    }
+
+    /**
+     * Get the time to wait for the result of each pairing attempt before
+     * treating it as failed.
+     *
+     * @return pairing timeout in milliseconds.
+     */
+    public long getPairingTimeoutMillis() {
+        return mPairingTimeoutMillis;
+    }
+
+    /**
+     * Get the delay between a failed pairing attempt and the next attempt
+     * with the same device.
+     *
+     * @return retry delay in milliseconds.
+     */
+    public long getRetryDelayMillis() {
+        return mRetryDelayMillis;
+    }
+
+    /**
+     * Get the configuration to verify each bonded device with.
+     *
+     * @return verification configuration, or null if devices are not to be
+     *         verified.
+     */
+    @Nullable
+    public ConnectionAttemptConfiguration getVerificationConfiguration() {
+        return mVerificationConfiguration;
+    }
+
+    /**
+     * Builds {@link ProvisioningRequest} instances.
+     */
+    public static final class Builder {
+
+        private static final int DEFAULT_MAXIMUM_ATTEMPT_COUNT = 3;
+        private static final long DEFAULT_PAIRING_TIMEOUT_MILLIS = 60000;
+        private static final long DEFAULT_RETRY_DELAY_MILLIS = 2000;
+
+        // Keyed by address so that duplicates are dropped.
+        private final Map<String, BluetoothDevice> mDevices = new LinkedHashMap<>();
+        private int mMaximumAttemptCount = DEFAULT_MAXIMUM_ATTEMPT_COUNT;
+        private long mPairingTimeoutMillis = DEFAULT_PAIRING_TIMEOUT_MILLIS;
+        private long mRetryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+        private ConnectionAttemptConfiguration mVerificationConfiguration;
+
+        /**
+         * Create a builder instance for the provided devices with the default
+         * values - up to 3 pairing attempts per device, each given 60 seconds
+         * to complete and retried after 2 seconds, without verification.
+         * Duplicate devices are ignored.
+         *
+         * @param devices to provision.
+         *
+         * @throws IllegalArgumentException if devices is empty.
+         */
+        public Builder(@NonNull Collection<BluetoothDevice> devices) {
+            if (devices.isEmpty()) {
+                throw new IllegalArgumentException("At least one device must be provided.");
+            }
+            for (BluetoothDevice device : devices) {
+                if (!mDevices.containsKey(device.getAddress())) {
+                    mDevices.put(device.getAddress(), device);
+                }
+            }
+        }
+
+        /**
+         * Set the maximum number of pairing attempts to make with each device.
+         *
+         * @param maximumAttemptCount maximum number of attempts.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if maximumAttemptCount is less than
+         *                                  1.
+         */
+        public Builder setMaximumAttemptCount(int maximumAttemptCount) {
+            if (maximumAttemptCount < 1) {
+                throw new IllegalArgumentException("Maximum attempt count must be at least 1.");
+            }
+            mMaximumAttemptCount = maximumAttemptCount;
+            return this;
+        }
+
+        /**
+         * Set the time to wait for the result of each pairing attempt before
+         * treating it as failed. This should be long enough for the user to
+         * respond to the system pairing dialog.
+         *
+         * @param pairingTimeoutMillis in milliseconds.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if pairingTimeoutMillis is not
+         *                                  greater than zero.
+         */
+        public Builder setPairingTimeoutMillis(long pairingTimeoutMillis) {
+            if (pairingTimeoutMillis <= 0) {
+                throw new IllegalArgumentException("Pairing timeout must be greater than 0.");
+            }
+            mPairingTimeoutMillis = pairingTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Set the delay between a failed pairing attempt and the next attempt
+         * with the same device.
+         *
+         * @param retryDelayMillis in milliseconds.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if retryDelayMillis is less than
+         *                                  zero.
+         */
+        public Builder setRetryDelayMillis(long retryDelayMillis) {
+            if (retryDelayMillis < 0) {
+                throw new IllegalArgumentException("Retry delay must be at least 0.");
+            }
+            mRetryDelayMillis = retryDelayMillis;
+            return this;
+        }
+
+        /**
+         * Set the configuration to verify each bonded device with. Each device
+         * is connected to using this configuration, and disconnected from as
+         * soon as the connection succeeds. Devices which are already connected
+         * to are considered verified.
+         *
+         * @param verificationConfiguration to use, or null if devices are not
+         *                                  to be verified.
+         *
+         * @return builder instance.
+         */
+        public Builder setVerificationConfiguration(
+                @Nullable ConnectionAttemptConfiguration verificationConfiguration) {
+            mVerificationConfiguration = verificationConfiguration;
+            return this;
+        }
+
+        /**
+         * Create the provisioning request instance with the set values.
+         *
+         * @return provisioning request instance.
+         */
+        public ProvisioningRequest build() {
+            return new ProvisioningRequest(this);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+/**
+ * The outcome of provisioning a single device.
+ */
+public enum ProvisioningStatus {
+
+    /**
+     * The device was already bonded with, and verification was not requested.
+     */
+    ALREADY_BONDED,
+
+    /**
+     * The device was bonded with, and verification was not requested.
+     */
+    BONDED,
+
+    /**
+     * The device is bonded with (whether it already was or not), and a
+     * verification connection to it succeeded.
+     */
+    VERIFIED,
+
+    /**
+     * Every pairing attempt with the device failed or timed out.
+     */
+    PAIRING_FAILED,
+
+    /**
+     * The device is bonded with, but the verification connection to it failed.
+     */
+    VERIFICATION_FAILED,
+
+    /**
+     * Provisioning was cancelled before the device was provisioned.
+     */
+    CANCELLED
+}
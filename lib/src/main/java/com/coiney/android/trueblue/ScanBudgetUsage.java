@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+/**
+ * An immutable snapshot of how much time the discovery scheduler has spent
+ * scanning since it was started.
+ */
+public final class ScanBudgetUsage {
+
+    private final long mElapsedTimeMillis;
+    private final int mScanCount;
+    private final long mScanTimeMillis;
+    private final int mSkippedScanCount;
+
+    /**
+     * Create a usage snapshot with the provided values.
+     *
+     * @param scanCount number of scans completed.
+     * @param skippedScanCount number of scheduled scans skipped.
+     * @param scanTimeMillis total time spent scanning.
+     * @param elapsedTimeMillis since the scheduler was started.
+     */
+    public ScanBudgetUsage(int scanCount, int skippedScanCount, long scanTimeMillis,
+            long elapsedTimeMillis) {
+        mElapsedTimeMillis = elapsedTimeMillis;
+        mScanCount = scanCount;
+        mScanTimeMillis = scanTimeMillis;
+        mSkippedScanCount = skippedScanCount;
+    }
+
+    /**
+     * Get the number of scans completed.
+     *
+     * @return number of scans.
+     */
+    public int getScanCount() {
+        return mScanCount;
+    }
+
+    /**
+     * Get the number of scheduled scans which were skipped, either to yield to
+     * active connections or because another scan was already running.
+     *
+     * @return number of skipped scans.
+     */
+    public int getSkippedScanCount() {
+        return mSkippedScanCount;
+    }
+
+    /**
+     * Get the total time spent scanning.
+     *
+     * @return scan time in milliseconds.
+     */
+    public long getScanTimeMillis() {
+        return mScanTimeMillis;
+    }
+
+    /**
+     * Get the time elapsed since the scheduler was started.
+     *
+     * @return elapsed time in milliseconds.
+     */
+    public long getElapsedTimeMillis() {
+        return mElapsedTimeMillis;
+    }
+
+    /**
+     * Get the fraction of the elapsed time which has been spent scanning.
+     *
+     * @return actual duty cycle, between 0 and 1.
+     */
+    public double getDutyCycle() {
+        if (mElapsedTimeMillis <= 0) {
+            return 0;
+        }
+        return Math.min(1, (double) mScanTimeMillis / mElapsedTimeMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "ScanBudgetUsage{scanCount=" + mScanCount
+                + ", skippedScanCount=" + mSkippedScanCount
+                + ", scanTimeMillis=" + mScanTimeMillis
+                + ", elapsedTimeMillis=" + mElapsedTimeMillis + "}";
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+
+/**
+ * <p>
+ * Handle for a running Bluetooth server, as started via {@link
+ * TrueBlue#startServer(ServerConfiguration, ServerCallback)}.
+ * </p>
+ *
+ * <p>
+ * Accepted connections are managed in exactly the same way as outbound ones,
+ * so they are reported by {@link TrueBlue#isConnected(android.bluetooth.BluetoothDevice)}
+ * and to any registered {@link DeviceConnectionListener}, and may be closed
+ * via {@link TrueBlue#disconnect(android.bluetooth.BluetoothDevice)}.
+ * </p>
+ */
+public interface Server {
+
+    /**
+     * Value returned by {@link #getPsm()} when the server is not listening
+     * on an L2CAP channel.
+     */
+    int NO_PSM = -1;
+
+    /**
+     * Ask whether the server is accepting connections or not.
+     *
+     * @return flag indicating whether the server is running or not.
+     */
+    @AnyThread
+    boolean isRunning();
+
+    /**
+     * Stop accepting connections and remove the service record. Connections
+     * which were already accepted remain open. Has no effect if the server
+     * has already stopped.
+     */
+    @AnyThread
+    void stop();
+
+    /**
+     * Get the configuration the server was started with.
+     *
+     * @return server configuration.
+     */
+    @AnyThread
+    @NonNull
+    ServerConfiguration getConfiguration();
+
+    /**
+     * Get the PSM remote devices connect to, when the server is listening on
+     * an L2CAP channel (see {@link
+     * ServerConfiguration.Builder#setL2capPreferred(boolean)}).
+     *
+     * @return PSM, or {@link #NO_PSM} if the server registered an RFCOMM
+     *         service record instead.
+     */
+    @AnyThread
+    int getPsm();
+
+    /**
+     * Get the number of accepted connections which are currently open.
+     *
+     * @return client count.
+     */
+    @AnyThread
+    int getClientCount();
+
+    /**
+     * Get the number of connections admitted since the server started.
+     *
+     * @return accepted connection count.
+     */
+    @AnyThread
+    long getAcceptedConnectionCount();
+
+    /**
+     * Get the number of connections rejected since the server started.
+     *
+     * @return rejected connection count.
+     */
+    @AnyThread
+    long getRejectedConnectionCount();
+
+    /**
+     * Get the distribution of the time taken to admit each accepted
+     * connection, in microseconds - from the server socket returning it to
+     * the connection being registered and ready for use. This includes the
+     * time spent in {@link ServerCallback#shouldAcceptConnection(
+     * android.bluetooth.BluetoothDevice)}.
+     *
+     * @return accept latency histogram.
+     */
+    @AnyThread
+    @NonNull
+    ConnectionStats.Histogram getAcceptLatencyHistogram();
+}
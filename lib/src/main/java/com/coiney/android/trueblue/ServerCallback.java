@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+/**
+ * <p>
+ * Callback interface which decides whether inbound connections accepted by a
+ * {@link Server} are admitted, and reports the results.
+ * </p>
+ *
+ * <p>
+ * With the exception of {@link #shouldAcceptConnection(BluetoothDevice)},
+ * every method is called on the main thread.
+ * </p>
+ */
+public interface ServerCallback {
+
+    /**
+     * <p>
+     * Called when a device connects to the server, to decide whether the
+     * connection should be admitted or rejected. Devices are only offered
+     * while the server is below its maximum client count.
+     * </p>
+     *
+     * <p>
+     * This method is called on a worker thread so that it may block, for
+     * example to look the device up in a database, but the client slot it
+     * would occupy is held until it returns.
+     * </p>
+     *
+     * @param device which connected.
+     *
+     * @return flag indicating whether the connection should be admitted or
+     *         not.
+     */
+    @WorkerThread
+    boolean shouldAcceptConnection(@NonNull BluetoothDevice device);
+
+    /**
+     * Called when a connection has been admitted. The device is reported as
+     * connected to any registered {@link DeviceConnectionListener} before
+     * this is called.
+     *
+     * @param device which connected.
+     * @param connection to device.
+     */
+    void onConnectionAccepted(@NonNull BluetoothDevice device, @NonNull Connection connection);
+
+    /**
+     * Called when a connection has been rejected and closed.
+     *
+     * @param device which connected.
+     * @param reason the connection was rejected.
+     */
+    void onConnectionRejected(@NonNull BluetoothDevice device,
+            @NonNull ConnectionRejectionReason reason);
+
+    /**
+     * Called when the server stops accepting connections. Connections which
+     * were already accepted are not affected.
+     *
+     * @param wasStoppedByError or not (i.e. requested stop vs the server
+     *                          socket failing, such as when Bluetooth is
+     *                          turned off).
+     */
+    void onServerStopped(boolean wasStoppedByError);
+}
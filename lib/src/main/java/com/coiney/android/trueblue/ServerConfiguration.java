@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.RequiresApi;
+
+import java.util.UUID;
+
+/**
+ * <p>
+ * Describes a Bluetooth server to start via {@link
+ * TrueBlue#startServer(ServerConfiguration, ServerCallback)}.
+ * </p>
+ *
+ * <p>
+ * The server registers an RFCOMM service record with the provided name and
+ * UUID, and accepts inbound connections from remote devices until it is
+ * stopped. At most the maximum client count of accepted connections may be
+ * open at once - any further devices which connect are rejected.
+ * </p>
+ *
+ * <p>
+ * This class cannot be instantiated directly - instead, use an instance of
+ * the contained Builder class.
+ * </p>
+ */
+public final class ServerConfiguration {
+
+    private final boolean mIsL2capPreferred;
+    private final boolean mIsSecure;
+    private final int mMaximumClientCount;
+    private final String mServiceName;
+    private final UUID mServiceRecordUuid;
+
+    private ServerConfiguration(@NonNull Builder builder) {
+        mIsL2capPreferred = builder.mIsL2capPreferred;
+        mIsSecure = builder.mIsSecure;
+        mMaximumClientCount = builder.mMaximumClientCount;
+        mServiceName = builder.mServiceName;
+        mServiceRecordUuid = builder.mServiceRecordUuid;
+    }
+
+    /**
+     * Ask whether the server listens on an L2CAP channel where supported,
+     * rather than registering an RFCOMM service record.
+     *
+     * @return flag indicating whether L2CAP is preferred or not.
+     */
+    public boolean isL2capPreferred() {
+        return mIsL2capPreferred;
+    }
+
+    /**
+     * Ask whether the server accepts secure (authenticated and encrypted)
+     * connections or insecure ones.
+     *
+     * @return flag indicating whether the server is secure or not.
+     */
+    public boolean isSecure() {
+        return mIsSecure;
+    }
+
+    /**
+     * Get the maximum number of accepted connections which may be open at
+     * once.
+     *
+     * @return maximum client count.
+     */
+    public int getMaximumClientCount() {
+        return mMaximumClientCount;
+    }
+
+    /**
+     * Get the name of the service record to register.
+     *
+     * @return service name.
+     */
+    @NonNull
+    public String getServiceName() {
+        return mServiceName;
+    }
+
+    /**
+     * Get the UUID of the service record to register.
+     *
+     * @return service record UUID.
+     */
+    @NonNull
+    public UUID getServiceRecordUuid() {
+        return mServiceRecordUuid;
+    }
+
+    /**
+     * Builds {@link ServerConfiguration} instances.
+     */
+    public static final class Builder {
+
+        // A piconet has at most 7 active slaves.
+        private static final int DEFAULT_MAXIMUM_CLIENT_COUNT = 7;
+
+        private boolean mIsL2capPreferred;
+        private boolean mIsSecure = true;
+        private int mMaximumClientCount = DEFAULT_MAXIMUM_CLIENT_COUNT;
+        private final String mServiceName;
+        private final UUID mServiceRecordUuid;
+
+        /**
+         * Create a builder instance for the provided service with the default
+         * values - secure, accepting up to 7 clients at once.
+         *
+         * @param serviceName of the service record to register.
+         * @param serviceRecordUuid of the service record to register, which
+         *                          remote devices connect to.
+         */
+        public Builder(@NonNull String serviceName, @NonNull UUID serviceRecordUuid) {
+            mServiceName = serviceName;
+            mServiceRecordUuid = serviceRecordUuid;
+        }
+
+        /**
+         * Set the maximum number of accepted connections which may be open at
+         * once. Devices which connect while this many are open are rejected.
+         *
+         * @param maximumClientCount maximum client count.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if maximumClientCount is less than
+         *                                  1.
+         */
+        public Builder setMaximumClientCount(int maximumClientCount) {
+            if (maximumClientCount < 1) {
+                throw new IllegalArgumentException("Maximum client count must be at least 1.");
+            }
+            mMaximumClientCount = maximumClientCount;
+            return this;
+        }
+
+        /**
+         * <p>
+         * Set whether the server should listen on a Bluetooth LE L2CAP
+         * connection-oriented channel rather than registering an RFCOMM
+         * service record. L2CAP channels require API 29+ - on older versions
+         * the server falls back to RFCOMM.
+         * </p>
+         *
+         * <p>
+         * The channel's PSM is assigned dynamically and is available via
+         * {@link Server#getPsm()}, so must be advertised to remote devices
+         * (for example via a GATT characteristic). The default value if this
+         * is not set is false.
+         * </p>
+         *
+         * @param isL2capPreferred or not.
+         *
+         * @return builder instance.
+         */
+        public Builder setL2capPreferred(boolean isL2capPreferred) {
+            mIsL2capPreferred = isL2capPreferred;
+            return this;
+        }
+
+        /**
+         * <p>
+         * Set whether the server should accept secure (authenticated and
+         * encrypted) connections or insecure ones. Insecure connections
+         * require API 10+.
+         * </p>
+         *
+         * <p>
+         * The default value if this is not set is true.
+         * </p>
+         *
+         * @param isSecure or not.
+         *
+         * @return builder instance.
+         */
+        @RequiresApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+        public Builder setSecure(boolean isSecure) {
+            mIsSecure = isSecure;
+            return this;
+        }
+
+        /**
+         * Create the server configuration instance with the set values.
+         *
+         * @return server configuration instance.
+         */
+        public ServerConfiguration build() {
+            return new ServerConfiguration(this);
+        }
+    }
+}
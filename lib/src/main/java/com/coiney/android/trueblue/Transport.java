@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * <p>
+ * Creates the sockets over which connections to devices are made. The
+ * default transport uses RFCOMM sockets as provided by the Android Bluetooth
+ * subsystem, but alternatives can be set via {@link
+ * ConnectionAttemptConfiguration.Builder#setTransport(Transport)} - for
+ * example to connect to a device simulator over TCP instead.
+ * </p>
+ *
+ * <p>
+ * Everything above the transport - pairing, retries, connection management
+ * and connection clients - behaves identically regardless of which transport
+ * is in use. See {@link Transports} for the transports provided.
+ * </p>
+ */
+public interface Transport {
+
+    /**
+     * <p>
+     * Get the name of the transport, which is reported by {@link
+     * ConnectionStats#getTransportName()} and in dumps for every connection
+     * it creates.
+     * </p>
+     *
+     * <p>
+     * The name identifies the kind of transport (e.g. "rfcomm" or "tcp")
+     * rather than an instance of it, so should not include endpoint details
+     * such as addresses, ports or PSMs. This allows statistics to be grouped
+     * and compared by transport.
+     * </p>
+     *
+     * @return stable transport name.
+     */
+    @NonNull
+    String getName();
+
+    /**
+     * Create an unconnected socket for a connection to the provided device.
+     * This is called on a background thread once per connection attempt,
+     * including each retry.
+     *
+     * @param device to connect to.
+     * @param serviceRecordUuid of the service to connect to.
+     * @param isSecure flag indicating whether the connection should be secure.
+     *
+     * @return unconnected socket.
+     *
+     * @throws IOException if the socket cannot be created.
+     */
+    @NonNull
+    @WorkerThread
+    TransportSocket createSocket(@NonNull BluetoothDevice device,
+            @NonNull UUID serviceRecordUuid, boolean isSecure) throws IOException;
+}
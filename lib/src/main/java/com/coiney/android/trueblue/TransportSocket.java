@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * A socket created by a {@link Transport}, modelled on the Bluetooth socket.
+ * </p>
+ *
+ * <p>
+ * Implementations must allow {@link #close()} to be called from any thread at
+ * any time, and closing the socket must cause any blocked {@link #connect()},
+ * read or write to fail promptly with an exception - this is how connection
+ * attempts are cancelled and connections are closed.
+ * </p>
+ */
+public interface TransportSocket extends Closeable {
+
+    /**
+     * Connect the socket, blocking until the connection has either been
+     * established or failed.
+     *
+     * @throws IOException if the connection attempt fails or the socket is
+     *                     closed.
+     */
+    @WorkerThread
+    void connect() throws IOException;
+
+    /**
+     * Get the stream via which to read from the connected socket.
+     *
+     * @return input stream.
+     *
+     * @throws IOException if the stream cannot be obtained.
+     */
+    @NonNull
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * Get the stream via which to write to the connected socket.
+     *
+     * @return output stream.
+     *
+     * @throws IOException if the stream cannot be obtained.
+     */
+    @NonNull
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Close the socket, failing any operation which is blocked on it. Calling
+     * this method on a socket which is already closed has no effect.
+     *
+     * @throws IOException upon error.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.support.annotation.NonNull;
+
+import com.coiney.android.trueblue.internal.L2capTransport;
+import com.coiney.android.trueblue.internal.RfcommTransport;
+import com.coiney.android.trueblue.internal.TcpTransport;
+
+/**
+ * Contains factory methods for the provided {@link Transport}s.
+ */
+public final class Transports {
+
+    private Transports() {
+        throw new AssertionError("Instantiation is not supported.");
+    }
+
+    /**
+     * Get the transport which connects via RFCOMM sockets provided by the
+     * Android Bluetooth subsystem. This is the default transport.
+     *
+     * @return RFCOMM transport.
+     */
+    @NonNull
+    public static Transport rfcomm() {
+        return RfcommTransport.INSTANCE;
+    }
+
+    /**
+     * <p>
+     * Create a transport which connects via a Bluetooth LE L2CAP
+     * connection-oriented channel to the provided PSM, which avoids the
+     * overhead of RFCOMM and GATT for bulk data.
+     * </p>
+     *
+     * <p>
+     * L2CAP channels require API 29+. On older versions the transport falls
+     * back to RFCOMM, connecting to the service record UUID and honouring the
+     * security flag as per {@link #rfcomm()}, so the same configuration can be
+     * used everywhere. {@link ConnectionStats#getTransportName()} reports
+     * which was actually used.
+     * </p>
+     *
+     * @param psm the remote device is listening on, which is typically
+     *            assigned dynamically and advertised via GATT.
+     *
+     * @return L2CAP transport.
+     *
+     * @throws IllegalArgumentException if psm is not between 1 and 255.
+     */
+    @NonNull
+    public static Transport l2cap(int psm) {
+        // LE PSMs are a single octet.
+        if (psm < 1 || psm > 255) {
+            throw new IllegalArgumentException("PSM must be between 1 and 255.");
+        }
+        return new L2capTransport(psm);
+    }
+
+    /**
+     * <p>
+     * Create a transport which connects to the provided TCP endpoint instead
+     * of the device itself - for example a device simulator running on a
+     * desktop machine, accessed from the emulator via 10.0.2.2.
+     * </p>
+     *
+     * <p>
+     * Every device is connected to via the same endpoint, and the service
+     * record UUID and security flag are ignored. Apps using this transport
+     * require the INTERNET permission.
+     * </p>
+     *
+     * @param host to connect to.
+     * @param port to connect to.
+     * @param connectTimeoutMillis to wait for each connection attempt, or 0
+     *                             to wait indefinitely.
+     *
+     * @return TCP transport.
+     *
+     * @throws IllegalArgumentException if port is out of range or
+     *                                  connectTimeoutMillis is less than zero.
+     */
+    @NonNull
+    public static Transport tcp(@NonNull String host, int port, int connectTimeoutMillis) {
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Port must be between 0 and 65535.");
+        }
+        if (connectTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Connect timeout must be at least 0.");
+        }
+        return new TcpTransport(host, port, connectTimeoutMillis);
+    }
+}
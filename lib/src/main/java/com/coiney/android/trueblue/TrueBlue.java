@@ -20,24 +20,43 @@ package com.coiney.android.trueblue;
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.support.annotation.AnyThread;
 import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.coiney.android.trueblue.internal.AclMonitor;
 import com.coiney.android.trueblue.internal.AdapterManager;
 import com.coiney.android.trueblue.internal.BluetoothCompat;
 import com.coiney.android.trueblue.internal.BluetoothStatusMonitor;
+import com.coiney.android.trueblue.internal.ConnectionClientImpl;
 import com.coiney.android.trueblue.internal.ConnectionManager;
+import com.coiney.android.trueblue.internal.DisconnectAllOperationImpl;
 import com.coiney.android.trueblue.internal.DiscoveryManager;
+import com.coiney.android.trueblue.internal.DiscoveryScheduler;
+import com.coiney.android.trueblue.internal.DumpUtils;
+import com.coiney.android.trueblue.internal.GattManager;
+import com.coiney.android.trueblue.internal.LeScanManager;
 import com.coiney.android.trueblue.internal.Logger;
 import com.coiney.android.trueblue.internal.PairingMonitor;
+import com.coiney.android.trueblue.internal.ProfileManager;
+import com.coiney.android.trueblue.internal.Provisioner;
+import com.coiney.android.trueblue.internal.ServerManager;
+import com.coiney.android.trueblue.internal.TraceUtils;
 
 import net.jcip.annotations.ThreadSafe;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Executors;
 
@@ -85,17 +104,33 @@ public final class TrueBlue {
     private static final String DEFAULT_LOG_TAG = "TrueBlue";
 
     private static TrueBlue sInstance;
+    private static HandlerThread sReceiverThread;
 
     private final AdapterManager mAdapterManager;
     private final ConnectionManager mConnectionManager;
     private final DiscoveryManager mDiscoveryManager;
+    private final DiscoveryScheduler mDiscoveryScheduler;
+    private final GattManager mGattManager;
+    private final LeScanManager mLeScanManager;
+    private final Provisioner mProvisioner;
+    private final ServerManager mServerManager;
 
     private TrueBlue(@Nullable AdapterManager adapterManager,
             @Nullable ConnectionManager connectionManager,
-            @Nullable DiscoveryManager discoveryManager) {
+            @Nullable DiscoveryManager discoveryManager,
+            @Nullable DiscoveryScheduler discoveryScheduler,
+            @Nullable GattManager gattManager,
+            @Nullable LeScanManager leScanManager,
+            @Nullable Provisioner provisioner,
+            @Nullable ServerManager serverManager) {
         mAdapterManager = adapterManager;
         mConnectionManager = connectionManager;
         mDiscoveryManager = discoveryManager;
+        mDiscoveryScheduler = discoveryScheduler;
+        mGattManager = gattManager;
+        mLeScanManager = leScanManager;
+        mProvisioner = provisioner;
+        mServerManager = serverManager;
     }
 
     /**
@@ -150,6 +185,36 @@ public final class TrueBlue {
     @MainThread
     public static synchronized TrueBlue init(@NonNull Context context,
             @NonNull String logTag) {
+        return init(context, logTag, EnumSet.noneOf(ProfileType.class));
+    }
+
+    /**
+     * <p>
+     * As per {@link #init(Context, String)}, but also binds the proxies for
+     * the provided Bluetooth profiles so that their connection states can be
+     * queried (see {@link #getProfileConnectionState(ProfileType,
+     * BluetoothDevice)}).
+     * </p>
+     *
+     * <p>
+     * Binding a profile proxy is asynchronous and can take hundreds of
+     * milliseconds, so each proxy is bound once here, cached, and bound again
+     * whenever Bluetooth is re-enabled. Profile proxies require API 11+.
+     * </p>
+     *
+     * <p>
+     * This method should only be called on the main (UI) thread.
+     * </p>
+     *
+     * @param context to use to initialize the service.
+     * @param logTag to use when logging.
+     * @param profiles whose proxies should be bound. May be empty.
+     *
+     * @return service instance.
+     */
+    @MainThread
+    public static synchronized TrueBlue init(@NonNull Context context,
+            @NonNull String logTag, @NonNull Set<ProfileType> profiles) {
         final Logger logger = new Logger(logTag);
         logger.d("Starting TrueBlue v" + BuildConfig.VERSION_NAME + ".");
         final Context applicationContext = context.getApplicationContext();
@@ -157,28 +222,71 @@ public final class TrueBlue {
         final AdapterManager adapterManager;
         final ConnectionManager connectionManager;
         final DiscoveryManager discoveryManager;
+        final DiscoveryScheduler discoveryScheduler;
+        final GattManager gattManager;
+        final LeScanManager leScanManager;
+        final Provisioner provisioner;
+        final ServerManager serverManager;
         if (null == adapter) {
             logger.w("Bluetooth is not supported on this device - all service operations are " +
                     "no-ops.");
             adapterManager = null;
             connectionManager = null;
             discoveryManager = null;
+            discoveryScheduler = null;
+            gattManager = null;
+            leScanManager = null;
+            provisioner = null;
+            serverManager = null;
         } else {
+            final Handler receiverHandler = new Handler(getReceiverThread().getLooper());
             final BluetoothStatusMonitor bluetoothStatusMonitor =
-                    new BluetoothStatusMonitor(applicationContext);
-            adapterManager = new AdapterManager(adapter, bluetoothStatusMonitor, logger);
-            final PairingMonitor pairingMonitor = new PairingMonitor(applicationContext);
-            connectionManager = new ConnectionManager(adapterManager, pairingMonitor,
+                    new BluetoothStatusMonitor(applicationContext, receiverHandler);
+            final PairingMonitor pairingMonitor = new PairingMonitor(applicationContext,
+                    receiverHandler, logger);
+            final AclMonitor aclMonitor = new AclMonitor(applicationContext, receiverHandler);
+            final ProfileManager profileManager = new ProfileManager(adapter,
+                    applicationContext, receiverHandler, profiles, logger);
+            adapterManager = new AdapterManager(adapter, bluetoothStatusMonitor, pairingMonitor,
+                    profileManager, logger);
+            connectionManager = new ConnectionManager(adapterManager, pairingMonitor, aclMonitor,
                     Executors.newCachedThreadPool(), logger);
-            discoveryManager = new DiscoveryManager(adapterManager, applicationContext, logger);
+            discoveryManager = new DiscoveryManager(adapterManager, applicationContext,
+                    receiverHandler, logger);
+            discoveryScheduler = new DiscoveryScheduler(discoveryManager, connectionManager,
+                    logger);
+            gattManager = new GattManager(adapterManager, applicationContext, logger);
+            leScanManager = new LeScanManager(adapterManager, applicationContext,
+                    receiverHandler, logger);
+            provisioner = new Provisioner(adapterManager, connectionManager, pairingMonitor,
+                    logger);
+            serverManager = new ServerManager(adapterManager, connectionManager, logger);
+            // Start monitoring pairing first so that no bond state changes are
+            // missed while the adapter manager loads the bonded devices.
+            pairingMonitor.start();
             adapterManager.start();
+            connectionManager.start();
+            aclMonitor.start();
             discoveryManager.start();
-            pairingMonitor.start();
+            gattManager.start();
+            leScanManager.start();
         }
-        sInstance = new TrueBlue(adapterManager, connectionManager, discoveryManager);
+        sInstance = new TrueBlue(adapterManager, connectionManager, discoveryManager,
+                discoveryScheduler, gattManager, leScanManager, provisioner, serverManager);
         return sInstance;
     }
 
+    // The receiver thread is shared by every initialization, so that calling
+    // init more than once does not leak threads.
+    private static HandlerThread getReceiverThread() {
+        if (null == sReceiverThread) {
+            sReceiverThread = new HandlerThread("TrueBlue-ReceiverThread",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            sReceiverThread.start();
+        }
+        return sReceiverThread;
+    }
+
     /**
      * <p>
      * Obtain a previously initialized instance of the service.
@@ -361,9 +469,17 @@ public final class TrueBlue {
         }
     }
     /**
+     * <p>
      * Obtain the set of Bluetooth devices currently paired with the system.
+     * </p>
      *
-     * @return set of paired Bluetooth devices.
+     * <p>
+     * The set is cached and only refreshed when a bond state or Bluetooth
+     * adapter state change is broadcast, so this method is cheap enough to
+     * call from the UI.
+     * </p>
+     *
+     * @return immutable set of paired Bluetooth devices.
      */
     @AnyThread
     @NonNull
@@ -375,6 +491,30 @@ public final class TrueBlue {
         }
     }
 
+    /**
+     * <p>
+     * Obtain the Bluetooth devices currently paired with the system, along
+     * with their names and classes.
+     * </p>
+     *
+     * <p>
+     * As per {@link #getDeviceList()}, but the name and class of each device
+     * are read once when it is first paired (or when the library is
+     * initialized), so displaying them does not require an IPC per device.
+     * Register a {@link BondedDevicesListener} to be notified of changes.
+     * </p>
+     *
+     * @return immutable list of paired Bluetooth devices.
+     */
+    @AnyThread
+    @NonNull
+    public List<BondedDevice> getBondedDevices() {
+        if (null == mAdapterManager) {
+            return Collections.emptyList();
+        }
+        return mAdapterManager.getBondedDevices();
+    }
+
     // Device connection management
 
     /**
@@ -495,6 +635,7 @@ public final class TrueBlue {
      * <p>
      * NOTE: You must register a device connection listener before calling this
      * method if you wish to be notified of the actual disconnections.
+     * Alternatively, use {@link #disconnectAll(long, DisconnectAllCallback)}.
      * </p>
      */
     @AnyThread
@@ -504,6 +645,281 @@ public final class TrueBlue {
         }
     }
 
+    /**
+     * <p>
+     * Request that all connected Bluetooth devices be disconnected, reporting
+     * the result for each device once complete.
+     * </p>
+     *
+     * <p>
+     * Devices are disconnected in parallel in the background, so this method
+     * returns immediately. The operation completes once every device has been
+     * disconnected or the provided timeout elapses, whichever happens first,
+     * at which point the callback (if any) is called on the main thread.
+     * Devices which have not finished disconnecting by the deadline are
+     * reported as {@link DisconnectResult#TIMED_OUT}.
+     * </p>
+     *
+     * <p>
+     * Be aware that this operation will only disconnect devices for which
+     * connections are being managed at the time it is called. Any connect
+     * operations subsequently started will not be affected.
+     * </p>
+     *
+     * @param timeoutMillis after which the operation completes regardless.
+     *                      Must be greater than 0.
+     * @param callback to report completion to, if any.
+     *
+     * @return handle which can be used to query or wait for the results.
+     *
+     * @throws IllegalArgumentException if the timeout is not greater than 0.
+     */
+    @AnyThread
+    @NonNull
+    public DisconnectAllOperation disconnectAll(long timeoutMillis,
+            @Nullable DisconnectAllCallback callback) {
+        if (null == mConnectionManager) {
+            if (timeoutMillis <= 0) {
+                throw new IllegalArgumentException("Timeout must be greater than 0.");
+            }
+            return new DisconnectAllOperationImpl(Collections.<BluetoothDevice>emptySet(),
+                    callback);
+        }
+        return mConnectionManager.disconnectAll(timeoutMillis, callback);
+    }
+
+    /**
+     * <p>
+     * Set whether connections should be restored after Bluetooth is turned
+     * off and back on again. Disabled by default.
+     * </p>
+     *
+     * <p>
+     * Regardless of this setting, as soon as Bluetooth starts turning off all
+     * connections stop accepting data for writing, are given a short time to
+     * write any queued data, and are then closed. Any connection attempts in
+     * progress are cancelled. When enabled, each of these connections is
+     * re-attempted with its original configuration once Bluetooth turns back
+     * on, and reported to its original callback if that is still reachable.
+     * </p>
+     *
+     * @param shouldRestoreConnections or not.
+     */
+    @AnyThread
+    public void setShouldRestoreConnections(boolean shouldRestoreConnections) {
+        if (mConnectionManager != null) {
+            mConnectionManager.setShouldRestoreConnections(shouldRestoreConnections);
+        }
+    }
+
+    // Bluetooth LE
+
+    /**
+     * <p>
+     * Connect to the GATT server of the provided Bluetooth LE device. Requires
+     * API 18+.
+     * </p>
+     *
+     * <p>
+     * The client is returned immediately, and operations may be queued on it
+     * straight away - they are carried out once the connection is established
+     * and the device's services have been discovered, which is reported via
+     * {@link GattClient.Callback#onReady(GattClient)}. Only one client may be
+     * open per device at a time. Every client is closed as soon as Bluetooth
+     * starts turning off.
+     * </p>
+     *
+     * @param device to connect to.
+     * @param callback to report the results of operations to.
+     *
+     * @return GATT client, or null if Bluetooth is not supported, the API
+     *         level is below 18, a client is already open for the device or
+     *         the connection could not be started.
+     */
+    @AnyThread
+    @Nullable
+    public GattClient connectGatt(@NonNull BluetoothDevice device,
+            @NonNull GattClient.Callback callback) {
+        return (mGattManager != null) ? mGattManager.connect(device, callback) : null;
+    }
+
+    /**
+     * <p>
+     * Start a Bluetooth LE scan for the devices described by the provided
+     * request, first registering the provided listener to receive scan
+     * events. Requires API 21+.
+     * </p>
+     *
+     * <p>
+     * Advertisements are deduplicated by device, and each device is only
+     * reported again once its smoothed signal strength, name or advertised
+     * services change, so the scan scales to areas with hundreds of
+     * advertisers. Results are reported in batches, at most once per the
+     * request's report delay. The scan runs until stopped via {@link
+     * #stopLeScan()} or until Bluetooth turns off.
+     * </p>
+     *
+     * <p>
+     * The system silently throttles applications which start scans too
+     * frequently, so at most five scans may be started in any 30 seconds -
+     * further attempts return {@link DiscoveryError#SCAN_BUDGET_EXCEEDED}.
+     * </p>
+     *
+     * <p>
+     * Remember to call {@link #unregisterLeScanListener(LeScanListener)} when
+     * scan events are no longer required.
+     * </p>
+     *
+     * @param request describing the devices to find.
+     * @param listener to provide scan events to.
+     *
+     * @return discovery error which prevented the scan starting, or null.
+     */
+    @AnyThread
+    public DiscoveryError startLeScan(@NonNull LeScanRequest request,
+            @NonNull LeScanListener listener) {
+        if (mLeScanManager != null) {
+            mLeScanManager.registerListener(listener);
+            return mLeScanManager.startScan(request);
+        } else {
+            return DiscoveryError.BLUETOOTH_NOT_AVAILABLE;
+        }
+    }
+
+    /**
+     * Stop the Bluetooth LE scan started via {@link
+     * #startLeScan(LeScanRequest, LeScanListener)}.
+     *
+     * @return flag indicating whether a scan was stopped or not.
+     */
+    @AnyThread
+    public boolean stopLeScan() {
+        return mLeScanManager != null && mLeScanManager.stopScan();
+    }
+
+    // Bluetooth profiles
+
+    /**
+     * <p>
+     * Ask whether the proxy for the provided Bluetooth profile is bound, and
+     * therefore whether its connection states are being tracked.
+     * </p>
+     *
+     * <p>
+     * Only profiles passed to {@link #init(Context, String, Set)} are ever
+     * bound, and they are unavailable while Bluetooth is disabled.
+     * </p>
+     *
+     * @param profile to check.
+     *
+     * @return flag indicating whether the profile is available or not.
+     */
+    @AnyThread
+    public boolean isProfileAvailable(@NonNull ProfileType profile) {
+        return mAdapterManager != null && mAdapterManager.isProfileAvailable(profile);
+    }
+
+    /**
+     * <p>
+     * Get the connection state of a device for a Bluetooth profile.
+     * </p>
+     *
+     * <p>
+     * The state is cached and kept up to date via broadcasts, so this method
+     * never blocks and is cheap enough to call from the UI. Register a {@link
+     * ProfileConnectionListener} to be notified of changes.
+     * </p>
+     *
+     * @param profile to check.
+     * @param device to check.
+     *
+     * @return connection state as per {@link
+     *         android.bluetooth.BluetoothProfile#STATE_CONNECTED} and friends,
+     *         which is always disconnected if the profile is not available.
+     */
+    @AnyThread
+    public int getProfileConnectionState(@NonNull ProfileType profile,
+            @NonNull BluetoothDevice device) {
+        if (null == mAdapterManager) {
+            return BluetoothProfile.STATE_DISCONNECTED;
+        }
+        return mAdapterManager.getProfileConnectionState(profile, device);
+    }
+
+    /**
+     * <p>
+     * Get the devices connected for a Bluetooth profile.
+     * </p>
+     *
+     * <p>
+     * As per {@link #getProfileConnectionState(ProfileType, BluetoothDevice)},
+     * this method never blocks.
+     * </p>
+     *
+     * @param profile to check.
+     *
+     * @return immutable list of connected devices, which is always empty if
+     *         the profile is not available.
+     */
+    @AnyThread
+    @NonNull
+    public List<BluetoothDevice> getProfileConnectedDevices(@NonNull ProfileType profile) {
+        if (null == mAdapterManager) {
+            return Collections.emptyList();
+        }
+        return mAdapterManager.getProfileConnectedDevices(profile);
+    }
+
+    // Server management
+
+    /**
+     * <p>
+     * Start a Bluetooth server which accepts inbound RFCOMM connections from
+     * remote devices, as described by the provided configuration.
+     * </p>
+     *
+     * <p>
+     * Each connection is offered to the callback for admission on a worker
+     * thread, unless the server already has its maximum number of clients
+     * connected. Admitted connections are managed in exactly the same way as
+     * outbound ones - they are reported by {@link #isConnected(BluetoothDevice)}
+     * and to any registered {@link DeviceConnectionListener}, and may be
+     * closed via {@link #disconnect(BluetoothDevice)}. Devices which are
+     * already connected or being connected to are rejected.
+     * </p>
+     *
+     * <p>
+     * The server stops of its own accord if its server socket fails, which
+     * is the case when Bluetooth is turned off, and must be started again
+     * once Bluetooth is turned back on. The callback is strongly referenced
+     * until the server stops.
+     * </p>
+     *
+     * @param configuration of the server.
+     * @param callback to decide on admission with, and report results to.
+     *
+     * @return handle for the server, or null if Bluetooth is not supported or
+     *         the service record could not be registered (generally because
+     *         Bluetooth is disabled).
+     */
+    @AnyThread
+    @Nullable
+    public Server startServer(@NonNull ServerConfiguration configuration,
+            @NonNull ServerCallback callback) {
+        return (mServerManager != null) ? mServerManager.start(configuration, callback) : null;
+    }
+
+    /**
+     * Stop every running Bluetooth server. Connections which were already
+     * accepted remain open.
+     */
+    @AnyThread
+    public void stopAllServers() {
+        if (mServerManager != null) {
+            mServerManager.stopAll();
+        }
+    }
+
     // Discovery scan management
 
     /**
@@ -570,6 +986,96 @@ public final class TrueBlue {
         }
     }
 
+    /**
+     * <p>
+     * Start a discovery scan for the devices described by the provided
+     * request, first registering the provided listener to receive discovery
+     * events.
+     * </p>
+     *
+     * <p>
+     * While the scan is running, only devices which match the request are
+     * reported to registered {@link DiscoveryListener}s. If the request sets a
+     * maximum number of matches then the scan is stopped as soon as that many
+     * distinct matching devices have been found, rather than running for the
+     * full inquiry period (which also reduces the throughput of any active
+     * connections).
+     * </p>
+     *
+     * <p>
+     * Remember to call {@link #unregisterDiscoveryListener(DiscoveryListener)}
+     * when discovery events are no longer required.
+     * </p>
+     *
+     * @param request describing the devices to find.
+     * @param listener to provide discovery events to.
+     *
+     * @return discovery error which prevented the scan starting, or null.
+     */
+    @AnyThread
+    public DiscoveryError startDiscovery(@NonNull DiscoveryRequest request,
+            @NonNull DiscoveryListener listener) {
+        if (mDiscoveryManager != null) {
+            mDiscoveryManager.registerListener(listener);
+            return mDiscoveryManager.startDiscovery(request);
+        } else {
+            return DiscoveryError.BLUETOOTH_NOT_AVAILABLE;
+        }
+    }
+
+    /**
+     * <p>
+     * Start a discovery scan for the first device matching the provided
+     * request, and attempt to connect to it as soon as it is found.
+     * </p>
+     *
+     * <p>
+     * Any maximum number of matches set on the request is ignored - the scan
+     * is always stopped after the first match. If the scan finishes without
+     * finding a match then no connection is attempted and the callback is not
+     * called, so register a {@link DiscoveryListener} if you need to know
+     * when this happens.
+     * </p>
+     *
+     * @param request describing the device to find.
+     * @param connectionAttemptConfiguration to use when connecting.
+     * @param callback to return connection results via.
+     *
+     * @return discovery error which prevented the scan starting, or null.
+     */
+    @AnyThread
+    public DiscoveryError discoverAndConnect(@NonNull DiscoveryRequest request,
+            @NonNull final ConnectionAttemptConfiguration connectionAttemptConfiguration,
+            @Nullable final ConnectionAttemptCallback callback) {
+        if (null == mDiscoveryManager || null == mConnectionManager) {
+            return DiscoveryError.BLUETOOTH_NOT_AVAILABLE;
+        }
+        final DiscoveryListener listener = new DiscoveryListener() {
+            @Override
+            public void onDeviceDiscovered(@NonNull BluetoothDevice device) {
+                mDiscoveryManager.unregisterListener(this);
+                mConnectionManager.connect(device,
+                        connectionAttemptConfiguration.getInternalConnectionConfiguration(),
+                        callback);
+            }
+
+            @Override
+            public void onDiscoveryFinished() {
+                mDiscoveryManager.unregisterListener(this);
+            }
+
+            @Override
+            public void onDiscoveryStarted() { /* Empty */ }
+        };
+        mDiscoveryManager.registerListener(listener);
+        final DiscoveryError discoveryError = mDiscoveryManager.startDiscovery(
+                new DiscoveryRequest.Builder(request).setMaximumMatchCount(1).build());
+        if (discoveryError != null) {
+            mDiscoveryManager.unregisterListener(listener);
+        }
+        return discoveryError;
+    }
+
     /**
      * <p>
      * Attempt to stop a running discovery scan which was started by this
@@ -601,6 +1107,266 @@ public final class TrueBlue {
         return mDiscoveryManager != null && mDiscoveryManager.stopDiscovery();
     }
 
+    /**
+     * <p>
+     * Get the devices found by recent discovery scans.
+     * </p>
+     *
+     * <p>
+     * Each device appears once, with the most recently reported signal
+     * strength, class and name. Devices which have not been seen for a while
+     * are evicted automatically. Register a {@link DiscoveryCacheListener} to
+     * be notified of changes rather than polling this method.
+     * </p>
+     *
+     * @return immutable snapshot of the discovered devices, in the order they
+     *         were first seen.
+     */
+    @AnyThread
+    @NonNull
+    public List<DiscoveredDevice> getDiscoveredDevices() {
+        if (null == mDiscoveryManager) {
+            return Collections.emptyList();
+        }
+        return mDiscoveryManager.getDiscoveredDevices();
+    }
+
+    /**
+     * <p>
+     * Start running discovery scans in the background on the provided
+     * schedule, replacing any schedule already running.
+     * </p>
+     *
+     * <p>
+     * Each scan runs for at most the schedule's scan window, and scans are
+     * started at most once per interval. A scan is skipped while a connection
+     * attempt is in progress or while open connections are transferring more
+     * data than the schedule's throughput threshold, since discovery
+     * significantly reduces the bandwidth available to connected devices. The
+     * scan is retried shortly afterwards.
+     * </p>
+     *
+     * <p>
+     * Devices found by scheduled scans are reported as present, and reported
+     * as absent once they have been missed by the schedule's absence scan
+     * count of consecutive scans. Remember to call {@link
+     * #stopDiscoveryScheduler()} and {@link
+     * #unregisterDiscoverySchedulerListener(DiscoverySchedulerListener)} when
+     * the schedule is no longer required.
+     * </p>
+     *
+     * @param schedule to run scans on.
+     * @param listener to register for presence and scan budget events.
+     */
+    @AnyThread
+    public void startDiscoveryScheduler(@NonNull DiscoverySchedule schedule,
+            @NonNull DiscoverySchedulerListener listener) {
+        if (mDiscoveryScheduler != null) {
+            mDiscoveryScheduler.registerListener(listener);
+            mDiscoveryScheduler.start(schedule);
+        }
+    }
+
+    /**
+     * Stop running scheduled discovery scans, stopping any scheduled scan
+     * which is running. Scans started via {@link #startDiscovery()} are not
+     * affected.
+     */
+    @AnyThread
+    public void stopDiscoveryScheduler() {
+        if (mDiscoveryScheduler != null) {
+            mDiscoveryScheduler.stop();
+        }
+    }
+
+    /**
+     * Get the scan budget used by the discovery scheduler since it was last
+     * started.
+     *
+     * @return scan budget usage.
+     */
+    @AnyThread
+    @NonNull
+    public ScanBudgetUsage getScanBudgetUsage() {
+        if (null == mDiscoveryScheduler) {
+            return new ScanBudgetUsage(0, 0, 0, 0);
+        }
+        return mDiscoveryScheduler.getUsage();
+    }
+
+    // Provisioning
+
+    /**
+     * <p>
+     * Start provisioning the devices described by the provided request,
+     * bonding with each in turn so that they are ready to be connected to.
+     * Provisioning requires API 19+.
+     * </p>
+     *
+     * <p>
+     * Devices are paired with one at a time, since the system only shows one
+     * pairing dialog at a time. Failed pairing attempts are retried as per the
+     * request, and each bonded device is optionally verified by connecting to
+     * it and immediately disconnecting. Progress, including throughput in
+     * devices per minute, is reported to the listener on the main thread.
+     * </p>
+     *
+     * <p>
+     * Only one provisioning run may be in progress at a time. Avoid
+     * connecting to devices which have not yet been provisioned while a run
+     * is in progress, as this interferes with the tracking of their pairing
+     * results.
+     * </p>
+     *
+     * @param request describing the devices to provision.
+     * @param listener to report progress to.
+     *
+     * @return flag indicating whether provisioning was started, which is not
+     *         the case if Bluetooth is not supported, the API level is below
+     *         19 or another run is already in progress.
+     */
+    @AnyThread
+    public boolean startProvisioning(@NonNull ProvisioningRequest request,
+            @NonNull ProvisioningListener listener) {
+        if (null == mProvisioner) {
+            return false;
+        }
+        final ConnectionAttemptConfiguration verificationConfiguration =
+                request.getVerificationConfiguration();
+        return mProvisioner.start(request, (verificationConfiguration != null) ?
+                verificationConfiguration.getInternalConnectionConfiguration() : null, listener);
+    }
+
+    /**
+     * Cancel any provisioning run in progress. The remaining devices are
+     * reported as {@link ProvisioningStatus#CANCELLED}, after which the run
+     * finishes as usual.
+     */
+    @AnyThread
+    public void cancelProvisioning() {
+        if (mProvisioner != null) {
+            mProvisioner.cancel();
+        }
+    }
+
+    /**
+     * Get the progress of the current or most recent provisioning run.
+     *
+     * @return provisioning progress.
+     */
+    @AnyThread
+    @NonNull
+    public ProvisioningProgress getProvisioningProgress() {
+        if (null == mProvisioner) {
+            return new ProvisioningProgress(0, 0, 0, 0);
+        }
+        return mProvisioner.getProgress();
+    }
+
+    // Diagnostics
+
+    /**
+     * <p>
+     * Enable or disable the emission of {@link android.os.Trace} sections for
+     * connection attempts, reads, writes and listener dispatch, so that they
+     * appear in systrace and Perfetto captures. All section and counter names
+     * are prefixed with "TrueBlue:".
+     * </p>
+     *
+     * <p>
+     * Tracing is disabled by default, in which case the cost of each trace
+     * point is a single flag check. Synchronous sections require API 18+,
+     * while asynchronous sections (connection attempts) and counters (write
+     * queue depths) require API 29+. On older versions this method has no
+     * effect.
+     * </p>
+     *
+     * <p>
+     * This method can be called before initializing and obtaining an instance
+     * of the service.
+     * </p>
+     *
+     * @param isEnabled or not.
+     */
+    @AnyThread
+    public static void setTracingEnabled(boolean isEnabled) {
+        TraceUtils.setEnabled(isEnabled);
+    }
+
+    /**
+     * <p>
+     * Write a diagnostic dump of all library state to the provided writer.
+     * </p>
+     *
+     * <p>
+     * The dump covers the adapter, discovery scanning, every running server,
+     * every open GATT client, every managed connection (including pending
+     * connection attempts and their retry state) and every open {@link
+     * ConnectionClient} (including write queue depths and read/write thread
+     * liveness). It is designed to be called from
+     * {@link android.app.Service#dump(java.io.FileDescriptor, PrintWriter,
+     * String[])} so that it appears in the output of
+     * {@code adb shell dumpsys activity service <service>}.
+     * </p>
+     *
+     * <p>
+     * Each line consists of a record type followed by space separated
+     * key=value pairs, with nested records indented by two spaces, so the
+     * output is both human readable and straightforward to parse. The state of
+     * each component is captured under that component's own lock, so each
+     * record is internally consistent.
+     * </p>
+     *
+     * @param writer to write the dump to.
+     */
+    @AnyThread
+    public void dump(@NonNull PrintWriter writer) {
+        DumpUtils.printLine(writer, "", "TrueBlue",
+                "version", BuildConfig.VERSION_NAME,
+                "available", isBluetoothAvailable(),
+                "tracingEnabled", TraceUtils.isEnabled());
+        if (mAdapterManager != null) {
+            mAdapterManager.dump(writer, DumpUtils.INDENT);
+        }
+        if (mDiscoveryManager != null) {
+            mDiscoveryManager.dump(writer, DumpUtils.INDENT);
+        }
+        if (mDiscoveryScheduler != null) {
+            mDiscoveryScheduler.dump(writer, DumpUtils.INDENT);
+        }
+        if (mLeScanManager != null) {
+            mLeScanManager.dump(writer, DumpUtils.INDENT);
+        }
+        if (mProvisioner != null) {
+            mProvisioner.dump(writer, DumpUtils.INDENT);
+        }
+        if (mServerManager != null) {
+            mServerManager.dump(writer, DumpUtils.INDENT);
+        }
+        if (mGattManager != null) {
+            mGattManager.dump(writer, DumpUtils.INDENT);
+        }
+        if (mConnectionManager != null) {
+            mConnectionManager.dump(writer, DumpUtils.INDENT);
+        }
+        ConnectionClientImpl.dumpLiveClients(writer, DumpUtils.INDENT);
+        writer.flush();
+    }
+
+    /**
+     * Convenience version of {@link #dump(PrintWriter)} which returns the dump
+     * as a string.
+     *
+     * @return diagnostic dump of all library state.
+     */
+    @AnyThread
+    @NonNull
+    public String dump() {
+        final StringWriter stringWriter = new StringWriter();
+        dump(new PrintWriter(stringWriter));
+        return stringWriter.toString();
+    }
+
     // Listener management
 
     /**
@@ -641,6 +1407,45 @@ public final class TrueBlue {
         }
     }
 
+    /**
+     * <p>
+     * Register a listener for changes to the set of devices paired with the
+     * system (see {@link #getBondedDevices()}).
+     * </p>
+     *
+     * <p>
+     * Do not forget to call {@link
+     * #unregisterBondedDevicesListener(BondedDevicesListener)} to unregister
+     * the listener when it is no longer required.
+     * </p>
+     *
+     * <p>
+     * Note that the listener will be called on the main thread regardless of
+     * which thread it is registered on.
+     * </p>
+     *
+     * @param listener to register.
+     */
+    @AnyThread
+    public void registerBondedDevicesListener(BondedDevicesListener listener) {
+        if (mAdapterManager != null) {
+            mAdapterManager.registerBondedDevicesListener(listener);
+        }
+    }
+
+    /**
+     * Unregister a listener previously registered for changes to the set of
+     * paired devices.
+     *
+     * @param listener to unregister.
+     */
+    @AnyThread
+    public void unregisterBondedDevicesListener(BondedDevicesListener listener) {
+        if (mAdapterManager != null) {
+            mAdapterManager.unregisterBondedDevicesListener(listener);
+        }
+    }
+
     /**
      * <p>
      * Register a listener for device connection status related service events.
@@ -716,4 +1521,110 @@ public final class TrueBlue {
             mDiscoveryManager.unregisterListener(listener);
         }
     }
+
+    /**
+     * <p>
+     * Register a listener for changes to the set of devices found by
+     * discovery scans (see {@link #getDiscoveredDevices()}).
+     * </p>
+     *
+     * <p>
+     * Do not forget to call {@link
+     * #unregisterDiscoveryCacheListener(DiscoveryCacheListener)} to unregister
+     * the listener when it is no longer required.
+     * </p>
+     *
+     * <p>
+     * Note that the listener will be called on the main thread regardless of
+     * which thread it is registered on.
+     * </p>
+     *
+     * @param listener to register.
+     */
+    @AnyThread
+    public void registerDiscoveryCacheListener(DiscoveryCacheListener listener) {
+        if (mDiscoveryManager != null) {
+            mDiscoveryManager.registerCacheListener(listener);
+        }
+    }
+
+    /**
+     * Unregister a listener previously registered for discovery cache
+     * changes.
+     *
+     * @param listener to unregister.
+     */
+    @AnyThread
+    public void unregisterDiscoveryCacheListener(DiscoveryCacheListener listener) {
+        if (mDiscoveryManager != null) {
+            mDiscoveryManager.unregisterCacheListener(listener);
+        }
+    }
+
+    /**
+     * Unregister a listener previously registered for Bluetooth LE scan
+     * events via {@link #startLeScan(LeScanRequest, LeScanListener)}.
+     *
+     * @param listener to unregister.
+     */
+    @AnyThread
+    public void unregisterLeScanListener(LeScanListener listener) {
+        if (mLeScanManager != null) {
+            mLeScanManager.unregisterListener(listener);
+        }
+    }
+
+    /**
+     * <p>
+     * Register a listener for changes to the connection states of the
+     * configured Bluetooth profiles (see {@link
+     * #getProfileConnectionState(ProfileType, BluetoothDevice)}).
+     * </p>
+     *
+     * <p>
+     * Do not forget to call {@link
+     * #unregisterProfileConnectionListener(ProfileConnectionListener)} to
+     * unregister the listener when it is no longer required.
+     * </p>
+     *
+     * <p>
+     * Note that the listener will be called on the main thread regardless of
+     * which thread it is registered on.
+     * </p>
+     *
+     * @param listener to register.
+     */
+    @AnyThread
+    public void registerProfileConnectionListener(ProfileConnectionListener listener) {
+        if (mAdapterManager != null) {
+            mAdapterManager.registerProfileConnectionListener(listener);
+        }
+    }
+
+    /**
+     * Unregister a listener previously registered for changes to profile
+     * connection states.
+     *
+     * @param listener to unregister.
+     */
+    @AnyThread
+    public void unregisterProfileConnectionListener(ProfileConnectionListener listener) {
+        if (mAdapterManager != null) {
+            mAdapterManager.unregisterProfileConnectionListener(listener);
+        }
+    }
+
+    /**
+     * Unregister a listener previously registered for discovery scheduler
+     * events via {@link #startDiscoveryScheduler(DiscoverySchedule,
+     * DiscoverySchedulerListener)}.
+     *
+     * @param listener to unregister.
+     */
+    @AnyThread
+    public void unregisterDiscoverySchedulerListener(DiscoverySchedulerListener listener) {
+        if (mDiscoveryScheduler != null) {
+            mDiscoveryScheduler.unregisterListener(listener);
+        }
+    }
 }
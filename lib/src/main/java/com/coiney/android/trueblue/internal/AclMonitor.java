@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * <p>
+ * Monitors and reports on the low level (ACL) links between the system and
+ * remote Bluetooth devices.
+ * </p>
+ *
+ * <p>
+ * A link being lost means every connection to the device has been lost,
+ * usually long before a read or write on an idle connection would fail.
+ * Broadcasts are received, and listeners called, on the thread of the
+ * receiver handler provided at construction.
+ * </p>
+ */
+@ThreadSafe
+public class AclMonitor extends BroadcastReceiver {
+
+    private final Context mContext;
+    private final CopyOnWriteArraySet<Listener> mListeners = new CopyOnWriteArraySet<>();
+    private final Handler mReceiverHandler;
+
+    /**
+     * Create an ACL monitor with the provided parameters.
+     *
+     * @param context with which to access ACL related system broadcasts.
+     * @param receiverHandler on whose thread to receive ACL related system
+     *                        broadcasts.
+     */
+    public AclMonitor(@NonNull Context context, @NonNull Handler receiverHandler) {
+        mContext = context.getApplicationContext();
+        mReceiverHandler = receiverHandler;
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+        if (null == device) {
+            return;
+        }
+        if (BluetoothDevice.ACTION_ACL_CONNECTED.equals(intent.getAction())) {
+            for (Listener listener : mListeners) {
+                listener.onLinkEstablished(device);
+            }
+        } else if (BluetoothDevice.ACTION_ACL_DISCONNECTED.equals(intent.getAction())) {
+            for (Listener listener : mListeners) {
+                listener.onLinkLost(device);
+            }
+        }
+    }
+
+    /**
+     * Start monitoring for ACL related system broadcasts.
+     */
+    public void start() {
+        ContextUtils.unregisterReceiverSilently(mContext, this);
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(BluetoothDevice.ACTION_ACL_CONNECTED);
+        filter.addAction(BluetoothDevice.ACTION_ACL_DISCONNECTED);
+        mContext.registerReceiver(this, filter, null, mReceiverHandler);
+    }
+
+    /**
+     * Stop monitoring for ACL related system broadcasts. This will also clear
+     * all registered listeners.
+     */
+    public void stop() {
+        ContextUtils.unregisterReceiverSilently(mContext, this);
+        mListeners.clear();
+    }
+
+    /**
+     * Register a listener for ACL related events. Remember to unregister using
+     * {@link #unregisterListener(Listener)} when these events are no longer
+     * required.
+     *
+     * @param listener to register.
+     */
+    void registerListener(@NonNull Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Unregister a previously registered listener for ACL related events.
+     *
+     * @param listener to unregister.
+     */
+    void unregisterListener(@NonNull Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Listener interface for ACL related events.
+     */
+    interface Listener {
+
+        /**
+         * Called when a link with a Bluetooth device has been established.
+         *
+         * @param device with which a link has been established.
+         */
+        void onLinkEstablished(@NonNull BluetoothDevice device);
+
+        /**
+         * Called when the link with a Bluetooth device has been lost.
+         *
+         * @param device with which the link has been lost.
+         */
+        void onLinkLost(@NonNull BluetoothDevice device);
+    }
+}
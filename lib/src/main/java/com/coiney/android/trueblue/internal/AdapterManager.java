@@ -23,28 +23,91 @@
 
 package com.coiney.android.trueblue.internal;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanSettings;
 import android.content.Intent;
+import android.os.Build;
 import android.support.annotation.NonNull;
 
 import com.coiney.android.trueblue.BluetoothStatusListener;
+import com.coiney.android.trueblue.BondedDevice;
+import com.coiney.android.trueblue.BondedDevicesListener;
+import com.coiney.android.trueblue.ProfileConnectionListener;
+import com.coiney.android.trueblue.ProfileType;
 
 import net.jcip.annotations.ThreadSafe;
 
-import java.util.Collections;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
+ * <p>
  * Simple wrapper class around a {@link BluetoothAdapter} instance which
  * simplifies interactions with the Bluetooth subsystem.
+ * </p>
+ *
+ * <p>
+ * The adapter state and the devices bonded with the system are cached. The
+ * state is tracked through all four transitions (including the transitional
+ * turning on and turning off states) via broadcasts, while the bonded devices
+ * are only re-read from the adapter when a bond state or adapter state change
+ * is broadcast.
+ * </p>
+ *
+ * <p>
+ * The connection states of the configured Bluetooth profiles are tracked by
+ * a {@link ProfileManager}, which binds each profile proxy once and caches
+ * the states so that they can be queried without IPC calls.
+ * </p>
  */
 @ThreadSafe
 public class AdapterManager {
 
     private final BluetoothAdapter mAdapter;
+    private volatile int mAdapterState = BluetoothAdapter.STATE_OFF;
+    private final BluetoothStatusMonitor.AdapterStateListener mAdapterStateListener =
+            new BluetoothStatusMonitor.AdapterStateListener() {
+                @Override
+                public void onAdapterStateChanged(int state) {
+                    mAdapterState = state;
+                    mLogger.d("Bluetooth adapter state changed to " +
+                            DumpUtils.getAdapterStateName(state) + ".");
+                    refreshBondedDevices();
+                    mProfileManager.onAdapterStateChanged(state);
+                    for (BluetoothStatusMonitor.AdapterStateListener listener :
+                            mAdapterStateListeners) {
+                        listener.onAdapterStateChanged(state);
+                    }
+                }
+            };
+    private final Set<BluetoothStatusMonitor.AdapterStateListener> mAdapterStateListeners =
+            new CopyOnWriteArraySet<>();
+    private final BondedDeviceCache mBondedDeviceCache = new BondedDeviceCache();
+    private final Set<BondedDevicesListener> mBondedDevicesListeners =
+            new CopyOnWriteArraySet<>();
+    private final Set<DiscoveryStopListener> mDiscoveryStopListeners =
+            new CopyOnWriteArraySet<>();
+    private final PairingMonitor.BondStateListener mBondStateListener =
+            new PairingMonitor.BondStateListener() {
+                @Override
+                public void onBondStateChanged(@NonNull BluetoothDevice device,
+                        int previousBondState, int bondState) {
+                    refreshBondedDevices();
+                }
+            };
     private final Logger mLogger;
+    private final PairingMonitor mPairingMonitor;
+    private final ProfileManager mProfileManager;
     private final BluetoothStatusMonitor mStatusMonitor;
 
     /**
@@ -52,47 +115,76 @@ public class AdapterManager {
      *
      * @param adapter to manage.
      * @param statusMonitor with which to monitor adapter status changes.
+     * @param pairingMonitor with which to monitor bond state changes.
+     * @param profileManager with which to track profile connection states.
      * @param logger to log to.
      */
     public AdapterManager(@NonNull BluetoothAdapter adapter,
-            @NonNull BluetoothStatusMonitor statusMonitor, @NonNull Logger logger) {
+            @NonNull BluetoothStatusMonitor statusMonitor,
+            @NonNull PairingMonitor pairingMonitor, @NonNull ProfileManager profileManager,
+            @NonNull Logger logger) {
         mAdapter = adapter;
         mLogger = logger;
+        mPairingMonitor = pairingMonitor;
+        mProfileManager = profileManager;
         mStatusMonitor = statusMonitor;
     }
 
     /**
      * Start the adapter manager. This is required primarily to commence
      * monitoring and reporting on the status of Bluetooth at the system level
-     * (enabled or disabled).
+     * (enabled or disabled), to load the adapter state and bonded devices, and
+     * to bind the configured profile proxies.
      */
     public void start() {
+        mStatusMonitor.registerAdapterStateListener(mAdapterStateListener);
+        mPairingMonitor.registerBondStateListener(mBondStateListener);
         mStatusMonitor.start();
+        mAdapterState = mAdapter.getState();
+        refreshBondedDevices();
+        mProfileManager.start(mAdapterState);
     }
 
     /**
      * Obtain the list of devices paired with the system. Returns an empty set
      * rather than null if there are no paired devices.
      *
-     * @return the list of devices paired with the system.
+     * @return immutable set of the devices paired with the system.
      */
     @NonNull
     public Set<BluetoothDevice> getDeviceList() {
-        final Set<BluetoothDevice> devices = mAdapter.getBondedDevices();
-        if (devices == null) {
-            return Collections.emptySet();
-        }
-        return devices;
+        return mBondedDeviceCache.getDevices();
+    }
+
+    /**
+     * Obtain the devices paired with the system, along with their names and
+     * classes, without making any IPC calls.
+     *
+     * @return immutable list of the devices paired with the system.
+     */
+    @NonNull
+    public List<BondedDevice> getBondedDevices() {
+        return mBondedDeviceCache.getBondedDevices();
     }
 
     /**
-     * Ask whether the system's Bluetooth adapter is enabled or not.
+     * Ask whether the system's Bluetooth adapter is enabled or not, without
+     * making any IPC calls.
      *
      * @return flag indicating whether the system's Bluetooth adapter is
      *         enabled or not.
      */
     public boolean isAdapterEnabled() {
-        return mAdapter.isEnabled();
+        return BluetoothAdapter.STATE_ON == mAdapterState;
+    }
+
+    /**
+     * Get the cached state of the system's Bluetooth adapter.
+     *
+     * @return adapter state as per {@link BluetoothAdapter#getState()}.
+     */
+    public int getAdapterState() {
+        return mAdapterState;
     }
 
     /**
@@ -134,6 +226,45 @@ public class AdapterManager {
                 requestCode);
     }
 
+    /**
+     * Ask whether the proxy for the provided profile is bound, and therefore
+     * whether its connection states are being tracked.
+     *
+     * @param profile to check.
+     *
+     * @return flag indicating whether the profile is available or not.
+     */
+    public boolean isProfileAvailable(@NonNull ProfileType profile) {
+        return mProfileManager.isProfileAvailable(profile);
+    }
+
+    /**
+     * Get the cached connection state of a device for a profile, without
+     * making any IPC calls.
+     *
+     * @param profile to check.
+     * @param device to check.
+     *
+     * @return connection state as per {@link
+     *         android.bluetooth.BluetoothProfile#getConnectionState(BluetoothDevice)}.
+     */
+    public int getProfileConnectionState(@NonNull ProfileType profile,
+            @NonNull BluetoothDevice device) {
+        return mProfileManager.getConnectionState(profile, device);
+    }
+
+    /**
+     * Get the devices connected for a profile, without making any IPC calls.
+     *
+     * @param profile to check.
+     *
+     * @return immutable list of connected devices.
+     */
+    @NonNull
+    public List<BluetoothDevice> getProfileConnectedDevices(@NonNull ProfileType profile) {
+        return mProfileManager.getConnectedDevices(profile);
+    }
+
     /**
      * Register a Bluetooth status listener to obtain status change events. Be
      * sure to call {@link
@@ -155,6 +286,104 @@ public class AdapterManager {
         mStatusMonitor.unregisterListener(listener);
     }
 
+    /**
+     * Register a listener for changes to the bonded devices. Be sure to call
+     * {@link #unregisterBondedDevicesListener(BondedDevicesListener)} when the
+     * listener is no longer required.
+     *
+     * @param listener to register.
+     */
+    public void registerBondedDevicesListener(@NonNull BondedDevicesListener listener) {
+        mBondedDevicesListeners.add(listener);
+    }
+
+    /**
+     * Unregister a previously registered bonded devices listener.
+     *
+     * @param listener to unregister.
+     */
+    public void unregisterBondedDevicesListener(@NonNull BondedDevicesListener listener) {
+        mBondedDevicesListeners.remove(listener);
+    }
+
+    /**
+     * Register a listener for profile connection state changes. Be sure to
+     * call {@link #unregisterProfileConnectionListener(ProfileConnectionListener)}
+     * when the listener is no longer required.
+     *
+     * @param listener to register.
+     */
+    public void registerProfileConnectionListener(
+            @NonNull ProfileConnectionListener listener) {
+        mProfileManager.registerListener(listener);
+    }
+
+    /**
+     * Unregister a previously registered profile connection listener.
+     *
+     * @param listener to unregister.
+     */
+    public void unregisterProfileConnectionListener(
+            @NonNull ProfileConnectionListener listener) {
+        mProfileManager.unregisterListener(listener);
+    }
+
+    /**
+     * Register a listener for every adapter state change. The listener is
+     * called on the receiver thread, after the cached state has been updated.
+     *
+     * @param listener to register.
+     */
+    void registerAdapterStateListener(
+            @NonNull BluetoothStatusMonitor.AdapterStateListener listener) {
+        mAdapterStateListeners.add(listener);
+    }
+
+    /**
+     * Unregister a previously registered adapter state listener.
+     *
+     * @param listener to unregister.
+     */
+    void unregisterAdapterStateListener(
+            @NonNull BluetoothStatusMonitor.AdapterStateListener listener) {
+        mAdapterStateListeners.remove(listener);
+    }
+
+    /**
+     * Register a listener for requests to stop system level discovery scans,
+     * whichever part of the library makes them. The listener is called on the
+     * requesting thread, before the scan is cancelled.
+     *
+     * @param listener to register.
+     */
+    void registerDiscoveryStopListener(@NonNull DiscoveryStopListener listener) {
+        mDiscoveryStopListeners.add(listener);
+    }
+
+    /**
+     * Unregister a previously registered discovery stop listener.
+     *
+     * @param listener to unregister.
+     */
+    void unregisterDiscoveryStopListener(@NonNull DiscoveryStopListener listener) {
+        mDiscoveryStopListeners.remove(listener);
+    }
+
+    /**
+     * Write the state of the adapter to the provided writer.
+     *
+     * @param writer to write to.
+     * @param prefix to indent each line with.
+     */
+    public void dump(@NonNull PrintWriter writer, @NonNull String prefix) {
+        DumpUtils.printLine(writer, prefix, "adapter",
+                "state", DumpUtils.getAdapterStateName(mAdapterState),
+                "enabled", isAdapterEnabled(),
+                "discovering", mAdapter.isDiscovering(),
+                "bondedDeviceCount", mBondedDeviceCache.getDevices().size());
+        mProfileManager.dump(writer, prefix + DumpUtils.INDENT);
+    }
+
     /**
      * Attempt to start a system level discovery scan, returning the result.
      *
@@ -172,6 +401,136 @@ public class AdapterManager {
      *         not.
      */
     boolean stopDiscovery() {
+        for (DiscoveryStopListener listener : mDiscoveryStopListeners) {
+            listener.onDiscoveryStopRequested();
+        }
         return mAdapter.cancelDiscovery();
     }
+
+    /**
+     * Ask whether the adapter supports batching Bluetooth LE scan results in
+     * the controller, so that they can be delivered with a report delay.
+     *
+     * @return flag indicating whether offloaded scan batching is supported.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    boolean isOffloadedScanBatchingSupported() {
+        return mAdapter.isOffloadedScanBatchingSupported();
+    }
+
+    /**
+     * Attempt to start a Bluetooth LE scan, returning the result. Failures
+     * reported by the system after the scan has been started are reported to
+     * the provided callback.
+     *
+     * @param filters to offload to the controller, or an empty list to report
+     *                every advertiser.
+     * @param settings to scan with.
+     * @param callback to report results to.
+     *
+     * @return flag indicating whether the scan was successfully started or
+     *         not.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    boolean startLeScan(@NonNull List<ScanFilter> filters, @NonNull ScanSettings settings,
+            @NonNull ScanCallback callback) {
+        // The scanner is unavailable while the adapter is off.
+        final BluetoothLeScanner scanner = mAdapter.getBluetoothLeScanner();
+        if (null == scanner) {
+            return false;
+        }
+        try {
+            scanner.startScan(filters, settings, callback);
+            return true;
+        } catch (IllegalStateException e) {
+            // The adapter turned off since the scanner was obtained.
+            return false;
+        }
+    }
+
+    /**
+     * Stop a Bluetooth LE scan previously started with the provided callback.
+     * Does nothing if the adapter is off, since the system stops every scan
+     * when it turns off.
+     *
+     * @param callback with which the scan was started.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    void stopLeScan(@NonNull ScanCallback callback) {
+        final BluetoothLeScanner scanner = mAdapter.getBluetoothLeScanner();
+        if (null == scanner) {
+            return;
+        }
+        try {
+            scanner.stopScan(callback);
+        } catch (IllegalStateException e) {
+            // The adapter turned off since the scanner was obtained.
+        }
+    }
+
+    /**
+     * Listen for inbound L2CAP channels on a dynamically assigned PSM.
+     * Requires API 29+.
+     *
+     * @param isSecure or not.
+     *
+     * @return listening socket.
+     *
+     * @throws IOException if Bluetooth is disabled, the API level is below
+     *                     29 or the channel cannot be created.
+     */
+    @NonNull
+    ListeningSocket listenUsingL2cap(boolean isSecure) throws IOException {
+        return L2capTransport.listen(mAdapter, isSecure);
+    }
+
+    /**
+     * Register an RFCOMM service record and listen for inbound connections
+     * to it.
+     *
+     * @param serviceName of the service record.
+     * @param serviceRecordUuid of the service record.
+     * @param isSecure or not.
+     *
+     * @return listening socket.
+     *
+     * @throws IOException if Bluetooth is disabled or the service record
+     *                     cannot be registered.
+     */
+    @NonNull
+    ListeningSocket listenUsingRfcomm(@NonNull String serviceName,
+            @NonNull UUID serviceRecordUuid, boolean isSecure) throws IOException {
+        return RfcommTransport.listen(mAdapter, serviceName, serviceRecordUuid, isSecure);
+    }
+
+    private void refreshBondedDevices() {
+        final BondedDeviceCache.Change change =
+                mBondedDeviceCache.update(mAdapter.getBondedDevices());
+        if (null == change) {
+            return;
+        }
+        mLogger.d("Bonded devices changed - " + change.mAddedDevices.size() + " added, " +
+                change.mRemovedDevices.size() + " removed.");
+        ThreadUtils.postOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                for (BondedDevicesListener listener : mBondedDevicesListeners) {
+                    listener.onBondedDevicesChanged(change.mAddedDevices,
+                            change.mRemovedDevices);
+                }
+            }
+        });
+    }
+
+    /**
+     * Listener for requests to stop system level discovery scans.
+     */
+    interface DiscoveryStopListener {
+
+        /**
+         * Called when a discovery scan is asked to stop, before it is
+         * cancelled.
+         */
+        void onDiscoveryStopRequested();
+    }
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothServerSocket;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Adapts a {@link BluetoothServerSocket} to the listening socket interface.
+ * Used for both RFCOMM service records and L2CAP channels.
+ */
+final class BluetoothServerSocketAdapter implements ListeningSocket {
+
+    private final int mPsm;
+    private final BluetoothServerSocket mServerSocket;
+    private final String mTransportName;
+
+    BluetoothServerSocketAdapter(@NonNull BluetoothServerSocket serverSocket,
+            @NonNull String transportName, int psm) {
+        mPsm = psm;
+        mServerSocket = serverSocket;
+        mTransportName = transportName;
+    }
+
+    @NonNull
+    @Override
+    public AcceptedSocket accept() throws IOException {
+        return new BluetoothSocketAdapter(mServerSocket.accept());
+    }
+
+    @Override
+    public int getPsm() {
+        return mPsm;
+    }
+
+    @NonNull
+    @Override
+    public String getTransportName() {
+        return mTransportName;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mServerSocket.close();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Adapts a {@link BluetoothSocket}, which only implements Closeable on API
+ * 17+, to the transport socket interface. Used for both RFCOMM sockets and
+ * L2CAP channels.
+ */
+final class BluetoothSocketAdapter implements ListeningSocket.AcceptedSocket {
+
+    private final BluetoothSocket mSocket;
+
+    BluetoothSocketAdapter(@NonNull BluetoothSocket socket) {
+        mSocket = socket;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        mSocket.connect();
+    }
+
+    @NonNull
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return mSocket.getInputStream();
+    }
+
+    @NonNull
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return mSocket.getOutputStream();
+    }
+
+    @NonNull
+    @Override
+    public BluetoothDevice getRemoteDevice() {
+        return mSocket.getRemoteDevice();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+    }
+}
@@ -28,6 +28,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Handler;
 import android.support.annotation.NonNull;
 
 import com.coiney.android.trueblue.BluetoothStatusListener;
@@ -38,22 +39,45 @@ import java.util.concurrent.CopyOnWriteArraySet;
 /**
  * Monitors the status of Bluetooth on the device and provides appropriate
  * notifications to all registered listeners when Bluetooth is enabled or
- * disabled.
+ * disabled. Broadcasts are received on the thread of the receiver handler
+ * provided at construction, while listeners are called on the main thread.
  */
 @ThreadSafe
 public class BluetoothStatusMonitor extends BroadcastReceiver {
 
+    private final CopyOnWriteArraySet<AdapterStateListener> mAdapterStateListeners =
+            new CopyOnWriteArraySet<>();
     private final Context mContext;
+    private final Runnable mDisabledDispatcher = new Runnable() {
+        @Override
+        public void run() {
+            for (BluetoothStatusListener listener : mListeners) {
+                listener.onBluetoothDisabled();
+            }
+        }
+    };
+    private final Runnable mEnabledDispatcher = new Runnable() {
+        @Override
+        public void run() {
+            for (BluetoothStatusListener listener : mListeners) {
+                listener.onBluetoothEnabled();
+            }
+        }
+    };
     private final CopyOnWriteArraySet<BluetoothStatusListener> mListeners =
             new CopyOnWriteArraySet<>();
+    private final Handler mReceiverHandler;
 
     /**
      * Create a Bluetooth status monitor with the provided parameters.
      *
      * @param context to use to register listeners.
+     * @param receiverHandler on whose thread to receive adapter status
+     *                        broadcasts.
      */
-    public BluetoothStatusMonitor(@NonNull Context context) {
+    public BluetoothStatusMonitor(@NonNull Context context, @NonNull Handler receiverHandler) {
         mContext = context.getApplicationContext();
+        mReceiverHandler = receiverHandler;
     }
 
     @Override
@@ -61,16 +85,17 @@ public class BluetoothStatusMonitor extends BroadcastReceiver {
         if (!BluetoothAdapter.ACTION_STATE_CHANGED.equals(intent.getAction())) {
             return;
         }
-        switch (intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.STATE_OFF)) {
+        final int state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE,
+                BluetoothAdapter.STATE_OFF);
+        for (AdapterStateListener listener : mAdapterStateListeners) {
+            listener.onAdapterStateChanged(state);
+        }
+        switch (state) {
             case BluetoothAdapter.STATE_ON:
-                for (BluetoothStatusListener listener : mListeners) {
-                    listener.onBluetoothEnabled();
-                }
+                ThreadUtils.postOnMainThread(mEnabledDispatcher);
                 break;
             case BluetoothAdapter.STATE_OFF:
-                for (BluetoothStatusListener listener : mListeners) {
-                    listener.onBluetoothDisabled();
-                }
+                ThreadUtils.postOnMainThread(mDisabledDispatcher);
                 break;
             default:
                 break;
@@ -82,7 +107,8 @@ public class BluetoothStatusMonitor extends BroadcastReceiver {
      */
     public void start() {
         ContextUtils.unregisterReceiverSilently(mContext, this);
-        mContext.registerReceiver(this, new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED));
+        mContext.registerReceiver(this, new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED),
+                null, mReceiverHandler);
     }
 
     /**
@@ -90,6 +116,7 @@ public class BluetoothStatusMonitor extends BroadcastReceiver {
      */
     public void stop() {
         ContextUtils.unregisterReceiverSilently(mContext, this);
+        mAdapterStateListeners.clear();
         mListeners.clear();
     }
 
@@ -112,4 +139,38 @@ public class BluetoothStatusMonitor extends BroadcastReceiver {
     void unregisterListener(@NonNull BluetoothStatusListener listener) {
         mListeners.remove(listener);
     }
+
+    /**
+     * Register a listener for every adapter state change. Unlike {@link
+     * BluetoothStatusListener}s, these are called on the receiver thread. Be
+     * sure to call {@link #unregisterAdapterStateListener(AdapterStateListener)}
+     * when the listener is no longer required.
+     *
+     * @param listener to register.
+     */
+    void registerAdapterStateListener(@NonNull AdapterStateListener listener) {
+        mAdapterStateListeners.add(listener);
+    }
+
+    /**
+     * Unregister a previously registered adapter state listener.
+     *
+     * @param listener to unregister.
+     */
+    void unregisterAdapterStateListener(@NonNull AdapterStateListener listener) {
+        mAdapterStateListeners.remove(listener);
+    }
+
+    /**
+     * Listener interface for raw adapter state changes.
+     */
+    interface AdapterStateListener {
+
+        /**
+         * Called when the state of the Bluetooth adapter has changed.
+         *
+         * @param state as per {@link BluetoothAdapter#getState()}.
+         */
+        void onAdapterStateChanged(int state);
+    }
 }
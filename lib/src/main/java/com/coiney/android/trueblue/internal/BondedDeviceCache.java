@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.coiney.android.trueblue.BondedDevice;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * An immutable snapshot of the devices bonded with the system, rebuilt only
+ * when told that the bonded devices may have changed.
+ * </p>
+ *
+ * <p>
+ * Updates are serialized, but reading the snapshot is a single volatile read,
+ * so it never blocks on an update in progress. The name and class of each
+ * device are only read when it first appears in the bonded device list.
+ * </p>
+ */
+@ThreadSafe
+final class BondedDeviceCache {
+
+    @GuardedBy("this")
+    private Map<String, BondedDevice> mEntries = Collections.emptyMap();
+    private volatile Snapshot mSnapshot = new Snapshot(
+            Collections.<BondedDevice>emptyList(), Collections.<BluetoothDevice>emptySet());
+
+    /**
+     * Get the bonded devices, in the order they were reported by the system.
+     *
+     * @return immutable list of bonded devices.
+     */
+    @NonNull
+    List<BondedDevice> getBondedDevices() {
+        return mSnapshot.mBondedDevices;
+    }
+
+    /**
+     * Get the bonded devices as a set, as per {@link
+     * android.bluetooth.BluetoothAdapter#getBondedDevices()}.
+     *
+     * @return immutable set of bonded devices.
+     */
+    @NonNull
+    Set<BluetoothDevice> getDevices() {
+        return mSnapshot.mDevices;
+    }
+
+    /**
+     * Replace the snapshot with the provided bonded devices, reusing the
+     * records of devices which were already bonded.
+     *
+     * @param devices bonded with the system, as reported by the adapter.
+     *
+     * @return the change made, or null if the bonded devices are unchanged.
+     */
+    @Nullable
+    synchronized Change update(@Nullable Set<BluetoothDevice> devices) {
+        final Map<String, BondedDevice> entries = new LinkedHashMap<>();
+        final List<BondedDevice> addedDevices = new ArrayList<>();
+        if (devices != null) {
+            for (BluetoothDevice device : devices) {
+                BondedDevice bondedDevice = mEntries.get(device.getAddress());
+                if (null == bondedDevice) {
+                    bondedDevice = new BondedDevice(device, device.getName(),
+                            device.getBluetoothClass());
+                    addedDevices.add(bondedDevice);
+                }
+                entries.put(device.getAddress(), bondedDevice);
+            }
+        }
+        final List<BondedDevice> removedDevices = new ArrayList<>();
+        for (Map.Entry<String, BondedDevice> entry : mEntries.entrySet()) {
+            if (!entries.containsKey(entry.getKey())) {
+                removedDevices.add(entry.getValue());
+            }
+        }
+        if (addedDevices.isEmpty() && removedDevices.isEmpty()) {
+            return null;
+        }
+        mEntries = entries;
+        final Set<BluetoothDevice> snapshotDevices = new LinkedHashSet<>();
+        for (BondedDevice bondedDevice : entries.values()) {
+            snapshotDevices.add(bondedDevice.getDevice());
+        }
+        mSnapshot = new Snapshot(
+                Collections.unmodifiableList(new ArrayList<>(entries.values())),
+                Collections.unmodifiableSet(snapshotDevices));
+        return new Change(Collections.unmodifiableList(addedDevices),
+                Collections.unmodifiableList(removedDevices));
+    }
+
+    /**
+     * A change made to the bonded devices by an update.
+     */
+    static final class Change {
+
+        final List<BondedDevice> mAddedDevices;
+        final List<BondedDevice> mRemovedDevices;
+
+        Change(@NonNull List<BondedDevice> addedDevices,
+                @NonNull List<BondedDevice> removedDevices) {
+            mAddedDevices = addedDevices;
+            mRemovedDevices = removedDevices;
+        }
+    }
+
+    /**
+     * Both views of the bonded devices, published together.
+     */
+    private static final class Snapshot {
+
+        final List<BondedDevice> mBondedDevices;
+        final Set<BluetoothDevice> mDevices;
+
+        Snapshot(@NonNull List<BondedDevice> bondedDevices,
+                @NonNull Set<BluetoothDevice> devices) {
+            mBondedDevices = bondedDevices;
+            mDevices = devices;
+        }
+    }
+}
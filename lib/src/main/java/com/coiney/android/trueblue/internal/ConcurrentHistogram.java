@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.support.annotation.NonNull;
+
+import com.coiney.android.trueblue.ConnectionStats;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A lock free histogram with a fixed set of exponentially sized buckets.
+ * </p>
+ *
+ * <p>
+ * Bucket 0 holds values of 0 (and any negative values, which are clamped),
+ * bucket 1 holds the value 1, bucket 2 holds values 2 to 3, bucket 3 holds
+ * values 4 to 7 and so on, with the final bucket holding all values too large
+ * for the others. Recording a value is a single atomic increment, so it is
+ * safe to do on I/O threads.
+ * </p>
+ */
+@ThreadSafe
+final class ConcurrentHistogram {
+
+    static final int DEFAULT_NUMBER_OF_BUCKETS = 32;
+
+    private final AtomicLongArray mBucketCounts;
+
+    /**
+     * Create a histogram with the default number of buckets.
+     */
+    ConcurrentHistogram() {
+        this(DEFAULT_NUMBER_OF_BUCKETS);
+    }
+
+    /**
+     * Create a histogram with the provided number of buckets.
+     *
+     * @param numberOfBuckets to use. Must be between 2 and 64.
+     *
+     * @throws IllegalArgumentException if the number of buckets is out of
+     *                                  range.
+     */
+    ConcurrentHistogram(int numberOfBuckets) {
+        if (numberOfBuckets < 2 || numberOfBuckets > 64) {
+            throw new IllegalArgumentException("Number of buckets must be between 2 and 64.");
+        }
+        mBucketCounts = new AtomicLongArray(numberOfBuckets);
+    }
+
+    /**
+     * Record the provided value.
+     *
+     * @param value to record.
+     */
+    void record(long value) {
+        mBucketCounts.incrementAndGet(getBucketIndex(value));
+    }
+
+    /**
+     * Get the index of the bucket the provided value falls into.
+     *
+     * @param value to get the bucket index for.
+     *
+     * @return bucket index.
+     */
+    int getBucketIndex(long value) {
+        if (value <= 0) {
+            return 0;
+        }
+        return Math.min(64 - Long.numberOfLeadingZeros(value), mBucketCounts.length() - 1);
+    }
+
+    /**
+     * Get the inclusive upper bound of the bucket at the provided index.
+     *
+     * @param index of the bucket.
+     *
+     * @return inclusive upper bound of the bucket.
+     */
+    long getBucketUpperBound(int index) {
+        if (index >= mBucketCounts.length() - 1) {
+            return Long.MAX_VALUE;
+        }
+        return (1L << index) - 1;
+    }
+
+    /**
+     * Take a snapshot of the histogram. The snapshot is only weakly consistent
+     * with values recorded concurrently.
+     *
+     * @return snapshot of the histogram.
+     */
+    @NonNull
+    ConnectionStats.Histogram snapshot() {
+        final int numberOfBuckets = mBucketCounts.length();
+        final long[] upperBounds = new long[numberOfBuckets];
+        final long[] counts = new long[numberOfBuckets];
+        for (int i = 0; i < numberOfBuckets; i++) {
+            upperBounds[i] = getBucketUpperBound(i);
+            counts[i] = mBucketCounts.get(i);
+        }
+        return new ConnectionStats.Histogram(upperBounds, counts);
+    }
+}
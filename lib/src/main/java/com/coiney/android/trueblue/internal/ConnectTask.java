@@ -23,18 +23,19 @@
 
 package com.coiney.android.trueblue.internal;
 
-import android.annotation.TargetApi;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.os.Build;
 import android.support.annotation.NonNull;
 
 import com.coiney.android.trueblue.Connection;
+import com.coiney.android.trueblue.TransportSocket;
 
 import net.jcip.annotations.ThreadSafe;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Thread used to attempt to open a connection to a given BluetoothDevice.
@@ -45,6 +46,9 @@ import java.util.UUID;
 class ConnectTask implements Runnable, PairingMonitor.Listener {
 
     private static final int CONNECTION_DELAY_DURING_DISCOVERY = 1000;
+    // Generous enough for a user to respond to the system pairing dialog, but
+    // ensures a lost pairing result never stalls the task indefinitely.
+    private static final long PAIRING_RESULT_TIMEOUT_MILLIS = 60000;
 
     private final AdapterManager mAdapterManager;
     private final BluetoothDevice mDevice;
@@ -58,7 +62,7 @@ class ConnectTask implements Runnable, PairingMonitor.Listener {
     private volatile boolean mHasPairingStarted;
     private final Logger mLogger;
     private final PairingMonitor mPairingMonitor;
-    private BluetoothSocket mSocket;
+    private TransportSocket mSocket;
 
     /**
      * Create a connect task with the provided parameters.
@@ -88,46 +92,22 @@ class ConnectTask implements Runnable, PairingMonitor.Listener {
      */
     @Override
     public void run() {
-        mLogger.d(mDevice, "Connect task starting up.");
-        UUID serviceRecordUuid = mConnectionConfiguration.getServiceRecordUuid();
-        if (null == serviceRecordUuid) {
-            serviceRecordUuid = BluetoothUtils.getLikelyServiceRecordUuid(mDevice);
-            mLogger.d(mDevice, "No service record UUID provided - trying " +
-                    serviceRecordUuid + ".");
-        }
-        final boolean shouldConnectSecurely = mConnectionConfiguration.isSecure() ||
-                Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD_MR1;
-        mLogger.d(mDevice, "Using " + (shouldConnectSecurely ? "secure" : "insecure") +
-                " connection.");
-        boolean canRetry = true;
-        while (null == mConnection && canRetry) {
-            mLogger.d(mDevice, "Connection attempt #%d.",
-                    mConnectionRetryPolicy.getNumberOfRetriesAttempted() + 1);
-            try {
-                if (!mConnectionConfiguration.canInterruptDiscoveryScan()) {
-                    mLogger.d(mDevice, "Not permitted to interrupt discovery scan.");
-                    ensureDiscoveryNotRunning();
-                }
-                mAdapterManager.stopDiscovery();
-                final boolean isPairingRequired = (mDevice.getBondState() !=
-                        BluetoothDevice.BOND_BONDED);
-                if (isPairingRequired) {
-                    mLogger.d(mDevice, "Pairing will be required as part of connection " +
-                            "attempt.");
-                    mPairingMonitor.registerListener(this);
-                }
-                try {
-                    openConnection(serviceRecordUuid, shouldConnectSecurely, isPairingRequired);
-                } catch (IOException e) {
-                    canRetry = handleConnectionAttemptFailure(isPairingRequired);
-                }
-            } catch (InterruptedException e) {
-                handleConnectionAttemptCancellation();
-                break;
-            }
+        final boolean isTracing = TraceUtils.beginSection("ConnectTask");
+        try {
+            connect();
+        } finally {
+            TraceUtils.endSection(isTracing);
         }
-        // Make absolutely sure we have unregistered.
-        mPairingMonitor.unregisterListener(this);
+    }
+
+    /**
+     * Get the configuration the connection is being attempted with.
+     *
+     * @return connection configuration.
+     */
+    @NonNull
+    ConnectionConfiguration getConnectionConfiguration() {
+        return mConnectionConfiguration;
     }
 
     /**
@@ -139,7 +119,7 @@ class ConnectTask implements Runnable, PairingMonitor.Listener {
         synchronized (mConnectionLock) {
             // If a connection has already been successfully opened then close
             // it. Otherwise, if a connection attempt is being made then close
-            // the underlying Bluetooth socket. Otherwise, simply record the
+            // the underlying socket. Otherwise, simply record the
             // fact that cancellation has been requested - this flag will be
             // checked at various points during task processing.
             mCancelled = true;
@@ -148,16 +128,45 @@ class ConnectTask implements Runnable, PairingMonitor.Listener {
                 mConnection.close();
             } else {
                 mLogger.d(mDevice, "No connection present - attempting to close socket.");
-                BluetoothUtils.closeSocketSilently(mSocket);
+                CloseableUtils.closeSilently(mSocket);
+            }
+        }
+    }
+
+    /**
+     * Write the state of the task to the provided writer. Retry counts are
+     * read without synchronization, so may be momentarily stale.
+     *
+     * @param writer to write to.
+     * @param prefix to indent each line with.
+     */
+    void dump(@NonNull PrintWriter writer, @NonNull String prefix) {
+        final boolean isCancelled;
+        synchronized (mConnectionLock) {
+            isCancelled = mCancelled;
+        }
+        final String pairingResult;
+        synchronized (this) {
+            if (!mHasPairingStarted) {
+                pairingResult = "NOT_STARTED";
+            } else if (null == mDidPairingSucceed) {
+                pairingResult = "PENDING";
+            } else {
+                pairingResult = mDidPairingSucceed ? "SUCCEEDED" : "FAILED";
             }
         }
+        DumpUtils.printLine(writer, prefix, "connectTask",
+                "attempt", mConnectionRetryPolicy.getNumberOfRetriesAttempted() + 1,
+                "retriesRemaining", mConnectionRetryPolicy.getRemainingRetryCount(),
+                "secure", mConnectionConfiguration.isSecure(),
+                "serviceRecordUuid", mConnectionConfiguration.getServiceRecordUuid(),
+                "transport", mConnectionConfiguration.getTransport().getName(),
+                "cancelled", isCancelled,
+                "pairing", pairingResult);
     }
 
     @Override
     public void onPairingAttemptFailed(@NonNull BluetoothDevice device) {
-        if (!mDevice.equals(device)) {
-            return;
-        }
         synchronized (this) {
             mDidPairingSucceed = false;
             notifyAll();
@@ -166,9 +175,6 @@ class ConnectTask implements Runnable, PairingMonitor.Listener {
 
     @Override
     public void onPairingAttemptStarted(@NonNull BluetoothDevice device) {
-        if (!mDevice.equals(device)) {
-            return;
-        }
         // We need to record this because in the event a connection fails for
         // some reason before pairing starts we must not wait for the system to
         // give us a pairing result.
@@ -178,36 +184,80 @@ class ConnectTask implements Runnable, PairingMonitor.Listener {
 
     @Override
     public void onPairingAttemptSucceeded(@NonNull BluetoothDevice device) {
-        if (!mDevice.equals(device)) {
-            return;
-        }
         synchronized (this) {
             mDidPairingSucceed = true;
             notifyAll();
         }
     }
 
+    private void connect() {
+        mLogger.d(mDevice, "Connect task starting up.");
+        UUID serviceRecordUuid = mConnectionConfiguration.getServiceRecordUuid();
+        if (null == serviceRecordUuid) {
+            serviceRecordUuid = BluetoothUtils.getLikelyServiceRecordUuid(mDevice);
+            mLogger.d(mDevice, "No service record UUID provided - trying " +
+                    serviceRecordUuid + ".");
+        }
+        final boolean shouldConnectSecurely = mConnectionConfiguration.isSecure() ||
+                Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD_MR1;
+        mLogger.d(mDevice, "Using " + (shouldConnectSecurely ? "secure" : "insecure") +
+                " connection.");
+        boolean canRetry = true;
+        while (null == mConnection && canRetry) {
+            mLogger.d(mDevice, "Connection attempt #%d.",
+                    mConnectionRetryPolicy.getNumberOfRetriesAttempted() + 1);
+            try {
+                if (!mConnectionConfiguration.canInterruptDiscoveryScan()) {
+                    mLogger.d(mDevice, "Not permitted to interrupt discovery scan.");
+                    ensureDiscoveryNotRunning();
+                }
+                mAdapterManager.stopDiscovery();
+                final boolean isPairingRequired = (mDevice.getBondState() !=
+                        BluetoothDevice.BOND_BONDED);
+                if (isPairingRequired) {
+                    mLogger.d(mDevice, "Pairing will be required as part of connection " +
+                            "attempt.");
+                    mPairingMonitor.registerListener(mDevice, this);
+                }
+                try {
+                    openConnection(serviceRecordUuid, shouldConnectSecurely, isPairingRequired);
+                } catch (IOException e) {
+                    canRetry = handleConnectionAttemptFailure(isPairingRequired);
+                }
+            } catch (InterruptedException e) {
+                handleConnectionAttemptCancellation();
+                break;
+            }
+        }
+        // Make absolutely sure we have unregistered.
+        mPairingMonitor.unregisterListener(mDevice, this);
+    }
+
     private void ensureDiscoveryNotRunning() throws InterruptedException {
-        while (mAdapterManager.isDiscoveryRunning()) {
-            mLogger.d(mDevice, "Discovery scan in progress - delaying connection " +
-                    "attempt by %d ms.", CONNECTION_DELAY_DURING_DISCOVERY);
-            // Ideally this should be a wait-notify setup rather than polling.
-            Thread.sleep(CONNECTION_DELAY_DURING_DISCOVERY);
+        final boolean isTracing = TraceUtils.beginSection("awaitDiscoveryScanFinished");
+        try {
+            while (mAdapterManager.isDiscoveryRunning()) {
+                mLogger.d(mDevice, "Discovery scan in progress - delaying connection " +
+                        "attempt by %d ms.", CONNECTION_DELAY_DURING_DISCOVERY);
+                // Ideally this should be a wait-notify setup rather than polling.
+                Thread.sleep(CONNECTION_DELAY_DURING_DISCOVERY);
+            }
+        } finally {
+            TraceUtils.endSection(isTracing);
         }
     }
 
-    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
     private void openConnection(UUID serviceRecordUuid, boolean shouldConnectSecurely,
             boolean isPairingRequired)
             throws IOException, InterruptedException {
         try {
-            final BluetoothSocket socket;
-            if (shouldConnectSecurely) {
-                socket = mDevice.createRfcommSocketToServiceRecord(serviceRecordUuid);
-            } else {
-                // API version check is incorporated into flag.
-                socket = mDevice.createInsecureRfcommSocketToServiceRecord(
-                        serviceRecordUuid);
+            final TransportSocket socket;
+            boolean isTracing = TraceUtils.beginSection("createSocket");
+            try {
+                socket = mConnectionConfiguration.getTransport().createSocket(mDevice,
+                        serviceRecordUuid, shouldConnectSecurely);
+            } finally {
+                TraceUtils.endSection(isTracing);
             }
             synchronized (mConnectionLock) {
                 if (mCancelled) {
@@ -215,7 +265,12 @@ class ConnectTask implements Runnable, PairingMonitor.Listener {
                 }
                 mSocket = socket;
             }
-            mSocket.connect();
+            isTracing = TraceUtils.beginSection("socketConnect");
+            try {
+                mSocket.connect();
+            } finally {
+                TraceUtils.endSection(isTracing);
+            }
             if (isPairingRequired && mHasPairingStarted && didPairingSucceed()) {
                 mCallback.onPairingSucceeded(this);
             }
@@ -225,7 +280,7 @@ class ConnectTask implements Runnable, PairingMonitor.Listener {
             }
         } catch (IOException e) {
             synchronized (mConnectionLock) {
-                BluetoothUtils.closeSocketSilently(mSocket);
+                CloseableUtils.closeSilently(mSocket);
                 mSocket = null;
             }
             if (Thread.interrupted()) {
@@ -240,7 +295,24 @@ class ConnectTask implements Runnable, PairingMonitor.Listener {
         synchronized (this) {
             if (null == mDidPairingSucceed) {
                 mLogger.d(mDevice, "Waiting for pairing result from system.");
-                wait();
+                final boolean isTracing = TraceUtils.beginSection("awaitPairingResult");
+                try {
+                    final long deadlineNanos = System.nanoTime() +
+                            TimeUnit.MILLISECONDS.toNanos(PAIRING_RESULT_TIMEOUT_MILLIS);
+                    long remainingMillis = PAIRING_RESULT_TIMEOUT_MILLIS;
+                    while (null == mDidPairingSucceed && remainingMillis > 0) {
+                        wait(remainingMillis);
+                        remainingMillis = TimeUnit.NANOSECONDS.toMillis(
+                                deadlineNanos - System.nanoTime());
+                    }
+                } finally {
+                    TraceUtils.endSection(isTracing);
+                }
+                if (null == mDidPairingSucceed) {
+                    mLogger.d(mDevice, "Timed out waiting for pairing result - treating " +
+                            "pairing as failed.");
+                    mDidPairingSucceed = false;
+                }
             }
             return mDidPairingSucceed;
         }
@@ -275,7 +347,12 @@ class ConnectTask implements Runnable, PairingMonitor.Listener {
         mConnectionRetryPolicy.retry();
         final int retryDelay = mConnectionRetryPolicy.getCurrentRetryDelay();
         mLogger.d(mDevice, "Waiting %d ms before next connection attempt.", retryDelay);
-        Thread.sleep(retryDelay);
+        final boolean isTracing = TraceUtils.beginSection("retryDelay");
+        try {
+            Thread.sleep(retryDelay);
+        } finally {
+            TraceUtils.endSection(isTracing);
+        }
         return true;
     }
 
@@ -284,10 +361,10 @@ class ConnectTask implements Runnable, PairingMonitor.Listener {
         mCallback.onConnectionCancelled(this);
     }
 
-    private void handleConnectionAttemptSucceeded(BluetoothSocket socket) throws IOException {
+    private void handleConnectionAttemptSucceeded(TransportSocket socket) throws IOException {
         mLogger.d(mDevice, "Connection succeeded.");
         mConnection = new ConnectionImpl(socket, socket.getInputStream(),
-                socket.getOutputStream());
+                socket.getOutputStream(), mConnectionConfiguration.getTransport().getName());
         mCallback.onConnectionSucceeded(this, mConnection);
     }
 
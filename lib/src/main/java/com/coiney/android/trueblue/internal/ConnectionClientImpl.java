@@ -24,26 +24,54 @@
 package com.coiney.android.trueblue.internal;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 
 import com.coiney.android.trueblue.Connection;
 import com.coiney.android.trueblue.ConnectionClient;
+import com.coiney.android.trueblue.ConnectionStats;
+import com.coiney.android.trueblue.HeartbeatConfiguration;
 
 import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Basic implementation of the {@link ConnectionClient} interface.
  */
 @ThreadSafe
 public class ConnectionClientImpl implements ConnectionClient, ReadThread.Callback,
-        WriteThread.Callback, Connection.OnCloseListener {
+        WriteThread.Callback, Connection.OnCloseListener, HeartbeatMonitor.Callback {
+
+    // Weakly tracks every client with an open connection, so that diagnostic
+    // dumps can report on clients the library does not otherwise hold.
+    @GuardedBy("sLiveClients")
+    private static final Set<ConnectionClientImpl> sLiveClients =
+            Collections.newSetFromMap(new WeakHashMap<ConnectionClientImpl, Boolean>());
 
     private final Callback mCallback;
+    private final AtomicBoolean mHasHandledClose = new AtomicBoolean(false);
+    private final HeartbeatMonitor mHeartbeatMonitor;
+    @GuardedBy("mWriteLock")
+    private boolean mIsClosing;
+    private final AtomicBoolean mIsPeerUnresponsive = new AtomicBoolean(false);
     private final int mReadBufferSize;
     private final Object mReadLock = new Object();
     @GuardedBy("mReadLock")
     private ReadThread mReadThread;
     private final Connection mConnection;
+    private final ConnectionMetrics mMetrics = new ConnectionMetrics();
     private final Object mWriteLock = new Object();
     @GuardedBy("mWriteLock")
     private WriteThread mWriteThread;
@@ -57,10 +85,80 @@ public class ConnectionClientImpl implements ConnectionClient, ReadThread.Callba
      */
     public ConnectionClientImpl(@NonNull Connection connection, int readBufferSize,
             @NonNull Callback callback) {
+        this(connection, readBufferSize, null, callback);
+    }
+
+    /**
+     * Create a new asynchronous connection client with the provided
+     * parameters, which sends heartbeats once reading has been started.
+     *
+     * @param connection to manage.
+     * @param readBufferSize to use when reading.
+     * @param heartbeatConfiguration describing the heartbeat, or null for no
+     *                               heartbeat.
+     * @param callback to report operation results to.
+     */
+    public ConnectionClientImpl(@NonNull Connection connection, int readBufferSize,
+            @Nullable HeartbeatConfiguration heartbeatConfiguration,
+            @NonNull Callback callback) {
         mCallback = callback;
+        // Only create the monitor when needed, as it requires the main looper.
+        mHeartbeatMonitor = (heartbeatConfiguration != null) ?
+                new HeartbeatMonitor(heartbeatConfiguration, this) : null;
         mReadBufferSize = readBufferSize;
         mConnection = connection;
         mConnection.registerOnCloseListener(this);
+        synchronized (sLiveClients) {
+            sLiveClients.add(this);
+        }
+    }
+
+    /**
+     * Get every client with an open connection.
+     *
+     * @return snapshot of the live clients.
+     */
+    @NonNull
+    static List<ConnectionClientImpl> getLiveClients() {
+        synchronized (sLiveClients) {
+            return new ArrayList<>(sLiveClients);
+        }
+    }
+
+    /**
+     * Get every client with an open connection managing one of the provided
+     * connections.
+     *
+     * @param connections whose clients to get.
+     *
+     * @return snapshot of the live clients of the connections.
+     */
+    @NonNull
+    static List<ConnectionClientImpl> getLiveClients(@NonNull Collection<Connection> connections) {
+        final List<ConnectionClientImpl> clients = new ArrayList<>();
+        synchronized (sLiveClients) {
+            for (ConnectionClientImpl client : sLiveClients) {
+                if (connections.contains(client.mConnection)) {
+                    clients.add(client);
+                }
+            }
+        }
+        return clients;
+    }
+
+    /**
+     * Write the state of every client with an open connection to the provided
+     * writer.
+     *
+     * @param writer to write to.
+     * @param prefix to indent each line with.
+     */
+    public static void dumpLiveClients(@NonNull PrintWriter writer, @NonNull String prefix) {
+        final List<ConnectionClientImpl> clients = getLiveClients();
+        DumpUtils.printLine(writer, prefix, "clients", "liveCount", clients.size());
+        for (ConnectionClientImpl client : clients) {
+            client.dump(writer, prefix + DumpUtils.INDENT);
+        }
     }
 
     /**
@@ -95,6 +193,75 @@ public class ConnectionClientImpl implements ConnectionClient, ReadThread.Callba
         mConnection.close();
     }
 
+    /**
+     * <p>
+     * Close the connection being managed once all queued data has been
+     * written, or once the provided timeout has elapsed, whichever comes
+     * first. This method blocks until the connection has been closed.
+     * </p>
+     *
+     * <p>
+     * Once this method has been called no further data will be accepted for
+     * writing. Any data which could not be written before the timeout elapsed
+     * is removed from the queue and returned, apart from any heartbeat pings.
+     * Data whose write was already in progress when the timeout elapsed is
+     * not returned - its result will be reported via the callback as usual.
+     * </p>
+     *
+     * @param drainTimeoutMillis maximum time to wait for queued data to be
+     *                           written, in milliseconds.
+     *
+     * @return data which was queued but never written, in the order it was
+     *         queued.
+     *
+     * @throws IllegalArgumentException if drainTimeoutMillis is less than
+     *                                  zero.
+     */
+    @NonNull
+    @Override
+    @WorkerThread
+    public List<byte[]> close(long drainTimeoutMillis) {
+        if (drainTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Drain timeout must be at least 0.");
+        }
+        final WriteThread writeThread;
+        synchronized (mWriteLock) {
+            mIsClosing = true;
+            writeThread = mWriteThread;
+        }
+        if (null == writeThread || !isOpen()) {
+            mConnection.close();
+            return Collections.emptyList();
+        }
+        final CountDownLatch drainLatch = writeThread.drain();
+        try {
+            drainLatch.await(drainTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            // Treat as the timeout elapsing, but preserve the interrupt.
+            Thread.currentThread().interrupt();
+        }
+        final List<byte[]> unsentData = writeThread.removeUnsentData();
+        // Pings were never the caller's data, so are never handed back.
+        final Iterator<byte[]> iterator = unsentData.iterator();
+        while (iterator.hasNext()) {
+            if (isPing(iterator.next())) {
+                iterator.remove();
+            }
+        }
+        mConnection.close();
+        return unsentData;
+    }
+
+    /**
+     * Stop accepting data for writing, as per {@link #close(long)}, without
+     * closing the connection. Data already queued will still be written.
+     */
+    void stopAcceptingWrites() {
+        synchronized (mWriteLock) {
+            mIsClosing = true;
+        }
+    }
+
     /**
      * <p>
      * Start reading continuously and asynchronously from the connection being
@@ -119,6 +286,11 @@ public class ConnectionClientImpl implements ConnectionClient, ReadThread.Callba
      * no effect.
      * </p>
      *
+     * <p>
+     * If a heartbeat has been configured, it is started along with reading,
+     * since pongs can only be received once reading has started.
+     * </p>
+     *
      * @throws IllegalStateException if the connection has been closed.
      */
     @Override
@@ -133,6 +305,9 @@ public class ConnectionClientImpl implements ConnectionClient, ReadThread.Callba
             mReadThread = new ReadThread(mConnection, mReadBufferSize, this);
             mReadThread.start();
         }
+        if (mHeartbeatMonitor != null) {
+            mHeartbeatMonitor.start();
+        }
     }
 
     /**
@@ -150,7 +325,9 @@ public class ConnectionClientImpl implements ConnectionClient, ReadThread.Callba
      *
      * @param data to write.
      *
-     * @throws IllegalStateException if the connection has been closed.
+     * @throws IllegalStateException if the connection has been closed or is
+     *                               being closed via {@link #close(long)} or
+     *                               because Bluetooth is turning off.
      */
     @Override
     public void write(@NonNull byte[] data) {
@@ -158,21 +335,83 @@ public class ConnectionClientImpl implements ConnectionClient, ReadThread.Callba
             if (!isOpen()) {
                 throw new IllegalStateException("Connection has been closed.");
             }
-            if (mWriteThread == null) {
-                mWriteThread = new WriteThread(mConnection, this);
-                mWriteThread.start();
+            if (mIsClosing) {
+                throw new IllegalStateException("Connection is closing.");
             }
-            mWriteThread.write(data);
+            enqueueWrite(data);
         }
     }
 
+    /**
+     * <p>
+     * Get a snapshot of the statistics gathered for the connection being
+     * managed.
+     * </p>
+     *
+     * <p>
+     * Read and error statistics are those of the underlying connection, while
+     * write latencies and queue depths are measured by the client so that
+     * time spent waiting in the write queue is included. Heartbeat round
+     * trip times are reported if a heartbeat has been configured.
+     * </p>
+     *
+     * @return statistics snapshot.
+     */
+    @NonNull
+    @Override
+    public ConnectionStats getStats() {
+        final ConnectionStats clientStats = mMetrics.snapshot();
+        return new ConnectionStats.Builder(mConnection.getStats())
+                .setWriteLatencyHistogram(clientStats.getWriteLatencyHistogram())
+                .setWriteQueueDepth(clientStats.getWriteQueueDepth())
+                .setWriteQueueDepthHighWaterMark(clientStats.getWriteQueueDepthHighWaterMark())
+                .setRoundTripTimeHistogram((mHeartbeatMonitor != null) ?
+                        mHeartbeatMonitor.getRoundTripTimeHistogram() :
+                        ConnectionStats.Histogram.empty())
+                .build();
+    }
+
+    /**
+     * Write the state of the client to the provided writer.
+     *
+     * @param writer to write to.
+     * @param prefix to indent each line with.
+     */
+    void dump(@NonNull PrintWriter writer, @NonNull String prefix) {
+        final boolean isReadThreadAlive;
+        synchronized (mReadLock) {
+            isReadThreadAlive = mReadThread != null && mReadThread.isAlive();
+        }
+        final boolean isWriteThreadAlive;
+        synchronized (mWriteLock) {
+            isWriteThreadAlive = mWriteThread != null && mWriteThread.isAlive();
+        }
+        DumpUtils.printLine(writer, prefix, "client", DumpUtils.concat(new Object[] {
+                "id", Integer.toHexString(System.identityHashCode(this)),
+                "open", isOpen(),
+                "readThreadAlive", isReadThreadAlive,
+                "writeThreadAlive", isWriteThreadAlive,
+                "heartbeat", mHeartbeatMonitor != null,
+                "missedHeartbeats", (mHeartbeatMonitor != null) ?
+                        mHeartbeatMonitor.getMissedHeartbeatCount() : 0
+        }, DumpUtils.describe(getStats())));
+    }
+
     @Override
     public void onConnectionClosed(@NonNull Connection connection,
             boolean wasClosedByError) {
-        if (!isOpen()) {
+        synchronized (sLiveClients) {
+            sLiveClients.remove(this);
+        }
+        // The connection is already closed by the time this is called, so
+        // track whether it has been handled separately.
+        if (mHasHandledClose.getAndSet(true)) {
             return;
         }
         mConnection.unregisterOnCloseListener(this);
+        if (mHeartbeatMonitor != null) {
+            mHeartbeatMonitor.stop();
+        }
         synchronized (mReadLock) {
             if (mReadThread != null) {
                 mReadThread.interrupt();
@@ -185,11 +424,14 @@ public class ConnectionClientImpl implements ConnectionClient, ReadThread.Callba
                 mWriteThread = null;
             }
         }
-        mCallback.onConnectionClosed(this, wasClosedByError);
+        mCallback.onConnectionClosed(this, wasClosedByError || mIsPeerUnresponsive.get());
     }
 
     @Override
     public void onDataRead(@NonNull byte[] bytes) {
+        if (mHeartbeatMonitor != null && mHeartbeatMonitor.onDataRead(bytes)) {
+            return;
+        }
         mCallback.onDataRead(this, bytes);
     }
 
@@ -200,11 +442,51 @@ public class ConnectionClientImpl implements ConnectionClient, ReadThread.Callba
 
     @Override
     public void onDataWritten(@NonNull byte[] data) {
+        if (isPing(data)) {
+            return;
+        }
         mCallback.onDataWritten(this, data);
     }
 
     @Override
     public void onWriteErrorEncountered(@NonNull byte[] data) {
+        if (isPing(data)) {
+            return;
+        }
         mCallback.onWriteErrorEncountered(this, data);
     }
+
+    @Override
+    public void onPingDue(@NonNull byte[] ping) {
+        synchronized (mWriteLock) {
+            // Pings must not hold up a drain, so stop as soon as closing.
+            if (isOpen() && !mIsClosing) {
+                enqueueWrite(ping);
+            }
+        }
+    }
+
+    @Override
+    public void onPeerUnresponsive(int missedHeartbeatCount) {
+        mIsPeerUnresponsive.set(true);
+        // Report the closure as by error, as if a read had failed.
+        if (mConnection instanceof ConnectionImpl) {
+            ((ConnectionImpl) mConnection).abort();
+        } else {
+            mConnection.close();
+        }
+    }
+
+    // Must be called while holding the write lock.
+    private void enqueueWrite(@NonNull byte[] data) {
+        if (mWriteThread == null) {
+            mWriteThread = new WriteThread(mConnection, mMetrics, this);
+            mWriteThread.start();
+        }
+        mWriteThread.write(data);
+    }
+
+    private boolean isPing(@NonNull byte[] data) {
+        return mHeartbeatMonitor != null && mHeartbeatMonitor.isPing(data);
+    }
 }
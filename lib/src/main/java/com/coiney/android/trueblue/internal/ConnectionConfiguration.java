@@ -26,6 +26,8 @@ package com.coiney.android.trueblue.internal;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.coiney.android.trueblue.Transport;
+
 import java.util.UUID;
 
 /**
@@ -45,14 +47,30 @@ public class ConnectionConfiguration {
     private final ConnectionRetryPolicy mConnectionRetryPolicy;
     private final boolean mIsSecure;
     private final UUID mServiceRecordUuid;
+    private final Transport mTransport;
 
     public ConnectionConfiguration(UUID serviceRecordUuid, boolean isSecure,
             boolean canInterruptDiscoveryScan,
-            ConnectionRetryPolicy connectionRetryPolicy) {
+            ConnectionRetryPolicy connectionRetryPolicy, Transport transport) {
         mCanInterruptDiscoveryScan = canInterruptDiscoveryScan;
         mConnectionRetryPolicy = connectionRetryPolicy;
         mIsSecure = isSecure;
         mServiceRecordUuid = serviceRecordUuid;
+        mTransport = transport;
+    }
+
+    /**
+     * Create a copy of the configuration with a retry policy which has not
+     * attempted any retries, for use by a new connection attempt. The retry
+     * policy tracks the retries of a single attempt, so a configuration must
+     * not be shared between attempts.
+     *
+     * @return copy of the configuration.
+     */
+    @NonNull
+    public ConnectionConfiguration copy() {
+        return new ConnectionConfiguration(mServiceRecordUuid, mIsSecure,
+                mCanInterruptDiscoveryScan, mConnectionRetryPolicy.copy(), mTransport);
     }
 
     /**
@@ -98,4 +116,14 @@ public class ConnectionConfiguration {
     UUID getServiceRecordUuid() {
         return mServiceRecordUuid;
     }
+
+    /**
+     * Get the transport with which to create the socket to connect over.
+     *
+     * @return the transport to connect with.
+     */
+    @NonNull
+    Transport getTransport() {
+        return mTransport;
+    }
 }
@@ -23,10 +23,11 @@
 
 package com.coiney.android.trueblue.internal;
 
-import android.bluetooth.BluetoothSocket;
 import android.support.annotation.NonNull;
 
 import com.coiney.android.trueblue.Connection;
+import com.coiney.android.trueblue.ConnectionStats;
+import com.coiney.android.trueblue.TransportSocket;
 
 import net.jcip.annotations.ThreadSafe;
 
@@ -39,29 +40,32 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Implementation of the {@link Connection} interface for a connection with a
- * Bluetooth device.
+ * Bluetooth device, over a socket created by any transport.
  */
 @ThreadSafe
 class ConnectionImpl implements Connection {
 
-    private final BluetoothSocket mBluetoothSocket;
     private final InputStream mInputStream;
     private final AtomicBoolean mIsOpen = new AtomicBoolean(true);
+    private final ConnectionMetrics mMetrics;
     private final Set<OnCloseListener> mOnCloseListeners = new CopyOnWriteArraySet<>();
     private final OutputStream mOutputStream;
+    private final TransportSocket mSocket;
 
     /**
      * Create a new synchronous connection with the provided parameters.
      *
-     * @param bluetoothSocket Bluetooth socket backing the connection.
-     * @param inputStream of the Bluetooth socket.
-     * @param outputStream of the Bluetooth socket.
+     * @param socket backing the connection.
+     * @param inputStream of the socket.
+     * @param outputStream of the socket.
+     * @param transportName of the transport which created the socket.
      */
-    ConnectionImpl(@NonNull BluetoothSocket bluetoothSocket, @NonNull InputStream inputStream,
-            @NonNull OutputStream outputStream) {
-        mBluetoothSocket = bluetoothSocket;
+    ConnectionImpl(@NonNull TransportSocket socket, @NonNull InputStream inputStream,
+            @NonNull OutputStream outputStream, @NonNull String transportName) {
         mInputStream = inputStream;
+        mMetrics = new ConnectionMetrics(transportName);
         mOutputStream = outputStream;
+        mSocket = socket;
     }
 
     /**
@@ -85,6 +89,18 @@ class ConnectionImpl implements Connection {
         closeConnection(false);
     }
 
+    /**
+     * Abort the connection, closing it as if a read or write had failed so
+     * that it is reported as having been closed by error. Used when the
+     * underlying link is known to have been lost.
+     *
+     * Note that calling this method on a connection which is already closed
+     * has no effect.
+     */
+    void abort() {
+        closeConnection(true);
+    }
+
     /**
      * Read from the connection into the provided buffer, blocking until the
      * read completes.
@@ -109,8 +125,12 @@ class ConnectionImpl implements Connection {
             if (numBytesRead < 0) {
                 throw new IOException("Read error - closing connection.");
             }
+            if (numBytesRead > 0) {
+                mMetrics.recordRead(numBytesRead);
+            }
             return numBytesRead;
         } catch (IOException e) {
+            mMetrics.recordReadError();
             closeConnection(true);
             throw e;
         }
@@ -127,9 +147,12 @@ class ConnectionImpl implements Connection {
     @Override
     public void write(@NonNull byte[] data) throws IOException {
         synchronized (mOutputStream) {
+            final long startedAtNanos = System.nanoTime();
             try {
                 mOutputStream.write(data);
+                mMetrics.recordWrite(data.length, startedAtNanos);
             } catch (IOException e) {
+                mMetrics.recordWriteError();
                 closeConnection(true);
                 throw e;
             }
@@ -158,13 +181,26 @@ class ConnectionImpl implements Connection {
         mOnCloseListeners.remove(listener);
     }
 
+    /**
+     * Get a snapshot of the statistics gathered for the connection since it
+     * was opened.
+     *
+     * @return statistics snapshot.
+     */
+    @NonNull
+    @Override
+    public ConnectionStats getStats() {
+        return mMetrics.snapshot();
+    }
+
     private void closeConnection(boolean wasClosedByError) {
         if (!mIsOpen.getAndSet(false)) {
             return;
         }
+        mMetrics.recordClosed();
         CloseableUtils.closeSilently(mInputStream);
         CloseableUtils.closeSilently(mOutputStream);
-        BluetoothUtils.closeSocketSilently(mBluetoothSocket);
+        CloseableUtils.closeSilently(mSocket);
         for (OnCloseListener listener : mOnCloseListeners) {
             listener.onConnectionClosed(this, wasClosedByError);
         }
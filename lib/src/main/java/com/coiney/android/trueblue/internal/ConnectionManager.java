@@ -23,31 +23,126 @@
 
 package com.coiney.android.trueblue.internal;
 
+import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.coiney.android.trueblue.Connection;
 import com.coiney.android.trueblue.ConnectionAttemptCallback;
+import com.coiney.android.trueblue.ConnectionStats;
 import com.coiney.android.trueblue.DeviceConnectionListener;
+import com.coiney.android.trueblue.DisconnectAllCallback;
+import com.coiney.android.trueblue.DisconnectAllOperation;
+import com.coiney.android.trueblue.DisconnectResult;
 
 import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * <p>
  * Manages connections to Bluetooth devices.
+ * </p>
+ *
+ * <p>
+ * Once started, the manager closes a connection as soon as the link with its
+ * device is reported lost, rather than waiting for a read or write to fail.
+ * This means that idle connections are reported as disconnected within
+ * milliseconds of the device going out of range or being switched off.
+ * </p>
+ *
+ * <p>
+ * Once started, the manager quiesces all connections as soon as the adapter
+ * starts turning off, rather than waiting for every socket to fail with an
+ * I/O error. Connection clients stop accepting writes and are given a short
+ * time to flush their write queues before being closed, and connection
+ * attempts are cancelled. Optionally, the connections which were open or being
+ * attempted are re-attempted when the adapter turns back on.
+ * </p>
  */
 @ThreadSafe
 public final class ConnectionManager implements ConnectionProxy.Listener {
 
+    /**
+     * Default deadline used by {@link #disconnectAll()}.
+     */
+    public static final long DEFAULT_DISCONNECT_ALL_TIMEOUT_MILLIS = 5000;
+
+    // A piconet has at most 7 active slaves, so this allows every link to be
+    // closed at once without letting the pool grow unbounded.
+    private static final int MAX_DISCONNECT_THREADS = 7;
+    private static final long DISCONNECT_THREAD_KEEP_ALIVE_SECONDS = 10;
+    // Sockets are torn down shortly after the adapter starts turning off, so
+    // there is little point waiting longer than this for writes to drain.
+    private static final long QUIESCE_DRAIN_TIMEOUT_MILLIS = 500;
+
+    private final AclMonitor mAclMonitor;
+    private final AclMonitor.Listener mAclListener = new AclMonitor.Listener() {
+        @Override
+        public void onLinkEstablished(@NonNull BluetoothDevice device) {
+            if (getConnectionProxy(device) != null) {
+                mLogger.d(device, "Link established.");
+            }
+        }
+
+        @Override
+        public void onLinkLost(@NonNull BluetoothDevice device) {
+            // The managed connections are keyed by device, which is itself
+            // keyed by address, so this lookup is constant time.
+            final ConnectionProxy connectionProxy = getConnectionProxy(device);
+            if (null == connectionProxy || !connectionProxy.isConnected()) {
+                return;
+            }
+            mLogger.d(device, "Link lost - aborting connection.");
+            // Closing a socket can block, so keep it off the receiver thread.
+            mDisconnectExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    connectionProxy.abort();
+                }
+            });
+        }
+    };
     private final AdapterManager mAdapterManager;
+    private final BluetoothStatusMonitor.AdapterStateListener mAdapterStateListener =
+            new BluetoothStatusMonitor.AdapterStateListener() {
+                @Override
+                public void onAdapterStateChanged(int state) {
+                    switch (state) {
+                        case BluetoothAdapter.STATE_TURNING_OFF:
+                            quiesce();
+                            break;
+                        case BluetoothAdapter.STATE_OFF:
+                            // Clean up anything missed while turning off.
+                            disconnectAll();
+                            break;
+                        case BluetoothAdapter.STATE_ON:
+                            restoreConnections();
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            };
     private final ExecutorService mConnectTaskExecutor;
+    private final ThreadPoolExecutor mDisconnectExecutor;
     private final Set<DeviceConnectionListener> mDeviceConnectionListeners =
             new CopyOnWriteArraySet<>();
     private final Logger mLogger;
@@ -55,22 +150,65 @@ public final class ConnectionManager implements ConnectionProxy.Listener {
     private final Map<BluetoothDevice, ConnectionProxy> mManagedConnections = new HashMap<>();
     private final Object mManagedConnectionsLock = new Object();
     private final PairingMonitor mPairingMonitor;
+    @GuardedBy("mManagedConnectionsLock")
+    private final List<RestorableConnection> mRestorableConnections = new ArrayList<>();
+    private volatile boolean mShouldRestoreConnections;
 
     /**
      * Create a connection manager with the provided parameters.
      *
      * @param adapterManager to use when attempting connections.
      * @param pairingMonitor to use when attempting connections.
+     * @param aclMonitor with which to detect lost links.
      * @param connectTaskExecutor to execute connection tasks on.
      * @param logger to log to.
      */
     public ConnectionManager(@NonNull AdapterManager adapterManager,
-            @NonNull PairingMonitor pairingMonitor, @NonNull ExecutorService connectTaskExecutor,
-            @NonNull Logger logger) {
+            @NonNull PairingMonitor pairingMonitor, @NonNull AclMonitor aclMonitor,
+            @NonNull ExecutorService connectTaskExecutor, @NonNull Logger logger) {
+        mAclMonitor = aclMonitor;
         mAdapterManager = adapterManager;
         mConnectTaskExecutor = connectTaskExecutor;
         mLogger = logger;
         mPairingMonitor = pairingMonitor;
+        mDisconnectExecutor = new ThreadPoolExecutor(MAX_DISCONNECT_THREADS,
+                MAX_DISCONNECT_THREADS, DISCONNECT_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        return new Thread(runnable, "TrueBlue-DisconnectThread");
+                    }
+                });
+        // Threads are only needed while disconnecting, so don't keep them idle.
+        mDisconnectExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Start the connection manager, which primarily commences monitoring the
+     * adapter state so that connections can be quiesced when the adapter
+     * turns off, and monitoring links so that lost connections are closed
+     * immediately.
+     */
+    public void start() {
+        mAclMonitor.registerListener(mAclListener);
+        mAdapterManager.registerAdapterStateListener(mAdapterStateListener);
+    }
+
+    /**
+     * Set whether connections which were open or being attempted when the
+     * adapter turned off should be re-attempted once it turns back on. Each
+     * is re-attempted with its original configuration and callback (if the
+     * callback is still reachable). Disabled by default.
+     *
+     * @param shouldRestoreConnections or not.
+     */
+    public void setShouldRestoreConnections(boolean shouldRestoreConnections) {
+        mShouldRestoreConnections = shouldRestoreConnections;
+        if (!shouldRestoreConnections) {
+            synchronized (mManagedConnectionsLock) {
+                mRestorableConnections.clear();
+            }
+        }
     }
 
     /**
@@ -98,6 +236,42 @@ public final class ConnectionManager implements ConnectionProxy.Listener {
         return getConnectionProxy(device) != null;
     }
 
+    /**
+     * Get the number of connection attempts currently in progress.
+     *
+     * @return number of connection attempts in progress.
+     */
+    public int getConnectionAttemptCount() {
+        int connectionAttemptCount = 0;
+        for (ConnectionProxy connectionProxy : getConnectionProxies()) {
+            if (connectionProxy.isConnecting()) {
+                connectionAttemptCount++;
+            }
+        }
+        return connectionAttemptCount;
+    }
+
+    /**
+     * Get the number of bytes read from and written to each of the
+     * connections currently being managed. Connections which have since
+     * closed are not included, so throughput should be measured by comparing
+     * the counts of each connection rather than the sum of them all.
+     *
+     * @return number of bytes transferred, keyed by connection.
+     */
+    @NonNull
+    public Map<Connection, Long> getBytesTransferredByConnection() {
+        final Map<Connection, Long> bytesTransferred = new IdentityHashMap<>();
+        for (ConnectionProxy connectionProxy : getConnectionProxies()) {
+            final Connection connection = connectionProxy.getConnection();
+            final ConnectionStats stats = (connection != null) ? connection.getStats() : null;
+            if (stats != null) {
+                bytesTransferred.put(connection, stats.getBytesRead() + stats.getBytesWritten());
+            }
+        }
+        return bytesTransferred;
+    }
+
     /**
      * Attempt to connect to the provided Bluetooth device with the provided
      * connection configuration. The connection attempt takes place
@@ -135,6 +309,39 @@ public final class ConnectionManager implements ConnectionProxy.Listener {
         }
     }
 
+    /**
+     * Manage a connection which was accepted from the provided Bluetooth
+     * device, so that it is treated in exactly the same way as an outbound
+     * connection. Registered device connection listeners are notified that
+     * the device is connected.
+     *
+     * This method returns a flag indicating whether the connection was
+     * registered or not. A return value of false indicates that the device is
+     * already connected or being connected to, in which case the caller
+     * remains responsible for the connection.
+     *
+     * @param device the connection was accepted from.
+     * @param connection accepted from the device.
+     *
+     * @return flag indicating whether the connection was registered or not.
+     */
+    boolean registerInboundConnection(@NonNull BluetoothDevice device,
+            @NonNull Connection connection) {
+        synchronized (mManagedConnectionsLock) {
+            if (mManagedConnections.containsKey(device)) {
+                mLogger.d(device, "Cannot register inbound connection - already connected or " +
+                        "connection in progress.");
+                return false;
+            }
+            final ConnectionProxy connectionProxy = new ConnectionProxy(device, null, this);
+            connectionProxy.adopt(connection);
+            mManagedConnections.put(device, connectionProxy);
+        }
+        mLogger.d(device, "Inbound connection registered.");
+        notifyDeviceConnected(device);
+        return true;
+    }
+
     /**
      * Attempt to disconnect from the provided Bluetooth device. The
      * disconnection attempt may be processed asynchronously.
@@ -165,23 +372,80 @@ public final class ConnectionManager implements ConnectionProxy.Listener {
     }
 
     /**
+     * Attempt to disconnect from all Bluetooth devices which are either
+     * connected or being connected to, using the default deadline and without
+     * reporting completion. Note that this is a point in time process, and
+     * will not prevent any connection attempts started after the method
+     * returns.
+     */
+    public void disconnectAll() {
+        disconnectAll(DEFAULT_DISCONNECT_ALL_TIMEOUT_MILLIS, null);
+    }
+
+    /**
+     * <p>
      * Attempt to disconnect from all Bluetooth devices which are either
      * connected or being connected to. Note that this is a point in time
      * process, and will not prevent any connection attempts started after the
      * method returns.
+     * </p>
+     *
+     * <p>
+     * Devices are disconnected in parallel on a bounded pool of threads, since
+     * closing a socket can block for a significant amount of time. Once the
+     * provided timeout elapses the operation completes regardless, with any
+     * devices still outstanding reported as {@link DisconnectResult#TIMED_OUT}.
+     * </p>
+     *
+     * <p>
+     * Devices are disconnected even if Bluetooth is disabled, so that
+     * connections left behind by the adapter being switched off are cleaned up.
+     * </p>
+     *
+     * @param timeoutMillis after which the operation completes regardless.
+     *                      Must be greater than 0.
+     * @param callback to report completion to, if any.
+     *
+     * @return handle for the operation.
+     *
+     * @throws IllegalArgumentException if the timeout is not greater than 0.
      */
-    public void disconnectAll() {
-        if (!mAdapterManager.isAdapterEnabled()) {
-            mLogger.d("Cannot disconnect all devices - Bluetooth is disabled.");
-            return;
+    @NonNull
+    public DisconnectAllOperation disconnectAll(long timeoutMillis,
+            @Nullable DisconnectAllCallback callback) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Timeout must be greater than 0.");
         }
-        final Set<BluetoothDevice> managedDevicesCopy;
-        synchronized (mManagedConnectionsLock) {
-            managedDevicesCopy = new HashSet<>(mManagedConnections.keySet());
+        final List<ConnectionProxy> connectionProxies = getConnectionProxies();
+        final Set<BluetoothDevice> devices = new HashSet<>();
+        for (ConnectionProxy connectionProxy : connectionProxies) {
+            devices.add(connectionProxy.getDevice());
         }
-        for (BluetoothDevice device : managedDevicesCopy) {
-            disconnect(device);
+        final DisconnectAllOperationImpl operation = new DisconnectAllOperationImpl(devices,
+                callback);
+        if (operation.isComplete()) {
+            return operation;
         }
+        mLogger.d("Disconnecting " + devices.size() + " device(s).");
+        for (final ConnectionProxy connectionProxy : connectionProxies) {
+            mDisconnectExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // Results reported after the deadline are ignored, but the
+                    // device must still be disconnected.
+                    final BluetoothDevice device = connectionProxy.getDevice();
+                    mLogger.d(device, "Disconnecting.");
+                    operation.setResult(device, connectionProxy.disconnect());
+                }
+            });
+        }
+        ThreadUtils.postOnMainThreadDelayed(new Runnable() {
+            @Override
+            public void run() {
+                operation.onDeadlineExpired();
+            }
+        }, timeoutMillis);
+        return operation;
     }
 
     /**
@@ -204,6 +468,32 @@ public final class ConnectionManager implements ConnectionProxy.Listener {
         mDeviceConnectionListeners.remove(listener);
     }
 
+    /**
+     * <p>
+     * Write the state of all managed connections to the provided writer.
+     * </p>
+     *
+     * <p>
+     * The set of managed connections is captured atomically, after which each
+     * connection is dumped under its own lock. The state of each individual
+     * connection is therefore consistent, but connections may change state
+     * relative to each other while the dump is being written.
+     * </p>
+     *
+     * @param writer to write to.
+     * @param prefix to indent each line with.
+     */
+    public void dump(@NonNull PrintWriter writer, @NonNull String prefix) {
+        final List<ConnectionProxy> connectionProxies = getConnectionProxies();
+        DumpUtils.printLine(writer, prefix, "connections",
+                "managedCount", connectionProxies.size(),
+                "listenerCount", mDeviceConnectionListeners.size(),
+                "shouldRestore", mShouldRestoreConnections);
+        for (ConnectionProxy connectionProxy : connectionProxies) {
+            connectionProxy.dump(writer, prefix + DumpUtils.INDENT);
+        }
+    }
+
     @Override
     public void onConnectionAttemptCancelled(@NonNull ConnectionProxy connectionProxy) {
         mLogger.d(connectionProxy.getDevice(), "Connection attempt cancelled - purging " +
@@ -238,7 +528,10 @@ public final class ConnectionManager implements ConnectionProxy.Listener {
     @Override
     public void onConnectionAttemptSucceeded(@NonNull ConnectionProxy connectionProxy) {
         mLogger.d(connectionProxy.getDevice(), "Connection attempt succeeded.");
-        final BluetoothDevice device = connectionProxy.getDevice();
+        notifyDeviceConnected(connectionProxy.getDevice());
+    }
+
+    private void notifyDeviceConnected(final BluetoothDevice device) {
         ThreadUtils.postOnMainThread(new Runnable() {
             @Override
             public void run() {
@@ -249,16 +542,126 @@ public final class ConnectionManager implements ConnectionProxy.Listener {
         });
     }
 
+    private void quiesce() {
+        final List<ConnectionProxy> connectionProxies = getConnectionProxies();
+        // Clients of connections not managed here, such as those accepted by
+        // a server, are left alone.
+        final Set<Connection> connections =
+                Collections.newSetFromMap(new IdentityHashMap<Connection, Boolean>());
+        for (ConnectionProxy connectionProxy : connectionProxies) {
+            final Connection connection = connectionProxy.getConnection();
+            if (connection != null) {
+                connections.add(connection);
+            }
+        }
+        final List<ConnectionClientImpl> clients =
+                ConnectionClientImpl.getLiveClients(connections);
+        mLogger.d("Bluetooth turning off - quiescing " + connectionProxies.size() +
+                " connection(s) and " + clients.size() + " client(s).");
+        if (mShouldRestoreConnections) {
+            recordRestorableConnections(connectionProxies);
+        }
+        for (ConnectionClientImpl client : clients) {
+            client.stopAcceptingWrites();
+        }
+        for (final ConnectionProxy connectionProxy : connectionProxies) {
+            if (connectionProxy.isConnecting()) {
+                mDisconnectExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mLogger.d(connectionProxy.getDevice(), "Cancelling connection attempt.");
+                        connectionProxy.disconnect();
+                    }
+                });
+            }
+        }
+        for (final ConnectionClientImpl client : clients) {
+            mDisconnectExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    client.close(QUIESCE_DRAIN_TIMEOUT_MILLIS);
+                }
+            });
+        }
+        // Close any connections which are not being used via a client.
+        ThreadUtils.postOnMainThreadDelayed(new Runnable() {
+            @Override
+            public void run() {
+                disconnectAll();
+            }
+        }, QUIESCE_DRAIN_TIMEOUT_MILLIS);
+    }
+
+    private void recordRestorableConnections(List<ConnectionProxy> connectionProxies) {
+        synchronized (mManagedConnectionsLock) {
+            mRestorableConnections.clear();
+            for (ConnectionProxy connectionProxy : connectionProxies) {
+                final ConnectionConfiguration connectionConfiguration =
+                        connectionProxy.getConnectionConfiguration();
+                if (connectionConfiguration != null) {
+                    mRestorableConnections.add(new RestorableConnection(
+                            connectionProxy.getDevice(), connectionConfiguration,
+                            connectionProxy.getCallback()));
+                }
+            }
+        }
+    }
+
+    private void restoreConnections() {
+        final List<RestorableConnection> restorableConnections;
+        synchronized (mManagedConnectionsLock) {
+            restorableConnections = new ArrayList<>(mRestorableConnections);
+            mRestorableConnections.clear();
+        }
+        if (!mShouldRestoreConnections || restorableConnections.isEmpty()) {
+            return;
+        }
+        mLogger.d("Bluetooth turned on - restoring " + restorableConnections.size() +
+                " connection(s).");
+        for (RestorableConnection restorableConnection : restorableConnections) {
+            // Start afresh rather than with whatever retries the original
+            // attempt used up - first attempts often fail just after the
+            // adapter turns on.
+            connect(restorableConnection.mDevice,
+                    restorableConnection.mConnectionConfiguration.copy(),
+                    restorableConnection.mCallbackWeakReference.get());
+        }
+    }
+
     private void purgeConnectionProxy(ConnectionProxy connectionProxy) {
         synchronized (mManagedConnectionsLock) {
             mManagedConnections.remove(connectionProxy.getDevice());
         }
     }
 
+    private List<ConnectionProxy> getConnectionProxies() {
+        synchronized (mManagedConnectionsLock) {
+            return new ArrayList<>(mManagedConnections.values());
+        }
+    }
+
     @Nullable
     private ConnectionProxy getConnectionProxy(BluetoothDevice device) {
         synchronized (mManagedConnectionsLock) {
             return mManagedConnections.get(device);
         }
     }
+
+    /**
+     * A connection to re-attempt when the adapter turns back on.
+     */
+    private static final class RestorableConnection {
+
+        final WeakReference<ConnectionAttemptCallback> mCallbackWeakReference;
+        final ConnectionConfiguration mConnectionConfiguration;
+        final BluetoothDevice mDevice;
+
+        RestorableConnection(@NonNull BluetoothDevice device,
+                @NonNull ConnectionConfiguration connectionConfiguration,
+                @Nullable ConnectionAttemptCallback callback) {
+            mCallbackWeakReference = new WeakReference<>(callback);
+            mConnectionConfiguration = connectionConfiguration;
+            mDevice = device;
+        }
+    }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.coiney.android.trueblue.ConnectionStats;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Collects statistics for a connection. All of the recording methods are lock
+ * free, so may be called from I/O threads without introducing contention.
+ * </p>
+ *
+ * <p>
+ * All times are measured using {@link System#nanoTime()}.
+ * </p>
+ */
+@ThreadSafe
+final class ConnectionMetrics {
+
+    private final StripedCounter mBytesRead = new StripedCounter();
+    private final StripedCounter mBytesWritten = new StripedCounter();
+    private volatile long mClosedAtNanos;
+    private final long mCreatedAtNanos = System.nanoTime();
+    private volatile boolean mIsClosed;
+    private final StripedCounter mMessagesRead = new StripedCounter();
+    private final StripedCounter mMessagesWritten = new StripedCounter();
+    private final ConcurrentHistogram mReadChunkSizes = new ConcurrentHistogram();
+    private final StripedCounter mReadErrors = new StripedCounter();
+    private final String mTransportName;
+    private final StripedCounter mWriteErrors = new StripedCounter();
+    private final ConcurrentHistogram mWriteLatencies = new ConcurrentHistogram();
+    private final AtomicInteger mWriteQueueDepth = new AtomicInteger();
+    private final AtomicInteger mWriteQueueDepthHighWaterMark = new AtomicInteger();
+
+    /**
+     * Create metrics for a connection over an unknown transport.
+     */
+    ConnectionMetrics() {
+        this(null);
+    }
+
+    /**
+     * Create metrics for a connection over the named transport.
+     *
+     * @param transportName to report in snapshots, or null if it is not known.
+     */
+    ConnectionMetrics(@Nullable String transportName) {
+        mTransportName = transportName;
+    }
+
+    /**
+     * Record a successful read.
+     *
+     * @param numberOfBytes read.
+     */
+    void recordRead(int numberOfBytes) {
+        mBytesRead.add(numberOfBytes);
+        mMessagesRead.increment();
+        mReadChunkSizes.record(numberOfBytes);
+    }
+
+    /**
+     * Record a read error.
+     */
+    void recordReadError() {
+        mReadErrors.increment();
+    }
+
+    /**
+     * Record a successful write.
+     *
+     * @param numberOfBytes written.
+     * @param startedAtNanos time at which the write was started (or queued).
+     */
+    void recordWrite(int numberOfBytes, long startedAtNanos) {
+        mBytesWritten.add(numberOfBytes);
+        mMessagesWritten.increment();
+        mWriteLatencies.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startedAtNanos));
+    }
+
+    /**
+     * Record a write error.
+     */
+    void recordWriteError() {
+        mWriteErrors.increment();
+    }
+
+    /**
+     * Record that a write has been added to the write queue.
+     */
+    void recordWriteQueued() {
+        final int depth = mWriteQueueDepth.incrementAndGet();
+        int highWaterMark;
+        while (depth > (highWaterMark = mWriteQueueDepthHighWaterMark.get())) {
+            if (mWriteQueueDepthHighWaterMark.compareAndSet(highWaterMark, depth)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Record that a write has been removed from the write queue.
+     */
+    void recordWriteDequeued() {
+        mWriteQueueDepth.decrementAndGet();
+    }
+
+    /**
+     * Record that the connection has been closed, which stops the clock used
+     * for calculating rates.
+     */
+    void recordClosed() {
+        if (!mIsClosed) {
+            mClosedAtNanos = System.nanoTime();
+            mIsClosed = true;
+        }
+    }
+
+    /**
+     * Take a snapshot of the statistics collected so far.
+     *
+     * @return statistics snapshot.
+     */
+    @NonNull
+    ConnectionStats snapshot() {
+        final long endNanos = mIsClosed ? mClosedAtNanos : System.nanoTime();
+        return new ConnectionStats.Builder()
+                .setBytesRead(mBytesRead.get())
+                .setBytesWritten(mBytesWritten.get())
+                .setElapsedTimeMillis(TimeUnit.NANOSECONDS.toMillis(endNanos - mCreatedAtNanos))
+                .setMessagesRead(mMessagesRead.get())
+                .setMessagesWritten(mMessagesWritten.get())
+                .setReadChunkSizeHistogram(mReadChunkSizes.snapshot())
+                .setReadErrorCount(mReadErrors.get())
+                .setTransportName(mTransportName)
+                .setWriteErrorCount(mWriteErrors.get())
+                .setWriteLatencyHistogram(mWriteLatencies.snapshot())
+                .setWriteQueueDepth(Math.max(0, mWriteQueueDepth.get()))
+                .setWriteQueueDepthHighWaterMark(mWriteQueueDepthHighWaterMark.get())
+                .build();
+    }
+}
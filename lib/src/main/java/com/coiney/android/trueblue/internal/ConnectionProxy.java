@@ -29,9 +29,12 @@ import android.support.annotation.Nullable;
 
 import com.coiney.android.trueblue.ConnectionAttemptCallback;
 import com.coiney.android.trueblue.Connection;
+import com.coiney.android.trueblue.ConnectionStats;
+import com.coiney.android.trueblue.DisconnectResult;
 
 import net.jcip.annotations.ThreadSafe;
 
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -46,11 +49,15 @@ import java.util.concurrent.Future;
 @ThreadSafe
 final class ConnectionProxy implements ConnectTask.Callback, Connection.OnCloseListener {
 
+    private static final String CONNECT_TRACE_SECTION_NAME = "connect";
+
     private final BluetoothDevice mDevice;
     private final WeakReference<ConnectionAttemptCallback> mCallbackWeakReference;
     private ConnectTask mConnectTask;
     private Future mConnectTaskFuture;
     private Connection mConnection;
+    private ConnectionConfiguration mConnectionConfiguration;
+    private boolean mIsInbound;
     private final Listener mListener;
     private boolean mStarted;
 
@@ -90,6 +97,58 @@ final class ConnectionProxy implements ConnectTask.Callback, Connection.OnCloseL
         return mConnection != null && mConnection.isOpen();
     }
 
+    /**
+     * Ask whether the proxy is attempting to connect to the device or not.
+     *
+     * @return flag indicating whether a connection attempt is in progress.
+     */
+    synchronized boolean isConnecting() {
+        return mConnectTask != null;
+    }
+
+    /**
+     * Get the connection being managed, if there is one.
+     *
+     * @return connection, or null if the proxy is not managing a connection.
+     */
+    @Nullable
+    synchronized Connection getConnection() {
+        return mConnection;
+    }
+
+    /**
+     * Get the statistics of the connection being managed, if there is one.
+     *
+     * @return connection statistics, or null if the proxy is not managing a
+     *         connection.
+     */
+    @Nullable
+    synchronized ConnectionStats getStats() {
+        return (mConnection != null) ? mConnection.getStats() : null;
+    }
+
+    /**
+     * Get the configuration the connection was attempted with.
+     *
+     * @return connection configuration, or null if no connection has been
+     *         attempted.
+     */
+    @Nullable
+    synchronized ConnectionConfiguration getConnectionConfiguration() {
+        return mConnectionConfiguration;
+    }
+
+    /**
+     * Get the callback the connection attempt reports to, if it is still
+     * reachable.
+     *
+     * @return connection attempt callback, or null.
+     */
+    @Nullable
+    ConnectionAttemptCallback getCallback() {
+        return mCallbackWeakReference.get();
+    }
+
     /**
      * Connect to the Bluetooth device being managed using the provided connect
      * task and executor service.
@@ -107,19 +166,42 @@ final class ConnectionProxy implements ConnectTask.Callback, Connection.OnCloseL
             return;
         }
         mStarted = true;
+        TraceUtils.beginAsyncSection(CONNECT_TRACE_SECTION_NAME, System.identityHashCode(this));
         mConnectTask = connectTask;
+        mConnectionConfiguration = connectTask.getConnectionConfiguration();
         mConnectTaskFuture = executorService.submit(mConnectTask);
     }
 
+    /**
+     * Manage a connection which was accepted from the Bluetooth device rather
+     * than attempted, so that no connect task is required. The listener is
+     * not notified, since there is no connection attempt to report on.
+     *
+     * @param connection accepted from the Bluetooth device.
+     */
+    synchronized void adopt(@NonNull Connection connection) {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        mIsInbound = true;
+        mConnection = connection;
+        mConnection.registerOnCloseListener(this);
+    }
+
     /**
      * Disconnect from the Bluetooth device being managed, either closing the
      * connection if it has completed and is open or cancelling the ongoing
      * connection attempt otherwise.
+     *
+     * @return result of the disconnection.
      */
-    synchronized void disconnect() {
+    @NonNull
+    synchronized DisconnectResult disconnect() {
         if (mConnection != null) {
             mConnection.close();
             mConnection = null;
+            return DisconnectResult.DISCONNECTED;
         } else if (mConnectTaskFuture != null && mConnectTask != null) {
             // This is a bit complicated because of the various states the task
             // can enter - sleeping, blocking on a BluetoothSocket, or
@@ -129,6 +211,58 @@ final class ConnectionProxy implements ConnectTask.Callback, Connection.OnCloseL
             // disconnect.
             mConnectTaskFuture.cancel(true);
             mConnectTask.cancelOrDisconnect();
+            return DisconnectResult.CONNECTION_ATTEMPT_CANCELLED;
+        }
+        return DisconnectResult.NOT_CONNECTED;
+    }
+
+    /**
+     * Abort the connection being managed, if it has completed and is open,
+     * such that it is reported as having been closed by error. Connection
+     * attempts are not affected.
+     *
+     * @return flag indicating whether a connection was aborted or not.
+     */
+    synchronized boolean abort() {
+        final Connection connection = mConnection;
+        if (null == connection || !connection.isOpen()) {
+            return false;
+        }
+        if (connection instanceof ConnectionImpl) {
+            ((ConnectionImpl) connection).abort();
+        } else {
+            connection.close();
+        }
+        return true;
+    }
+
+    /**
+     * Write the state of the proxy, and of the connect task or connection it
+     * is managing, to the provided writer.
+     *
+     * @param writer to write to.
+     * @param prefix to indent each line with.
+     */
+    synchronized void dump(@NonNull PrintWriter writer, @NonNull String prefix) {
+        final String state;
+        if (mConnection != null) {
+            state = mConnection.isOpen() ? "CONNECTED" : "CLOSED";
+        } else if (mConnectTask != null) {
+            state = "CONNECTING";
+        } else {
+            state = mStarted ? "FINISHED" : "IDLE";
+        }
+        DumpUtils.printLine(writer, prefix, "connection",
+                "device", mDevice.getAddress(),
+                "state", state,
+                "inbound", mIsInbound,
+                "hasCallback", mCallbackWeakReference.get() != null);
+        if (mConnectTask != null) {
+            mConnectTask.dump(writer, prefix + DumpUtils.INDENT);
+        }
+        if (mConnection != null) {
+            DumpUtils.printLine(writer, prefix + DumpUtils.INDENT, "stats",
+                    DumpUtils.describe(mConnection.getStats()));
         }
     }
 
@@ -136,6 +270,7 @@ final class ConnectionProxy implements ConnectTask.Callback, Connection.OnCloseL
 
     @Override
     public synchronized void onConnectionCancelled(@NonNull ConnectTask connectTask) {
+        TraceUtils.endAsyncSection(CONNECT_TRACE_SECTION_NAME, System.identityHashCode(this));
         mConnectTask = null;
         mConnectTaskFuture = null;
         mListener.onConnectionAttemptCancelled(this);
@@ -152,6 +287,7 @@ final class ConnectionProxy implements ConnectTask.Callback, Connection.OnCloseL
 
     @Override
     public synchronized void onConnectionFailed(@NonNull ConnectTask connectTask) {
+        TraceUtils.endAsyncSection(CONNECT_TRACE_SECTION_NAME, System.identityHashCode(this));
         mConnectTask = null;
         mConnectTaskFuture = null;
         mListener.onConnectionAttemptFailed(this);
@@ -169,6 +305,7 @@ final class ConnectionProxy implements ConnectTask.Callback, Connection.OnCloseL
     @Override
     public synchronized void onConnectionSucceeded(@NonNull ConnectTask connectTask,
             @NonNull final Connection connection) {
+        TraceUtils.endAsyncSection(CONNECT_TRACE_SECTION_NAME, System.identityHashCode(this));
         mConnection = connection;
         mConnection.registerOnCloseListener(this);
         mConnectTask = null;
@@ -37,17 +37,31 @@ public class ConnectionRetryPolicy {
 
     private final float mRetryDelayBackoffMultiplier;
     private int mCurrentRetryDelay;
+    private final int mInitialRetryDelay;
     private int mNumberOfRetriesAttempted;
     private final int mMaximumNumberOfRetries;
 
     private ConnectionRetryPolicy(int initialRetryDelay, int maximumNumberOfRetries,
             float retryDelayBackoffMultiplier) {
         mCurrentRetryDelay = initialRetryDelay;
+        mInitialRetryDelay = initialRetryDelay;
         mMaximumNumberOfRetries = maximumNumberOfRetries;
         mRetryDelayBackoffMultiplier = retryDelayBackoffMultiplier;
         mNumberOfRetriesAttempted = 0;
     }
 
+    /**
+     * Create a policy with the same parameters as this one, but which has not
+     * attempted any retries. Policies track the retries of a single connection
+     * attempt, so each attempt needs its own.
+     *
+     * @return new retry policy.
+     */
+    ConnectionRetryPolicy copy() {
+        return new ConnectionRetryPolicy(mInitialRetryDelay, mMaximumNumberOfRetries,
+                mRetryDelayBackoffMultiplier);
+    }
+
     int getCurrentRetryDelay() {
         return mCurrentRetryDelay;
     }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.coiney.android.trueblue.DisconnectAllCallback;
+import com.coiney.android.trueblue.DisconnectAllOperation;
+import com.coiney.android.trueblue.DisconnectResult;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Implementation of {@link DisconnectAllOperation}. Results are reported by
+ * the disconnecting threads via {@link #setResult(BluetoothDevice,
+ * DisconnectResult)}, and the deadline is enforced by whoever owns the
+ * operation calling {@link #onDeadlineExpired()}.
+ */
+@ThreadSafe
+public final class DisconnectAllOperationImpl implements DisconnectAllOperation {
+
+    private final DisconnectAllCallback mCallback;
+    private final CountDownLatch mCompletionLatch = new CountDownLatch(1);
+    private final Set<BluetoothDevice> mDevices;
+    @GuardedBy("this")
+    private final Map<BluetoothDevice, DisconnectResult> mResults = new LinkedHashMap<>();
+
+    /**
+     * Create an operation covering the provided devices. If there are no
+     * devices the operation is complete immediately.
+     *
+     * @param devices covered by the operation.
+     * @param callback to report completion to, if any.
+     */
+    public DisconnectAllOperationImpl(@NonNull Set<BluetoothDevice> devices,
+            @Nullable DisconnectAllCallback callback) {
+        mCallback = callback;
+        mDevices = new HashSet<>(devices);
+        if (mDevices.isEmpty()) {
+            synchronized (this) {
+                complete();
+            }
+        }
+    }
+
+    @Override
+    public boolean isComplete() {
+        return 0 == mCompletionLatch.getCount();
+    }
+
+    @Override
+    public boolean await(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        return mCompletionLatch.await(timeout, unit);
+    }
+
+    @NonNull
+    @Override
+    public synchronized Map<BluetoothDevice, DisconnectResult> getResults() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(mResults));
+    }
+
+    /**
+     * Report the result for the provided device. Results reported after the
+     * operation has completed are ignored.
+     *
+     * @param device to report the result for.
+     * @param result for the device.
+     */
+    synchronized void setResult(@NonNull BluetoothDevice device,
+            @NonNull DisconnectResult result) {
+        if (isComplete() || !mDevices.contains(device)) {
+            return;
+        }
+        mResults.put(device, result);
+        if (mResults.size() == mDevices.size()) {
+            complete();
+        }
+    }
+
+    /**
+     * Complete the operation, reporting every device which does not yet have
+     * a result as timed out. Does nothing if the operation is already
+     * complete.
+     */
+    synchronized void onDeadlineExpired() {
+        if (isComplete()) {
+            return;
+        }
+        for (BluetoothDevice device : mDevices) {
+            if (!mResults.containsKey(device)) {
+                mResults.put(device, DisconnectResult.TIMED_OUT);
+            }
+        }
+        complete();
+    }
+
+    @GuardedBy("this")
+    private void complete() {
+        mCompletionLatch.countDown();
+        if (mCallback != null) {
+            final Map<BluetoothDevice, DisconnectResult> results =
+                    Collections.unmodifiableMap(new LinkedHashMap<>(mResults));
+            ThreadUtils.postOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onDisconnectAllCompleted(results);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.coiney.android.trueblue.DiscoveredDevice;
+import com.coiney.android.trueblue.DiscoveryCacheListener;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * <p>
+ * Cache of the devices found by discovery scanning, keyed by hardware address.
+ * </p>
+ *
+ * <p>
+ * Each sighting merges the reported signal strength, class and name into the
+ * existing entry (values which were not reported are retained from earlier
+ * sightings), as does each service discovery query result. Entries which have
+ * not been seen for longer than the time to live are evicted. Changes are
+ * reported to the provided listener as deltas, outside of the cache lock. All
+ * times are supplied by the caller, so the cache itself is independent of any
+ * particular clock.
+ * </p>
+ *
+ * <p>
+ * An immutable snapshot of the entries is maintained on every change, so
+ * {@link #getSnapshot()} is a single volatile read.
+ * </p>
+ */
+@ThreadSafe
+final class DiscoveryCache {
+
+    /**
+     * Default time to live, long enough to cover several consecutive discovery
+     * scans (which run for roughly 12 seconds each).
+     */
+    static final long DEFAULT_TIME_TO_LIVE_MILLIS = 60000;
+
+    @GuardedBy("this")
+    private final Map<String, DiscoveredDevice> mEntries = new LinkedHashMap<>();
+    private volatile List<DiscoveredDevice> mSnapshot = Collections.emptyList();
+    private final long mTimeToLiveMillis;
+
+    /**
+     * Create a cache with the provided time to live.
+     *
+     * @param timeToLiveMillis after which unseen devices are evicted. Must be
+     *                         greater than 0.
+     *
+     * @throws IllegalArgumentException if the time to live is not greater
+     *                                  than 0.
+     */
+    DiscoveryCache(long timeToLiveMillis) {
+        if (timeToLiveMillis <= 0) {
+            throw new IllegalArgumentException("Time to live must be greater than 0.");
+        }
+        mTimeToLiveMillis = timeToLiveMillis;
+    }
+
+    /**
+     * Get the time to live of the cache entries.
+     *
+     * @return time to live in milliseconds.
+     */
+    long getTimeToLiveMillis() {
+        return mTimeToLiveMillis;
+    }
+
+    /**
+     * Get an immutable snapshot of the cached devices, in the order they were
+     * first seen.
+     *
+     * @return snapshot of the cached devices.
+     */
+    @NonNull
+    List<DiscoveredDevice> getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Record a sighting of the provided device, reporting it as added if it
+     * was not already cached, or as updated if its signal strength, class or
+     * name changed.
+     *
+     * @param device sighted.
+     * @param rssi reported, or {@link DiscoveredDevice#RSSI_UNAVAILABLE}.
+     * @param bluetoothClass reported, if any.
+     * @param name reported, if any.
+     * @param nowMillis time of the sighting.
+     * @param listener to report changes to.
+     *
+     * @return cache entry for the device, merged with earlier sightings.
+     */
+    @NonNull
+    DiscoveredDevice recordSighting(@NonNull BluetoothDevice device, int rssi,
+            @Nullable BluetoothClass bluetoothClass, @Nullable String name, long nowMillis,
+            @NonNull DiscoveryCacheListener listener) {
+        final String address = device.getAddress();
+        final DiscoveredDevice previous;
+        final DiscoveredDevice current;
+        synchronized (this) {
+            previous = mEntries.get(address);
+            final DiscoveredDevice.Builder builder = (null == previous) ?
+                    new DiscoveredDevice.Builder(device).setFirstSeenMillis(nowMillis) :
+                    new DiscoveredDevice.Builder(previous);
+            builder.setLastSeenMillis(nowMillis);
+            if (rssi != DiscoveredDevice.RSSI_UNAVAILABLE) {
+                builder.setRssi(rssi);
+            }
+            if (bluetoothClass != null) {
+                builder.setBluetoothClass(bluetoothClass);
+            }
+            if (name != null) {
+                builder.setName(name);
+            }
+            current = builder.build();
+            mEntries.put(address, current);
+            updateSnapshot();
+        }
+        if (null == previous) {
+            listener.onDiscoveredDeviceAdded(current);
+        } else if (hasChanged(previous, current)) {
+            listener.onDiscoveredDeviceUpdated(current);
+        }
+        return current;
+    }
+
+    /**
+     * Record the service UUIDs reported for the provided device by a service
+     * discovery query, reporting the device as updated if they changed.
+     * Nothing is recorded if the device is not cached (i.e. it has been
+     * evicted since it was last seen).
+     *
+     * @param device queried.
+     * @param serviceUuids reported.
+     * @param listener to report changes to.
+     *
+     * @return cache entry for the device, or null if it is not cached.
+     */
+    @Nullable
+    DiscoveredDevice recordServiceUuids(@NonNull BluetoothDevice device,
+            @NonNull Set<UUID> serviceUuids, @NonNull DiscoveryCacheListener listener) {
+        final DiscoveredDevice previous;
+        final DiscoveredDevice current;
+        synchronized (this) {
+            previous = mEntries.get(device.getAddress());
+            if (null == previous) {
+                return null;
+            }
+            current = new DiscoveredDevice.Builder(previous)
+                    .setServiceUuids(serviceUuids)
+                    .build();
+            mEntries.put(device.getAddress(), current);
+            updateSnapshot();
+        }
+        if (hasChanged(previous, current)) {
+            listener.onDiscoveredDeviceUpdated(current);
+        }
+        return current;
+    }
+
+    /**
+     * Evict all devices which have not been seen for longer than the time to
+     * live, reporting each as removed.
+     *
+     * @param nowMillis current time.
+     * @param listener to report removals to.
+     */
+    void evictStale(long nowMillis, @NonNull DiscoveryCacheListener listener) {
+        final List<DiscoveredDevice> evicted = new ArrayList<>();
+        synchronized (this) {
+            final Iterator<DiscoveredDevice> iterator = mEntries.values().iterator();
+            while (iterator.hasNext()) {
+                final DiscoveredDevice discoveredDevice = iterator.next();
+                if (nowMillis - discoveredDevice.getLastSeenMillis() >= mTimeToLiveMillis) {
+                    iterator.remove();
+                    evicted.add(discoveredDevice);
+                }
+            }
+            if (!evicted.isEmpty()) {
+                updateSnapshot();
+            }
+        }
+        for (DiscoveredDevice discoveredDevice : evicted) {
+            listener.onDiscoveredDeviceRemoved(discoveredDevice);
+        }
+    }
+
+    /**
+     * Get the time at which the next eviction is due.
+     *
+     * @return time of the next eviction, or -1 if the cache is empty.
+     */
+    synchronized long getNextEvictionMillis() {
+        long nextEvictionMillis = -1;
+        for (DiscoveredDevice discoveredDevice : mEntries.values()) {
+            final long evictionMillis = discoveredDevice.getLastSeenMillis() + mTimeToLiveMillis;
+            if (nextEvictionMillis < 0 || evictionMillis < nextEvictionMillis) {
+                nextEvictionMillis = evictionMillis;
+            }
+        }
+        return nextEvictionMillis;
+    }
+
+    @GuardedBy("this")
+    private void updateSnapshot() {
+        mSnapshot = Collections.unmodifiableList(new ArrayList<>(mEntries.values()));
+    }
+
+    private static boolean hasChanged(DiscoveredDevice previous, DiscoveredDevice current) {
+        return previous.getRssi() != current.getRssi()
+                || !equals(previous.getBluetoothClass(), current.getBluetoothClass())
+                || !equals(previous.getName(), current.getName())
+                || !equals(previous.getServiceUuids(), current.getServiceUuids());
+    }
+
+    private static boolean equals(Object first, Object second) {
+        return (null == first) ? (null == second) : first.equals(second);
+    }
+}
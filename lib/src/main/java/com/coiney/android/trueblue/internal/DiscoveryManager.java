@@ -25,49 +25,188 @@ package com.coiney.android.trueblue.internal;
 
 import android.Manifest;
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 
+import com.coiney.android.trueblue.DiscoveredDevice;
+import com.coiney.android.trueblue.DiscoveryCacheListener;
 import com.coiney.android.trueblue.DiscoveryError;
 import com.coiney.android.trueblue.DiscoveryListener;
+import com.coiney.android.trueblue.DiscoveryRequest;
 
+import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
+ * <p>
  * Convenience wrapper around the discovery subsystem provided by a Bluetooth
- * adapter managed by an {@link AdapterManager}.
+ * adapter managed by an {@link AdapterManager}. Devices found by scans started
+ * via the manager are also recorded in a {@link DiscoveryCache}.
+ * </p>
+ *
+ * <p>
+ * Discovery broadcasts, cache evictions and service queries are all handled
+ * on the thread of the receiver handler provided at construction, so bursts
+ * of results do not compete with UI work. Listeners are still called on the
+ * main thread, and {@link #isDiscoveryRunning()} is a single volatile read so
+ * it never blocks on broadcast handling.
+ * </p>
  */
 @ThreadSafe
 public final class DiscoveryManager extends BroadcastReceiver {
 
     private final AdapterManager mAdapterManager;
+    private final DiscoveryCache mCache;
+    private final Set<DiscoveryCacheListener> mCacheListeners = new CopyOnWriteArraySet<>();
+    private final DiscoveryCacheListener mCacheListenersDispatcher = new DiscoveryCacheListener() {
+        @Override
+        public void onDiscoveredDeviceAdded(@NonNull final DiscoveredDevice discoveredDevice) {
+            ThreadUtils.postOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    for (DiscoveryCacheListener listener : mCacheListeners) {
+                        listener.onDiscoveredDeviceAdded(discoveredDevice);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onDiscoveredDeviceUpdated(@NonNull final DiscoveredDevice discoveredDevice) {
+            ThreadUtils.postOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    for (DiscoveryCacheListener listener : mCacheListeners) {
+                        listener.onDiscoveredDeviceUpdated(discoveredDevice);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onDiscoveredDeviceRemoved(@NonNull final DiscoveredDevice discoveredDevice) {
+            ThreadUtils.postOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    for (DiscoveryCacheListener listener : mCacheListeners) {
+                        listener.onDiscoveredDeviceRemoved(discoveredDevice);
+                    }
+                }
+            });
+        }
+    };
     private final Context mContext;
-    private boolean mIsScanning;
+    private final Runnable mEvictionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mCache.evictStale(SystemClock.elapsedRealtime(), mCacheListenersDispatcher);
+            scheduleEviction();
+        }
+    };
+    private final Handler mHandler;
+    private volatile boolean mIsScanning;
+    @GuardedBy("this")
+    private boolean mIsStopRequested;
     private final Set<DiscoveryListener> mListeners = new CopyOnWriteArraySet<>();
     private final Logger mLogger;
+    @GuardedBy("this")
+    private final Set<String> mMatchedAddresses = new HashSet<>();
+    @GuardedBy("this")
+    private DiscoveryRequest mRequest;
+    @GuardedBy("this")
+    private final Map<String, BluetoothDevice> mServiceQueryCandidates = new LinkedHashMap<>();
+    private final ServiceQueryPipeline mServiceQueryPipeline;
+    private final Runnable mServiceQueryCancellationRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (DiscoveryManager.this) {
+                mServiceQueryPipeline.cancel();
+            }
+        }
+    };
+    private final AdapterManager.DiscoveryStopListener mStopListener =
+            new AdapterManager.DiscoveryStopListener() {
+                @Override
+                public void onDiscoveryStopRequested() {
+                    // Scans are also stopped directly through the adapter
+                    // manager, e.g. before connecting or pairing.
+                    synchronized (DiscoveryManager.this) {
+                        if (mIsScanning) {
+                            mIsStopRequested = true;
+                        }
+                    }
+                }
+            };
 
     /**
      * Create a discovery manager with the provided parameters.
      *
      * @param adapterManager with which to manage system level discovery scans.
      * @param context with which to access discovery related system broadcasts.
+     * @param receiverHandler on whose thread to handle discovery related
+     *                        system broadcasts.
      * @param logger to log to.
      */
     public DiscoveryManager(@NonNull AdapterManager adapterManager, @NonNull Context context,
-            @NonNull Logger logger) {
+            @NonNull Handler receiverHandler, @NonNull Logger logger) {
+        this(adapterManager, context, receiverHandler, logger,
+                DiscoveryCache.DEFAULT_TIME_TO_LIVE_MILLIS);
+    }
+
+    /**
+     * Create a discovery manager with the provided parameters.
+     *
+     * @param adapterManager with which to manage system level discovery scans.
+     * @param context with which to access discovery related system broadcasts.
+     * @param receiverHandler on whose thread to handle discovery related
+     *                        system broadcasts.
+     * @param logger to log to.
+     * @param cacheTimeToLiveMillis after which devices which have not been
+     *                              seen are evicted from the discovery cache.
+     */
+    public DiscoveryManager(@NonNull AdapterManager adapterManager, @NonNull Context context,
+            @NonNull Handler receiverHandler, @NonNull Logger logger,
+            long cacheTimeToLiveMillis) {
         mAdapterManager = adapterManager;
+        mCache = new DiscoveryCache(cacheTimeToLiveMillis);
         mContext = context.getApplicationContext();
+        mHandler = receiverHandler;
         mLogger = logger;
+        mServiceQueryPipeline = new ServiceQueryPipeline(mHandler, this,
+                ServiceQueryPipeline.DEFAULT_MAXIMUM_CONCURRENT_QUERIES,
+                new ServiceQueryPipeline.Callback() {
+                    @Override
+                    public void onServiceQueryCompleted(@NonNull BluetoothDevice device,
+                            @Nullable Set<UUID> uuids) {
+                        handleServiceQueryCompleted(device, uuids);
+                    }
+
+                    @Override
+                    public void onServiceQueriesFinished() {
+                        mLogger.d("Service queries finished.");
+                        finishDiscovery();
+                    }
+                }, logger);
     }
 
     /**
@@ -75,6 +214,7 @@ public final class DiscoveryManager extends BroadcastReceiver {
      * start monitoring for discovery related system broadcasts.
      */
     public void start() {
+        mAdapterManager.registerDiscoveryStopListener(mStopListener);
         startMonitoring();
     }
 
@@ -85,7 +225,7 @@ public final class DiscoveryManager extends BroadcastReceiver {
      * @return flag indicating whether a discovery scan started by this
      *         discovery manager is currently running or not.
      */
-    public synchronized boolean isDiscoveryRunning() {
+    public boolean isDiscoveryRunning() {
         return mIsScanning;
     }
 
@@ -101,7 +241,27 @@ public final class DiscoveryManager extends BroadcastReceiver {
      * @return discovery error which prevented the scan starting, or null.
      */
     @Nullable
-    public synchronized DiscoveryError startDiscovery() {
+    public DiscoveryError startDiscovery() {
+        return startDiscovery(null);
+    }
+
+    /**
+     * Attempt to start a discovery scan for the devices described by the
+     * provided request. Only matching devices are reported to {@link
+     * DiscoveryListener}s while the scan is running, and the scan is stopped
+     * early once the request's maximum number of matches have been found.
+     *
+     * This method returns either null (in the event the discovery scan starts
+     * successfully) or a {@link DiscoveryError} value explaining the reason
+     * the scan failed to start.
+     *
+     * @param request describing the devices to find, or null to report every
+     *                device and run the scan to completion.
+     *
+     * @return discovery error which prevented the scan starting, or null.
+     */
+    @Nullable
+    public synchronized DiscoveryError startDiscovery(@Nullable DiscoveryRequest request) {
         if (mIsScanning) {
             mLogger.d("Cannot startDiscovery discovery scan - a scan is already running.");
             return DiscoveryError.ALREADY_RUNNING;
@@ -126,6 +286,9 @@ public final class DiscoveryManager extends BroadcastReceiver {
         if (!mIsScanning) {
             return DiscoveryError.SYSTEM_ERROR;
         }
+        mIsStopRequested = false;
+        mRequest = request;
+        mMatchedAddresses.clear();
         return null;
     }
 
@@ -147,6 +310,14 @@ public final class DiscoveryManager extends BroadcastReceiver {
             mLogger.d("Cannot stop discovery scan - not running.");
             return false;
         }
+        mIsStopRequested = true;
+        if (mServiceQueryPipeline.isRunning()) {
+            mLogger.d("Cancelling service queries.");
+            // Cancel on the receiver thread, alongside the pipeline's other
+            // events.
+            mHandler.post(mServiceQueryCancellationRunnable);
+            return true;
+        }
         mLogger.d("Stopping discovery scan.");
         return mAdapterManager.stopDiscovery();
     }
@@ -171,6 +342,57 @@ public final class DiscoveryManager extends BroadcastReceiver {
         mListeners.remove(listener);
     }
 
+    /**
+     * Get a snapshot of the devices currently held in the discovery cache, in
+     * the order they were first seen.
+     *
+     * @return immutable snapshot of the cached devices.
+     */
+    @NonNull
+    public List<DiscoveredDevice> getDiscoveredDevices() {
+        return mCache.getSnapshot();
+    }
+
+    /**
+     * Register a listener for discovery cache changes. Remember to unregister
+     * using {@link #unregisterCacheListener(DiscoveryCacheListener)} when
+     * these events are no longer required.
+     *
+     * @param listener to register.
+     */
+    public void registerCacheListener(@NonNull DiscoveryCacheListener listener) {
+        mCacheListeners.add(listener);
+    }
+
+    /**
+     * Unregister a previously registered discovery cache listener.
+     *
+     * @param listener to unregister.
+     */
+    public void unregisterCacheListener(@NonNull DiscoveryCacheListener listener) {
+        mCacheListeners.remove(listener);
+    }
+
+    /**
+     * Write the state of the discovery manager to the provided writer.
+     *
+     * @param writer to write to.
+     * @param prefix to indent each line with.
+     */
+    public synchronized void dump(@NonNull PrintWriter writer, @NonNull String prefix) {
+        DumpUtils.printLine(writer, prefix, "discovery",
+                "scanning", mIsScanning,
+                "filtered", mRequest != null,
+                "stopRequested", mIsStopRequested,
+                "matchCount", mMatchedAddresses.size(),
+                "serviceQueriesInFlight", mServiceQueryPipeline.getInFlightCount(),
+                "serviceQueriesPending", mServiceQueryPipeline.getPendingCount(),
+                "listenerCount", mListeners.size(),
+                "cachedDeviceCount", mCache.getSnapshot().size(),
+                "cacheTimeToLiveMs", mCache.getTimeToLiveMillis(),
+                "cacheListenerCount", mCacheListeners.size());
+    }
+
     @Override
     public synchronized void onReceive(Context context, Intent intent) {
         // Avoid reporting events for discovery scans started outside
@@ -186,8 +408,12 @@ public final class DiscoveryManager extends BroadcastReceiver {
                 handleDiscoveryFinished();
                 break;
             case BluetoothDevice.ACTION_FOUND:
-                handleDeviceDiscovered((BluetoothDevice) intent.getParcelableExtra(
-                        BluetoothDevice.EXTRA_DEVICE));
+                handleDeviceDiscovered(intent);
+                break;
+            case BluetoothDevice.ACTION_UUID:
+                mServiceQueryPipeline.onUuidsReceived(
+                        (BluetoothDevice) intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE),
+                        intent.getParcelableArrayExtra(BluetoothDevice.EXTRA_UUID));
                 break;
             default:
                 break;
@@ -200,7 +426,8 @@ public final class DiscoveryManager extends BroadcastReceiver {
         intentFilter.addAction(BluetoothAdapter.ACTION_DISCOVERY_STARTED);
         intentFilter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
         intentFilter.addAction(BluetoothDevice.ACTION_FOUND);
-        mContext.registerReceiver(this, intentFilter);
+        intentFilter.addAction(BluetoothDevice.ACTION_UUID);
+        mContext.registerReceiver(this, intentFilter, null, mHandler);
     }
 
     private void stopMonitoring() {
@@ -209,24 +436,146 @@ public final class DiscoveryManager extends BroadcastReceiver {
 
     private void handleDiscoveryStarted() {
         mLogger.d("Discovery scan started.");
-        for (DiscoveryListener listener : mListeners) {
-            listener.onDiscoveryStarted();
-        }
+        ThreadUtils.postOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                for (DiscoveryListener listener : mListeners) {
+                    listener.onDiscoveryStarted();
+                }
+            }
+        });
     }
 
-    private void handleDeviceDiscovered(BluetoothDevice device) {
+    private void handleDeviceDiscovered(Intent intent) {
+        final BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
         final String deviceName = (device.getName() != null) ? device.getName() : "<Unknown>";
         mLogger.d("Discovered device with name: '" + deviceName + "'.");
-        for (DiscoveryListener listener : mListeners) {
-            listener.onDeviceDiscovered(device);
+        if (null == device.getAddress()) {
+            if (null == mRequest) {
+                dispatchDeviceDiscovered(device);
+            }
+            return;
+        }
+        final DiscoveredDevice discoveredDevice = mCache.recordSighting(device,
+                intent.getShortExtra(BluetoothDevice.EXTRA_RSSI,
+                        (short) DiscoveredDevice.RSSI_UNAVAILABLE),
+                (BluetoothClass) intent.getParcelableExtra(BluetoothDevice.EXTRA_CLASS),
+                intent.getStringExtra(BluetoothDevice.EXTRA_NAME),
+                SystemClock.elapsedRealtime(), mCacheListenersDispatcher);
+        scheduleEviction();
+        if (null == mRequest) {
+            dispatchDeviceDiscovered(device);
+            return;
+        }
+        if (mRequest.getRequiredServiceUuids().isEmpty()
+                || discoveredDevice.getServiceUuids() != null) {
+            if (mRequest.matches(discoveredDevice)) {
+                handleMatch(device, discoveredDevice.getAddress());
+            }
+        } else if (!isMatchLimitReached()
+                && mRequest.matchesIgnoringServiceUuids(discoveredDevice)) {
+            // Querying services during the inquiry is unreliable, so wait
+            // until it has finished.
+            mServiceQueryCandidates.put(discoveredDevice.getAddress(), device);
+        }
+    }
+
+    private void handleServiceQueryCompleted(BluetoothDevice device, Set<UUID> uuids) {
+        if (null == uuids || null == mRequest) {
+            return;
+        }
+        final DiscoveredDevice discoveredDevice = mCache.recordServiceUuids(device, uuids,
+                mCacheListenersDispatcher);
+        if (discoveredDevice != null && mRequest.matches(discoveredDevice)) {
+            handleMatch(device, discoveredDevice.getAddress());
+        }
+    }
+
+    private void handleMatch(BluetoothDevice device, String address) {
+        final boolean wasMatchLimitReached = isMatchLimitReached();
+        if (wasMatchLimitReached && !mMatchedAddresses.contains(address)) {
+            // Don't report additional devices while the scan is stopping.
+            return;
+        }
+        mMatchedAddresses.add(address);
+        dispatchDeviceDiscovered(device);
+        if (!wasMatchLimitReached && isMatchLimitReached()) {
+            mLogger.d("Found " + mMatchedAddresses.size() + " matching device(s) - stopping " +
+                    "discovery scan early.");
+            if (mServiceQueryPipeline.isRunning()) {
+                mServiceQueryPipeline.cancel();
+            } else {
+                mIsStopRequested = true;
+                mAdapterManager.stopDiscovery();
+            }
+        }
+    }
+
+    private boolean isMatchLimitReached() {
+        final int maximumMatchCount = mRequest.getMaximumMatchCount();
+        return maximumMatchCount > 0 && mMatchedAddresses.size() >= maximumMatchCount;
+    }
+
+    private void dispatchDeviceDiscovered(final BluetoothDevice device) {
+        ThreadUtils.postOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                for (DiscoveryListener listener : mListeners) {
+                    listener.onDeviceDiscovered(device);
+                }
+            }
+        });
+    }
+
+    private void scheduleEviction() {
+        mHandler.removeCallbacks(mEvictionRunnable);
+        final long nextEvictionMillis = mCache.getNextEvictionMillis();
+        if (nextEvictionMillis >= 0) {
+            mHandler.postDelayed(mEvictionRunnable,
+                    Math.max(0, nextEvictionMillis - SystemClock.elapsedRealtime()));
         }
     }
 
     private void handleDiscoveryFinished() {
+        if (mServiceQueryPipeline.isRunning()) {
+            return;
+        }
         mLogger.d("Discovery scan finished.");
-        for (DiscoveryListener listener : mListeners) {
-            listener.onDiscoveryFinished();
+        if (mIsStopRequested) {
+            // Don't start service queries once asked to stop - they would
+            // compete with whatever wanted the radio to be quiet.
+            if (!mServiceQueryCandidates.isEmpty()) {
+                mLogger.d("Skipping service queries of " + mServiceQueryCandidates.size() +
+                        " candidate device(s) - stop requested.");
+            }
+            finishDiscovery();
+            return;
+        }
+        if (mRequest != null && !mServiceQueryCandidates.isEmpty() && !isMatchLimitReached()) {
+            mLogger.d("Querying services of " + mServiceQueryCandidates.size() +
+                    " candidate device(s).");
+            final List<BluetoothDevice> candidates =
+                    new ArrayList<>(mServiceQueryCandidates.values());
+            mServiceQueryCandidates.clear();
+            mServiceQueryPipeline.start(candidates, mRequest.getServiceQueryTimeoutMillis());
+            return;
         }
+        finishDiscovery();
+    }
+
+    private void finishDiscovery() {
+        ThreadUtils.postOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                for (DiscoveryListener listener : mListeners) {
+                    listener.onDiscoveryFinished();
+                }
+            }
+        });
         mIsScanning = false;
+        mIsStopRequested = false;
+        mRequest = null;
+        mMatchedAddresses.clear();
+        mServiceQueryCandidates.clear();
     }
 }
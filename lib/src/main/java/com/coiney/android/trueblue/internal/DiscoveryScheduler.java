@@ -0,0 +1,363 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.coiney.android.trueblue.Connection;
+import com.coiney.android.trueblue.DiscoveredDevice;
+import com.coiney.android.trueblue.DiscoveryError;
+import com.coiney.android.trueblue.DiscoveryListener;
+import com.coiney.android.trueblue.DiscoverySchedule;
+import com.coiney.android.trueblue.DiscoverySchedulerListener;
+import com.coiney.android.trueblue.ScanBudgetUsage;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * <p>
+ * Runs discovery scans on a duty cycle, as described by a {@link
+ * DiscoverySchedule}, and tracks which devices are present based on the
+ * results.
+ * </p>
+ *
+ * <p>
+ * Scheduled scans are skipped while a connection attempt is in flight or
+ * while the open connections are transferring data faster than the schedule's
+ * throughput threshold, in which case the conditions are checked again after
+ * a short delay. Throughput is measured as the sum of the increases in the
+ * bytes transferred by each managed connection between checks, so a
+ * connection closing does not hide the traffic on the others.
+ * </p>
+ *
+ * <p>
+ * All scheduler state is confined to the main thread, on which {@link
+ * DiscoveryManager} reports discovery events - {@link
+ * #start(DiscoverySchedule)} and {@link #stop()} may be called from any thread
+ * but take effect asynchronously.
+ * </p>
+ */
+@ThreadSafe
+public final class DiscoveryScheduler implements DiscoveryListener {
+
+    // How soon to check again whether a skipped scan can be run.
+    private static final long YIELD_RETRY_DELAY_MILLIS = 5000;
+
+    private final ConnectionManager mConnectionManager;
+    private final DiscoveryManager mDiscoveryManager;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private boolean mIsOwnScanRunning;
+    private final Set<DiscoverySchedulerListener> mListeners = new CopyOnWriteArraySet<>();
+    private final Logger mLogger;
+    private final Map<String, PresentDevice> mPresentDevices = new HashMap<>();
+    private DiscoverySchedule mSchedule;
+    private int mScanCount;
+    private long mScanStartedAtMillis;
+    private long mScanTimeMillis;
+    private final Set<String> mSeenAddresses = new HashSet<>();
+    private int mSkippedScanCount;
+    private long mStartedAtMillis;
+    private Map<Connection, Long> mThroughputSampleBytes = Collections.emptyMap();
+    private long mThroughputSampleMillis;
+    private volatile ScanBudgetUsage mUsage = new ScanBudgetUsage(0, 0, 0, 0);
+
+    private final Runnable mScanRunnable = new Runnable() {
+        @Override
+        public void run() {
+            runScheduledScan();
+        }
+    };
+    private final Runnable mScanWindowExpiredRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mIsOwnScanRunning) {
+                mLogger.d("Scheduled discovery scan window expired - stopping scan.");
+                mDiscoveryManager.stopDiscovery();
+            }
+        }
+    };
+
+    /**
+     * Create a discovery scheduler with the provided parameters.
+     *
+     * @param discoveryManager to run scans with.
+     * @param connectionManager to yield to.
+     * @param logger to log to.
+     */
+    public DiscoveryScheduler(@NonNull DiscoveryManager discoveryManager,
+            @NonNull ConnectionManager connectionManager, @NonNull Logger logger) {
+        mConnectionManager = connectionManager;
+        mDiscoveryManager = discoveryManager;
+        mLogger = logger;
+    }
+
+    /**
+     * Start running scans on the provided schedule, replacing any schedule
+     * already running. Presence and usage are reset.
+     *
+     * @param schedule to run scans on.
+     */
+    public void start(@NonNull final DiscoverySchedule schedule) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopInternal();
+                mLogger.d("Starting discovery scheduler.");
+                mSchedule = schedule;
+                mStartedAtMillis = SystemClock.elapsedRealtime();
+                mDiscoveryManager.registerListener(DiscoveryScheduler.this);
+                sampleThroughput();
+                mHandler.post(mScanRunnable);
+            }
+        });
+    }
+
+    /**
+     * Stop running scheduled scans, stopping any scheduled scan which is
+     * running.
+     */
+    public void stop() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopInternal();
+            }
+        });
+    }
+
+    /**
+     * Get the scan budget usage since the scheduler was last started.
+     *
+     * @return scan budget usage.
+     */
+    @NonNull
+    public ScanBudgetUsage getUsage() {
+        return mUsage;
+    }
+
+    /**
+     * Register a listener for presence and usage events.
+     *
+     * @param listener to register.
+     */
+    public void registerListener(@NonNull DiscoverySchedulerListener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Unregister a previously registered listener.
+     *
+     * @param listener to unregister.
+     */
+    public void unregisterListener(@NonNull DiscoverySchedulerListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Write the state of the scheduler to the provided writer.
+     *
+     * @param writer to write to.
+     * @param prefix to indent each line with.
+     */
+    public void dump(@NonNull PrintWriter writer, @NonNull String prefix) {
+        final ScanBudgetUsage usage = mUsage;
+        DumpUtils.printLine(writer, prefix, "discoveryScheduler",
+                "scanCount", usage.getScanCount(),
+                "skippedScanCount", usage.getSkippedScanCount(),
+                "scanTimeMs", usage.getScanTimeMillis(),
+                "elapsedMs", usage.getElapsedTimeMillis(),
+                "listenerCount", mListeners.size());
+    }
+
+    // Discovery listener
+
+    @Override
+    public void onDeviceDiscovered(@NonNull BluetoothDevice device) {
+        if (mIsOwnScanRunning && device.getAddress() != null) {
+            mSeenAddresses.add(device.getAddress());
+        }
+    }
+
+    @Override
+    public void onDiscoveryFinished() {
+        if (!mIsOwnScanRunning) {
+            return;
+        }
+        mIsOwnScanRunning = false;
+        mHandler.removeCallbacks(mScanWindowExpiredRunnable);
+        final long nowMillis = SystemClock.elapsedRealtime();
+        mScanCount++;
+        mScanTimeMillis += nowMillis - mScanStartedAtMillis;
+        updatePresence();
+        // Measure throughput over the gap between scans only.
+        sampleThroughput();
+        publishUsage();
+        mHandler.postDelayed(mScanRunnable, Math.max(0,
+                mScanStartedAtMillis + mSchedule.getIntervalMillis() - nowMillis));
+    }
+
+    @Override
+    public void onDiscoveryStarted() { /* Empty */ }
+
+    private void stopInternal() {
+        mHandler.removeCallbacks(mScanRunnable);
+        mHandler.removeCallbacks(mScanWindowExpiredRunnable);
+        mDiscoveryManager.unregisterListener(this);
+        if (mIsOwnScanRunning) {
+            mIsOwnScanRunning = false;
+            mDiscoveryManager.stopDiscovery();
+        }
+        if (mSchedule != null) {
+            mLogger.d("Stopped discovery scheduler.");
+        }
+        mSchedule = null;
+        mPresentDevices.clear();
+        mSeenAddresses.clear();
+        mScanCount = 0;
+        mScanTimeMillis = 0;
+        mSkippedScanCount = 0;
+    }
+
+    private void runScheduledScan() {
+        final String reasonToYield = getReasonToYield();
+        if (reasonToYield != null) {
+            mLogger.d("Skipping scheduled discovery scan - " + reasonToYield + ".");
+            skipScan();
+            return;
+        }
+        final DiscoveryError discoveryError = mDiscoveryManager.startDiscovery(
+                mSchedule.getRequest());
+        if (discoveryError != null) {
+            mLogger.d("Skipping scheduled discovery scan - " + discoveryError + ".");
+            skipScan();
+            return;
+        }
+        mIsOwnScanRunning = true;
+        mScanStartedAtMillis = SystemClock.elapsedRealtime();
+        mSeenAddresses.clear();
+        mHandler.postDelayed(mScanWindowExpiredRunnable, mSchedule.getScanWindowMillis());
+    }
+
+    private String getReasonToYield() {
+        if (mConnectionManager.getConnectionAttemptCount() > 0) {
+            return "connection attempt in progress";
+        }
+        final Map<Connection, Long> previousSampleBytes = mThroughputSampleBytes;
+        final long previousSampleMillis = mThroughputSampleMillis;
+        sampleThroughput();
+        final long elapsedMillis = mThroughputSampleMillis - previousSampleMillis;
+        // Connections which opened since the previous sample count in full.
+        long bytes = 0;
+        for (Map.Entry<Connection, Long> entry : mThroughputSampleBytes.entrySet()) {
+            final Long previousBytes = previousSampleBytes.get(entry.getKey());
+            bytes += entry.getValue() - ((previousBytes != null) ? previousBytes : 0);
+        }
+        if (elapsedMillis > 0 && bytes * 1000 / elapsedMillis
+                > mSchedule.getThroughputThresholdBytesPerSecond()) {
+            return "connections are active";
+        }
+        return null;
+    }
+
+    private void skipScan() {
+        mSkippedScanCount++;
+        publishUsage();
+        mHandler.postDelayed(mScanRunnable, Math.min(YIELD_RETRY_DELAY_MILLIS,
+                mSchedule.getIntervalMillis()));
+    }
+
+    private void sampleThroughput() {
+        mThroughputSampleBytes = mConnectionManager.getBytesTransferredByConnection();
+        mThroughputSampleMillis = SystemClock.elapsedRealtime();
+    }
+
+    private void updatePresence() {
+        final Map<String, DiscoveredDevice> discoveredDevices = new HashMap<>();
+        for (DiscoveredDevice discoveredDevice : mDiscoveryManager.getDiscoveredDevices()) {
+            discoveredDevices.put(discoveredDevice.getAddress(), discoveredDevice);
+        }
+        final Iterator<Map.Entry<String, PresentDevice>> iterator =
+                mPresentDevices.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final PresentDevice presentDevice = iterator.next().getValue();
+            final DiscoveredDevice discoveredDevice =
+                    discoveredDevices.get(presentDevice.mDevice.getAddress());
+            if (mSeenAddresses.contains(presentDevice.mDevice.getAddress())) {
+                presentDevice.mMissedScanCount = 0;
+                if (discoveredDevice != null) {
+                    presentDevice.mDevice = discoveredDevice;
+                }
+            } else if (++presentDevice.mMissedScanCount >= mSchedule.getAbsenceScanCount()) {
+                iterator.remove();
+                for (DiscoverySchedulerListener listener : mListeners) {
+                    listener.onDeviceAbsent(presentDevice.mDevice);
+                }
+            }
+        }
+        for (String address : mSeenAddresses) {
+            final DiscoveredDevice discoveredDevice = discoveredDevices.get(address);
+            if (discoveredDevice != null && !mPresentDevices.containsKey(address)) {
+                mPresentDevices.put(address, new PresentDevice(discoveredDevice));
+                for (DiscoverySchedulerListener listener : mListeners) {
+                    listener.onDevicePresent(discoveredDevice);
+                }
+            }
+        }
+    }
+
+    private void publishUsage() {
+        final ScanBudgetUsage usage = new ScanBudgetUsage(mScanCount, mSkippedScanCount,
+                mScanTimeMillis, SystemClock.elapsedRealtime() - mStartedAtMillis);
+        mUsage = usage;
+        for (DiscoverySchedulerListener listener : mListeners) {
+            listener.onScanBudgetUsageChanged(usage);
+        }
+    }
+
+    /**
+     * Presence tracking state for a single device.
+     */
+    private static final class PresentDevice {
+
+        DiscoveredDevice mDevice;
+        int mMissedScanCount;
+
+        PresentDevice(@NonNull DiscoveredDevice device) {
+            mDevice = device;
+        }
+    }
+}
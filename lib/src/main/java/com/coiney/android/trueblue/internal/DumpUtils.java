@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothAdapter;
+import android.support.annotation.NonNull;
+
+import com.coiney.android.trueblue.ConnectionStats;
+
+import java.io.PrintWriter;
+
+/**
+ * <p>
+ * A collection of utility methods for writing diagnostic dumps.
+ * </p>
+ *
+ * <p>
+ * Every dump line consists of a record type followed by space separated
+ * key=value pairs, with nested records indented by two spaces. Whitespace
+ * and '=' characters in values, which may come from user supplied strings
+ * such as device or service names, are replaced with '_'. The output can
+ * therefore be parsed by splitting on whitespace and then on the first '='.
+ * </p>
+ */
+public final class DumpUtils {
+
+    /**
+     * Indentation to add for each level of nesting.
+     */
+    public static final String INDENT = "  ";
+
+    private DumpUtils() {
+        throw new AssertionError("Instantiation is not supported.");
+    }
+
+    /**
+     * Write a single dump line.
+     *
+     * @param writer to write to.
+     * @param prefix to indent the line with.
+     * @param recordType identifying what the line describes.
+     * @param keyValuePairs alternating keys and values.
+     */
+    public static void printLine(@NonNull PrintWriter writer, @NonNull String prefix,
+            @NonNull String recordType, @NonNull Object... keyValuePairs) {
+        final StringBuilder builder = new StringBuilder(prefix).append(recordType);
+        for (int i = 0; i + 1 < keyValuePairs.length; i += 2) {
+            builder.append(' ').append(keyValuePairs[i]).append('=')
+                    .append(sanitize(keyValuePairs[i + 1]));
+        }
+        writer.println(builder);
+    }
+
+    /**
+     * Get the key=value pairs describing the provided connection statistics,
+     * for use with {@link #printLine(PrintWriter, String, String, Object...)}.
+     *
+     * @param stats to describe.
+     *
+     * @return alternating keys and values.
+     */
+    @NonNull
+    static Object[] describe(@NonNull ConnectionStats stats) {
+        return new Object[] {
+                "transport", stats.getTransportName(),
+                "bytesRead", stats.getBytesRead(),
+                "bytesWritten", stats.getBytesWritten(),
+                "messagesRead", stats.getMessagesRead(),
+                "messagesWritten", stats.getMessagesWritten(),
+                "readErrors", stats.getReadErrorCount(),
+                "writeErrors", stats.getWriteErrorCount(),
+                "writeQueueDepth", stats.getWriteQueueDepth(),
+                "writeQueueDepthHighWaterMark", stats.getWriteQueueDepthHighWaterMark(),
+                "writeLatencyP50Us", stats.getWriteLatencyHistogram().getValueAtPercentile(50),
+                "writeLatencyP99Us", stats.getWriteLatencyHistogram().getValueAtPercentile(99),
+                "rttP50Us", stats.getRoundTripTimeHistogram().getValueAtPercentile(50),
+                "rttP99Us", stats.getRoundTripTimeHistogram().getValueAtPercentile(99),
+                "elapsedMs", stats.getElapsedTimeMillis()
+        };
+    }
+
+    /**
+     * Concatenate the provided key=value pair arrays.
+     *
+     * @param first pairs.
+     * @param second pairs.
+     *
+     * @return concatenated pairs.
+     */
+    @NonNull
+    static Object[] concat(@NonNull Object[] first, @NonNull Object[] second) {
+        final Object[] result = new Object[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    /**
+     * Get a readable name for the provided Bluetooth adapter state.
+     *
+     * @param state as per {@link BluetoothAdapter#getState()}.
+     *
+     * @return readable state name.
+     */
+    @NonNull
+    static String getAdapterStateName(int state) {
+        switch (state) {
+            case BluetoothAdapter.STATE_OFF:
+                return "OFF";
+            case BluetoothAdapter.STATE_TURNING_ON:
+                return "TURNING_ON";
+            case BluetoothAdapter.STATE_ON:
+                return "ON";
+            case BluetoothAdapter.STATE_TURNING_OFF:
+                return "TURNING_OFF";
+            default:
+                return "UNKNOWN(" + state + ")";
+        }
+    }
+
+    private static String sanitize(Object value) {
+        final String string = String.valueOf(value);
+        final StringBuilder builder = new StringBuilder(string.length());
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            builder.append(Character.isWhitespace(c) || '=' == c ? '_' : c);
+        }
+        return builder.toString();
+    }
+}
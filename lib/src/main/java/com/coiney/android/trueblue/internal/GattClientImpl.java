@@ -0,0 +1,463 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.coiney.android.trueblue.ConnectionStats;
+import com.coiney.android.trueblue.GattClient;
+import com.coiney.android.trueblue.GattOperationType;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.PrintWriter;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * Implementation of {@link GattClient} on top of {@link BluetoothGatt}.
+ * </p>
+ *
+ * <p>
+ * Every operation is carried out via a {@link GattOperationQueue}, which is
+ * started once services have been discovered. The stack reports results on
+ * its own binder threads, from which the next queued operation is started
+ * and the client callback is called.
+ * </p>
+ */
+@ThreadSafe
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+final class GattClientImpl implements GattClient, GattOperationQueue.Listener {
+
+    /**
+     * UUID of the client characteristic configuration descriptor, which
+     * enables notifications and indications.
+     */
+    static final UUID CLIENT_CHARACTERISTIC_CONFIGURATION_UUID =
+            UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    // Every ATT packet carries a 3 byte header (opcode and handle).
+    private static final int ATT_HEADER_SIZE = 3;
+    private static final int MAXIMUM_MTU = 517;
+
+    private final Callback mCallback;
+    private final BluetoothDevice mDevice;
+    private volatile BluetoothGatt mGatt;
+    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            if (BluetoothGatt.GATT_SUCCESS == status &&
+                    BluetoothProfile.STATE_CONNECTED == newState) {
+                mLogger.d(mDevice, "GATT connected - discovering services.");
+                if (!gatt.discoverServices()) {
+                    closeClient(true);
+                }
+            } else if (status != BluetoothGatt.GATT_SUCCESS ||
+                    BluetoothProfile.STATE_DISCONNECTED == newState) {
+                mLogger.d(mDevice, "GATT disconnected (status " + status + ").");
+                closeClient(true);
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                mLogger.d(mDevice, "GATT service discovery failed (status " + status + ").");
+                closeClient(true);
+                return;
+            }
+            mLogger.d(mDevice, "GATT services discovered - ready.");
+            mIsReady = true;
+            mCallback.onReady(GattClientImpl.this);
+            mOperationQueue.start();
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt,
+                BluetoothGattCharacteristic characteristic, int status) {
+            mOperationQueue.onRequestCompleted(GattOperationType.READ_CHARACTERISTIC, status,
+                    copyValue(characteristic));
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt,
+                BluetoothGattCharacteristic characteristic, int status) {
+            // For writes without response this is the stack's flow control
+            // credit, so the next chunk is written straight away.
+            final boolean isWithoutResponse = BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE ==
+                    characteristic.getWriteType();
+            mOperationQueue.onRequestCompleted(isWithoutResponse ?
+                    GattOperationType.WRITE_CHARACTERISTIC_WITHOUT_RESPONSE :
+                    GattOperationType.WRITE_CHARACTERISTIC, status, null);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt,
+                BluetoothGattCharacteristic characteristic) {
+            final byte[] data = copyValue(characteristic);
+            mMetrics.recordRead(data.length);
+            mCallback.onNotificationReceived(GattClientImpl.this, characteristic.getUuid(), data);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
+                int status) {
+            mOperationQueue.onRequestCompleted(GattOperationType.SET_NOTIFICATIONS_ENABLED,
+                    status, null);
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            if (BluetoothGatt.GATT_SUCCESS == status) {
+                mMtu = mtu;
+            }
+            mOperationQueue.onRequestCompleted(GattOperationType.REQUEST_MTU, status, null);
+        }
+    };
+    private final AtomicBoolean mIsOpen = new AtomicBoolean(true);
+    private volatile boolean mIsReady;
+    private final Listener mListener;
+    private final Logger mLogger;
+    private final ConnectionMetrics mMetrics = new ConnectionMetrics("gatt");
+    private volatile int mMtu = DEFAULT_MTU;
+    private final GattOperationQueue mOperationQueue = new GattOperationQueue(this);
+
+    /**
+     * Create a GATT client with the provided parameters. No connection is
+     * made until {@link #connect(Context)} is called.
+     *
+     * @param device to connect to.
+     * @param callback to report the results of operations to.
+     * @param listener to report the client closing to (internally).
+     * @param logger to log to.
+     */
+    GattClientImpl(@NonNull BluetoothDevice device, @NonNull Callback callback,
+            @NonNull Listener listener, @NonNull Logger logger) {
+        mCallback = callback;
+        mDevice = device;
+        mListener = listener;
+        mLogger = logger;
+    }
+
+    /**
+     * Start connecting to the device.
+     *
+     * @param context to connect with.
+     *
+     * @return flag indicating whether the connection was started or not.
+     */
+    boolean connect(@NonNull Context context) {
+        final BluetoothGatt gatt = mDevice.connectGatt(context, false, mGattCallback);
+        if (null == gatt) {
+            return false;
+        }
+        mGatt = gatt;
+        return true;
+    }
+
+    @NonNull
+    BluetoothGattCallback getGattCallback() {
+        return mGattCallback;
+    }
+
+    @NonNull
+    @Override
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mIsOpen.get();
+    }
+
+    @Override
+    public boolean isReady() {
+        return mIsReady;
+    }
+
+    @Override
+    public void close() {
+        closeClient(false);
+    }
+
+    @Override
+    public int getMtu() {
+        return mMtu;
+    }
+
+    @Override
+    public void readCharacteristic(@NonNull final UUID serviceUuid,
+            @NonNull final UUID characteristicUuid) {
+        enqueue(new GattOperation(GattOperationType.READ_CHARACTERISTIC, characteristicUuid,
+                null) {
+            @Override
+            boolean start() {
+                final BluetoothGattCharacteristic characteristic =
+                        findCharacteristic(serviceUuid, characteristicUuid);
+                return characteristic != null && mGatt.readCharacteristic(characteristic);
+            }
+        });
+    }
+
+    @Override
+    public void writeCharacteristic(@NonNull UUID serviceUuid, @NonNull UUID characteristicUuid,
+            @NonNull byte[] data) {
+        // Acknowledged writes are never chunked, so use a single chunk.
+        enqueueWrite(GattOperationType.WRITE_CHARACTERISTIC,
+                BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, serviceUuid, characteristicUuid,
+                data, Math.max(1, data.length));
+    }
+
+    @Override
+    public void writeCharacteristicWithoutResponse(@NonNull UUID serviceUuid,
+            @NonNull UUID characteristicUuid, @NonNull byte[] data) {
+        enqueueWrite(GattOperationType.WRITE_CHARACTERISTIC_WITHOUT_RESPONSE,
+                BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, serviceUuid,
+                characteristicUuid, data, mMtu - ATT_HEADER_SIZE);
+    }
+
+    @Override
+    public void setNotificationsEnabled(@NonNull final UUID serviceUuid,
+            @NonNull final UUID characteristicUuid, final boolean isEnabled) {
+        enqueue(new GattOperation(GattOperationType.SET_NOTIFICATIONS_ENABLED,
+                characteristicUuid, null) {
+            @Override
+            boolean start() {
+                final BluetoothGattCharacteristic characteristic =
+                        findCharacteristic(serviceUuid, characteristicUuid);
+                if (null == characteristic ||
+                        !mGatt.setCharacteristicNotification(characteristic, isEnabled)) {
+                    return false;
+                }
+                final BluetoothGattDescriptor descriptor =
+                        characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIGURATION_UUID);
+                if (null == descriptor) {
+                    return false;
+                }
+                if (!isEnabled) {
+                    descriptor.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+                } else if ((characteristic.getProperties() &
+                        BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0) {
+                    descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+                } else {
+                    descriptor.setValue(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
+                }
+                return mGatt.writeDescriptor(descriptor);
+            }
+        });
+    }
+
+    @Override
+    public void requestMtu(final int mtu) {
+        if (mtu < DEFAULT_MTU || mtu > MAXIMUM_MTU) {
+            throw new IllegalArgumentException("MTU must be between " + DEFAULT_MTU + " and " +
+                    MAXIMUM_MTU + ".");
+        }
+        enqueue(new GattOperation(GattOperationType.REQUEST_MTU, null, null) {
+            @Override
+            @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+            boolean start() {
+                return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP &&
+                        mGatt.requestMtu(mtu);
+            }
+        });
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public boolean requestConnectionPriority(int connectionPriority) {
+        final BluetoothGatt gatt = mGatt;
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && mIsReady &&
+                gatt != null && gatt.requestConnectionPriority(connectionPriority);
+    }
+
+    @NonNull
+    @Override
+    public ConnectionStats getStats() {
+        return mMetrics.snapshot();
+    }
+
+    @NonNull
+    @Override
+    public ConnectionStats.Histogram getOperationLatencyHistogram(
+            @NonNull GattOperationType operationType) {
+        return mOperationQueue.getLatencyHistogram(operationType);
+    }
+
+    /**
+     * Write the state of the client to the provided writer.
+     *
+     * @param writer to write to.
+     * @param prefix to indent each line with.
+     */
+    void dump(@NonNull PrintWriter writer, @NonNull String prefix) {
+        DumpUtils.printLine(writer, prefix, "gattClient",
+                "device", mDevice.getAddress(),
+                "open", mIsOpen.get(),
+                "ready", mIsReady,
+                "mtu", mMtu,
+                "queueDepth", mOperationQueue.getDepth());
+        DumpUtils.printLine(writer, prefix + DumpUtils.INDENT, "stats",
+                DumpUtils.describe(mMetrics.snapshot()));
+    }
+
+    @Override
+    public void onOperationFinished(@NonNull GattOperation operation, int status) {
+        final GattOperationType type = operation.getType();
+        final boolean isWrite = isWrite(type);
+        if (isWrite) {
+            mMetrics.recordWriteDequeued();
+        }
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            if (isWrite) {
+                mMetrics.recordWriteError();
+            } else if (GattOperationType.READ_CHARACTERISTIC == type) {
+                mMetrics.recordReadError();
+            }
+            mLogger.d(mDevice, "GATT " + type + " failed (status " + status + ").");
+            mCallback.onOperationFailed(this, type, operation.getCharacteristicUuid(), status);
+            return;
+        }
+        // Only operations relating to a characteristic have data, and the
+        // characteristic UUID is never null for them.
+        switch (type) {
+            case READ_CHARACTERISTIC:
+                final byte[] result = operation.getResult();
+                mMetrics.recordRead(result.length);
+                mCallback.onCharacteristicRead(this, operation.getCharacteristicUuid(), result);
+                break;
+            case WRITE_CHARACTERISTIC:
+            case WRITE_CHARACTERISTIC_WITHOUT_RESPONSE:
+                final byte[] data = operation.getData();
+                mMetrics.recordWrite(data.length, operation.getEnqueuedAtNanos());
+                mCallback.onCharacteristicWritten(this, operation.getCharacteristicUuid(), data);
+                break;
+            case REQUEST_MTU:
+                mCallback.onMtuChanged(this, mMtu);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void enqueueWrite(GattOperationType type, final int writeType,
+            final UUID serviceUuid, final UUID characteristicUuid, byte[] data, int chunkSize) {
+        mMetrics.recordWriteQueued();
+        try {
+            enqueue(new GattOperation.ChunkedWrite(type, characteristicUuid, data, chunkSize) {
+                @Override
+                boolean writeChunk(@NonNull byte[] chunk) {
+                    final BluetoothGattCharacteristic characteristic =
+                            findCharacteristic(serviceUuid, characteristicUuid);
+                    if (null == characteristic) {
+                        return false;
+                    }
+                    characteristic.setWriteType(writeType);
+                    characteristic.setValue(chunk);
+                    return mGatt.writeCharacteristic(characteristic);
+                }
+            });
+        } catch (IllegalStateException e) {
+            mMetrics.recordWriteDequeued();
+            throw e;
+        }
+    }
+
+    private void enqueue(GattOperation operation) {
+        if (!mOperationQueue.enqueue(operation)) {
+            throw new IllegalStateException("Client has been closed.");
+        }
+    }
+
+    @Nullable
+    private BluetoothGattCharacteristic findCharacteristic(UUID serviceUuid,
+            UUID characteristicUuid) {
+        final BluetoothGatt gatt = mGatt;
+        if (null == gatt) {
+            return null;
+        }
+        final BluetoothGattService service = gatt.getService(serviceUuid);
+        return (service != null) ? service.getCharacteristic(characteristicUuid) : null;
+    }
+
+    private void closeClient(boolean wasClosedByError) {
+        if (!mIsOpen.getAndSet(false)) {
+            return;
+        }
+        mIsReady = false;
+        for (GattOperation operation : mOperationQueue.close()) {
+            if (isWrite(operation.getType())) {
+                mMetrics.recordWriteDequeued();
+            }
+        }
+        final BluetoothGatt gatt = mGatt;
+        if (gatt != null) {
+            gatt.disconnect();
+            gatt.close();
+        }
+        mMetrics.recordClosed();
+        mLogger.d(mDevice, "GATT client " + (wasClosedByError ? "terminated" : "closed") + ".");
+        mListener.onGattClientClosed(this);
+        mCallback.onConnectionClosed(this, wasClosedByError);
+    }
+
+    private static boolean isWrite(GattOperationType type) {
+        return GattOperationType.WRITE_CHARACTERISTIC == type ||
+                GattOperationType.WRITE_CHARACTERISTIC_WITHOUT_RESPONSE == type;
+    }
+
+    private static byte[] copyValue(BluetoothGattCharacteristic characteristic) {
+        // The stack reuses the characteristic instance, so its value may be
+        // replaced by the next notification at any time.
+        final byte[] value = characteristic.getValue();
+        return (value != null) ? value.clone() : new byte[0];
+    }
+
+    /**
+     * Internal listener interface for client lifecycle events.
+     */
+    interface Listener {
+
+        /**
+         * Called when the client has been closed, be it volitionally or due
+         * to the connection failing or being lost.
+         *
+         * @param client which was closed.
+         */
+        void onGattClientClosed(@NonNull GattClientImpl client);
+    }
+}
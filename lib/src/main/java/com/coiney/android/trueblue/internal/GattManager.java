@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.coiney.android.trueblue.GattClient;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Manages GATT clients connected to Bluetooth LE devices, alongside the
+ * classic connections managed by {@link ConnectionManager}.
+ * </p>
+ *
+ * <p>
+ * Only one client may be open per device at a time. Once started, the manager
+ * closes every client as soon as the adapter starts turning off.
+ * </p>
+ */
+@ThreadSafe
+public final class GattManager implements GattClientImpl.Listener {
+
+    private final AdapterManager mAdapterManager;
+    private final BluetoothStatusMonitor.AdapterStateListener mAdapterStateListener =
+            new BluetoothStatusMonitor.AdapterStateListener() {
+                @Override
+                public void onAdapterStateChanged(int state) {
+                    if (BluetoothAdapter.STATE_TURNING_OFF == state) {
+                        closeAll();
+                    }
+                }
+            };
+    @GuardedBy("mClientsLock")
+    private final Map<BluetoothDevice, GattClientImpl> mClients = new HashMap<>();
+    private final Object mClientsLock = new Object();
+    private final Context mContext;
+    private final Logger mLogger;
+
+    /**
+     * Create a GATT manager with the provided parameters.
+     *
+     * @param adapterManager with which to monitor the adapter state.
+     * @param context to connect with.
+     * @param logger to log to.
+     */
+    public GattManager(@NonNull AdapterManager adapterManager, @NonNull Context context,
+            @NonNull Logger logger) {
+        mAdapterManager = adapterManager;
+        mContext = context;
+        mLogger = logger;
+    }
+
+    /**
+     * Start the GATT manager, which commences monitoring the adapter state so
+     * that clients can be closed when the adapter turns off.
+     */
+    public void start() {
+        mAdapterManager.registerAdapterStateListener(mAdapterStateListener);
+    }
+
+    /**
+     * Create a GATT client for the provided device and start connecting to
+     * it. Requires API 18+.
+     *
+     * @param device to connect to.
+     * @param callback to report the results of operations to.
+     *
+     * @return GATT client, or null if the API level is below 18, a client is
+     *         already open for the device, or the connection could not be
+     *         started.
+     */
+    @Nullable
+    public GattClient connect(@NonNull BluetoothDevice device,
+            @NonNull GattClient.Callback callback) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            mLogger.d(device, "Cannot connect via GATT - requires API 18+.");
+            return null;
+        }
+        final GattClientImpl client;
+        synchronized (mClientsLock) {
+            if (mClients.containsKey(device)) {
+                mLogger.d(device, "Cannot connect via GATT - client already open.");
+                return null;
+            }
+            client = new GattClientImpl(device, callback, this, mLogger);
+            mClients.put(device, client);
+        }
+        mLogger.d(device, "Connecting via GATT.");
+        if (!client.connect(mContext)) {
+            mLogger.d(device, "Cannot connect via GATT - connection could not be started.");
+            removeClient(client);
+            return null;
+        }
+        return client;
+    }
+
+    /**
+     * Close every open GATT client.
+     */
+    public void closeAll() {
+        for (GattClientImpl client : getClients()) {
+            client.close();
+        }
+    }
+
+    /**
+     * Write the state of all open GATT clients to the provided writer.
+     *
+     * @param writer to write to.
+     * @param prefix to indent each line with.
+     */
+    public void dump(@NonNull PrintWriter writer, @NonNull String prefix) {
+        final List<GattClientImpl> clients = getClients();
+        DumpUtils.printLine(writer, prefix, "gattClients",
+                "openCount", clients.size());
+        for (GattClientImpl client : clients) {
+            client.dump(writer, prefix + DumpUtils.INDENT);
+        }
+    }
+
+    @Override
+    public void onGattClientClosed(@NonNull GattClientImpl client) {
+        removeClient(client);
+    }
+
+    private void removeClient(GattClientImpl client) {
+        synchronized (mClientsLock) {
+            // A new client may have been opened for the device since.
+            if (mClients.get(client.getDevice()) == client) {
+                mClients.remove(client.getDevice());
+            }
+        }
+    }
+
+    private List<GattClientImpl> getClients() {
+        synchronized (mClientsLock) {
+            return new ArrayList<>(mClients.values());
+        }
+    }
+}
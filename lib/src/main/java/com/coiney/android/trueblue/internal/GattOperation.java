@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothGatt;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.coiney.android.trueblue.GattOperationType;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * <p>
+ * A single operation carried out by a {@link GattClientImpl}, which consists
+ * of one or more requests to the stack.
+ * </p>
+ *
+ * <p>
+ * Most operations consist of a single request. Chunked writes consist of one
+ * request per chunk, with each chunk written as soon as the stack reports the
+ * previous one as complete - the completion acting as a credit to send more.
+ * </p>
+ */
+abstract class GattOperation {
+
+    /**
+     * Returned by {@link #continueAfterSuccess()} when the operation has no
+     * further requests to issue.
+     */
+    static final int OPERATION_COMPLETE = -1;
+
+    private final UUID mCharacteristicUuid;
+    private final byte[] mData;
+    private final long mEnqueuedAtNanos = System.nanoTime();
+    private volatile byte[] mResult;
+    private final GattOperationType mType;
+
+    /**
+     * Create an operation with the provided parameters.
+     *
+     * @param type of the operation.
+     * @param characteristicUuid the operation relates to, if any.
+     * @param data the operation writes, if any.
+     */
+    GattOperation(@NonNull GattOperationType type, @Nullable UUID characteristicUuid,
+            @Nullable byte[] data) {
+        mCharacteristicUuid = characteristicUuid;
+        mData = data;
+        mType = type;
+    }
+
+    @Nullable
+    UUID getCharacteristicUuid() {
+        return mCharacteristicUuid;
+    }
+
+    @Nullable
+    byte[] getData() {
+        return mData;
+    }
+
+    long getEnqueuedAtNanos() {
+        return mEnqueuedAtNanos;
+    }
+
+    /**
+     * Get the data the operation read, if any.
+     *
+     * @return data read, or null if the operation does not read.
+     */
+    @Nullable
+    byte[] getResult() {
+        return mResult;
+    }
+
+    void setResult(@Nullable byte[] result) {
+        mResult = result;
+    }
+
+    @NonNull
+    GattOperationType getType() {
+        return mType;
+    }
+
+    /**
+     * Issue the first request of the operation.
+     *
+     * @return flag indicating whether the stack accepted the request or not.
+     */
+    abstract boolean start();
+
+    /**
+     * Issue the next request of the operation, if there is one, following
+     * the successful completion of the previous request.
+     *
+     * @return {@link BluetoothGatt#GATT_SUCCESS} if another request was
+     *         issued, {@link #OPERATION_COMPLETE} if there are no further
+     *         requests, or {@link
+     *         BluetoothGatt#GATT_FAILURE} if the stack refused the next
+     *         request.
+     */
+    int continueAfterSuccess() {
+        return OPERATION_COMPLETE;
+    }
+
+    /**
+     * An operation which writes its data in chunks of at most the provided
+     * size.
+     */
+    abstract static class ChunkedWrite extends GattOperation {
+
+        private final int mChunkSize;
+        private int mOffset;
+
+        /**
+         * Create a chunked write operation with the provided parameters.
+         *
+         * @param type of the operation.
+         * @param characteristicUuid to write to.
+         * @param data to write.
+         * @param chunkSize maximum size of each chunk. Must be at least 1.
+         */
+        ChunkedWrite(@NonNull GattOperationType type, @NonNull UUID characteristicUuid,
+                @NonNull byte[] data, int chunkSize) {
+            super(type, characteristicUuid, data);
+            mChunkSize = chunkSize;
+        }
+
+        /**
+         * Issue a request to write the provided chunk.
+         *
+         * @param chunk to write.
+         *
+         * @return flag indicating whether the stack accepted the request or
+         *         not.
+         */
+        abstract boolean writeChunk(@NonNull byte[] chunk);
+
+        @Override
+        final boolean start() {
+            return writeNextChunk();
+        }
+
+        @Override
+        final int continueAfterSuccess() {
+            // The data is never null for a chunked write.
+            if (mOffset >= getData().length) {
+                return OPERATION_COMPLETE;
+            }
+            return writeNextChunk() ? BluetoothGatt.GATT_SUCCESS : BluetoothGatt.GATT_FAILURE;
+        }
+
+        private boolean writeNextChunk() {
+            final byte[] data = getData();
+            final int end = Math.min(data.length, mOffset + mChunkSize);
+            final byte[] chunk = (0 == mOffset && end == data.length) ? data :
+                    Arrays.copyOfRange(data, mOffset, end);
+            mOffset = end;
+            return writeChunk(chunk);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothGatt;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.coiney.android.trueblue.ConnectionStats;
+import com.coiney.android.trueblue.GattOperationType;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Queues GATT operations so that only one is outstanding at a time, as the
+ * Android GATT implementation requires.
+ * </p>
+ *
+ * <p>
+ * Nothing is started until {@link #start()} is called. From then on, as soon
+ * as the stack reports an operation as complete the next one is started on
+ * the same thread, so the queue never waits on the caller. Operations are
+ * never issued while holding the queue lock, since the stack may report
+ * completion on another thread before the request call returns.
+ * </p>
+ */
+@ThreadSafe
+final class GattOperationQueue {
+
+    private final Map<GattOperationType, ConcurrentHistogram> mLatencies =
+            new EnumMap<>(GattOperationType.class);
+    private final Listener mListener;
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private GattOperation mInFlightOperation;
+    @GuardedBy("mLock")
+    private boolean mIsClosed;
+    @GuardedBy("mLock")
+    private boolean mIsStarted;
+    @GuardedBy("mLock")
+    private final Queue<GattOperation> mPendingOperations = new ArrayDeque<>();
+
+    /**
+     * Create an operation queue which reports to the provided listener.
+     *
+     * @param listener to report finished operations to.
+     */
+    GattOperationQueue(@NonNull Listener listener) {
+        mListener = listener;
+        for (GattOperationType type : GattOperationType.values()) {
+            mLatencies.put(type, new ConcurrentHistogram());
+        }
+    }
+
+    /**
+     * Add the provided operation to the end of the queue, starting it
+     * immediately if the queue is started and idle.
+     *
+     * @param operation to add.
+     *
+     * @return flag indicating whether the operation was added, which is not
+     *         the case if the queue has been closed.
+     */
+    boolean enqueue(@NonNull GattOperation operation) {
+        synchronized (mLock) {
+            if (mIsClosed) {
+                return false;
+            }
+            mPendingOperations.add(operation);
+        }
+        dispatch();
+        return true;
+    }
+
+    /**
+     * Start carrying out queued operations. Has no effect if the queue has
+     * already been started or has been closed.
+     */
+    void start() {
+        synchronized (mLock) {
+            if (mIsClosed || mIsStarted) {
+                return;
+            }
+            mIsStarted = true;
+        }
+        dispatch();
+    }
+
+    /**
+     * Handle the stack reporting that the current request of the in flight
+     * operation has completed. Reports that are not for the in flight
+     * operation are ignored.
+     *
+     * @param type of the operation the report is for.
+     * @param status reported by the stack.
+     * @param result read by the request, if any.
+     */
+    void onRequestCompleted(@NonNull GattOperationType type, int status,
+            @Nullable byte[] result) {
+        final GattOperation operation;
+        synchronized (mLock) {
+            operation = mInFlightOperation;
+            if (null == operation || operation.getType() != type) {
+                return;
+            }
+        }
+        if (result != null) {
+            operation.setResult(result);
+        }
+        if (BluetoothGatt.GATT_SUCCESS == status) {
+            final int continueStatus = operation.continueAfterSuccess();
+            if (BluetoothGatt.GATT_SUCCESS == continueStatus) {
+                return;
+            } else if (continueStatus != GattOperation.OPERATION_COMPLETE) {
+                status = continueStatus;
+            }
+        }
+        finish(operation, status);
+        dispatch();
+    }
+
+    /**
+     * Close the queue, discarding every operation which has not finished.
+     * Nothing is started or added once the queue has been closed.
+     *
+     * @return the operations which were discarded, in order, starting with
+     *         the in flight operation (if any).
+     */
+    @NonNull
+    List<GattOperation> close() {
+        synchronized (mLock) {
+            mIsClosed = true;
+            final List<GattOperation> discardedOperations = new ArrayList<>();
+            if (mInFlightOperation != null) {
+                discardedOperations.add(mInFlightOperation);
+                mInFlightOperation = null;
+            }
+            discardedOperations.addAll(mPendingOperations);
+            mPendingOperations.clear();
+            return discardedOperations;
+        }
+    }
+
+    /**
+     * Get the number of operations which have not yet finished, including
+     * the in flight operation.
+     *
+     * @return queue depth.
+     */
+    int getDepth() {
+        synchronized (mLock) {
+            return mPendingOperations.size() + ((mInFlightOperation != null) ? 1 : 0);
+        }
+    }
+
+    /**
+     * Get the distribution of the time taken to finish operations of the
+     * provided type, from being queued to being reported as finished.
+     *
+     * @param type of operation.
+     *
+     * @return latency histogram, in microseconds.
+     */
+    @NonNull
+    ConnectionStats.Histogram getLatencyHistogram(@NonNull GattOperationType type) {
+        return mLatencies.get(type).snapshot();
+    }
+
+    private void dispatch() {
+        while (true) {
+            final GattOperation operation;
+            synchronized (mLock) {
+                if (!mIsStarted || mIsClosed || mInFlightOperation != null) {
+                    return;
+                }
+                operation = mPendingOperations.poll();
+                if (null == operation) {
+                    return;
+                }
+                mInFlightOperation = operation;
+            }
+            if (operation.start()) {
+                return;
+            }
+            finish(operation, BluetoothGatt.GATT_FAILURE);
+        }
+    }
+
+    private void finish(GattOperation operation, int status) {
+        synchronized (mLock) {
+            if (mInFlightOperation != operation) {
+                // Closed in the meantime.
+                return;
+            }
+            mInFlightOperation = null;
+        }
+        mLatencies.get(operation.getType()).record(TimeUnit.NANOSECONDS.toMicros(
+                System.nanoTime() - operation.getEnqueuedAtNanos()));
+        mListener.onOperationFinished(operation, status);
+    }
+
+    /**
+     * Internal listener interface for finished operations.
+     */
+    interface Listener {
+
+        /**
+         * Called when an operation has finished, be it successfully or not.
+         * Called on the thread which reported the completion of its final
+         * request, or on the thread which tried to start it if the stack
+         * refused.
+         *
+         * @param operation which finished.
+         * @param status of the operation, as per {@link BluetoothGatt}.
+         */
+        void onOperationFinished(@NonNull GattOperation operation, int status);
+    }
+}
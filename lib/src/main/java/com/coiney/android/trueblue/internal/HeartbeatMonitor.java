@@ -0,0 +1,285 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import com.coiney.android.trueblue.ConnectionStats;
+import com.coiney.android.trueblue.HeartbeatCodec;
+import com.coiney.android.trueblue.HeartbeatConfiguration;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Sends a ping every heartbeat interval and detects remote devices which
+ * have stopped responding, as described by a {@link HeartbeatConfiguration}.
+ * </p>
+ *
+ * <p>
+ * Any data read during an interval counts as a sign of life. Once the missed
+ * heartbeat threshold number of consecutive intervals have passed without
+ * any, the remote device is reported as unresponsive and the monitor stops.
+ * Pongs are matched to the outstanding pings by sequence number, and their
+ * round trip times recorded. Intervals are timed on the thread of the
+ * handler provided at construction, and callbacks are called on that thread
+ * (or on the thread which calls {@link #start()}, for the first ping).
+ * </p>
+ */
+@ThreadSafe
+final class HeartbeatMonitor {
+
+    private static final String ROUND_TRIP_TIME_COUNTER_NAME = "heartbeatRttUs";
+    private static final int NO_SEQUENCE_NUMBER = -1;
+
+    private final Callback mCallback;
+    private final HeartbeatCodec mCodec;
+    private final Handler mHandler;
+    private volatile boolean mHasReadSinceLastTick;
+    private final long mIntervalMillis;
+    @GuardedBy("mLock")
+    private boolean mIsRunning;
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private int mMissedHeartbeatCount;
+    private final int mMissedHeartbeatThreshold;
+    @GuardedBy("mLock")
+    private int mNextSequenceNumber;
+    // Pings which may still be answered, indexed by sequence number modulo the
+    // number of slots. The data is kept after a pong is read, so that the
+    // write of the ping can still be recognised.
+    @GuardedBy("mLock")
+    private final byte[][] mPings;
+    @GuardedBy("mLock")
+    private final long[] mPingSentAtNanos;
+    @GuardedBy("mLock")
+    private final int[] mPingSequenceNumbers;
+    private final ConcurrentHistogram mRoundTripTimes = new ConcurrentHistogram();
+    private final Runnable mTickRunnable = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+
+    /**
+     * Create a heartbeat monitor with the provided parameters, which times
+     * intervals on the main thread.
+     *
+     * @param configuration describing the heartbeat.
+     * @param callback to send pings and report unresponsive devices to.
+     */
+    HeartbeatMonitor(@NonNull HeartbeatConfiguration configuration,
+            @NonNull Callback callback) {
+        this(configuration, new Handler(Looper.getMainLooper()), callback);
+    }
+
+    /**
+     * Create a heartbeat monitor with the provided parameters.
+     *
+     * @param configuration describing the heartbeat.
+     * @param handler on whose thread to time intervals.
+     * @param callback to send pings and report unresponsive devices to.
+     */
+    HeartbeatMonitor(@NonNull HeartbeatConfiguration configuration, @NonNull Handler handler,
+            @NonNull Callback callback) {
+        mCallback = callback;
+        mCodec = configuration.getCodec();
+        mHandler = handler;
+        mIntervalMillis = configuration.getIntervalMillis();
+        mMissedHeartbeatThreshold = configuration.getMissedHeartbeatThreshold();
+        // Every ping sent since the last sign of life may still be answered.
+        final int slotCount = mMissedHeartbeatThreshold + 1;
+        mPings = new byte[slotCount][];
+        mPingSentAtNanos = new long[slotCount];
+        mPingSequenceNumbers = new int[slotCount];
+        Arrays.fill(mPingSequenceNumbers, NO_SEQUENCE_NUMBER);
+    }
+
+    /**
+     * Start the heartbeat by sending the first ping. Calling this when the
+     * heartbeat has already been started has no effect.
+     */
+    void start() {
+        synchronized (mLock) {
+            if (mIsRunning) {
+                return;
+            }
+            mIsRunning = true;
+        }
+        sendPing();
+        mHandler.postDelayed(mTickRunnable, mIntervalMillis);
+    }
+
+    /**
+     * Stop the heartbeat. Calling this when the heartbeat is not running has
+     * no effect.
+     */
+    void stop() {
+        synchronized (mLock) {
+            mIsRunning = false;
+        }
+        mHandler.removeCallbacks(mTickRunnable);
+    }
+
+    /**
+     * Record that data has been read from the connection, and measure the
+     * round trip time if it is a pong.
+     *
+     * @param data read.
+     *
+     * @return flag indicating whether the data was a pong, in which case it
+     *         should not be passed on.
+     */
+    boolean onDataRead(@NonNull byte[] data) {
+        mHasReadSinceLastTick = true;
+        final int sequenceNumber = mCodec.decodePong(data);
+        if (sequenceNumber < 0) {
+            return false;
+        }
+        final long roundTripTimeNanos;
+        synchronized (mLock) {
+            final int slot = sequenceNumber % mPingSequenceNumbers.length;
+            if (mPingSequenceNumbers[slot] != sequenceNumber) {
+                // A late or unsolicited pong - still a sign of life.
+                return true;
+            }
+            mPingSequenceNumbers[slot] = NO_SEQUENCE_NUMBER;
+            roundTripTimeNanos = System.nanoTime() - mPingSentAtNanos[slot];
+        }
+        final long roundTripTimeMicros = TimeUnit.NANOSECONDS.toMicros(roundTripTimeNanos);
+        mRoundTripTimes.record(roundTripTimeMicros);
+        TraceUtils.setCounter(ROUND_TRIP_TIME_COUNTER_NAME, roundTripTimeMicros);
+        return true;
+    }
+
+    /**
+     * Ask whether the provided data is a ping sent by this monitor. Data is
+     * compared by identity, so this is only true for the array passed to
+     * {@link Callback#onPingDue(byte[])}.
+     *
+     * @param data to check.
+     *
+     * @return flag indicating whether the data is a ping or not.
+     */
+    boolean isPing(@NonNull byte[] data) {
+        synchronized (mLock) {
+            for (byte[] ping : mPings) {
+                if (ping == data) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Get the number of consecutive intervals which have passed without any
+     * data being read.
+     *
+     * @return missed heartbeat count.
+     */
+    int getMissedHeartbeatCount() {
+        synchronized (mLock) {
+            return mMissedHeartbeatCount;
+        }
+    }
+
+    /**
+     * Get a snapshot of the round trip times measured so far.
+     *
+     * @return round trip time histogram, in microseconds.
+     */
+    @NonNull
+    ConnectionStats.Histogram getRoundTripTimeHistogram() {
+        return mRoundTripTimes.snapshot();
+    }
+
+    private void tick() {
+        final int missedHeartbeatCount;
+        synchronized (mLock) {
+            if (!mIsRunning) {
+                return;
+            }
+            if (mHasReadSinceLastTick) {
+                mHasReadSinceLastTick = false;
+                mMissedHeartbeatCount = 0;
+            } else {
+                mMissedHeartbeatCount++;
+            }
+            missedHeartbeatCount = mMissedHeartbeatCount;
+            if (missedHeartbeatCount >= mMissedHeartbeatThreshold) {
+                mIsRunning = false;
+            }
+        }
+        if (missedHeartbeatCount >= mMissedHeartbeatThreshold) {
+            mCallback.onPeerUnresponsive(missedHeartbeatCount);
+            return;
+        }
+        sendPing();
+        mHandler.postDelayed(mTickRunnable, mIntervalMillis);
+    }
+
+    private void sendPing() {
+        final byte[] ping;
+        synchronized (mLock) {
+            final int sequenceNumber = mNextSequenceNumber;
+            mNextSequenceNumber = (mNextSequenceNumber + 1) & Integer.MAX_VALUE;
+            final int slot = sequenceNumber % mPingSequenceNumbers.length;
+            ping = mCodec.encodePing(sequenceNumber);
+            mPings[slot] = ping;
+            mPingSentAtNanos[slot] = System.nanoTime();
+            mPingSequenceNumbers[slot] = sequenceNumber;
+        }
+        mCallback.onPingDue(ping);
+    }
+
+    /**
+     * Callback interface for heartbeat events.
+     */
+    interface Callback {
+
+        /**
+         * Called when a ping should be written to the connection.
+         *
+         * @param ping to write.
+         */
+        void onPingDue(@NonNull byte[] ping);
+
+        /**
+         * Called when the remote device has stopped responding, after which
+         * the heartbeat is stopped.
+         *
+         * @param missedHeartbeatCount number of consecutive intervals which
+         *                             passed without any data being read.
+         */
+        void onPeerUnresponsive(int missedHeartbeatCount);
+    }
+}
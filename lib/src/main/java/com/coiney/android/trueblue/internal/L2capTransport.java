@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+import com.coiney.android.trueblue.Transport;
+import com.coiney.android.trueblue.TransportSocket;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.UUID;
+
+/**
+ * <p>
+ * Transport which connects via Bluetooth LE L2CAP connection-oriented
+ * channels, which carry bulk data with less overhead than RFCOMM or GATT.
+ * </p>
+ *
+ * <p>
+ * L2CAP channels require API 29+. On older versions the transport falls back
+ * to {@link RfcommTransport}, connecting to the service record UUID instead
+ * of the PSM, so the same configuration works everywhere. The transport is
+ * named after whichever is actually in use, so connection statistics show
+ * which carried the data.
+ * </p>
+ */
+@ThreadSafe
+public final class L2capTransport implements Transport {
+
+    /**
+     * Name of the transport, as reported in connection statistics.
+     */
+    static final String NAME = "l2cap";
+
+    // Build.VERSION_CODES.Q - not available at the compile SDK version in use.
+    private static final int API_LEVEL_Q = 29;
+
+    private final int mPsm;
+
+    /**
+     * Create a transport which connects to the provided PSM.
+     *
+     * @param psm the remote device is listening on.
+     */
+    public L2capTransport(int psm) {
+        mPsm = psm;
+    }
+
+    /**
+     * Ask whether L2CAP channels are supported at the current API level, or
+     * whether {@link RfcommTransport} is used instead.
+     *
+     * @return flag indicating whether L2CAP channels are supported or not.
+     */
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= API_LEVEL_Q
+                && L2capMethods.CREATE_L2CAP_CHANNEL != null;
+    }
+
+    @NonNull
+    @Override
+    public TransportSocket createSocket(@NonNull BluetoothDevice device,
+            @NonNull UUID serviceRecordUuid, boolean isSecure) throws IOException {
+        if (!isSupported()) {
+            return RfcommTransport.INSTANCE.createSocket(device, serviceRecordUuid, isSecure);
+        }
+        final Method method = isSecure ? L2capMethods.CREATE_L2CAP_CHANNEL :
+                L2capMethods.CREATE_INSECURE_L2CAP_CHANNEL;
+        return new BluetoothSocketAdapter((BluetoothSocket) invoke(method, device, mPsm));
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return isSupported() ? NAME : RfcommTransport.NAME;
+    }
+
+    /**
+     * Listen for inbound L2CAP channels using the provided adapter. The PSM
+     * is assigned dynamically, and must be advertised to remote devices (for
+     * example via a GATT characteristic) so that they can connect to it.
+     * Requires API 29+ - check {@link #isSupported()} first.
+     *
+     * @param adapter to listen with.
+     * @param isSecure or not.
+     *
+     * @return listening socket.
+     *
+     * @throws IOException if the adapter is unavailable or the channel cannot
+     *                     be created.
+     */
+    @NonNull
+    static ListeningSocket listen(@NonNull BluetoothAdapter adapter, boolean isSecure)
+            throws IOException {
+        if (!isSupported()) {
+            throw new IOException("L2CAP channels require API 29+.");
+        }
+        final Method method = isSecure ? L2capMethods.LISTEN_USING_L2CAP_CHANNEL :
+                L2capMethods.LISTEN_USING_INSECURE_L2CAP_CHANNEL;
+        final BluetoothServerSocket serverSocket = (BluetoothServerSocket) invoke(method,
+                adapter);
+        return new BluetoothServerSocketAdapter(serverSocket, NAME,
+                (Integer) invoke(L2capMethods.GET_PSM, serverSocket));
+    }
+
+    private static Object invoke(Method method, Object receiver, Object... args)
+            throws IOException {
+        try {
+            return method.invoke(receiver, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Holder for the L2CAP channel methods, which are resolved via reflection
+     * the first time they are needed since they are not present in the
+     * compile SDK version in use.
+     */
+    private static final class L2capMethods {
+
+        static final Method CREATE_L2CAP_CHANNEL = getMethod(BluetoothDevice.class,
+                "createL2capChannel", int.class);
+        static final Method CREATE_INSECURE_L2CAP_CHANNEL = getMethod(BluetoothDevice.class,
+                "createInsecureL2capChannel", int.class);
+        static final Method GET_PSM = getMethod(BluetoothServerSocket.class, "getPsm");
+        static final Method LISTEN_USING_L2CAP_CHANNEL = getMethod(BluetoothAdapter.class,
+                "listenUsingL2capChannel");
+        static final Method LISTEN_USING_INSECURE_L2CAP_CHANNEL = getMethod(
+                BluetoothAdapter.class, "listenUsingInsecureL2capChannel");
+
+        private static Method getMethod(Class<?> type, String name,
+                Class<?>... parameterTypes) {
+            if (Build.VERSION.SDK_INT < API_LEVEL_Q) {
+                return null;
+            }
+            try {
+                return type.getMethod(name, parameterTypes);
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.coiney.android.trueblue.DiscoveredDevice;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * <p>
+ * Deduplicates the advertisements received during a Bluetooth LE scan, keyed
+ * by hardware address.
+ * </p>
+ *
+ * <p>
+ * Each advertisement's signal strength is folded into an exponentially
+ * weighted moving average, and its name and service UUIDs (if present) are
+ * merged into the entry. A sighting is only reported as due for delivery if
+ * the device has not been delivered before, or if its smoothed signal
+ * strength has moved by at least the change threshold, or its name or
+ * service UUIDs have changed, since it was last delivered. Devices whose
+ * smoothed signal strength is below the minimum are never due for delivery.
+ * </p>
+ *
+ * <p>
+ * The number of entries is bounded, with the least recently seen device
+ * evicted first, since devices using private addresses appear under a new
+ * address every few minutes.
+ * </p>
+ */
+@NotThreadSafe
+final class LeScanCache {
+
+    /**
+     * Default maximum number of entries, comfortably more than the number of
+     * advertisers in range on a crowded retail floor.
+     */
+    static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    private final Map<String, Entry> mEntries;
+    private final int mMinimumRssi;
+    private final int mRssiChangeThreshold;
+    private final double mRssiSmoothingFactor;
+
+    /**
+     * Create a cache with the provided parameters.
+     *
+     * @param rssiSmoothingFactor weight given to each new signal strength
+     *                            reading.
+     * @param rssiChangeThreshold change in smoothed signal strength required
+     *                            for a device to be delivered again.
+     * @param minimumRssi below which devices are not delivered, or {@link
+     *                    DiscoveredDevice#RSSI_UNAVAILABLE}.
+     * @param maximumSize number of entries after which the least recently
+     *                    seen is evicted.
+     */
+    LeScanCache(double rssiSmoothingFactor, int rssiChangeThreshold, int minimumRssi,
+            final int maximumSize) {
+        mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maximumSize;
+            }
+        };
+        mMinimumRssi = minimumRssi;
+        mRssiChangeThreshold = rssiChangeThreshold;
+        mRssiSmoothingFactor = rssiSmoothingFactor;
+    }
+
+    /**
+     * Get the number of devices currently cached.
+     *
+     * @return number of cached devices.
+     */
+    int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Record an advertisement received from the provided device.
+     *
+     * @param device advertising.
+     * @param rssi of the advertisement.
+     * @param name advertised, if any.
+     * @param serviceUuids advertised, if any.
+     * @param nowMillis time of the advertisement.
+     *
+     * @return device to deliver, merged with earlier advertisements, or null
+     *         if delivery is not due.
+     */
+    @Nullable
+    DiscoveredDevice recordSighting(@NonNull BluetoothDevice device, int rssi,
+            @Nullable String name, @Nullable Set<UUID> serviceUuids, long nowMillis) {
+        Entry entry = mEntries.get(device.getAddress());
+        final DiscoveredDevice.Builder builder;
+        if (null == entry) {
+            entry = new Entry(rssi);
+            mEntries.put(device.getAddress(), entry);
+            builder = new DiscoveredDevice.Builder(device).setFirstSeenMillis(nowMillis);
+        } else {
+            entry.mSmoothedRssi += mRssiSmoothingFactor * (rssi - entry.mSmoothedRssi);
+            builder = new DiscoveredDevice.Builder(entry.mLatest);
+        }
+        builder.setLastSeenMillis(nowMillis)
+                .setRssi((int) Math.round(entry.mSmoothedRssi));
+        if (name != null) {
+            builder.setName(name);
+        }
+        if (serviceUuids != null) {
+            builder.setServiceUuids(serviceUuids);
+        }
+        entry.mLatest = builder.build();
+        if (!isDeliveryDue(entry)) {
+            return null;
+        }
+        entry.mDelivered = entry.mLatest;
+        return entry.mDelivered;
+    }
+
+    private boolean isDeliveryDue(Entry entry) {
+        final DiscoveredDevice latest = entry.mLatest;
+        if (mMinimumRssi != DiscoveredDevice.RSSI_UNAVAILABLE
+                && latest.getRssi() < mMinimumRssi) {
+            return false;
+        }
+        final DiscoveredDevice delivered = entry.mDelivered;
+        // A threshold of 0 still requires some change.
+        return null == delivered
+                || Math.abs(latest.getRssi() - delivered.getRssi())
+                        >= Math.max(1, mRssiChangeThreshold)
+                || !equals(latest.getName(), delivered.getName())
+                || !equals(latest.getServiceUuids(), delivered.getServiceUuids());
+    }
+
+    private static boolean equals(Object first, Object second) {
+        return (null == first) ? (null == second) : first.equals(second);
+    }
+
+    private static final class Entry {
+
+        DiscoveredDevice mDelivered;
+        DiscoveredDevice mLatest;
+        double mSmoothedRssi;
+
+        Entry(int rssi) {
+            mSmoothedRssi = rssi;
+        }
+    }
+}
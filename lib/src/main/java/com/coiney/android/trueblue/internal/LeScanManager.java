@@ -0,0 +1,481 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.Manifest;
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContextCompat;
+
+import com.coiney.android.trueblue.DiscoveredDevice;
+import com.coiney.android.trueblue.DiscoveryError;
+import com.coiney.android.trueblue.LeScanListener;
+import com.coiney.android.trueblue.LeScanRequest;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * <p>
+ * Runs Bluetooth LE scans, alongside the classic discovery scans run by
+ * {@link DiscoveryManager}. Requires API 21+.
+ * </p>
+ *
+ * <p>
+ * Scans are started with filters offloaded to the controller and, where the
+ * controller supports it, a report delay so that results arrive in batches.
+ * Where it does not, results are coalesced for the report delay here
+ * instead. Every result is passed through a {@link LeScanCache}, so each
+ * batch only contains devices which are new or have changed, and starts are
+ * limited by a {@link ScanStartBudget} so that the system never throttles the
+ * application.
+ * </p>
+ *
+ * <p>
+ * Results are handled on the thread of the receiver handler provided at
+ * construction, so bursts of advertisements do not compete with UI work.
+ * Listeners are still called on the main thread.
+ * </p>
+ */
+@ThreadSafe
+public final class LeScanManager {
+
+    // ScanCallback.SCAN_FAILED_SCANNING_TOO_FREQUENTLY - not available at
+    // the compile SDK version in use.
+    private static final int SCAN_FAILED_SCANNING_TOO_FREQUENTLY = 6;
+
+    private final AdapterManager mAdapterManager;
+    private final BluetoothStatusMonitor.AdapterStateListener mAdapterStateListener =
+            new BluetoothStatusMonitor.AdapterStateListener() {
+                @Override
+                public void onAdapterStateChanged(int state) {
+                    if (BluetoothAdapter.STATE_TURNING_OFF == state
+                            || BluetoothAdapter.STATE_OFF == state) {
+                        handleAdapterTurningOff();
+                    }
+                }
+            };
+    @GuardedBy("this")
+    private LeScanCache mCache;
+    private final Context mContext;
+    @GuardedBy("this")
+    private int mDeliveredCount;
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (LeScanManager.this) {
+                mIsFlushScheduled = false;
+                flush();
+            }
+        }
+    };
+    private final Handler mHandler;
+    @GuardedBy("this")
+    private boolean mIsBatchingInController;
+    @GuardedBy("this")
+    private boolean mIsFlushScheduled;
+    private volatile boolean mIsScanning;
+    private final Set<LeScanListener> mListeners = new CopyOnWriteArraySet<>();
+    private final Logger mLogger;
+    @GuardedBy("this")
+    private final Map<String, DiscoveredDevice> mPendingDevices = new LinkedHashMap<>();
+    @GuardedBy("this")
+    private LeScanRequest mRequest;
+    @GuardedBy("this")
+    private int mResultCount;
+    @GuardedBy("this")
+    private ScanCallback mScanCallback;
+    @GuardedBy("this")
+    private final ScanStartBudget mScanStartBudget;
+
+    /**
+     * Create an LE scan manager with the provided parameters.
+     *
+     * @param adapterManager with which to start and stop scans.
+     * @param context with which to check permissions.
+     * @param receiverHandler on whose thread to handle scan results.
+     * @param logger to log to.
+     */
+    public LeScanManager(@NonNull AdapterManager adapterManager, @NonNull Context context,
+            @NonNull Handler receiverHandler, @NonNull Logger logger) {
+        this(adapterManager, context, receiverHandler, logger,
+                new ScanStartBudget(ScanStartBudget.DEFAULT_MAXIMUM_START_COUNT,
+                        ScanStartBudget.DEFAULT_WINDOW_MILLIS));
+    }
+
+    LeScanManager(@NonNull AdapterManager adapterManager, @NonNull Context context,
+            @NonNull Handler receiverHandler, @NonNull Logger logger,
+            @NonNull ScanStartBudget scanStartBudget) {
+        mAdapterManager = adapterManager;
+        mContext = context.getApplicationContext();
+        mHandler = receiverHandler;
+        mLogger = logger;
+        mScanStartBudget = scanStartBudget;
+    }
+
+    /**
+     * Start the LE scan manager, which commences monitoring the adapter state
+     * so that a running scan can be reported as stopped when the adapter
+     * turns off.
+     */
+    public void start() {
+        mAdapterManager.registerAdapterStateListener(mAdapterStateListener);
+    }
+
+    /**
+     * Ask whether an LE scan started by this manager is currently running or
+     * not.
+     *
+     * @return flag indicating whether an LE scan is running or not.
+     */
+    public boolean isScanRunning() {
+        return mIsScanning;
+    }
+
+    /**
+     * Attempt to start an LE scan for the devices described by the provided
+     * request. Results are reported via {@link LeScanListener}, which can be
+     * registered using {@link #registerListener(LeScanListener)}.
+     *
+     * This method returns either null (in the event the scan starts
+     * successfully) or a {@link DiscoveryError} value explaining the reason
+     * the scan failed to start.
+     *
+     * @param request describing the devices to find.
+     *
+     * @return discovery error which prevented the scan starting, or null.
+     */
+    @Nullable
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public synchronized DiscoveryError startScan(@NonNull LeScanRequest request) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            mLogger.d("Cannot start LE scan - requires API 21+.");
+            return DiscoveryError.BLUETOOTH_NOT_AVAILABLE;
+        }
+        if (mIsScanning) {
+            mLogger.d("Cannot start LE scan - a scan is already running.");
+            return DiscoveryError.ALREADY_RUNNING;
+        }
+        if (PackageManager.PERMISSION_GRANTED != ContextCompat.checkSelfPermission(mContext,
+                Manifest.permission.ACCESS_COARSE_LOCATION)) {
+            mLogger.d("Coarse location access permission is required in order to perform a " +
+                    "Bluetooth LE scan.");
+            return DiscoveryError.COARSE_LOCATION_PERMISSION_REQUIRED;
+        }
+        if (!mAdapterManager.isAdapterEnabled()) {
+            mLogger.d("Cannot start LE scan - Bluetooth is not enabled.");
+            return DiscoveryError.BLUETOOTH_DISABLED;
+        }
+        final long nowMillis = SystemClock.elapsedRealtime();
+        if (!mScanStartBudget.tryAcquire(nowMillis)) {
+            mLogger.d("Cannot start LE scan - too many scans started recently, next start " +
+                    "allowed in %d ms.", mScanStartBudget.getMillisUntilNextStart(nowMillis));
+            return DiscoveryError.SCAN_BUDGET_EXCEEDED;
+        }
+        final long reportDelayMillis = request.getReportDelayMillis();
+        final boolean isBatchingInController = reportDelayMillis > 0
+                && mAdapterManager.isOffloadedScanBatchingSupported();
+        final ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(request.getScanMode())
+                .setReportDelay(isBatchingInController ? reportDelayMillis : 0)
+                .build();
+        final ScanCallback callback = new LeScanCallback();
+        mLogger.d("Starting LE scan.");
+        if (!mAdapterManager.startLeScan(createFilters(request), settings, callback)) {
+            return DiscoveryError.SYSTEM_ERROR;
+        }
+        mCache = new LeScanCache(request.getRssiSmoothingFactor(),
+                request.getRssiChangeThreshold(), request.getMinimumRssi(),
+                LeScanCache.DEFAULT_MAXIMUM_SIZE);
+        mDeliveredCount = 0;
+        mIsBatchingInController = isBatchingInController;
+        mIsScanning = true;
+        mRequest = request;
+        mResultCount = 0;
+        mScanCallback = callback;
+        return null;
+    }
+
+    /**
+     * Stop the LE scan started by this manager. Devices which are waiting to
+     * be reported are reported first, although results still batched in the
+     * controller are discarded.
+     *
+     * @return flag indicating whether a scan was stopped or not.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public synchronized boolean stopScan() {
+        if (!mIsScanning) {
+            mLogger.d("Cannot stop LE scan - not running.");
+            return false;
+        }
+        mLogger.d("Stopping LE scan.");
+        mAdapterManager.stopLeScan(mScanCallback);
+        finishScan(null);
+        return true;
+    }
+
+    /**
+     * Register a listener for LE scan related events. Remember to unregister
+     * using {@link #unregisterListener(LeScanListener)} when these events are
+     * no longer required.
+     *
+     * @param listener to register.
+     */
+    public void registerListener(@NonNull LeScanListener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Unregister a previously registered listener.
+     *
+     * @param listener to unregister.
+     */
+    public void unregisterListener(@NonNull LeScanListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Write the state of the LE scan manager to the provided writer.
+     *
+     * @param writer to write to.
+     * @param prefix to indent each line with.
+     */
+    public synchronized void dump(@NonNull PrintWriter writer, @NonNull String prefix) {
+        DumpUtils.printLine(writer, prefix, "leScan",
+                "scanning", mIsScanning,
+                "batchingInController", mIsBatchingInController,
+                "reportDelayMs", (mRequest != null) ? mRequest.getReportDelayMillis() : 0,
+                "resultCount", mResultCount,
+                "deliveredCount", mDeliveredCount,
+                "cachedDeviceCount", (mCache != null) ? mCache.size() : 0,
+                "pendingDeviceCount", mPendingDevices.size(),
+                "remainingStartCount", mScanStartBudget.getRemainingStartCount(
+                        SystemClock.elapsedRealtime()),
+                "listenerCount", mListeners.size());
+    }
+
+    /**
+     * Get the callback of the running scan, for use in tests.
+     *
+     * @return scan callback, or null if no scan is running.
+     */
+    @Nullable
+    synchronized ScanCallback getScanCallback() {
+        return mScanCallback;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private synchronized void handleScanResults(ScanCallback callback,
+            List<ScanResult> results) {
+        // Ignore results which were queued before the scan stopped.
+        if (callback != mScanCallback) {
+            return;
+        }
+        final long nowMillis = SystemClock.elapsedRealtime();
+        for (ScanResult result : results) {
+            mResultCount++;
+            final ScanRecord record = result.getScanRecord();
+            final DiscoveredDevice discoveredDevice = mCache.recordSighting(result.getDevice(),
+                    result.getRssi(), (record != null) ? record.getDeviceName() : null,
+                    (record != null) ? toUuids(record.getServiceUuids()) : null, nowMillis);
+            if (discoveredDevice != null) {
+                mPendingDevices.put(discoveredDevice.getAddress(), discoveredDevice);
+            }
+        }
+        final long reportDelayMillis = mRequest.getReportDelayMillis();
+        if (mIsBatchingInController || 0 == reportDelayMillis) {
+            flush();
+        } else if (!mPendingDevices.isEmpty() && !mIsFlushScheduled) {
+            mIsFlushScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, reportDelayMillis);
+        }
+    }
+
+    private synchronized void handleScanFailed(ScanCallback callback, int errorCode) {
+        if (callback != mScanCallback) {
+            return;
+        }
+        mLogger.w("LE scan failed with error code %d.", errorCode);
+        finishScan(toDiscoveryError(errorCode));
+    }
+
+    private synchronized void handleAdapterTurningOff() {
+        if (mIsScanning) {
+            // The system stops every scan as the adapter turns off.
+            mLogger.d("Bluetooth turning off - LE scan stopped.");
+            finishScan(DiscoveryError.BLUETOOTH_DISABLED);
+        }
+    }
+
+    @GuardedBy("this")
+    private void finishScan(@Nullable final DiscoveryError error) {
+        mHandler.removeCallbacks(mFlushRunnable);
+        mIsFlushScheduled = false;
+        flush();
+        mIsScanning = false;
+        mScanCallback = null;
+        ThreadUtils.postOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                for (LeScanListener listener : mListeners) {
+                    listener.onLeScanStopped(error);
+                }
+            }
+        });
+    }
+
+    @GuardedBy("this")
+    private void flush() {
+        if (mPendingDevices.isEmpty()) {
+            return;
+        }
+        final List<DiscoveredDevice> discoveredDevices = Collections.unmodifiableList(
+                new ArrayList<>(mPendingDevices.values()));
+        mPendingDevices.clear();
+        mDeliveredCount += discoveredDevices.size();
+        ThreadUtils.postOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                for (LeScanListener listener : mListeners) {
+                    listener.onLeDevicesDiscovered(discoveredDevices);
+                }
+            }
+        });
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static List<ScanFilter> createFilters(LeScanRequest request) {
+        final List<ScanFilter> filters = new ArrayList<>();
+        if (request.getAddresses().isEmpty() && request.getServiceUuids().isEmpty()) {
+            return filters;
+        }
+        // Filters are ORed together, so create one for each combination.
+        final List<String> addresses = request.getAddresses().isEmpty() ?
+                Collections.<String>singletonList(null) :
+                new ArrayList<>(request.getAddresses());
+        final List<UUID> serviceUuids = request.getServiceUuids().isEmpty() ?
+                Collections.<UUID>singletonList(null) :
+                new ArrayList<>(request.getServiceUuids());
+        for (String address : addresses) {
+            for (UUID serviceUuid : serviceUuids) {
+                final ScanFilter.Builder builder = new ScanFilter.Builder();
+                if (address != null) {
+                    builder.setDeviceAddress(address);
+                }
+                if (serviceUuid != null) {
+                    builder.setServiceUuid(new ParcelUuid(serviceUuid));
+                }
+                filters.add(builder.build());
+            }
+        }
+        return filters;
+    }
+
+    private static Set<UUID> toUuids(List<ParcelUuid> parcelUuids) {
+        if (null == parcelUuids) {
+            return null;
+        }
+        final Set<UUID> uuids = new HashSet<>();
+        for (ParcelUuid parcelUuid : parcelUuids) {
+            uuids.add(parcelUuid.getUuid());
+        }
+        return uuids;
+    }
+
+    private static DiscoveryError toDiscoveryError(int errorCode) {
+        switch (errorCode) {
+            case ScanCallback.SCAN_FAILED_ALREADY_STARTED:
+                return DiscoveryError.ALREADY_RUNNING;
+            case ScanCallback.SCAN_FAILED_FEATURE_UNSUPPORTED:
+                return DiscoveryError.BLUETOOTH_NOT_AVAILABLE;
+            case SCAN_FAILED_SCANNING_TOO_FREQUENTLY:
+                return DiscoveryError.SCAN_BUDGET_EXCEEDED;
+            default:
+                return DiscoveryError.SYSTEM_ERROR;
+        }
+    }
+
+    /**
+     * Hands results over to the receiver thread. The system calls scan
+     * callbacks on the main thread.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private final class LeScanCallback extends ScanCallback {
+
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            post(Collections.singletonList(result));
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            post(new ArrayList<>(results));
+        }
+
+        @Override
+        public void onScanFailed(final int errorCode) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    handleScanFailed(LeScanCallback.this, errorCode);
+                }
+            });
+        }
+
+        private void post(final List<ScanResult> results) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    handleScanResults(LeScanCallback.this, results);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+
+import com.coiney.android.trueblue.Server;
+import com.coiney.android.trueblue.TransportSocket;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A server socket which accepts inbound connections from remote devices.
+ * Closing it unblocks any thread waiting in {@link #accept()}.
+ */
+interface ListeningSocket extends Closeable {
+
+    /**
+     * Value returned by {@link #getPsm()} for sockets which are not L2CAP
+     * channels.
+     */
+    int NO_PSM = Server.NO_PSM;
+
+    /**
+     * Block until a remote device connects.
+     *
+     * @return socket connected to the remote device.
+     *
+     * @throws IOException if the socket is closed or fails.
+     */
+    @NonNull
+    AcceptedSocket accept() throws IOException;
+
+    /**
+     * Get the protocol/service multiplexer which remote devices connect to,
+     * for L2CAP channels.
+     *
+     * @return PSM, or {@link #NO_PSM} if the socket is not an L2CAP channel.
+     */
+    int getPsm();
+
+    /**
+     * Get the name of the transport over which connections are accepted, as
+     * reported in connection statistics. This matches the {@link
+     * com.coiney.android.trueblue.Transport#getName()} of the transport used
+     * for outbound connections of the same kind.
+     *
+     * @return transport name.
+     */
+    @NonNull
+    String getTransportName();
+
+    /**
+     * A socket returned by {@link #accept()}, which is already connected.
+     */
+    interface AcceptedSocket extends TransportSocket {
+
+        /**
+         * Get the remote device the socket is connected to.
+         *
+         * @return remote device.
+         */
+        @NonNull
+        BluetoothDevice getRemoteDevice();
+    }
+}
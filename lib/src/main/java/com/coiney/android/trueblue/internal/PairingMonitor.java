@@ -28,26 +28,55 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Handler;
 import android.support.annotation.NonNull;
-import android.util.Log;
 
+import net.jcip.annotations.GuardedBy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
- * Monitors and reports on pairing events in the Bluetooth subsystem.
+ * <p>
+ * Monitors and reports on pairing events in the Bluetooth subsystem. Bond
+ * state broadcasts are received, and listeners called, on the thread of the
+ * receiver handler provided at construction.
+ * </p>
+ *
+ * <p>
+ * Pairing listeners are registered for a specific device and keyed by its
+ * address, so each bond state change is routed only to the listeners for the
+ * device concerned, regardless of how many connection attempts are in
+ * progress. Any number of listeners may be registered for the same device.
+ * </p>
  */
 public class PairingMonitor extends BroadcastReceiver {
 
+    private final CopyOnWriteArraySet<BondStateListener> mBondStateListeners =
+            new CopyOnWriteArraySet<>();
     private final Context mContext;
-    private final CopyOnWriteArraySet<Listener> mListeners = new CopyOnWriteArraySet<>();
+    // Read without locking when routing broadcasts - only updates are guarded.
+    @GuardedBy("mListenersLock")
+    private final ConcurrentMap<String, CopyOnWriteArraySet<Listener>> mListeners =
+            new ConcurrentHashMap<>();
+    private final Object mListenersLock = new Object();
+    private final Logger mLogger;
+    private final Handler mReceiverHandler;
 
     /**
-     * Create a pairing monitor with the provided context.
+     * Create a pairing monitor with the provided parameters.
      *
      * @param context with which to access pairing related system broadcasts.
+     * @param receiverHandler on whose thread to receive pairing related
+     *                        system broadcasts.
+     * @param logger to log to.
      */
-    public PairingMonitor(@NonNull Context context) {
+    public PairingMonitor(@NonNull Context context, @NonNull Handler receiverHandler,
+            @NonNull Logger logger) {
         mContext = context.getApplicationContext();
+        mLogger = logger;
+        mReceiverHandler = receiverHandler;
     }
 
     @Override
@@ -60,27 +89,35 @@ public class PairingMonitor extends BroadcastReceiver {
         final BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
         final int currentBondState = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE,
                 BluetoothDevice.BOND_NONE);
-        Log.d("TrueBlue", "Device " + device.getAddress() + " bond state change " +
-                "from " + previousBondState + " to " + currentBondState + ".");
+        mLogger.d(device, "Bond state change from %d to %d.", previousBondState,
+                currentBondState);
+        for (BondStateListener listener : mBondStateListeners) {
+            listener.onBondStateChanged(device, previousBondState, currentBondState);
+        }
+        final CopyOnWriteArraySet<Listener> listeners = mListeners.get(device.getAddress());
+        if (null == listeners) {
+            return;
+        }
+        for (Listener listener : listeners) {
+            dispatchPairingEvent(listener, device, previousBondState, currentBondState);
+        }
+    }
+
+    private static void dispatchPairingEvent(Listener listener, BluetoothDevice device,
+            int previousBondState, int currentBondState) {
         switch (previousBondState) {
             case BluetoothDevice.BOND_NONE:
                 // Entering pairing mode.
                 if (BluetoothDevice.BOND_BONDING == currentBondState) {
-                    for (Listener listener : mListeners) {
-                        listener.onPairingAttemptStarted(device);
-                    }
+                    listener.onPairingAttemptStarted(device);
                 }
                 break;
             case BluetoothDevice.BOND_BONDING:
                 // Pairing result.
                 if (BluetoothDevice.BOND_BONDED == currentBondState) {
-                    for (Listener listener : mListeners) {
-                        listener.onPairingAttemptSucceeded(device);
-                    }
+                    listener.onPairingAttemptSucceeded(device);
                 } else if (BluetoothDevice.BOND_NONE == currentBondState) {
-                    for (Listener listener : mListeners) {
-                        listener.onPairingAttemptFailed(device);
-                    }
+                    listener.onPairingAttemptFailed(device);
                 }
                 break;
             case BluetoothDevice.BOND_BONDED:
@@ -97,7 +134,8 @@ public class PairingMonitor extends BroadcastReceiver {
     public void start() {
         ContextUtils.unregisterReceiverSilently(mContext, this);
         mContext.registerReceiver(this,
-                new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED));
+                new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED), null,
+                mReceiverHandler);
     }
 
     /**
@@ -106,32 +144,96 @@ public class PairingMonitor extends BroadcastReceiver {
      */
     public void stop() {
         ContextUtils.unregisterReceiverSilently(mContext, this);
-        mListeners.clear();
+        mBondStateListeners.clear();
+        synchronized (mListenersLock) {
+            mListeners.clear();
+        }
     }
 
     /**
-     * Register a listener for Bluetooth pairing related events. Remember to
-     * unregister using {@link #unregisterListener(Listener)}) when these
-     * events are no longer required.
+     * Register a listener for Bluetooth pairing related events concerning the
+     * provided device. Listeners already registered for the device are kept
+     * and notified as well. Remember to unregister using {@link
+     * #unregisterListener(BluetoothDevice, Listener)} when these events are no
+     * longer required.
      *
+     * @param device whose pairing events to listen for.
      * @param listener to register.
      */
-    void registerListener(Listener listener) {
-        mListeners.add(listener);
+    void registerListener(@NonNull BluetoothDevice device, @NonNull Listener listener) {
+        final String address = device.getAddress();
+        synchronized (mListenersLock) {
+            CopyOnWriteArraySet<Listener> listeners = mListeners.get(address);
+            if (null == listeners) {
+                listeners = new CopyOnWriteArraySet<>();
+                mListeners.put(address, listeners);
+            }
+            listeners.add(listener);
+        }
     }
 
     /**
      * Unregister a previously registered listener for Bluetooth pairing
-     * related events.
+     * related events concerning the provided device. Other listeners
+     * registered for the device are unaffected.
      *
+     * @param device whose pairing events were being listened for.
      * @param listener to unregister.
      */
-    void unregisterListener(Listener listener) {
-        mListeners.remove(listener);
+    void unregisterListener(@NonNull BluetoothDevice device, @NonNull Listener listener) {
+        final String address = device.getAddress();
+        synchronized (mListenersLock) {
+            final CopyOnWriteArraySet<Listener> listeners = mListeners.get(address);
+            if (null == listeners) {
+                return;
+            }
+            listeners.remove(listener);
+            if (listeners.isEmpty()) {
+                mListeners.remove(address);
+            }
+        }
+    }
+
+    /**
+     * Register a listener for every bond state change, including the removal
+     * of bonds. Remember to unregister using {@link
+     * #unregisterBondStateListener(BondStateListener)} when these events are
+     * no longer required.
+     *
+     * @param listener to register.
+     */
+    void registerBondStateListener(@NonNull BondStateListener listener) {
+        mBondStateListeners.add(listener);
+    }
+
+    /**
+     * Unregister a previously registered bond state listener.
+     *
+     * @param listener to unregister.
+     */
+    void unregisterBondStateListener(@NonNull BondStateListener listener) {
+        mBondStateListeners.remove(listener);
+    }
+
+    /**
+     * Listener interface for raw bond state changes.
+     */
+    interface BondStateListener {
+
+        /**
+         * Called when the bond state of a Bluetooth device has changed.
+         *
+         * @param device whose bond state has changed.
+         * @param previousBondState as per {@link BluetoothDevice#getBondState()}.
+         * @param bondState as per {@link BluetoothDevice#getBondState()}.
+         */
+        void onBondStateChanged(@NonNull BluetoothDevice device, int previousBondState,
+                int bondState);
     }
 
     /**
-     * Listener interface for Bluetooth pairing related events.
+     * Listener interface for Bluetooth pairing related events concerning a
+     * single device.
      */
     interface Listener {
 
@@ -0,0 +1,481 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothA2dp;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothHeadset;
+import android.bluetooth.BluetoothProfile;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.coiney.android.trueblue.ProfileConnectionListener;
+import com.coiney.android.trueblue.ProfileType;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * <p>
+ * Binds a proxy for each configured Bluetooth profile once, and caches the
+ * connection state of every device for each of them.
+ * </p>
+ *
+ * <p>
+ * Binding a profile proxy is asynchronous and can take hundreds of
+ * milliseconds, so proxies are bound when the manager is started (or when
+ * Bluetooth is enabled) rather than when they are needed, closed when
+ * Bluetooth is disabled, and bound again once it is back on. The connection
+ * states are read from each proxy when it is bound and are then kept up to
+ * date via broadcasts, so queries never make IPC calls or wait for a proxy.
+ * </p>
+ *
+ * <p>
+ * Proxy callbacks and broadcasts are handled on the thread of the receiver
+ * handler provided at construction, while listeners are called on the main
+ * thread. Profile proxies require API 11+ - on older versions no profiles are
+ * bound and every device is reported as disconnected.
+ * </p>
+ */
+@ThreadSafe
+public class ProfileManager extends BroadcastReceiver {
+
+    // BluetoothHidHost.ACTION_CONNECTION_STATE_CHANGED - not available at the
+    // compile SDK version in use.
+    static final String ACTION_HID_HOST_CONNECTION_STATE_CHANGED =
+            "android.bluetooth.input.profile.action.CONNECTION_STATE_CHANGED";
+    // BluetoothProfile.HID_HOST - not available at the compile SDK version in use.
+    static final int HID_HOST = 4;
+
+    private final BluetoothAdapter mAdapter;
+    private final Context mContext;
+    private final Set<ProfileConnectionListener> mListeners = new CopyOnWriteArraySet<>();
+    private final Logger mLogger;
+    private final Map<ProfileType, ProfileState> mProfileStates =
+            new EnumMap<>(ProfileType.class);
+    private final Handler mReceiverHandler;
+    private final BluetoothProfile.ServiceListener mServiceListener =
+            new BluetoothProfile.ServiceListener() {
+                @Override
+                public void onServiceConnected(final int profile, final BluetoothProfile proxy) {
+                    mReceiverHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onProxyBound(profile, proxy);
+                        }
+                    });
+                }
+
+                @Override
+                public void onServiceDisconnected(final int profile) {
+                    mReceiverHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onProxyUnbound(profile);
+                        }
+                    });
+                }
+            };
+
+    /**
+     * Create a profile manager with the provided parameters.
+     *
+     * @param adapter with which to bind profile proxies.
+     * @param context with which to bind profile proxies and access profile
+     *                connection state broadcasts.
+     * @param receiverHandler on whose thread to handle proxy callbacks and
+     *                        broadcasts.
+     * @param profiles to bind. May be empty, in which case the manager does
+     *                 nothing.
+     * @param logger to log to.
+     */
+    public ProfileManager(@NonNull BluetoothAdapter adapter, @NonNull Context context,
+            @NonNull Handler receiverHandler, @NonNull Set<ProfileType> profiles,
+            @NonNull Logger logger) {
+        mAdapter = adapter;
+        mContext = context.getApplicationContext();
+        mLogger = logger;
+        mReceiverHandler = receiverHandler;
+        for (ProfileType profile : profiles) {
+            mProfileStates.put(profile, new ProfileState());
+        }
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final ProfileType profile = getProfileType(intent.getAction());
+        final BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+        if (null == profile || null == device) {
+            return;
+        }
+        final ProfileState profileState = mProfileStates.get(profile);
+        // Ignore broadcasts while unbound, since the states are re-read once
+        // the proxy is bound.
+        if (profileState != null && profileState.mProxy != null) {
+            final Map<BluetoothDevice, Integer> states =
+                    new HashMap<>(profileState.mConnectionStates);
+            final int state = intent.getIntExtra(BluetoothProfile.EXTRA_STATE,
+                    BluetoothProfile.STATE_DISCONNECTED);
+            if (BluetoothProfile.STATE_DISCONNECTED == state) {
+                states.remove(device);
+            } else {
+                states.put(device, state);
+            }
+            updateConnectionStates(profile, profileState, states);
+        }
+    }
+
+    /**
+     * Start the profile manager, binding every configured profile if
+     * Bluetooth is enabled.
+     *
+     * @param adapterState current adapter state, as per {@link
+     *                     BluetoothAdapter#getState()}.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    void start(int adapterState) {
+        if (mProfileStates.isEmpty()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            mLogger.w("Cannot bind profiles - profile proxies require API 11+.");
+            return;
+        }
+        ContextUtils.unregisterReceiverSilently(mContext, this);
+        final IntentFilter filter = new IntentFilter();
+        for (ProfileType profile : mProfileStates.keySet()) {
+            filter.addAction(getAction(profile));
+        }
+        mContext.registerReceiver(this, filter, null, mReceiverHandler);
+        onAdapterStateChanged(adapterState);
+    }
+
+    /**
+     * Bind or close the profile proxies according to the new adapter state.
+     * Must be called on the receiver thread.
+     *
+     * @param state of the adapter, as per {@link BluetoothAdapter#getState()}.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    void onAdapterStateChanged(int state) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        if (BluetoothAdapter.STATE_ON == state) {
+            bindProxies();
+        } else if (BluetoothAdapter.STATE_TURNING_OFF == state
+                || BluetoothAdapter.STATE_OFF == state) {
+            closeProxies();
+        }
+    }
+
+    /**
+     * Ask whether the proxy for the provided profile is bound, and therefore
+     * whether connection states are being tracked for it.
+     *
+     * @param profile to check.
+     *
+     * @return flag indicating whether the profile is available or not.
+     */
+    boolean isProfileAvailable(@NonNull ProfileType profile) {
+        final ProfileState profileState = mProfileStates.get(profile);
+        return profileState != null && profileState.mProxy != null;
+    }
+
+    /**
+     * Get the cached connection state of a device for a profile, without
+     * making any IPC calls.
+     *
+     * @param profile to check.
+     * @param device to check.
+     *
+     * @return connection state as per {@link
+     *         BluetoothProfile#getConnectionState(BluetoothDevice)}, which is
+     *         always disconnected for profiles which are not available.
+     */
+    int getConnectionState(@NonNull ProfileType profile, @NonNull BluetoothDevice device) {
+        final ProfileState profileState = mProfileStates.get(profile);
+        if (null == profileState) {
+            return BluetoothProfile.STATE_DISCONNECTED;
+        }
+        final Integer state = profileState.mConnectionStates.get(device);
+        return (state != null) ? state : BluetoothProfile.STATE_DISCONNECTED;
+    }
+
+    /**
+     * Get the devices connected for a profile, without making any IPC calls.
+     *
+     * @param profile to check.
+     *
+     * @return immutable list of connected devices.
+     */
+    @NonNull
+    List<BluetoothDevice> getConnectedDevices(@NonNull ProfileType profile) {
+        final ProfileState profileState = mProfileStates.get(profile);
+        if (null == profileState) {
+            return Collections.emptyList();
+        }
+        final List<BluetoothDevice> devices = new ArrayList<>();
+        for (Map.Entry<BluetoothDevice, Integer> entry :
+                profileState.mConnectionStates.entrySet()) {
+            if (BluetoothProfile.STATE_CONNECTED == entry.getValue()) {
+                devices.add(entry.getKey());
+            }
+        }
+        return Collections.unmodifiableList(devices);
+    }
+
+    /**
+     * Register a listener for profile connection state changes.
+     *
+     * @param listener to register.
+     */
+    void registerListener(@NonNull ProfileConnectionListener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Unregister a previously registered profile connection state listener.
+     *
+     * @param listener to unregister.
+     */
+    void unregisterListener(@NonNull ProfileConnectionListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Write the state of each configured profile to the provided writer.
+     *
+     * @param writer to write to.
+     * @param prefix to indent each line with.
+     */
+    void dump(@NonNull PrintWriter writer, @NonNull String prefix) {
+        for (Map.Entry<ProfileType, ProfileState> entry : mProfileStates.entrySet()) {
+            final ProfileState profileState = entry.getValue();
+            final long bindMillis;
+            synchronized (profileState) {
+                bindMillis = profileState.mBindMillis;
+            }
+            DumpUtils.printLine(writer, prefix, "profile",
+                    "type", entry.getKey(),
+                    "bound", profileState.mProxy != null,
+                    "bindMs", bindMillis,
+                    "connectedDeviceCount", getConnectedDevices(entry.getKey()).size());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void bindProxies() {
+        for (Map.Entry<ProfileType, ProfileState> entry : mProfileStates.entrySet()) {
+            final ProfileState profileState = entry.getValue();
+            final boolean isBinding;
+            synchronized (profileState) {
+                if (profileState.mProxy != null || profileState.mIsBinding) {
+                    continue;
+                }
+                profileState.mBindStartedAtMillis = SystemClock.elapsedRealtime();
+                profileState.mIsBinding = mAdapter.getProfileProxy(mContext, mServiceListener,
+                        getProfileId(entry.getKey()));
+                isBinding = profileState.mIsBinding;
+            }
+            if (!isBinding) {
+                mLogger.w("Cannot bind %s profile proxy.", entry.getKey());
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void closeProxies() {
+        for (Map.Entry<ProfileType, ProfileState> entry : mProfileStates.entrySet()) {
+            final ProfileState profileState = entry.getValue();
+            final BluetoothProfile proxy;
+            synchronized (profileState) {
+                proxy = profileState.mProxy;
+                profileState.mIsBinding = false;
+                profileState.mProxy = null;
+            }
+            if (proxy != null) {
+                mAdapter.closeProfileProxy(getProfileId(entry.getKey()), proxy);
+            }
+            updateConnectionStates(entry.getKey(), profileState,
+                    Collections.<BluetoothDevice, Integer>emptyMap());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void onProxyBound(int profileId, @NonNull BluetoothProfile proxy) {
+        final ProfileType profile = getProfileType(profileId);
+        final ProfileState profileState = (profile != null) ? mProfileStates.get(profile) : null;
+        if (null == profileState) {
+            return;
+        }
+        final long bindMillis;
+        synchronized (profileState) {
+            if (!profileState.mIsBinding) {
+                // Bluetooth was disabled while the proxy was being bound.
+                mAdapter.closeProfileProxy(profileId, proxy);
+                return;
+            }
+            bindMillis = SystemClock.elapsedRealtime() - profileState.mBindStartedAtMillis;
+            profileState.mBindMillis = bindMillis;
+            profileState.mIsBinding = false;
+            profileState.mProxy = proxy;
+        }
+        mLogger.d("Bound %s profile proxy in %d ms.", profile, bindMillis);
+        final Map<BluetoothDevice, Integer> states = new HashMap<>();
+        for (int state : new int[] { BluetoothProfile.STATE_CONNECTING,
+                BluetoothProfile.STATE_CONNECTED, BluetoothProfile.STATE_DISCONNECTING }) {
+            for (BluetoothDevice device :
+                    proxy.getDevicesMatchingConnectionStates(new int[] { state })) {
+                states.put(device, state);
+            }
+        }
+        updateConnectionStates(profile, profileState, states);
+    }
+
+    private void onProxyUnbound(int profileId) {
+        final ProfileType profile = getProfileType(profileId);
+        final ProfileState profileState = (profile != null) ? mProfileStates.get(profile) : null;
+        if (null == profileState) {
+            return;
+        }
+        synchronized (profileState) {
+            // The system binds the proxy again by itself once the profile
+            // service is back, so wait for that rather than binding again.
+            profileState.mBindStartedAtMillis = SystemClock.elapsedRealtime();
+            profileState.mIsBinding = true;
+            profileState.mProxy = null;
+        }
+        mLogger.d("Lost %s profile proxy.", profile);
+        updateConnectionStates(profile, profileState,
+                Collections.<BluetoothDevice, Integer>emptyMap());
+    }
+
+    private void updateConnectionStates(@NonNull final ProfileType profile,
+            @NonNull ProfileState profileState, @NonNull Map<BluetoothDevice, Integer> states) {
+        final Map<BluetoothDevice, Integer> previousStates = profileState.mConnectionStates;
+        profileState.mConnectionStates = Collections.unmodifiableMap(states);
+        final Map<BluetoothDevice, Integer> changes = new HashMap<>();
+        for (Map.Entry<BluetoothDevice, Integer> entry : states.entrySet()) {
+            if (!entry.getValue().equals(previousStates.get(entry.getKey()))) {
+                changes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (BluetoothDevice device : previousStates.keySet()) {
+            if (!states.containsKey(device)) {
+                changes.put(device, BluetoothProfile.STATE_DISCONNECTED);
+            }
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        ThreadUtils.postOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                for (Map.Entry<BluetoothDevice, Integer> entry : changes.entrySet()) {
+                    for (ProfileConnectionListener listener : mListeners) {
+                        listener.onProfileConnectionStateChanged(profile, entry.getKey(),
+                                entry.getValue());
+                    }
+                }
+            }
+        });
+    }
+
+    private static int getProfileId(@NonNull ProfileType profile) {
+        switch (profile) {
+            case A2DP:
+                return BluetoothProfile.A2DP;
+            case HEADSET:
+                return BluetoothProfile.HEADSET;
+            default:
+                return HID_HOST;
+        }
+    }
+
+    @Nullable
+    private static ProfileType getProfileType(int profileId) {
+        for (ProfileType profile : ProfileType.values()) {
+            if (getProfileId(profile) == profileId) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    @NonNull
+    private static String getAction(@NonNull ProfileType profile) {
+        switch (profile) {
+            case A2DP:
+                return BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED;
+            case HEADSET:
+                return BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED;
+            default:
+                return ACTION_HID_HOST_CONNECTION_STATE_CHANGED;
+        }
+    }
+
+    @Nullable
+    private static ProfileType getProfileType(@Nullable String action) {
+        for (ProfileType profile : ProfileType.values()) {
+            if (getAction(profile).equals(action)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The proxy and cached connection states of a single profile. The
+     * connection states are only replaced on the receiver thread, and are
+     * replaced wholesale with an immutable map so that queries need not lock.
+     */
+    private static final class ProfileState {
+
+        @GuardedBy("this") long mBindMillis = -1;
+        @GuardedBy("this") long mBindStartedAtMillis;
+        volatile Map<BluetoothDevice, Integer> mConnectionStates = Collections.emptyMap();
+        @GuardedBy("this") boolean mIsBinding;
+        volatile BluetoothProfile mProxy;
+    }
+}
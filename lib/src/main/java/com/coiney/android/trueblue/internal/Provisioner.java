@@ -0,0 +1,438 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothDevice;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.coiney.android.trueblue.Connection;
+import com.coiney.android.trueblue.ConnectionAttemptCallback;
+import com.coiney.android.trueblue.ProvisioningListener;
+import com.coiney.android.trueblue.ProvisioningProgress;
+import com.coiney.android.trueblue.ProvisioningRequest;
+import com.coiney.android.trueblue.ProvisioningStatus;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * Provisions a set of devices, as described by a {@link ProvisioningRequest},
+ * by bonding with each in turn and optionally verifying that each can be
+ * connected to.
+ * </p>
+ *
+ * <p>
+ * Bonds are requested via {@link BluetoothDevice#createBond()}, so
+ * provisioning requires API 19+. Only one device is paired with at a time,
+ * since the system only shows one pairing dialog at a time, and results are
+ * tracked via the {@link PairingMonitor}, alongside any connection attempt
+ * listening for pairing events concerning the same device.
+ * </p>
+ *
+ * <p>
+ * All provisioning state is confined to the main thread - {@link
+ * #start(ProvisioningRequest, ConnectionConfiguration, ProvisioningListener)}
+ * and {@link #cancel()} may be called from any thread but take effect
+ * asynchronously.
+ * </p>
+ */
+@ThreadSafe
+public final class Provisioner {
+
+    private final AdapterManager mAdapterManager;
+    private int mAttemptCount;
+    // Incremented whenever the device being provisioned or its attempt
+    // changes, so that stale pairing events and timeouts can be ignored.
+    private int mAttemptId;
+    private int mCompletedCount;
+    private final ConnectionManager mConnectionManager;
+    private BluetoothDevice mCurrentDevice;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean mIsRunning = new AtomicBoolean();
+    private ProvisioningListener mListener;
+    private final Logger mLogger;
+    private PairingListener mPairingListener;
+    private final PairingMonitor mPairingMonitor;
+    private final Queue<BluetoothDevice> mPendingDevices = new ArrayDeque<>();
+    private volatile ProvisioningProgress mProgress = new ProvisioningProgress(0, 0, 0, 0);
+    private ProvisioningRequest mRequest;
+    private long mStartedAtMillis;
+    private int mSucceededCount;
+    private int mTotalCount;
+    // Held strongly here since the connection manager only holds it weakly.
+    private ConnectionAttemptCallback mVerificationCallback;
+    private ConnectionConfiguration mVerificationConfiguration;
+
+    /**
+     * Create a provisioner with the provided parameters.
+     *
+     * @param adapterManager with which to stop discovery scans before pairing.
+     * @param connectionManager with which to verify bonded devices.
+     * @param pairingMonitor with which to track pairing results.
+     * @param logger to log to.
+     */
+    public Provisioner(@NonNull AdapterManager adapterManager,
+            @NonNull ConnectionManager connectionManager, @NonNull PairingMonitor pairingMonitor,
+            @NonNull Logger logger) {
+        mAdapterManager = adapterManager;
+        mConnectionManager = connectionManager;
+        mLogger = logger;
+        mPairingMonitor = pairingMonitor;
+    }
+
+    /**
+     * Ask whether provisioning is supported on this version of Android.
+     *
+     * @return flag indicating whether provisioning is supported or not.
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    /**
+     * Start provisioning the devices described by the provided request.
+     *
+     * @param request describing the devices to provision.
+     * @param verificationConfiguration to verify bonded devices with, or null
+     *                                  if they are not to be verified.
+     * @param listener to report progress to.
+     *
+     * @return flag indicating whether provisioning was started, which is not
+     *         the case if it is not supported or is already running.
+     */
+    public boolean start(@NonNull final ProvisioningRequest request,
+            @Nullable final ConnectionConfiguration verificationConfiguration,
+            @NonNull final ProvisioningListener listener) {
+        if (!isSupported() || !mIsRunning.compareAndSet(false, true)) {
+            return false;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mLogger.d("Starting provisioning of " + request.getDevices().size() +
+                        " device(s).");
+                mCompletedCount = 0;
+                mListener = listener;
+                mPendingDevices.addAll(request.getDevices());
+                mRequest = request;
+                mStartedAtMillis = SystemClock.elapsedRealtime();
+                mSucceededCount = 0;
+                mTotalCount = request.getDevices().size();
+                mVerificationConfiguration = verificationConfiguration;
+                publishProgress();
+                provisionNextDevice();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Cancel provisioning. The device being provisioned and all those waiting
+     * to be provisioned are reported as {@link ProvisioningStatus#CANCELLED}.
+     * Any pairing dialog already shown is left to the user.
+     */
+    public void cancel() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (null == mRequest) {
+                    return;
+                }
+                mLogger.d("Cancelling provisioning.");
+                final BluetoothDevice currentDevice = mCurrentDevice;
+                if (currentDevice != null) {
+                    endAttempt();
+                    if (mVerificationCallback != null) {
+                        mConnectionManager.disconnect(currentDevice);
+                        mVerificationCallback = null;
+                    }
+                    report(currentDevice, ProvisioningStatus.CANCELLED);
+                }
+                while (!mPendingDevices.isEmpty()) {
+                    report(mPendingDevices.remove(), ProvisioningStatus.CANCELLED);
+                }
+                finish();
+            }
+        });
+    }
+
+    /**
+     * Get the progress of the current or most recent provisioning run.
+     *
+     * @return provisioning progress.
+     */
+    @NonNull
+    public ProvisioningProgress getProgress() {
+        return mProgress;
+    }
+
+    /**
+     * Write the state of the provisioner to the provided writer.
+     *
+     * @param writer to write to.
+     * @param prefix to indent each line with.
+     */
+    public void dump(@NonNull PrintWriter writer, @NonNull String prefix) {
+        final ProvisioningProgress progress = mProgress;
+        DumpUtils.printLine(writer, prefix, "provisioner",
+                "running", mIsRunning.get(),
+                "totalCount", progress.getTotalCount(),
+                "completedCount", progress.getCompletedCount(),
+                "succeededCount", progress.getSucceededCount(),
+                "elapsedMs", progress.getElapsedTimeMillis());
+    }
+
+    private void provisionNextDevice() {
+        mCurrentDevice = mPendingDevices.poll();
+        mAttemptCount = 0;
+        if (null == mCurrentDevice) {
+            finish();
+            return;
+        }
+        if (BluetoothDevice.BOND_BONDED == mCurrentDevice.getBondState()) {
+            mLogger.d(mCurrentDevice, "Already bonded.");
+            onBonded(ProvisioningStatus.ALREADY_BONDED);
+        } else {
+            attemptPairing();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void attemptPairing() {
+        final BluetoothDevice device = mCurrentDevice;
+        final int attemptId = ++mAttemptId;
+        mAttemptCount++;
+        mLogger.d(device, "Pairing attempt #%d.", mAttemptCount);
+        // Discovery scans significantly slow down pairing.
+        mAdapterManager.stopDiscovery();
+        mPairingListener = new PairingListener(attemptId);
+        mPairingMonitor.registerListener(device, mPairingListener);
+        if (!device.createBond()) {
+            mLogger.d(device, "Bond request refused.");
+            onPairingFailed();
+            return;
+        }
+        mHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (attemptId == mAttemptId) {
+                    mLogger.d(device, "Timed out waiting for pairing result.");
+                    onPairingFailed();
+                }
+            }
+        }, mRequest.getPairingTimeoutMillis());
+    }
+
+    private void onPairingFailed() {
+        endAttempt();
+        if (mAttemptCount >= mRequest.getMaximumAttemptCount()) {
+            mLogger.d(mCurrentDevice, "Pairing failed - no attempts remaining.");
+            completeDevice(ProvisioningStatus.PAIRING_FAILED);
+            return;
+        }
+        final int attemptId = mAttemptId;
+        mHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (attemptId == mAttemptId) {
+                    attemptPairing();
+                }
+            }
+        }, mRequest.getRetryDelayMillis());
+    }
+
+    private void onBonded(ProvisioningStatus status) {
+        endAttempt();
+        if (null == mVerificationConfiguration) {
+            completeDevice(status);
+        } else {
+            verify();
+        }
+    }
+
+    private void verify() {
+        final BluetoothDevice device = mCurrentDevice;
+        if (mConnectionManager.isConnected(device)) {
+            completeDevice(ProvisioningStatus.VERIFIED);
+            return;
+        }
+        mLogger.d(device, "Verifying connection.");
+        mVerificationCallback = new VerificationCallback(mAttemptId);
+        // Each device gets its own retries.
+        if (!mConnectionManager.connect(device, mVerificationConfiguration.copy(),
+                mVerificationCallback)) {
+            mLogger.d(device, "Verification connection attempt refused.");
+            completeDevice(ProvisioningStatus.VERIFICATION_FAILED);
+        }
+    }
+
+    private void onVerificationCompleted(boolean didSucceed) {
+        mConnectionManager.disconnect(mCurrentDevice);
+        completeDevice(didSucceed ? ProvisioningStatus.VERIFIED :
+                ProvisioningStatus.VERIFICATION_FAILED);
+    }
+
+    private void endAttempt() {
+        mAttemptId++;
+        if (mPairingListener != null) {
+            mPairingMonitor.unregisterListener(mCurrentDevice, mPairingListener);
+            mPairingListener = null;
+        }
+    }
+
+    private void completeDevice(ProvisioningStatus status) {
+        mAttemptId++;
+        mVerificationCallback = null;
+        report(mCurrentDevice, status);
+        provisionNextDevice();
+    }
+
+    private void report(BluetoothDevice device, ProvisioningStatus status) {
+        mCompletedCount++;
+        if (ProvisioningStatus.ALREADY_BONDED == status || ProvisioningStatus.BONDED == status
+                || ProvisioningStatus.VERIFIED == status) {
+            mSucceededCount++;
+        }
+        final ProvisioningProgress progress = publishProgress();
+        mLogger.d(device, "Provisioning completed - " + status + ".");
+        mListener.onDeviceProvisioned(device, status, progress);
+    }
+
+    private void finish() {
+        mCurrentDevice = null;
+        mPendingDevices.clear();
+        final ProvisioningProgress progress = publishProgress();
+        final ProvisioningListener listener = mListener;
+        mListener = null;
+        mRequest = null;
+        mVerificationConfiguration = null;
+        mLogger.d("Provisioning finished - %s, %.1f device(s) per minute.", progress,
+                progress.getDevicesPerMinute());
+        mIsRunning.set(false);
+        listener.onProvisioningFinished(progress);
+    }
+
+    private ProvisioningProgress publishProgress() {
+        mProgress = new ProvisioningProgress(mTotalCount, mCompletedCount, mSucceededCount,
+                SystemClock.elapsedRealtime() - mStartedAtMillis);
+        return mProgress;
+    }
+
+    /**
+     * Receives pairing events for a single pairing attempt on the receiver
+     * thread, and passes them on to the main thread.
+     */
+    private final class PairingListener implements PairingMonitor.Listener {
+
+        private final int mListenerAttemptId;
+
+        PairingListener(int attemptId) {
+            mListenerAttemptId = attemptId;
+        }
+
+        @Override
+        public void onPairingAttemptFailed(@NonNull BluetoothDevice device) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mListenerAttemptId == mAttemptId) {
+                        mLogger.d(mCurrentDevice, "Pairing attempt failed.");
+                        onPairingFailed();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onPairingAttemptStarted(@NonNull BluetoothDevice device) { /* Empty */ }
+
+        @Override
+        public void onPairingAttemptSucceeded(@NonNull BluetoothDevice device) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mListenerAttemptId == mAttemptId) {
+                        mLogger.d(mCurrentDevice, "Pairing attempt succeeded.");
+                        onBonded(ProvisioningStatus.BONDED);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Receives the result of a verification connection attempt, which is
+     * reported on the main thread.
+     */
+    private final class VerificationCallback implements ConnectionAttemptCallback {
+
+        private final int mCallbackAttemptId;
+
+        VerificationCallback(int attemptId) {
+            mCallbackAttemptId = attemptId;
+        }
+
+        @Override
+        public void onConnectionAttemptSucceeded(@NonNull BluetoothDevice device,
+                @NonNull Connection connection) {
+            if (mCallbackAttemptId == mAttemptId) {
+                onVerificationCompleted(true);
+            }
+        }
+
+        @Override
+        public void onConnectionAttemptCancelled(@NonNull BluetoothDevice device) {
+            if (mCallbackAttemptId == mAttemptId) {
+                onVerificationCompleted(false);
+            }
+        }
+
+        @Override
+        public void onConnectionAttemptFailed(@NonNull BluetoothDevice device) {
+            if (mCallbackAttemptId == mAttemptId) {
+                onVerificationCompleted(false);
+            }
+        }
+
+        @Override
+        public void onPairingAttemptFailed(@NonNull BluetoothDevice device) { /* Empty */ }
+
+        @Override
+        public void onPairingAttemptStarted(@NonNull BluetoothDevice device) { /* Empty */ }
+
+        @Override
+        public void onPairingAttemptSucceeded(@NonNull BluetoothDevice device) { /* Empty */ }
+    }
+}
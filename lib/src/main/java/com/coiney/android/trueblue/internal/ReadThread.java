@@ -68,14 +68,28 @@ final class ReadThread extends Thread {
         final byte[] buffer = new byte[mReadBufferSize];
         int numberOfBytesRead;
         try {
-            while ((numberOfBytesRead = mConnection.read(buffer)) > -1) {
-                mCallback.onDataRead(Arrays.copyOfRange(buffer, 0, numberOfBytesRead));
+            while ((numberOfBytesRead = readFromConnection(buffer)) > -1) {
+                final boolean isTracing = TraceUtils.beginSection("onDataRead");
+                try {
+                    mCallback.onDataRead(Arrays.copyOfRange(buffer, 0, numberOfBytesRead));
+                } finally {
+                    TraceUtils.endSection(isTracing);
+                }
             }
         } catch (IOException e) {
             mCallback.onReadErrorEncountered();
         }
     }
 
+    private int readFromConnection(byte[] buffer) throws IOException {
+        final boolean isTracing = TraceUtils.beginSection("read");
+        try {
+            return mConnection.read(buffer);
+        } finally {
+            TraceUtils.endSection(isTracing);
+        }
+    }
+
     /**
      * Callback interface for data read events on a connection.
      */
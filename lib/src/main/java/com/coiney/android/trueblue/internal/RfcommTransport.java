@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+import com.coiney.android.trueblue.Transport;
+import com.coiney.android.trueblue.TransportSocket;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Transport which connects via RFCOMM sockets provided by the Android
+ * Bluetooth subsystem.
+ */
+@ThreadSafe
+public final class RfcommTransport implements Transport {
+
+    /**
+     * The single instance of the transport, which holds no state.
+     */
+    public static final RfcommTransport INSTANCE = new RfcommTransport();
+
+    /**
+     * Name of the transport, as reported in connection statistics.
+     */
+    static final String NAME = "rfcomm";
+
+    private RfcommTransport() {}
+
+    @NonNull
+    @Override
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    public TransportSocket createSocket(@NonNull BluetoothDevice device,
+            @NonNull UUID serviceRecordUuid, boolean isSecure) throws IOException {
+        // Insecure connections are only supported on API 10+.
+        if (isSecure || Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD_MR1) {
+            return new BluetoothSocketAdapter(device.createRfcommSocketToServiceRecord(
+                    serviceRecordUuid));
+        }
+        return new BluetoothSocketAdapter(device.createInsecureRfcommSocketToServiceRecord(
+                serviceRecordUuid));
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * Register a service record and listen for inbound connections to it
+     * using the provided adapter.
+     *
+     * @param adapter to listen with.
+     * @param serviceName of the service record.
+     * @param serviceRecordUuid of the service record.
+     * @param isSecure or not. Insecure listening requires API 10+, and falls
+     *                 back to secure listening on older versions.
+     *
+     * @return listening socket.
+     *
+     * @throws IOException if the adapter is unavailable or the service
+     *                     record cannot be registered.
+     */
+    @NonNull
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    static ListeningSocket listen(@NonNull BluetoothAdapter adapter,
+            @NonNull String serviceName, @NonNull UUID serviceRecordUuid, boolean isSecure)
+            throws IOException {
+        if (isSecure || Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD_MR1) {
+            return new BluetoothServerSocketAdapter(adapter.listenUsingRfcommWithServiceRecord(
+                    serviceName, serviceRecordUuid), NAME, ListeningSocket.NO_PSM);
+        }
+        return new BluetoothServerSocketAdapter(
+                adapter.listenUsingInsecureRfcommWithServiceRecord(serviceName,
+                        serviceRecordUuid), NAME, ListeningSocket.NO_PSM);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * <p>
+ * Limits how many scans may be started within a sliding window of time.
+ * </p>
+ *
+ * <p>
+ * Android 7.0+ silently stops delivering Bluetooth LE scan results to an
+ * application which starts more than five scans in 30 seconds, so starts are
+ * refused before that limit is reached rather than leaving a scan running
+ * which never reports anything. All times are supplied by the caller, so the
+ * budget itself is independent of any particular clock.
+ * </p>
+ */
+@NotThreadSafe
+final class ScanStartBudget {
+
+    /**
+     * Default number of scans which may be started within the window.
+     */
+    static final int DEFAULT_MAXIMUM_START_COUNT = 5;
+
+    /**
+     * Default length of the sliding window.
+     */
+    static final long DEFAULT_WINDOW_MILLIS = 30000;
+
+    private final int mMaximumStartCount;
+    private final Queue<Long> mStartTimes = new ArrayDeque<>();
+    private final long mWindowMillis;
+
+    /**
+     * Create a budget with the provided limits.
+     *
+     * @param maximumStartCount which may be started within the window. Must
+     *                          be at least 1.
+     * @param windowMillis length of the sliding window. Must be greater than
+     *                     0.
+     *
+     * @throws IllegalArgumentException if either limit is out of range.
+     */
+    ScanStartBudget(int maximumStartCount, long windowMillis) {
+        if (maximumStartCount < 1) {
+            throw new IllegalArgumentException("Maximum start count must be at least 1.");
+        }
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Window must be greater than 0.");
+        }
+        mMaximumStartCount = maximumStartCount;
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * Record a scan start if the budget allows it.
+     *
+     * @param nowMillis time of the start.
+     *
+     * @return flag indicating whether the start is allowed or not.
+     */
+    boolean tryAcquire(long nowMillis) {
+        expire(nowMillis);
+        if (mStartTimes.size() >= mMaximumStartCount) {
+            return false;
+        }
+        mStartTimes.add(nowMillis);
+        return true;
+    }
+
+    /**
+     * Get the number of scans which may still be started within the window.
+     *
+     * @param nowMillis current time.
+     *
+     * @return number of remaining starts.
+     */
+    int getRemainingStartCount(long nowMillis) {
+        expire(nowMillis);
+        return mMaximumStartCount - mStartTimes.size();
+    }
+
+    /**
+     * Get the time until the next scan may be started.
+     *
+     * @param nowMillis current time.
+     *
+     * @return time until the next start is allowed, or 0 if one is allowed
+     *         now.
+     */
+    long getMillisUntilNextStart(long nowMillis) {
+        expire(nowMillis);
+        if (mStartTimes.size() < mMaximumStartCount) {
+            return 0;
+        }
+        return mStartTimes.peek() + mWindowMillis - nowMillis;
+    }
+
+    private void expire(long nowMillis) {
+        while (!mStartTimes.isEmpty() && nowMillis - mStartTimes.peek() >= mWindowMillis) {
+            mStartTimes.remove();
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+
+import com.coiney.android.trueblue.Connection;
+import com.coiney.android.trueblue.ConnectionRejectionReason;
+import com.coiney.android.trueblue.ConnectionStats;
+import com.coiney.android.trueblue.Server;
+import com.coiney.android.trueblue.ServerCallback;
+import com.coiney.android.trueblue.ServerConfiguration;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * A Bluetooth server which runs an accept loop on a dedicated thread.
+ * </p>
+ *
+ * <p>
+ * The accept thread does nothing but accept sockets and hand them to a
+ * shared pool of admission threads, so that a slow admission decision for
+ * one device never delays accepting the next. Each admitted socket is wrapped
+ * in a {@link ConnectionImpl} and registered with the {@link
+ * ConnectionManager}, exactly as if it had been connected to.
+ * </p>
+ *
+ * <p>
+ * The system accepts every inbound connection at the socket level, so devices
+ * beyond the maximum client count are accepted and then closed immediately
+ * rather than left waiting.
+ * </p>
+ */
+@ThreadSafe
+final class ServerImpl implements Server, Runnable, Connection.OnCloseListener {
+
+    private final ConcurrentHistogram mAcceptLatencies = new ConcurrentHistogram();
+    private final StripedCounter mAcceptedConnections = new StripedCounter();
+    private final Executor mAdmissionExecutor;
+    private final ServerCallback mCallback;
+    @GuardedBy("mClientCountLock")
+    private int mClientCount;
+    private final Object mClientCountLock = new Object();
+    private final ServerConfiguration mConfiguration;
+    private final ConnectionManager mConnectionManager;
+    private final AtomicBoolean mIsRunning = new AtomicBoolean(true);
+    private final ListeningSocket mListeningSocket;
+    private final Listener mListener;
+    private final Logger mLogger;
+    private final StripedCounter mRejectedConnections = new StripedCounter();
+
+    /**
+     * Create a server with the provided parameters. The server is considered
+     * running as soon as it is created, but does not accept connections until
+     * {@link #run()} is called on the accept thread.
+     *
+     * @param configuration the server was started with.
+     * @param listeningSocket to accept connections from.
+     * @param callback to decide on admission with, and report results to.
+     * @param connectionManager to register admitted connections with.
+     * @param admissionExecutor to admit accepted sockets on.
+     * @param listener to report the server stopping to (internally).
+     * @param logger to log to.
+     */
+    ServerImpl(@NonNull ServerConfiguration configuration,
+            @NonNull ListeningSocket listeningSocket, @NonNull ServerCallback callback,
+            @NonNull ConnectionManager connectionManager, @NonNull Executor admissionExecutor,
+            @NonNull Listener listener, @NonNull Logger logger) {
+        mAdmissionExecutor = admissionExecutor;
+        mCallback = callback;
+        mConfiguration = configuration;
+        mConnectionManager = connectionManager;
+        mListener = listener;
+        mListeningSocket = listeningSocket;
+        mLogger = logger;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return mIsRunning.get();
+    }
+
+    @Override
+    public void stop() {
+        stop(false);
+    }
+
+    @NonNull
+    @Override
+    public ServerConfiguration getConfiguration() {
+        return mConfiguration;
+    }
+
+    @Override
+    public int getPsm() {
+        return mListeningSocket.getPsm();
+    }
+
+    @Override
+    public int getClientCount() {
+        synchronized (mClientCountLock) {
+            return mClientCount;
+        }
+    }
+
+    @Override
+    public long getAcceptedConnectionCount() {
+        return mAcceptedConnections.get();
+    }
+
+    @Override
+    public long getRejectedConnectionCount() {
+        return mRejectedConnections.get();
+    }
+
+    @NonNull
+    @Override
+    public ConnectionStats.Histogram getAcceptLatencyHistogram() {
+        return mAcceptLatencies.snapshot();
+    }
+
+    /**
+     * Run the accept loop until the server is stopped or the listening
+     * socket fails.
+     */
+    @Override
+    public void run() {
+        mLogger.d("Server %s accepting connections.", mConfiguration.getServiceName());
+        while (mIsRunning.get()) {
+            final ListeningSocket.AcceptedSocket socket;
+            try {
+                socket = mListeningSocket.accept();
+            } catch (IOException e) {
+                // Closing the listening socket is how a stop unblocks accept,
+                // so this is only an error if the server is still running.
+                stop(true);
+                return;
+            }
+            final long acceptedAtNanos = System.nanoTime();
+            mAdmissionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    admit(socket, acceptedAtNanos);
+                }
+            });
+        }
+    }
+
+    /**
+     * Write the state of the server to the provided writer.
+     *
+     * @param writer to write to.
+     * @param prefix to indent each line with.
+     */
+    void dump(@NonNull PrintWriter writer, @NonNull String prefix) {
+        final ConnectionStats.Histogram acceptLatencies = mAcceptLatencies.snapshot();
+        DumpUtils.printLine(writer, prefix, "server",
+                "serviceName", mConfiguration.getServiceName(),
+                "uuid", mConfiguration.getServiceRecordUuid(),
+                "secure", mConfiguration.isSecure(),
+                "running", mIsRunning.get(),
+                "clientCount", getClientCount(),
+                "maximumClientCount", mConfiguration.getMaximumClientCount(),
+                "accepted", mAcceptedConnections.get(),
+                "rejected", mRejectedConnections.get(),
+                "acceptLatencyP50Us", acceptLatencies.getValueAtPercentile(50),
+                "acceptLatencyP99Us", acceptLatencies.getValueAtPercentile(99),
+                "transport", mListeningSocket.getTransportName(),
+                "psm", mListeningSocket.getPsm());
+    }
+
+    @Override
+    public void onConnectionClosed(@NonNull Connection connection, boolean wasClosedByError) {
+        synchronized (mClientCountLock) {
+            mClientCount--;
+        }
+    }
+
+    private void admit(ListeningSocket.AcceptedSocket socket, long acceptedAtNanos) {
+        final BluetoothDevice device = socket.getRemoteDevice();
+        if (!reserveClientSlot()) {
+            reject(device, socket, ConnectionRejectionReason.MAXIMUM_CLIENT_COUNT_REACHED);
+            return;
+        }
+        final ConnectionImpl connection;
+        try {
+            if (!mCallback.shouldAcceptConnection(device)) {
+                releaseClientSlot();
+                reject(device, socket, ConnectionRejectionReason.REJECTED_BY_CALLBACK);
+                return;
+            }
+            connection = new ConnectionImpl(socket, socket.getInputStream(),
+                    socket.getOutputStream(), mListeningSocket.getTransportName());
+        } catch (IOException e) {
+            releaseClientSlot();
+            reject(device, socket, ConnectionRejectionReason.ERROR);
+            return;
+        }
+        // From here on the slot is released when the connection closes.
+        connection.registerOnCloseListener(this);
+        if (!mConnectionManager.registerInboundConnection(device, connection)) {
+            connection.close();
+            reject(device, null, ConnectionRejectionReason.ALREADY_CONNECTED);
+            return;
+        }
+        mAcceptLatencies.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() -
+                acceptedAtNanos));
+        mAcceptedConnections.increment();
+        mLogger.d(device, "Inbound connection accepted.");
+        ThreadUtils.postOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onConnectionAccepted(device, connection);
+            }
+        });
+    }
+
+    private void reject(final BluetoothDevice device, ListeningSocket.AcceptedSocket socket,
+            final ConnectionRejectionReason reason) {
+        CloseableUtils.closeSilently(socket);
+        mRejectedConnections.increment();
+        mLogger.d(device, "Inbound connection rejected - " + reason + ".");
+        ThreadUtils.postOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onConnectionRejected(device, reason);
+            }
+        });
+    }
+
+    private boolean reserveClientSlot() {
+        synchronized (mClientCountLock) {
+            if (mClientCount >= mConfiguration.getMaximumClientCount()) {
+                return false;
+            }
+            mClientCount++;
+            return true;
+        }
+    }
+
+    private void releaseClientSlot() {
+        synchronized (mClientCountLock) {
+            mClientCount--;
+        }
+    }
+
+    private void stop(final boolean wasStoppedByError) {
+        if (!mIsRunning.getAndSet(false)) {
+            return;
+        }
+        CloseableUtils.closeSilently(mListeningSocket);
+        mLogger.d("Server %s %s.", mConfiguration.getServiceName(),
+                wasStoppedByError ? "failed" : "stopped");
+        mListener.onServerStopped(this);
+        ThreadUtils.postOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onServerStopped(wasStoppedByError);
+            }
+        });
+    }
+
+    /**
+     * Internal listener interface for server lifecycle events.
+     */
+    interface Listener {
+
+        /**
+         * Called when the server has stopped accepting connections, be it by
+         * request or due to an error.
+         *
+         * @param server which stopped.
+         */
+        void onServerStopped(@NonNull ServerImpl server);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.coiney.android.trueblue.Server;
+import com.coiney.android.trueblue.ServerCallback;
+import com.coiney.android.trueblue.ServerConfiguration;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Manages Bluetooth servers, which accept inbound connections from remote
+ * devices and register them with the {@link ConnectionManager}.
+ * </p>
+ *
+ * <p>
+ * Each server has its own accept thread, while admission of accepted sockets
+ * takes place on a bounded pool of threads shared by every server.
+ * </p>
+ */
+@ThreadSafe
+public final class ServerManager implements ServerImpl.Listener {
+
+    // A piconet has at most 7 active slaves, so this allows every inbound
+    // connection to be admitted at once without letting the pool grow
+    // unbounded.
+    private static final int MAX_ADMISSION_THREADS = 7;
+    private static final long ADMISSION_THREAD_KEEP_ALIVE_SECONDS = 10;
+
+    private final AdapterManager mAdapterManager;
+    private final ThreadPoolExecutor mAdmissionExecutor;
+    private final ConnectionManager mConnectionManager;
+    private final Logger mLogger;
+    private final Set<ServerImpl> mServers = new CopyOnWriteArraySet<>();
+
+    /**
+     * Create a server manager with the provided parameters.
+     *
+     * @param adapterManager to listen for connections with.
+     * @param connectionManager to register accepted connections with.
+     * @param logger to log to.
+     */
+    public ServerManager(@NonNull AdapterManager adapterManager,
+            @NonNull ConnectionManager connectionManager, @NonNull Logger logger) {
+        mAdapterManager = adapterManager;
+        mConnectionManager = connectionManager;
+        mLogger = logger;
+        mAdmissionExecutor = new ThreadPoolExecutor(MAX_ADMISSION_THREADS,
+                MAX_ADMISSION_THREADS, ADMISSION_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        return new Thread(runnable, "TrueBlue-AdmissionThread");
+                    }
+                });
+        // Threads are only needed while admitting, so don't keep them idle.
+        mAdmissionExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Start a server with the provided configuration, which accepts
+     * connections until it is stopped or its server socket fails.
+     *
+     * @param configuration of the server.
+     * @param callback to decide on admission with, and report results to.
+     *
+     * @return handle for the server, or null if the service record could not
+     *         be registered (generally because Bluetooth is disabled).
+     */
+    @Nullable
+    public Server start(@NonNull ServerConfiguration configuration,
+            @NonNull ServerCallback callback) {
+        final ListeningSocket listeningSocket;
+        try {
+            if (configuration.isL2capPreferred() && L2capTransport.isSupported()) {
+                listeningSocket = mAdapterManager.listenUsingL2cap(configuration.isSecure());
+            } else {
+                listeningSocket = mAdapterManager.listenUsingRfcomm(
+                        configuration.getServiceName(), configuration.getServiceRecordUuid(),
+                        configuration.isSecure());
+            }
+        } catch (IOException e) {
+            mLogger.w("Cannot start server %s - %s", configuration.getServiceName(),
+                    e.getMessage());
+            return null;
+        }
+        final ServerImpl server = new ServerImpl(configuration, listeningSocket, callback,
+                mConnectionManager, mAdmissionExecutor, this, mLogger);
+        mServers.add(server);
+        new Thread(server, "TrueBlue-AcceptThread").start();
+        return server;
+    }
+
+    /**
+     * Stop every running server. Connections which were already accepted
+     * remain open.
+     */
+    public void stopAll() {
+        for (ServerImpl server : mServers) {
+            server.stop();
+        }
+    }
+
+    /**
+     * Write the state of all running servers to the provided writer.
+     *
+     * @param writer to write to.
+     * @param prefix to indent each line with.
+     */
+    public void dump(@NonNull PrintWriter writer, @NonNull String prefix) {
+        DumpUtils.printLine(writer, prefix, "servers",
+                "runningCount", mServers.size());
+        for (ServerImpl server : mServers) {
+            server.dump(writer, prefix + DumpUtils.INDENT);
+        }
+    }
+
+    @Override
+    public void onServerStopped(@NonNull ServerImpl server) {
+        mServers.remove(server);
+    }
+}
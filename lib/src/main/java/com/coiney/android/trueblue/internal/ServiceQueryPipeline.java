@@ -0,0 +1,288 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothDevice;
+import android.os.Build;
+import android.os.Handler;
+import android.os.ParcelUuid;
+import android.os.Parcelable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * <p>
+ * Queries the services of a set of Bluetooth devices via SDP, keeping a
+ * bounded number of queries in flight and giving up on any single query after
+ * a timeout.
+ * </p>
+ *
+ * <p>
+ * The pipeline does not receive {@link BluetoothDevice#ACTION_UUID} broadcasts
+ * itself - they must be forwarded via {@link #onUuidsReceived(BluetoothDevice,
+ * Parcelable[])}. All methods must be called while holding the lock provided
+ * at construction, which is also taken by the timeout runnables before calling
+ * back. This allows the owner to call into the pipeline from its callback
+ * methods without any risk of lock ordering issues.
+ * </p>
+ */
+@ThreadSafe
+final class ServiceQueryPipeline {
+
+    /**
+     * Default number of queries to keep in flight. SDP queries require a
+     * baseband connection to each device, so running many at once only
+     * causes them to contend with each other.
+     */
+    static final int DEFAULT_MAXIMUM_CONCURRENT_QUERIES = 2;
+
+    private final Callback mCallback;
+    private final Handler mHandler;
+    @GuardedBy("mLock")
+    private final Map<String, Runnable> mInFlightTimeouts = new HashMap<>();
+    @GuardedBy("mLock")
+    private boolean mIsRunning;
+    private final Object mLock;
+    private final Logger mLogger;
+    private final int mMaximumConcurrentQueries;
+    @GuardedBy("mLock")
+    private final Queue<BluetoothDevice> mPendingDevices = new ArrayDeque<>();
+    @GuardedBy("mLock")
+    private long mTimeoutMillis;
+
+    /**
+     * Create a pipeline with the provided parameters.
+     *
+     * @param handler to run query timeouts on.
+     * @param lock which guards the pipeline.
+     * @param maximumConcurrentQueries to keep in flight.
+     * @param callback to report results to.
+     * @param logger to log to.
+     */
+    ServiceQueryPipeline(@NonNull Handler handler, @NonNull Object lock,
+            int maximumConcurrentQueries, @NonNull Callback callback, @NonNull Logger logger) {
+        mCallback = callback;
+        mHandler = handler;
+        mLock = lock;
+        mLogger = logger;
+        mMaximumConcurrentQueries = maximumConcurrentQueries;
+    }
+
+    /**
+     * Ask whether the pipeline is running or not.
+     *
+     * @return flag indicating whether the pipeline is running or not.
+     */
+    @GuardedBy("mLock")
+    boolean isRunning() {
+        return mIsRunning;
+    }
+
+    /**
+     * Get the number of queries currently in flight.
+     *
+     * @return number of queries in flight.
+     */
+    @GuardedBy("mLock")
+    int getInFlightCount() {
+        return mInFlightTimeouts.size();
+    }
+
+    /**
+     * Get the number of devices waiting to be queried.
+     *
+     * @return number of devices waiting to be queried.
+     */
+    @GuardedBy("mLock")
+    int getPendingCount() {
+        return mPendingDevices.size();
+    }
+
+    /**
+     * Start querying the services of the provided devices. Does nothing if the
+     * pipeline is already running.
+     *
+     * @param devices to query.
+     * @param timeoutMillis to wait for each individual query.
+     */
+    @GuardedBy("mLock")
+    void start(@NonNull Collection<BluetoothDevice> devices, long timeoutMillis) {
+        if (mIsRunning) {
+            return;
+        }
+        mIsRunning = true;
+        mTimeoutMillis = timeoutMillis;
+        mPendingDevices.addAll(devices);
+        startQueries();
+    }
+
+    /**
+     * Stop the pipeline, abandoning any pending and in flight queries. If the
+     * pipeline was running then {@link Callback#onServiceQueriesFinished()}
+     * is called.
+     */
+    @GuardedBy("mLock")
+    void cancel() {
+        if (!mIsRunning) {
+            return;
+        }
+        mPendingDevices.clear();
+        for (Runnable timeout : mInFlightTimeouts.values()) {
+            mHandler.removeCallbacks(timeout);
+        }
+        mInFlightTimeouts.clear();
+        finish();
+    }
+
+    /**
+     * Handle the service UUIDs reported for a device. Reports for devices
+     * which are not being queried by the pipeline are ignored.
+     *
+     * @param device the UUIDs were reported for.
+     * @param uuids as provided by {@link BluetoothDevice#EXTRA_UUID}, which
+     *              may be null if the query failed.
+     */
+    @GuardedBy("mLock")
+    void onUuidsReceived(@NonNull BluetoothDevice device, @Nullable Parcelable[] uuids) {
+        final Runnable timeout = mInFlightTimeouts.remove(device.getAddress());
+        if (null == timeout) {
+            return;
+        }
+        mHandler.removeCallbacks(timeout);
+        completeQuery(device, toUuidSet(uuids));
+    }
+
+    @GuardedBy("mLock")
+    private void startQueries() {
+        while (mIsRunning && mInFlightTimeouts.size() < mMaximumConcurrentQueries
+                && !mPendingDevices.isEmpty()) {
+            final BluetoothDevice device = mPendingDevices.remove();
+            if (mInFlightTimeouts.containsKey(device.getAddress())) {
+                continue;
+            }
+            if (!fetchUuids(device)) {
+                mLogger.d(device, "Failed to start service query.");
+                mCallback.onServiceQueryCompleted(device, null);
+                continue;
+            }
+            final Runnable timeout = new TimeoutRunnable(device);
+            mInFlightTimeouts.put(device.getAddress(), timeout);
+            mHandler.postDelayed(timeout, mTimeoutMillis);
+        }
+        if (mIsRunning && mInFlightTimeouts.isEmpty() && mPendingDevices.isEmpty()) {
+            finish();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void completeQuery(BluetoothDevice device, Set<UUID> uuids) {
+        mCallback.onServiceQueryCompleted(device, uuids);
+        // The callback may have cancelled the pipeline.
+        if (mIsRunning) {
+            startQueries();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void finish() {
+        mIsRunning = false;
+        mCallback.onServiceQueriesFinished();
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
+    private static boolean fetchUuids(BluetoothDevice device) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1
+                && device.fetchUuidsWithSdp();
+    }
+
+    private static Set<UUID> toUuidSet(Parcelable[] uuids) {
+        if (null == uuids) {
+            return null;
+        }
+        final Set<UUID> uuidSet = new HashSet<>();
+        for (Parcelable uuid : uuids) {
+            if (uuid instanceof ParcelUuid) {
+                uuidSet.add(((ParcelUuid) uuid).getUuid());
+            }
+        }
+        return uuidSet;
+    }
+
+    /**
+     * Gives up on the query of a single device.
+     */
+    private final class TimeoutRunnable implements Runnable {
+
+        private final BluetoothDevice mDevice;
+
+        TimeoutRunnable(@NonNull BluetoothDevice device) {
+            mDevice = device;
+        }
+
+        @Override
+        public void run() {
+            synchronized (mLock) {
+                if (mInFlightTimeouts.get(mDevice.getAddress()) != this) {
+                    return;
+                }
+                mInFlightTimeouts.remove(mDevice.getAddress());
+                mLogger.d(mDevice, "Service query timed out.");
+                completeQuery(mDevice, null);
+            }
+        }
+    }
+
+    /**
+     * Callback interface for service query results.
+     */
+    interface Callback {
+
+        /**
+         * Called when the query of a single device has completed.
+         *
+         * @param device queried.
+         * @param uuids reported, or null if the query failed or timed out.
+         */
+        void onServiceQueryCompleted(@NonNull BluetoothDevice device, @Nullable Set<UUID> uuids);
+
+        /**
+         * Called when every query has completed or the pipeline has been
+         * cancelled.
+         */
+        void onServiceQueriesFinished();
+    }
+}
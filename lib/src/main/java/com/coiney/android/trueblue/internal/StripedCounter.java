@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A lock free counter which spreads updates across a number of cells based on
+ * the identity of the updating thread, reducing contention when several
+ * threads update it concurrently.
+ * </p>
+ *
+ * <p>
+ * Cells are spaced apart within the backing array so that neighbouring cells
+ * are unlikely to share a cache line. Reading the value sums all cells, so is
+ * comparatively expensive and is only weakly consistent with concurrent
+ * updates.
+ * </p>
+ */
+@ThreadSafe
+final class StripedCounter {
+
+    // Number of longs between adjacent cells - 8 longs spans a 64 byte cache
+    // line, which is typical for the ARM cores Android devices use.
+    private static final int CELL_SPACING = 8;
+    private static final int MAXIMUM_NUMBER_OF_CELLS = 16;
+
+    private final AtomicLongArray mCells;
+    private final int mCellMask;
+
+    /**
+     * Create a counter with a number of cells suited to the number of
+     * available processors.
+     */
+    StripedCounter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a counter with at least the provided number of cells.
+     *
+     * @param minimumNumberOfCells to stripe updates across. This is rounded up
+     *                             to the next power of two, and capped at 16.
+     */
+    StripedCounter(int minimumNumberOfCells) {
+        int numberOfCells = 1;
+        while (numberOfCells < minimumNumberOfCells
+                && numberOfCells < MAXIMUM_NUMBER_OF_CELLS) {
+            numberOfCells <<= 1;
+        }
+        mCells = new AtomicLongArray(numberOfCells * CELL_SPACING);
+        mCellMask = numberOfCells - 1;
+    }
+
+    /**
+     * Add the provided value to the counter.
+     *
+     * @param value to add.
+     */
+    void add(long value) {
+        mCells.addAndGet(getCellIndex(), value);
+    }
+
+    /**
+     * Increment the counter by one.
+     */
+    void increment() {
+        add(1);
+    }
+
+    /**
+     * Get the current value of the counter.
+     *
+     * @return the sum of all cells.
+     */
+    long get() {
+        long sum = 0;
+        for (int i = 0; i < mCells.length(); i += CELL_SPACING) {
+            sum += mCells.get(i);
+        }
+        return sum;
+    }
+
+    private int getCellIndex() {
+        final long threadId = Thread.currentThread().getId();
+        // Mix the bits a little, as thread IDs tend to be small and sequential.
+        final int hash = (int) (threadId ^ (threadId >>> 16)) * 0x9E3779B9;
+        return ((hash >>> 16) & mCellMask) * CELL_SPACING;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+
+import com.coiney.android.trueblue.Transport;
+import com.coiney.android.trueblue.TransportSocket;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.UUID;
+
+/**
+ * Transport which connects every device via the same TCP endpoint, ignoring
+ * the service record UUID and security flag.
+ */
+@ThreadSafe
+public final class TcpTransport implements Transport {
+
+    /**
+     * Name of the transport, as reported in connection statistics.
+     */
+    static final String NAME = "tcp";
+
+    private final int mConnectTimeoutMillis;
+    private final String mHost;
+    private final int mPort;
+
+    /**
+     * Create a transport for the provided endpoint.
+     *
+     * @param host to connect to.
+     * @param port to connect to.
+     * @param connectTimeoutMillis to wait for each connection attempt, or 0
+     *                             to wait indefinitely.
+     */
+    public TcpTransport(@NonNull String host, int port, int connectTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mHost = host;
+        mPort = port;
+    }
+
+    @NonNull
+    @Override
+    public TransportSocket createSocket(@NonNull BluetoothDevice device,
+            @NonNull UUID serviceRecordUuid, boolean isSecure) {
+        return new TcpSocket(new Socket());
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * Adapts an unconnected {@link Socket} to the transport socket interface.
+     */
+    @ThreadSafe
+    private final class TcpSocket implements TransportSocket {
+
+        private final Socket mSocket;
+
+        TcpSocket(@NonNull Socket socket) {
+            mSocket = socket;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            mSocket.connect(new InetSocketAddress(mHost, mPort), mConnectTimeoutMillis);
+            // Messages are typically small, so send them as soon as they are
+            // written rather than batching them up.
+            mSocket.setTcpNoDelay(true);
+        }
+
+        @NonNull
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return mSocket.getInputStream();
+        }
+
+        @NonNull
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return mSocket.getOutputStream();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mSocket.close();
+        }
+    }
+}
@@ -42,7 +42,32 @@ final class ThreadUtils {
      *
      * @param runnable to post on the main thread.
      */
-    static void postOnMainThread(Runnable runnable) {
-        sMainThreadHandler.post(runnable);
+    static void postOnMainThread(final Runnable runnable) {
+        postOnMainThreadDelayed(runnable, 0);
+    }
+
+    /**
+     * Post a runnable on the application's main thread, to be run after the
+     * provided delay has elapsed.
+     *
+     * @param runnable to post on the main thread.
+     * @param delayMillis to wait before running the runnable.
+     */
+    static void postOnMainThreadDelayed(final Runnable runnable, long delayMillis) {
+        if (!TraceUtils.isEnabled()) {
+            sMainThreadHandler.postDelayed(runnable, delayMillis);
+            return;
+        }
+        sMainThreadHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                final boolean isTracing = TraceUtils.beginSection("dispatch");
+                try {
+                    runnable.run();
+                } finally {
+                    TraceUtils.endSection(isTracing);
+                }
+            }
+        }, delayMillis);
     }
 }
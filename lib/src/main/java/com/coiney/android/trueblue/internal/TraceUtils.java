@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* The internal package of this library contains code which is purely for use
+ * within the library. The entire package is subject to change at any time with
+ * no notice, and should therefore never be used directly from outside the
+ * library.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+import android.support.annotation.NonNull;
+
+import java.lang.reflect.Method;
+
+/**
+ * <p>
+ * A collection of utility methods for emitting {@link Trace} sections and
+ * counters, so that library activity shows up in systrace and Perfetto
+ * captures.
+ * </p>
+ *
+ * <p>
+ * Tracing is disabled by default. While disabled every method returns after a
+ * single volatile read. Synchronous sections require API 18+, while
+ * asynchronous sections and counters require API 29+ - on older versions
+ * they are silently dropped.
+ * </p>
+ *
+ * <p>
+ * Synchronous sections must be begun and ended on the same thread, and must
+ * be ended by passing the value returned when they were begun. This ensures
+ * that enabling or disabling tracing while a section is open never leaves
+ * the thread's section stack unbalanced:
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * final boolean isTracing = TraceUtils.beginSection("write");
+ * try {
+ *     // ...
+ * } finally {
+ *     TraceUtils.endSection(isTracing);
+ * }
+ * }
+ * </pre>
+ */
+public final class TraceUtils {
+
+    // Build.VERSION_CODES.Q - not available at the compile SDK version in use.
+    private static final int API_LEVEL_Q = 29;
+    private static final String SECTION_PREFIX = "TrueBlue:";
+
+    private static volatile boolean sIsEnabled;
+
+    private TraceUtils() {
+        throw new AssertionError("Instantiation is not supported.");
+    }
+
+    /**
+     * Ask whether tracing is enabled.
+     *
+     * @return flag indicating whether tracing is enabled or not.
+     */
+    public static boolean isEnabled() {
+        return sIsEnabled;
+    }
+
+    /**
+     * Enable or disable tracing.
+     *
+     * @param isEnabled or not.
+     */
+    public static void setEnabled(boolean isEnabled) {
+        sIsEnabled = isEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+    }
+
+    /**
+     * Begin a synchronous trace section on the calling thread, if tracing is
+     * enabled.
+     *
+     * @param name of the section, without the library prefix.
+     *
+     * @return flag indicating whether a section was begun, which must be
+     *         passed to {@link #endSection(boolean)}.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    static boolean beginSection(@NonNull String name) {
+        if (!sIsEnabled) {
+            return false;
+        }
+        Trace.beginSection(SECTION_PREFIX + name);
+        return true;
+    }
+
+    /**
+     * End the most recent synchronous trace section on the calling thread.
+     *
+     * @param wasSectionBegun the value returned by the corresponding call to
+     *                        {@link #beginSection(String)}.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    static void endSection(boolean wasSectionBegun) {
+        if (wasSectionBegun) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Begin an asynchronous trace section, which may be ended on any thread.
+     *
+     * @param name of the section, without the library prefix.
+     * @param cookie identifying this instance of the section.
+     */
+    static void beginAsyncSection(@NonNull String name, int cookie) {
+        if (!sIsEnabled) {
+            return;
+        }
+        invoke(AsyncMethods.BEGIN_ASYNC_SECTION, SECTION_PREFIX + name, cookie);
+    }
+
+    /**
+     * End an asynchronous trace section previously begun with the same name
+     * and cookie.
+     *
+     * @param name of the section, without the library prefix.
+     * @param cookie identifying this instance of the section.
+     */
+    static void endAsyncSection(@NonNull String name, int cookie) {
+        if (!sIsEnabled) {
+            return;
+        }
+        invoke(AsyncMethods.END_ASYNC_SECTION, SECTION_PREFIX + name, cookie);
+    }
+
+    /**
+     * Set the value of a trace counter.
+     *
+     * @param name of the counter, without the library prefix.
+     * @param value of the counter.
+     */
+    static void setCounter(@NonNull String name, long value) {
+        if (!sIsEnabled) {
+            return;
+        }
+        invoke(AsyncMethods.SET_COUNTER, SECTION_PREFIX + name, value);
+    }
+
+    private static void invoke(Method method, Object... args) {
+        if (method != null) {
+            try {
+                method.invoke(null, args);
+            } catch (Exception ignored) {
+                // Tracing is best effort only.
+            }
+        }
+    }
+
+    /**
+     * Holder for the asynchronous section and counter methods, which are
+     * resolved via reflection the first time they are needed since they are
+     * not present in the compile SDK version in use.
+     */
+    private static final class AsyncMethods {
+
+        static final Method BEGIN_ASYNC_SECTION = getTraceMethod("beginAsyncSection",
+                String.class, int.class);
+        static final Method END_ASYNC_SECTION = getTraceMethod("endAsyncSection",
+                String.class, int.class);
+        static final Method SET_COUNTER = getTraceMethod("setCounter", String.class,
+                long.class);
+
+        private static Method getTraceMethod(String name, Class<?>... parameterTypes) {
+            if (Build.VERSION.SDK_INT < API_LEVEL_Q) {
+                return null;
+            }
+            try {
+                return Trace.class.getMethod(name, parameterTypes);
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -30,7 +30,10 @@ import com.coiney.android.trueblue.Connection;
 import net.jcip.annotations.ThreadSafe;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 
 /**
@@ -43,18 +46,23 @@ final class WriteThread extends Thread {
 
     private final Callback mCallback;
     private final Connection mConnection;
-    private final BlockingQueue<byte[]> mDataQueue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<PendingWrite> mDataQueue = new LinkedBlockingQueue<>();
+    private volatile boolean mIsDraining;
+    private final ConnectionMetrics mMetrics;
 
     /**
      * Create a write thread with the provided parameters.
      *
      * @param connection to write to.
+     * @param metrics to record queue depth and write latency in.
      * @param callback to report results to.
      */
-    WriteThread(@NonNull Connection connection, @NonNull Callback callback) {
+    WriteThread(@NonNull Connection connection, @NonNull ConnectionMetrics metrics,
+            @NonNull Callback callback) {
         super("TrueBlue-WriteThread");
         mCallback = callback;
         mConnection = connection;
+        mMetrics = metrics;
     }
 
     /**
@@ -62,21 +70,51 @@ final class WriteThread extends Thread {
      */
     @Override
     public void run() {
-        byte[] data = null;
+        PendingWrite pendingWrite = null;
         // noinspection InfiniteLoopStatement
         while (!isInterrupted()) {
             try {
-                data = mDataQueue.take();
-                mConnection.write(data);
-                mCallback.onDataWritten(data);
+                pendingWrite = mDataQueue.take();
+                if (pendingWrite.mDrainLatch != null) {
+                    // Everything queued ahead of the marker has been handled.
+                    pendingWrite.mDrainLatch.countDown();
+                    pendingWrite = null;
+                    continue;
+                }
+                mMetrics.recordWriteDequeued();
+                traceQueueDepth();
+                writeToConnection(pendingWrite.mData);
+                mMetrics.recordWrite(pendingWrite.mData.length, pendingWrite.mQueuedAtNanos);
+                final boolean isTracing = TraceUtils.beginSection("onDataWritten");
+                try {
+                    mCallback.onDataWritten(pendingWrite.mData);
+                } finally {
+                    TraceUtils.endSection(isTracing);
+                }
             } catch (IOException e) {
-                mCallback.onWriteErrorEncountered(data);
+                mCallback.onWriteErrorEncountered(pendingWrite.mData);
+                if (!mConnection.isOpen()) {
+                    // Don't rely on being interrupted - the interrupt may
+                    // have been consumed by the failed write.
+                    break;
+                }
             } catch (InterruptedException e) {
                 break;
             }
-            data = null;
+            pendingWrite = null;
+        }
+        if (mIsDraining) {
+            // Leave the data in place for the thread draining the queue to
+            // collect and report, but don't leave it waiting for a marker the
+            // queue will never reach.
+            for (PendingWrite queuedWrite : mDataQueue) {
+                if (queuedWrite.mDrainLatch != null) {
+                    queuedWrite.mDrainLatch.countDown();
+                }
+            }
+        } else {
+            removeUnsentData();
         }
-        mDataQueue.clear();
     }
 
     /**
@@ -86,7 +124,83 @@ final class WriteThread extends Thread {
      * @param data to write to the connection.
      */
     void write(@NonNull byte[] data) {
-        mDataQueue.add(data);
+        mMetrics.recordWriteQueued();
+        mDataQueue.add(new PendingWrite(data, System.nanoTime(), null));
+        traceQueueDepth();
+    }
+
+    /**
+     * Queue a marker behind all of the data currently queued. The returned
+     * latch is released once everything queued ahead of the marker has been
+     * either written or has failed to be written.
+     *
+     * @return latch which is released once the queue has been drained.
+     */
+    @NonNull
+    CountDownLatch drain() {
+        final CountDownLatch drainLatch = new CountDownLatch(1);
+        mIsDraining = true;
+        mDataQueue.add(new PendingWrite(null, System.nanoTime(), drainLatch));
+        if (!isAlive()) {
+            drainLatch.countDown();
+        }
+        return drainLatch;
+    }
+
+    /**
+     * Atomically remove all data which has been queued but whose write has not
+     * yet started. Data removed in this way will never be written, and no
+     * callback will be made for it.
+     *
+     * @return unsent data, in the order it was queued.
+     */
+    @NonNull
+    List<byte[]> removeUnsentData() {
+        final List<PendingWrite> pendingWrites = new ArrayList<>();
+        mDataQueue.drainTo(pendingWrites);
+        final List<byte[]> unsentData = new ArrayList<>(pendingWrites.size());
+        for (PendingWrite pendingWrite : pendingWrites) {
+            if (pendingWrite.mDrainLatch != null) {
+                pendingWrite.mDrainLatch.countDown();
+            } else {
+                mMetrics.recordWriteDequeued();
+                unsentData.add(pendingWrite.mData);
+            }
+        }
+        return unsentData;
+    }
+
+    private void writeToConnection(byte[] data) throws IOException {
+        final boolean isTracing = TraceUtils.beginSection("write");
+        try {
+            mConnection.write(data);
+        } finally {
+            TraceUtils.endSection(isTracing);
+        }
+    }
+
+    private void traceQueueDepth() {
+        if (TraceUtils.isEnabled()) {
+            TraceUtils.setCounter("writeQueueDepth@" + Integer.toHexString(
+                    System.identityHashCode(this)), mDataQueue.size());
+        }
+    }
+
+    /**
+     * Data waiting to be written, along with the time at which it was queued.
+     * Entries with a drain latch are markers rather than data.
+     */
+    private static final class PendingWrite {
+
+        final byte[] mData;
+        final CountDownLatch mDrainLatch;
+        final long mQueuedAtNanos;
+
+        PendingWrite(byte[] data, long queuedAtNanos, CountDownLatch drainLatch) {
+            mData = data;
+            mDrainLatch = drainLatch;
+            mQueuedAtNanos = queuedAtNanos;
+        }
     }
 
     /**
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import android.bluetooth.BluetoothDevice;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class DiscoveryRequestTests {
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock private BluetoothDevice mBluetoothDevice;
+
+    private DiscoveredDevice mDiscoveredDevice;
+
+    @Before
+    public void setUp() {
+        when(mBluetoothDevice.getAddress()).thenReturn("00:11:22:AA:BB:CC");
+        mDiscoveredDevice = new DiscoveredDevice.Builder(mBluetoothDevice)
+                .setName("Reader-1234")
+                .setRssi(-60)
+                .build();
+    }
+
+    @Test
+    public void matchesWhenNoFiltersAreSetShouldReturnTrue() {
+        assertTrue(new DiscoveryRequest.Builder().build().matches(mDiscoveredDevice));
+    }
+
+    @Test
+    public void matchesWhenAddressIsInSetIgnoringCaseShouldReturnTrue() {
+        assertTrue(new DiscoveryRequest.Builder()
+                .setAddresses(Collections.singleton("00:11:22:aa:bb:cc"))
+                .build()
+                .matches(mDiscoveredDevice));
+    }
+
+    @Test
+    public void matchesWhenAddressIsNotInSetShouldReturnFalse() {
+        assertFalse(new DiscoveryRequest.Builder()
+                .setAddresses(Collections.singleton("00:11:22:33:44:55"))
+                .build()
+                .matches(mDiscoveredDevice));
+    }
+
+    @Test
+    public void matchesWhenNameHasPrefixAndMatchesPatternShouldReturnTrue() {
+        assertTrue(new DiscoveryRequest.Builder()
+                .setNamePrefix("Reader-")
+                .setNamePattern(Pattern.compile("Reader-\\d+"))
+                .build()
+                .matches(mDiscoveredDevice));
+    }
+
+    @Test
+    public void matchesWhenNameDoesNotMatchPatternShouldReturnFalse() {
+        assertFalse(new DiscoveryRequest.Builder()
+                .setNamePattern(Pattern.compile("Printer-\\d+"))
+                .build()
+                .matches(mDiscoveredDevice));
+    }
+
+    @Test
+    public void matchesWhenRssiIsBelowMinimumShouldReturnFalse() {
+        assertFalse(new DiscoveryRequest.Builder()
+                .setMinimumRssi(-50)
+                .build()
+                .matches(mDiscoveredDevice));
+    }
+
+    @Test
+    public void matchesWhenDeviceClassIsRequiredButUnknownShouldReturnFalse() {
+        assertFalse(new DiscoveryRequest.Builder()
+                .setMajorDeviceClass(0x0200)
+                .build()
+                .matches(mDiscoveredDevice));
+    }
+
+    @Test
+    public void matchesWhenRequiredServicesAreNotKnownShouldReturnFalse() {
+        final DiscoveryRequest request = new DiscoveryRequest.Builder()
+                .setRequiredServiceUuids(Collections.singleton(UUID.randomUUID()))
+                .build();
+        assertFalse(request.matches(mDiscoveredDevice));
+        assertTrue(request.matchesIgnoringServiceUuids(mDiscoveredDevice));
+    }
+
+    @Test
+    public void matchesWhenRequiredServicesAreAdvertisedShouldReturnTrue() {
+        final UUID serviceUuid = UUID.randomUUID();
+        final DiscoveryRequest request = new DiscoveryRequest.Builder()
+                .setRequiredServiceUuids(Collections.singleton(serviceUuid))
+                .build();
+        assertTrue(request.matches(new DiscoveredDevice.Builder(mDiscoveredDevice)
+                .setServiceUuids(Collections.singleton(serviceUuid))
+                .build()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaximumMatchCountWhenNegativeShouldThrowIllegalArgumentException() {
+        new DiscoveryRequest.Builder().setMaximumMatchCount(-1);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HeartbeatConfigurationTests {
+
+    @Test
+    public void buildWhenNothingSetShouldUseDefaults() {
+        final HeartbeatConfiguration configuration =
+                new HeartbeatConfiguration.Builder(mock(HeartbeatCodec.class)).build();
+        assertEquals(1000, configuration.getIntervalMillis());
+        assertEquals(3, configuration.getMissedHeartbeatThreshold());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setIntervalMillisWhenZeroShouldThrowIllegalArgumentException() {
+        new HeartbeatConfiguration.Builder(mock(HeartbeatCodec.class)).setIntervalMillis(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setMissedHeartbeatThresholdWhenZeroShouldThrowIllegalArgumentException() {
+        new HeartbeatConfiguration.Builder(mock(HeartbeatCodec.class))
+                .setMissedHeartbeatThreshold(0);
+    }
+}
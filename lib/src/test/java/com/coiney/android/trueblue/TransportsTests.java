@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class TransportsTests {
+
+    @Test
+    public void rfcommShouldAlwaysReturnSameInstance() {
+        assertSame(Transports.rfcomm(), Transports.rfcomm());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void l2capWhenPsmIsZeroShouldThrowIllegalArgumentException() {
+        Transports.l2cap(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void l2capWhenPsmOutOfRangeShouldThrowIllegalArgumentException() {
+        Transports.l2cap(256);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tcpWhenPortOutOfRangeShouldThrowIllegalArgumentException() {
+        Transports.tcp("localhost", 65536, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tcpWhenConnectTimeoutIsNegativeShouldThrowIllegalArgumentException() {
+        Transports.tcp("localhost", 9000, -1);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.coiney.android.trueblue.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class AclMonitorTests {
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock
+    private Context mContext;
+
+    private AclMonitor mAclMonitor;
+
+    @Before
+    public void setUp() {
+        mContext = Shadows.shadowOf(RuntimeEnvironment.application).getApplicationContext();
+        mAclMonitor = new AclMonitor(mContext, new Handler(Looper.getMainLooper()));
+    }
+
+    @Test
+    public void listenerWhenMonitorStartedAndListenerRegisteredAndLinkLostShouldReceiveNotification() {
+        final AclMonitor.Listener listener = mock(AclMonitor.Listener.class);
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        mAclMonitor.start();
+        mAclMonitor.registerListener(listener);
+        mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_ACL_DISCONNECTED)
+                .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice));
+        ShadowLooper.getShadowMainLooper().runToEndOfTasks();
+        verify(listener, times(1)).onLinkLost(bluetoothDevice);
+    }
+
+    @Test
+    public void listenerWhenMonitorNotStartedAndListenerRegisteredAndLinkLostShouldNotReceiveNotification() {
+        final AclMonitor.Listener listener = mock(AclMonitor.Listener.class);
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        mAclMonitor.registerListener(listener);
+        mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_ACL_DISCONNECTED)
+                .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice));
+        ShadowLooper.getShadowMainLooper().runToEndOfTasks();
+        verify(listener, times(0)).onLinkLost(bluetoothDevice);
+    }
+
+    @Test
+    public void listenerWhenMonitorStartedAndListenerUnregisteredAndLinkLostShouldNotReceiveNotification() {
+        final AclMonitor.Listener listener = mock(AclMonitor.Listener.class);
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        mAclMonitor.start();
+        mAclMonitor.registerListener(listener);
+        mAclMonitor.unregisterListener(listener);
+        mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_ACL_DISCONNECTED)
+                .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice));
+        ShadowLooper.getShadowMainLooper().runToEndOfTasks();
+        verify(listener, times(0)).onLinkLost(bluetoothDevice);
+    }
+
+    @Test
+    public void listenerWhenMonitorStartedAndListenerRegisteredAndLinkEstablishedShouldReceiveNotification() {
+        final AclMonitor.Listener listener = mock(AclMonitor.Listener.class);
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        mAclMonitor.start();
+        mAclMonitor.registerListener(listener);
+        mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_ACL_CONNECTED)
+                .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice));
+        ShadowLooper.getShadowMainLooper().runToEndOfTasks();
+        verify(listener, times(1)).onLinkEstablished(bluetoothDevice);
+        verify(listener, times(0)).onLinkLost(bluetoothDevice);
+    }
+}
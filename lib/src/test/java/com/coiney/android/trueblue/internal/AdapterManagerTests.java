@@ -23,6 +23,8 @@ import android.bluetooth.BluetoothDevice;
 import android.content.Intent;
 
 import com.coiney.android.trueblue.BluetoothStatusListener;
+import com.coiney.android.trueblue.BondedDevice;
+import com.coiney.android.trueblue.BondedDevicesListener;
 import com.coiney.android.trueblue.BuildConfig;
 
 import org.junit.Before;
@@ -30,6 +32,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnit;
@@ -37,8 +41,12 @@ import org.mockito.junit.MockitoRule;
 import org.mockito.quality.Strictness;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
 
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import static org.junit.Assert.*;
@@ -54,12 +62,17 @@ public class AdapterManagerTests {
 
     @Mock private BluetoothAdapter mAdapter;
     @Mock private BluetoothStatusMonitor mBluetoothStatusMonitor;
+    @Mock private PairingMonitor mPairingMonitor;
+    @Mock private ProfileManager mProfileManager;
+    @Captor private ArgumentCaptor<List<BondedDevice>> mAddedDevicesCaptor;
+    @Captor private ArgumentCaptor<List<BondedDevice>> mRemovedDevicesCaptor;
 
     private AdapterManager mAdapterManager;
 
     @Before
     public void setUp() {
-        mAdapterManager = new AdapterManager(mAdapter, mBluetoothStatusMonitor, mock(Logger.class));
+        mAdapterManager = new AdapterManager(mAdapter, mBluetoothStatusMonitor, mPairingMonitor,
+                mProfileManager, mock(Logger.class));
     }
 
     // public void start()
@@ -70,41 +83,187 @@ public class AdapterManagerTests {
         Mockito.verify(mBluetoothStatusMonitor, times(1)).start();
     }
 
+    @Test
+    public void startShouldStartProfileManagerWithAdapterState() {
+        when(mAdapter.getState()).thenReturn(BluetoothAdapter.STATE_ON);
+        mAdapterManager.start();
+        verify(mProfileManager).start(BluetoothAdapter.STATE_ON);
+    }
+
+    @Test
+    public void adapterStateChangeShouldBeReportedToProfileManager() {
+        mAdapterManager.start();
+        final ArgumentCaptor<BluetoothStatusMonitor.AdapterStateListener> captor =
+                ArgumentCaptor.forClass(BluetoothStatusMonitor.AdapterStateListener.class);
+        verify(mBluetoothStatusMonitor).registerAdapterStateListener(captor.capture());
+        captor.getValue().onAdapterStateChanged(BluetoothAdapter.STATE_TURNING_OFF);
+        verify(mProfileManager).onAdapterStateChanged(BluetoothAdapter.STATE_TURNING_OFF);
+    }
+
     // public Set<BluetoothDevice> getDeviceList()
 
     @Test
     public void getDeviceListWhenDevicesAvailableShouldReturnDeviceSet() {
         final Set<BluetoothDevice> systemDevices = new HashSet<>();
-        systemDevices.add(mock(BluetoothDevice.class));
-        systemDevices.add(mock(BluetoothDevice.class));
+        systemDevices.add(createDevice("00:11:22:33:44:55"));
+        systemDevices.add(createDevice("00:11:22:33:44:66"));
         when(mAdapter.getBondedDevices()).thenReturn(systemDevices);
+        mAdapterManager.start();
         assertEquals("Device list not accurate.", systemDevices, mAdapterManager.getDeviceList());
     }
 
     @Test
     public void getDeviceListWhenNoDevicesAvailableShouldReturnEmptySet() {
         when(mAdapter.getBondedDevices()).thenReturn(null);
+        mAdapterManager.start();
         final Set<BluetoothDevice> serviceDevices = mAdapterManager.getDeviceList();
         assertNotNull("Device list should not be null.", serviceDevices);
         assertTrue("Device list should be empty.", serviceDevices.isEmpty());
     }
 
+    @Test
+    public void getDeviceListWhenCalledRepeatedlyShouldNotQueryAdapterAgain() {
+        final BluetoothDevice device = createDevice("00:11:22:33:44:55");
+        when(mAdapter.getBondedDevices()).thenReturn(Collections.singleton(device));
+        mAdapterManager.start();
+        mAdapterManager.getDeviceList();
+        mAdapterManager.getDeviceList();
+        verify(mAdapter, times(1)).getBondedDevices();
+    }
+
+    // public List<BondedDevice> getBondedDevices()
+
+    @Test
+    public void getBondedDevicesShouldReturnNamesReadOnlyOnce() {
+        final BluetoothDevice device = createDevice("00:11:22:33:44:55");
+        when(device.getName()).thenReturn("Printer");
+        when(mAdapter.getBondedDevices()).thenReturn(Collections.singleton(device));
+        mAdapterManager.start();
+        captureBondStateListener().onBondStateChanged(device, BluetoothDevice.BOND_BONDING,
+                BluetoothDevice.BOND_BONDED);
+        final List<BondedDevice> bondedDevices = mAdapterManager.getBondedDevices();
+        assertEquals(1, bondedDevices.size());
+        assertEquals("Printer", bondedDevices.get(0).getName());
+        verify(device, times(1)).getName();
+    }
+
+    // Bonded device change notifications
+
+    @Test
+    public void bondStateChangeWhenDeviceBondedShouldNotifyListenerOfAddedDevice() {
+        final BluetoothDevice existingDevice = createDevice("00:11:22:33:44:55");
+        final BluetoothDevice newDevice = createDevice("00:11:22:33:44:66");
+        when(mAdapter.getBondedDevices()).thenReturn(Collections.singleton(existingDevice));
+        mAdapterManager.start();
+        ShadowLooper.runUiThreadTasks();
+        final BondedDevicesListener listener = mock(BondedDevicesListener.class);
+        mAdapterManager.registerBondedDevicesListener(listener);
+        final Set<BluetoothDevice> systemDevices = new LinkedHashSet<>();
+        systemDevices.add(existingDevice);
+        systemDevices.add(newDevice);
+        when(mAdapter.getBondedDevices()).thenReturn(systemDevices);
+        captureBondStateListener().onBondStateChanged(newDevice, BluetoothDevice.BOND_BONDING,
+                BluetoothDevice.BOND_BONDED);
+        ShadowLooper.runUiThreadTasks();
+        verify(listener, times(1)).onBondedDevicesChanged(mAddedDevicesCaptor.capture(),
+                mRemovedDevicesCaptor.capture());
+        assertEquals(1, mAddedDevicesCaptor.getValue().size());
+        assertEquals(newDevice, mAddedDevicesCaptor.getValue().get(0).getDevice());
+        assertTrue(mRemovedDevicesCaptor.getValue().isEmpty());
+        assertEquals(systemDevices, mAdapterManager.getDeviceList());
+    }
+
+    @Test
+    public void adapterStateChangeWhenBluetoothDisabledShouldNotifyListenerOfRemovedDevices() {
+        final BluetoothDevice device = createDevice("00:11:22:33:44:55");
+        when(mAdapter.getBondedDevices()).thenReturn(Collections.singleton(device));
+        mAdapterManager.start();
+        final BondedDevicesListener listener = mock(BondedDevicesListener.class);
+        mAdapterManager.registerBondedDevicesListener(listener);
+        final ArgumentCaptor<BluetoothStatusMonitor.AdapterStateListener> captor =
+                ArgumentCaptor.forClass(BluetoothStatusMonitor.AdapterStateListener.class);
+        verify(mBluetoothStatusMonitor).registerAdapterStateListener(captor.capture());
+        when(mAdapter.getBondedDevices()).thenReturn(Collections.<BluetoothDevice>emptySet());
+        captor.getValue().onAdapterStateChanged(BluetoothAdapter.STATE_OFF);
+        ShadowLooper.runUiThreadTasks();
+        verify(listener, times(1)).onBondedDevicesChanged(
+                ArgumentMatchers.<BondedDevice>anyList(), mRemovedDevicesCaptor.capture());
+        assertEquals(1, mRemovedDevicesCaptor.getValue().size());
+        assertTrue(mAdapterManager.getDeviceList().isEmpty());
+    }
+
+    @Test
+    public void bondStateChangeWhenBondedDevicesUnchangedShouldNotNotifyListener() {
+        final BluetoothDevice device = createDevice("00:11:22:33:44:55");
+        when(mAdapter.getBondedDevices()).thenReturn(Collections.singleton(device));
+        mAdapterManager.start();
+        final BondedDevicesListener listener = mock(BondedDevicesListener.class);
+        mAdapterManager.registerBondedDevicesListener(listener);
+        captureBondStateListener().onBondStateChanged(device, BluetoothDevice.BOND_NONE,
+                BluetoothDevice.BOND_BONDING);
+        ShadowLooper.runUiThreadTasks();
+        verify(listener, never()).onBondedDevicesChanged(
+                ArgumentMatchers.<BondedDevice>anyList(), ArgumentMatchers.<BondedDevice>anyList());
+    }
+
     // public boolean isAdapterEnabled()
 
     @Test
     public void isAdapterEnabledWhenBluetoothAdapterEnabledShouldReturnTrue() {
-        when(mAdapter.isEnabled()).thenReturn(true);
+        when(mAdapter.getState()).thenReturn(BluetoothAdapter.STATE_ON);
+        mAdapterManager.start();
         assertTrue("Bluetooth is enabled but reported as disabled.",
                 mAdapterManager.isAdapterEnabled());
     }
 
     @Test
     public void isAdapterEnabledWhenBluetoothAdapterDisabledShouldReturnFalse() {
-        when(mAdapter.isEnabled()).thenReturn(false);
+        when(mAdapter.getState()).thenReturn(BluetoothAdapter.STATE_OFF);
+        mAdapterManager.start();
         assertFalse("Bluetooth is enabled but reported as disabled.",
                 mAdapterManager.isAdapterEnabled());
     }
 
+    // public int getAdapterState()
+
+    @Test
+    public void getAdapterStateWhenBluetoothTurningOffShouldReturnTurningOffWithoutQueryingAdapter() {
+        when(mAdapter.getState()).thenReturn(BluetoothAdapter.STATE_ON);
+        mAdapterManager.start();
+        captureAdapterStateListener().onAdapterStateChanged(BluetoothAdapter.STATE_TURNING_OFF);
+        assertEquals(BluetoothAdapter.STATE_TURNING_OFF, mAdapterManager.getAdapterState());
+        assertFalse(mAdapterManager.isAdapterEnabled());
+        verify(mAdapter, times(1)).getState();
+    }
+
+    // void registerAdapterStateListener(AdapterStateListener listener)
+
+    @Test
+    public void adapterStateChangeWhenListenerRegisteredShouldNotifyListenerAfterCachingState() {
+        mAdapterManager.start();
+        final int[] stateSeenByListener = { -1 };
+        mAdapterManager.registerAdapterStateListener(
+                new BluetoothStatusMonitor.AdapterStateListener() {
+                    @Override
+                    public void onAdapterStateChanged(int state) {
+                        stateSeenByListener[0] = mAdapterManager.getAdapterState();
+                    }
+                });
+        captureAdapterStateListener().onAdapterStateChanged(BluetoothAdapter.STATE_TURNING_ON);
+        assertEquals(BluetoothAdapter.STATE_TURNING_ON, stateSeenByListener[0]);
+    }
+
+    @Test
+    public void adapterStateChangeWhenListenerUnregisteredShouldNotNotifyListener() {
+        mAdapterManager.start();
+        final BluetoothStatusMonitor.AdapterStateListener listener =
+                mock(BluetoothStatusMonitor.AdapterStateListener.class);
+        mAdapterManager.registerAdapterStateListener(listener);
+        mAdapterManager.unregisterAdapterStateListener(listener);
+        captureAdapterStateListener().onAdapterStateChanged(BluetoothAdapter.STATE_TURNING_OFF);
+        verify(listener, never()).onAdapterStateChanged(BluetoothAdapter.STATE_TURNING_OFF);
+    }
+
     // public boolean isDiscoveryRunning()
 
     @Test
@@ -220,4 +379,24 @@ public class AdapterManagerTests {
         when(mAdapter.cancelDiscovery()).thenReturn(false);
         assertFalse("Discovery was successfully stopped.", mAdapterManager.stopDiscovery());
     }
+
+    private BluetoothDevice createDevice(String address) {
+        final BluetoothDevice device = mock(BluetoothDevice.class);
+        when(device.getAddress()).thenReturn(address);
+        return device;
+    }
+
+    private PairingMonitor.BondStateListener captureBondStateListener() {
+        final ArgumentCaptor<PairingMonitor.BondStateListener> captor =
+                ArgumentCaptor.forClass(PairingMonitor.BondStateListener.class);
+        verify(mPairingMonitor).registerBondStateListener(captor.capture());
+        return captor.getValue();
+    }
+
+    private BluetoothStatusMonitor.AdapterStateListener captureAdapterStateListener() {
+        final ArgumentCaptor<BluetoothStatusMonitor.AdapterStateListener> captor =
+                ArgumentCaptor.forClass(BluetoothStatusMonitor.AdapterStateListener.class);
+        verify(mBluetoothStatusMonitor).registerAdapterStateListener(captor.capture());
+        return captor.getValue();
+    }
 }
@@ -20,6 +20,8 @@ package com.coiney.android.trueblue.internal;
 import android.bluetooth.BluetoothAdapter;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
 
 import com.coiney.android.trueblue.BluetoothStatusListener;
 import com.coiney.android.trueblue.BuildConfig;
@@ -55,7 +57,8 @@ public class BluetoothStatusMonitorTests {
     @Before
     public void setUp() {
         mContext = RuntimeEnvironment.application.getApplicationContext();
-        mBluetoothStatusMonitor = new BluetoothStatusMonitor(mContext);
+        mBluetoothStatusMonitor = new BluetoothStatusMonitor(mContext,
+                new Handler(Looper.getMainLooper()));
     }
 
     @Test
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.coiney.android.trueblue.internal;
+
+import com.coiney.android.trueblue.ConnectionStats;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConcurrentHistogramTests {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorWhenTooFewBucketsShouldThrowException() {
+        new ConcurrentHistogram(1);
+    }
+
+    @Test
+    public void getBucketIndexShouldUsePowerOfTwoBuckets() {
+        final ConcurrentHistogram histogram = new ConcurrentHistogram();
+        assertEquals(0, histogram.getBucketIndex(-1));
+        assertEquals(0, histogram.getBucketIndex(0));
+        assertEquals(1, histogram.getBucketIndex(1));
+        assertEquals(2, histogram.getBucketIndex(2));
+        assertEquals(2, histogram.getBucketIndex(3));
+        assertEquals(3, histogram.getBucketIndex(4));
+        assertEquals(10, histogram.getBucketIndex(1023));
+        assertEquals(11, histogram.getBucketIndex(1024));
+    }
+
+    @Test
+    public void getBucketIndexWhenValueTooLargeShouldReturnLastBucket() {
+        final ConcurrentHistogram histogram = new ConcurrentHistogram(4);
+        assertEquals(3, histogram.getBucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void getBucketUpperBoundShouldMatchBucketIndex() {
+        final ConcurrentHistogram histogram = new ConcurrentHistogram(8);
+        for (int i = 0; i < 7; i++) {
+            final long upperBound = histogram.getBucketUpperBound(i);
+            assertEquals(i, histogram.getBucketIndex(upperBound));
+            assertEquals(i + 1, histogram.getBucketIndex(upperBound + 1));
+        }
+        assertEquals(Long.MAX_VALUE, histogram.getBucketUpperBound(7));
+    }
+
+    @Test
+    public void snapshotShouldContainRecordedValues() {
+        final ConcurrentHistogram histogram = new ConcurrentHistogram();
+        histogram.record(1);
+        histogram.record(5);
+        histogram.record(6);
+        final ConnectionStats.Histogram snapshot = histogram.snapshot();
+        assertEquals(ConcurrentHistogram.DEFAULT_NUMBER_OF_BUCKETS, snapshot.getBucketCount());
+        assertEquals(3, snapshot.getTotalCount());
+        assertEquals(1, snapshot.getCountInBucket(1));
+        assertEquals(2, snapshot.getCountInBucket(3));
+    }
+
+    @Test
+    public void getValueAtPercentileWhenEmptyShouldReturnZero() {
+        assertEquals(0, new ConcurrentHistogram().snapshot().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void getValueAtPercentileShouldReturnUpperBoundOfContainingBucket() {
+        final ConcurrentHistogram histogram = new ConcurrentHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(3);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(100);
+        }
+        final ConnectionStats.Histogram snapshot = histogram.snapshot();
+        assertEquals(3, snapshot.getValueAtPercentile(0));
+        assertEquals(3, snapshot.getValueAtPercentile(50));
+        assertEquals(3, snapshot.getValueAtPercentile(90));
+        assertEquals(127, snapshot.getValueAtPercentile(91));
+        assertEquals(127, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getValueAtPercentileWhenPercentileOutOfRangeShouldThrowException() {
+        new ConcurrentHistogram().snapshot().getValueAtPercentile(101);
+    }
+}
@@ -17,15 +17,292 @@
 
 package com.coiney.android.trueblue.internal;
 
+import com.coiney.android.trueblue.BuildConfig;
+import com.coiney.android.trueblue.Connection;
+import com.coiney.android.trueblue.ConnectionClient;
+import com.coiney.android.trueblue.HeartbeatCodec;
+import com.coiney.android.trueblue.HeartbeatConfiguration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
 /**
- * There are currently no tests for ConnectionClientImpl. It relies inherently
- * on worker threads to carry out its blocking I/O, so is very difficult to
- * test reliably.
- *
- * Coverage will be provided by static code analysis, code review, and manual
- * testing on actual devices.
- *
- * This file exists for the sake of completeness.
+ * Writes are performed on the client's write thread, so each test waits on
+ * latches (with generous timeouts) rather than sleeping. The connection is
+ * a mock which behaves like a real connection when closed.
  */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
 public class ConnectionClientImplTests {
+
+    private static final long HEARTBEAT_INTERVAL_MILLIS = 1000;
+    private static final int MISSED_HEARTBEAT_THRESHOLD = 3;
+    private static final byte PING = 0x01;
+    private static final byte PONG = 0x02;
+    private static final long TIMEOUT_MILLIS = 1000;
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock private ConnectionClient.Callback mCallback;
+    @Mock private Connection mConnection;
+
+    private ConnectionClientImpl mConnectionClient;
+    private final AtomicBoolean mIsOpen = new AtomicBoolean(true);
+    private final CountDownLatch mReleaseLatch = new CountDownLatch(1);
+    private final CountDownLatch mWriteStartedLatch = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        when(mConnection.isOpen()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                return mIsOpen.get();
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                if (mIsOpen.getAndSet(false)) {
+                    mConnectionClient.onConnectionClosed(mConnection, false);
+                }
+                return null;
+            }
+        }).when(mConnection).close();
+        mConnectionClient = new ConnectionClientImpl(mConnection, 16, mCallback);
+    }
+
+    @After
+    public void tearDown() {
+        mReleaseLatch.countDown();
+        mConnectionClient.close();
+    }
+
+    @Test
+    public void closeWithTimeoutWhenQueueDrainsInTimeShouldWriteAllDataBeforeClosing()
+            throws Exception {
+        final byte[] first = new byte[] { 1 };
+        final byte[] second = new byte[] { 2 };
+        mConnectionClient.write(first);
+        mConnectionClient.write(second);
+        assertTrue(mConnectionClient.close(TIMEOUT_MILLIS).isEmpty());
+        final InOrder inOrder = inOrder(mConnection, mCallback);
+        inOrder.verify(mConnection).write(first);
+        inOrder.verify(mCallback).onDataWritten(mConnectionClient, first);
+        inOrder.verify(mConnection).write(second);
+        inOrder.verify(mCallback).onDataWritten(mConnectionClient, second);
+        inOrder.verify(mConnection).close();
+        inOrder.verify(mCallback).onConnectionClosed(mConnectionClient, false);
+    }
+
+    @Test
+    public void closeWithTimeoutWhenQueueDoesNotDrainInTimeShouldReturnUnsentDataInOrder()
+            throws Exception {
+        final byte[] first = new byte[] { 1 };
+        final byte[] second = new byte[] { 2 };
+        final byte[] third = new byte[] { 3 };
+        blockFirstWrite();
+        mConnectionClient.write(first);
+        mConnectionClient.write(second);
+        mConnectionClient.write(third);
+        assertTrue(mWriteStartedLatch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        final List<byte[]> unsentData = mConnectionClient.close(50);
+        assertEquals(2, unsentData.size());
+        assertSame(second, unsentData.get(0));
+        assertSame(third, unsentData.get(1));
+        verify(mConnection, times(1)).close();
+        // The write in progress is reported via the callback as usual.
+        verify(mCallback, timeout(TIMEOUT_MILLIS)).onWriteErrorEncountered(mConnectionClient,
+                first);
+        verify(mConnection, never()).write(second);
+        verify(mConnection, never()).write(third);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void closeWithTimeoutWhenTimeoutIsNegativeShouldThrowIllegalArgumentException() {
+        mConnectionClient.close(-1);
+    }
+
+    @Test
+    public void closeWithTimeoutWhenAlreadyClosedShouldReturnNoDataAndNotReportAgain() {
+        mConnectionClient.close();
+        assertTrue(mConnectionClient.close(TIMEOUT_MILLIS).isEmpty());
+        verify(mCallback, times(1)).onConnectionClosed(mConnectionClient, false);
+    }
+
+    @Test
+    public void writeWhenClosingShouldThrowIllegalStateException() {
+        mConnectionClient.stopAcceptingWrites();
+        try {
+            mConnectionClient.write(new byte[] { 1 });
+            fail("Writes should be refused once closing.");
+        } catch (IllegalStateException e) {
+            assertTrue(mConnectionClient.isOpen());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void writeWhenClosedWithTimeoutShouldThrowIllegalStateException() {
+        mConnectionClient.close(TIMEOUT_MILLIS);
+        mConnectionClient.write(new byte[] { 1 });
+    }
+
+    @Test
+    public void onConnectionClosedWhenReadErrorRacesWithCloseShouldReportOnce()
+            throws Exception {
+        for (int i = 0; i < 100; i++) {
+            final ConnectionClient.Callback callback = mock(ConnectionClient.Callback.class);
+            final ConnectionClientImpl connectionClient = new ConnectionClientImpl(mConnection,
+                    16, callback);
+            final CountDownLatch startLatch = new CountDownLatch(1);
+            final Thread readErrorThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    awaitQuietly(startLatch);
+                    connectionClient.onConnectionClosed(mConnection, true);
+                }
+            });
+            readErrorThread.start();
+            startLatch.countDown();
+            connectionClient.onConnectionClosed(mConnection, false);
+            readErrorThread.join(TIMEOUT_MILLIS);
+            verify(callback, times(1)).onConnectionClosed(any(ConnectionClient.class),
+                    anyBoolean());
+        }
+    }
+
+    @Test
+    public void onDataReadWhenPongShouldNotBePassedOn() throws Exception {
+        startReadingWithHeartbeat();
+        mConnectionClient.onDataRead(new byte[] { PONG, 0 });
+        verify(mCallback, never()).onDataRead(any(ConnectionClient.class), any(byte[].class));
+        final byte[] data = new byte[] { PONG, 0, 0 };
+        mConnectionClient.onDataRead(data);
+        verify(mCallback, times(1)).onDataRead(mConnectionClient, data);
+    }
+
+    @Test
+    public void onDataWrittenWhenPingShouldNotBeReported() throws Exception {
+        startReadingWithHeartbeat();
+        final byte[] data = new byte[] { PING, 0 };
+        mConnectionClient.write(data);
+        // The ping was queued first, so has been written once the data has.
+        verify(mCallback, timeout(TIMEOUT_MILLIS)).onDataWritten(mConnectionClient, data);
+        verify(mConnection, times(2)).write(new byte[] { PING, 0 });
+        verify(mCallback, times(1)).onDataWritten(any(ConnectionClient.class),
+                any(byte[].class));
+    }
+
+    @Test
+    public void heartbeatWhenMissedHeartbeatThresholdReachedShouldCloseByError()
+            throws Exception {
+        startReadingWithHeartbeat();
+        ShadowLooper.idleMainLooper(MISSED_HEARTBEAT_THRESHOLD * HEARTBEAT_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+        verify(mConnection, times(1)).close();
+        verify(mCallback, times(1)).onConnectionClosed(mConnectionClient, true);
+    }
+
+    @Test
+    public void closeWithTimeoutWhenPingsAreQueuedShouldNotReturnPings() throws Exception {
+        final byte[] first = new byte[] { 1 };
+        final byte[] second = new byte[] { 2 };
+        blockFirstWrite();
+        createClientWithHeartbeat();
+        mConnectionClient.write(first);
+        assertTrue(mWriteStartedLatch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        // Starting to read sends the first ping, queued behind the data.
+        mConnectionClient.startReading();
+        mConnectionClient.write(second);
+        final List<byte[]> unsentData = mConnectionClient.close(50);
+        assertEquals(1, unsentData.size());
+        assertArrayEquals(second, unsentData.get(0));
+    }
+
+    private void createClientWithHeartbeat() throws IOException {
+        // Reading ends immediately, so that only pongs passed in count.
+        when(mConnection.read(any(byte[].class))).thenReturn(-1);
+        // Pings and pongs are two bytes - a type and a sequence number.
+        final HeartbeatCodec codec = new HeartbeatCodec() {
+            @Override
+            public byte[] encodePing(int sequenceNumber) {
+                return new byte[] { PING, (byte) sequenceNumber };
+            }
+
+            @Override
+            public int decodePong(byte[] data) {
+                return (2 == data.length && PONG == data[0]) ? data[1] : NOT_A_PONG;
+            }
+        };
+        mConnectionClient = new ConnectionClientImpl(mConnection, 16,
+                new HeartbeatConfiguration.Builder(codec)
+                        .setIntervalMillis(HEARTBEAT_INTERVAL_MILLIS)
+                        .setMissedHeartbeatThreshold(MISSED_HEARTBEAT_THRESHOLD)
+                        .build(), mCallback);
+    }
+
+    private void startReadingWithHeartbeat() throws IOException {
+        createClientWithHeartbeat();
+        mConnectionClient.startReading();
+    }
+
+    // Block the first write until released, failing it if interrupted.
+    private void blockFirstWrite() throws IOException {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                mWriteStartedLatch.countDown();
+                try {
+                    mReleaseLatch.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted.");
+                }
+                return null;
+            }
+        }).doNothing().when(mConnection).write(any(byte[].class));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
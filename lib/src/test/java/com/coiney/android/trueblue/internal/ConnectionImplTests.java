@@ -17,8 +17,6 @@
 
 package com.coiney.android.trueblue.internal;
 
-import android.bluetooth.BluetoothSocket;
-
 import com.coiney.android.trueblue.*;
 
 import org.junit.Before;
@@ -58,7 +56,7 @@ public class ConnectionImplTests {
     public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
 
     @Mock
-    private BluetoothSocket mBluetoothSocket;
+    private TransportSocket mSocket;
     private ByteArrayOutputStream mOutputStream;
 
     @Before
@@ -100,6 +98,36 @@ public class ConnectionImplTests {
         verify(listener, times(1)).onConnectionClosed(connection, false);
     }
 
+    @Test
+    public void closeShouldCloseSocket() throws Exception {
+        final ConnectionImpl connection = prepareConnection(null);
+        connection.close();
+        verify(mSocket, times(1)).close();
+    }
+
+    @Test
+    public void abortShouldCloseConnectionAsClosedByError() {
+        final ConnectionImpl connection = prepareConnection(null);
+        final Connection.OnCloseListener listener =
+                mock(Connection.OnCloseListener.class);
+        connection.registerOnCloseListener(listener);
+        connection.abort();
+        assertFalse(connection.isOpen());
+        verify(listener, times(1)).onConnectionClosed(connection, true);
+    }
+
+    @Test
+    public void abortWhenConnectionAlreadyClosedShouldNotNotifyAgain() {
+        final ConnectionImpl connection = prepareConnection(null);
+        final Connection.OnCloseListener listener =
+                mock(Connection.OnCloseListener.class);
+        connection.registerOnCloseListener(listener);
+        connection.close();
+        connection.abort();
+        verify(listener, times(1)).onConnectionClosed(connection, false);
+        verify(listener, times(0)).onConnectionClosed(connection, true);
+    }
+
     @Test
     public void readWhenInputStreamNotClosedAndDataAvailableShouldBytesRead() throws Exception {
         final byte[] data = new byte[]{ 0x00, 0x01, 0x02, 0x03, 0x04, 0x05 };
@@ -156,8 +184,8 @@ public class ConnectionImplTests {
         // to get creative ...
         final ByteArrayOutputStream outputStream = spy(new ByteArrayOutputStream());
         Mockito.doThrow(new IOException()).when(outputStream).write(any(byte[].class));
-        final ConnectionImpl connection = new ConnectionImpl(mBluetoothSocket,
-                new ByteArrayInputStream(new byte[0]), outputStream);
+        final ConnectionImpl connection = new ConnectionImpl(mSocket,
+                new ByteArrayInputStream(new byte[0]), outputStream, RfcommTransport.NAME);
         try {
             connection.write(new byte[]{ 0x00, 0x01, 0x02, 0x03, 0x04, 0x05 });
             fail("Exception should have been thrown.");
@@ -170,8 +198,8 @@ public class ConnectionImplTests {
         // to get creative ...
         final ByteArrayOutputStream outputStream = spy(new ByteArrayOutputStream());
         Mockito.doThrow(new IOException()).when(outputStream).write(any(byte[].class));
-        final ConnectionImpl connection = new ConnectionImpl(mBluetoothSocket,
-                new ByteArrayInputStream(new byte[0]), outputStream);
+        final ConnectionImpl connection = new ConnectionImpl(mSocket,
+                new ByteArrayInputStream(new byte[0]), outputStream, RfcommTransport.NAME);
         final Connection.OnCloseListener listener =
                 mock(Connection.OnCloseListener.class);
         connection.registerOnCloseListener(listener);
@@ -182,7 +210,55 @@ public class ConnectionImplTests {
         verify(listener, times(1)).onConnectionClosed(connection, true);
     }
 
+    @Test
+    public void getStatsWhenDataReadShouldReportBytesAndMessagesRead() throws Exception {
+        final byte[] data = new byte[]{ 0x00, 0x01, 0x02, 0x03, 0x04, 0x05 };
+        final ConnectionImpl connection = prepareConnection(new ByteArrayInputStream(data));
+        connection.read(new byte[data.length]);
+        final ConnectionStats stats = connection.getStats();
+        assertEquals(data.length, stats.getBytesRead());
+        assertEquals(1, stats.getMessagesRead());
+        assertEquals(1, stats.getReadChunkSizeHistogram().getTotalCount());
+        assertEquals(0, stats.getReadErrorCount());
+    }
+
+    @Test
+    public void getStatsWhenDataWrittenShouldReportBytesAndMessagesWritten() throws Exception {
+        final ConnectionImpl connection = prepareConnection(null);
+        connection.write(new byte[]{ 0x00, 0x01, 0x02 });
+        connection.write(new byte[]{ 0x03, 0x04 });
+        final ConnectionStats stats = connection.getStats();
+        assertEquals(5, stats.getBytesWritten());
+        assertEquals(2, stats.getMessagesWritten());
+        assertEquals(2, stats.getWriteLatencyHistogram().getTotalCount());
+        assertEquals(0, stats.getWriteErrorCount());
+    }
+
+    @Test
+    public void getStatsWhenReadFailsShouldReportReadError() throws Exception {
+        final InputStream inputStream = new ByteArrayInputStream(new byte[0]);
+        final ConnectionImpl connection = prepareConnection(inputStream);
+        try {
+            connection.read(new byte[1]);
+        } catch (IOException ignored) {}
+        assertEquals(1, connection.getStats().getReadErrorCount());
+    }
+
+    @Test
+    public void getStatsWhenWriteFailsShouldReportWriteError() throws Exception {
+        final ByteArrayOutputStream outputStream = spy(new ByteArrayOutputStream());
+        Mockito.doThrow(new IOException()).when(outputStream).write(any(byte[].class));
+        final ConnectionImpl connection = new ConnectionImpl(mSocket,
+                new ByteArrayInputStream(new byte[0]), outputStream, RfcommTransport.NAME);
+        try {
+            connection.write(new byte[]{ 0x00 });
+        } catch (IOException ignored) {}
+        final ConnectionStats stats = connection.getStats();
+        assertEquals(1, stats.getWriteErrorCount());
+        assertEquals(0, stats.getBytesWritten());
+    }
+
     private ConnectionImpl prepareConnection(InputStream inputStream) {
-        return new ConnectionImpl(mBluetoothSocket, inputStream, mOutputStream);
+        return new ConnectionImpl(mSocket, inputStream, mOutputStream, RfcommTransport.NAME);
     }
 }
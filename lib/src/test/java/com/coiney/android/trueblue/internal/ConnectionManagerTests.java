@@ -17,27 +17,66 @@
 
 package com.coiney.android.trueblue.internal;
 
+import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
 
 import com.coiney.android.trueblue.BuildConfig;
+import com.coiney.android.trueblue.Connection;
 import com.coiney.android.trueblue.ConnectionAttemptCallback;
+import com.coiney.android.trueblue.ConnectionClient;
+import com.coiney.android.trueblue.DeviceConnectionListener;
+import com.coiney.android.trueblue.DisconnectAllCallback;
+import com.coiney.android.trueblue.DisconnectAllOperation;
+import com.coiney.android.trueblue.DisconnectResult;
+import com.coiney.android.trueblue.Transport;
+import com.coiney.android.trueblue.TransportSocket;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 import org.mockito.quality.Strictness;
+import org.mockito.stubbing.Answer;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * The lack of a functional Android Bluetooth subsystem makes it extremely
@@ -48,19 +87,23 @@ import static org.mockito.Mockito.mock;
 @Config(constants = BuildConfig.class)
 public class ConnectionManagerTests {
 
+    private static final int RETRY_COUNT = 2;
+
     // Ensure that Mockito is used despite using Robolectric's test runner.
     @Rule
     public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
 
+    @Mock private AclMonitor mAclMonitor;
     @Mock private AdapterManager mAdapterManager;
     @Mock private PairingMonitor mPairingMonitor;
     @Mock private ConnectionAttemptCallback mConnectionAttemptCallback;
 
     private ConnectionManager mConnectionManager;
+    private ExecutorService mConnectTaskExecutor;
 
     @Before
     public void setUp() {
-        mConnectionManager = new ConnectionManager(mAdapterManager, mPairingMonitor,
+        mConnectionManager = new ConnectionManager(mAdapterManager, mPairingMonitor, mAclMonitor,
                 Executors.newSingleThreadExecutor(), mock(Logger.class));
     }
 
@@ -93,4 +136,331 @@ public class ConnectionManagerTests {
         final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
         assertFalse(mConnectionManager.disconnect(bluetoothDevice));
     }
+
+    @Test
+    public void registerInboundConnectionWhenTheDeviceIsNotManagedShouldMarkItConnected() {
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        final Connection connection = mock(Connection.class);
+        when(connection.isOpen()).thenReturn(true);
+        assertTrue(mConnectionManager.registerInboundConnection(bluetoothDevice, connection));
+        assertTrue(mConnectionManager.isConnected(bluetoothDevice));
+    }
+
+    @Test
+    public void registerInboundConnectionWhenTheDeviceIsAlreadyManagedShouldReturnFalse() {
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        mConnectionManager.connect(bluetoothDevice, mock(ConnectionConfiguration.class),
+                mConnectionAttemptCallback);
+        assertFalse(mConnectionManager.registerInboundConnection(bluetoothDevice,
+                mock(Connection.class)));
+    }
+
+    @Test
+    public void registerInboundConnectionShouldNotifyDeviceConnectionListeners() {
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        final DeviceConnectionListener listener = mock(DeviceConnectionListener.class);
+        mConnectionManager.registerDeviceConnectionListener(listener);
+        mConnectionManager.registerInboundConnection(bluetoothDevice, mock(Connection.class));
+        ShadowLooper.runUiThreadTasks();
+        verify(listener).onDeviceConnected(bluetoothDevice);
+    }
+
+    @Test
+    public void closingInboundConnectionShouldPurgeTheDeviceAndNotifyListeners() {
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        final Connection connection = mock(Connection.class);
+        final DeviceConnectionListener listener = mock(DeviceConnectionListener.class);
+        mConnectionManager.registerDeviceConnectionListener(listener);
+        mConnectionManager.registerInboundConnection(bluetoothDevice, connection);
+        final ArgumentCaptor<Connection.OnCloseListener> listenerCaptor =
+                ArgumentCaptor.forClass(Connection.OnCloseListener.class);
+        verify(connection).registerOnCloseListener(listenerCaptor.capture());
+        listenerCaptor.getValue().onConnectionClosed(connection, true);
+        assertFalse(mConnectionManager.isConnectedOrConnecting(bluetoothDevice));
+        ShadowLooper.runUiThreadTasks();
+        verify(listener).onDeviceDisconnected(bluetoothDevice, true);
+    }
+
+    @Test
+    public void linkLostWhenTheDeviceIsConnectedShouldAbortTheConnectionAndNotifyListeners() {
+        startWithAclMonitor(Executors.newSingleThreadExecutor());
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        final ConnectionImpl connection = new ConnectionImpl(mock(TransportSocket.class),
+                new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(),
+                RfcommTransport.NAME);
+        final DeviceConnectionListener listener = mock(DeviceConnectionListener.class);
+        mConnectionManager.registerDeviceConnectionListener(listener);
+        mConnectionManager.registerInboundConnection(bluetoothDevice, connection);
+        final Connection.OnCloseListener onCloseListener = mock(Connection.OnCloseListener.class);
+        connection.registerOnCloseListener(onCloseListener);
+        sendLinkLost(bluetoothDevice);
+        // The connection is aborted off the receiver thread.
+        verify(onCloseListener, timeout(1000)).onConnectionClosed(connection, true);
+        assertFalse(connection.isOpen());
+        assertFalse(mConnectionManager.isConnectedOrConnecting(bluetoothDevice));
+        ShadowLooper.runUiThreadTasks();
+        verify(listener).onDeviceDisconnected(bluetoothDevice, true);
+    }
+
+    @Test
+    public void linkLostWhenConnectionAttemptInProgressShouldNotCancelAttempt() {
+        final Future<?> connectTaskFuture = mock(Future.class);
+        mConnectTaskExecutor = mock(ExecutorService.class);
+        doReturn(connectTaskFuture).when(mConnectTaskExecutor).submit(any(Runnable.class));
+        startWithAclMonitor(mConnectTaskExecutor);
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        final DeviceConnectionListener listener = mock(DeviceConnectionListener.class);
+        mConnectionManager.registerDeviceConnectionListener(listener);
+        mConnectionManager.connect(bluetoothDevice, new ConnectionConfiguration(null, true, true,
+                new ConnectionRetryPolicy.Builder().setRetryCount(RETRY_COUNT).build(),
+                mock(Transport.class)), mConnectionAttemptCallback);
+        sendLinkLost(bluetoothDevice);
+        // Anything done in response to the link loss happens off the receiver
+        // thread, so allow it time to happen before checking it did not.
+        verify(connectTaskFuture, after(200).never()).cancel(anyBoolean());
+        assertTrue(mConnectionManager.isConnectedOrConnecting(bluetoothDevice));
+        ShadowLooper.runUiThreadTasks();
+        verify(listener, never()).onDeviceDisconnected(any(BluetoothDevice.class), anyBoolean());
+    }
+
+    @Test
+    public void dumpWhenNoDevicesAreManagedShouldReportNoConnections() {
+        final StringWriter stringWriter = new StringWriter();
+        mConnectionManager.dump(new PrintWriter(stringWriter, true), "");
+        assertEquals("connections managedCount=0 listenerCount=0 shouldRestore=false",
+                stringWriter.toString().trim());
+    }
+
+    @Test
+    public void disconnectAllWhenNoDevicesAreManagedShouldCompleteImmediately() {
+        final DisconnectAllOperation operation = mConnectionManager.disconnectAll(1000,
+                mock(DisconnectAllCallback.class));
+        assertTrue(operation.isComplete());
+        assertTrue(operation.getResults().isEmpty());
+    }
+
+    @Test
+    public void disconnectAllWhenDevicesAreManagedShouldReportTheResultForEachDevice()
+            throws Exception {
+        final Future<?> connectTaskFuture = mock(Future.class);
+        mConnectTaskExecutor = mock(ExecutorService.class);
+        doReturn(connectTaskFuture).when(mConnectTaskExecutor).submit(any(Runnable.class));
+        mConnectionManager = new ConnectionManager(mAdapterManager, mPairingMonitor, mAclMonitor,
+                mConnectTaskExecutor, mock(Logger.class));
+        final BluetoothDevice connectedDevice = mock(BluetoothDevice.class);
+        mConnectionManager.registerInboundConnection(connectedDevice, createOpenConnection());
+        final BluetoothDevice connectingDevice = mock(BluetoothDevice.class);
+        mConnectionManager.connect(connectingDevice, new ConnectionConfiguration(null, true, true,
+                new ConnectionRetryPolicy.Builder().setRetryCount(RETRY_COUNT).build(),
+                mock(Transport.class)), mConnectionAttemptCallback);
+        final BluetoothDevice blockedDevice = mock(BluetoothDevice.class);
+        final CountDownLatch closeLatch = new CountDownLatch(1);
+        final Connection blockedConnection = createOpenConnection();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                closeLatch.await();
+                return null;
+            }
+        }).when(blockedConnection).close();
+        mConnectionManager.registerInboundConnection(blockedDevice, blockedConnection);
+        final DisconnectAllCallback callback = mock(DisconnectAllCallback.class);
+        try {
+            final DisconnectAllOperation operation = mConnectionManager.disconnectAll(1000,
+                    callback);
+            verify(blockedConnection, timeout(1000)).close();
+            awaitResultCount(operation, 2);
+            assertFalse(operation.isComplete());
+            ShadowLooper.idleMainLooper(1000);
+            assertTrue(operation.isComplete());
+            final Map<BluetoothDevice, DisconnectResult> results = operation.getResults();
+            assertEquals(3, results.size());
+            assertEquals(DisconnectResult.DISCONNECTED, results.get(connectedDevice));
+            assertEquals(DisconnectResult.CONNECTION_ATTEMPT_CANCELLED,
+                    results.get(connectingDevice));
+            assertEquals(DisconnectResult.TIMED_OUT, results.get(blockedDevice));
+            verify(connectTaskFuture).cancel(true);
+            ShadowLooper.runUiThreadTasks();
+            verify(callback).onDisconnectAllCompleted(results);
+        } finally {
+            closeLatch.countDown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void disconnectAllWhenTheTimeoutIsNotPositiveShouldThrowIllegalArgumentException() {
+        mConnectionManager.disconnectAll(0, null);
+    }
+
+    @Test
+    public void startShouldRegisterAdapterStateListener() {
+        mConnectionManager.start();
+        verify(mAdapterManager).registerAdapterStateListener(
+                any(BluetoothStatusMonitor.AdapterStateListener.class));
+    }
+
+    @Test
+    public void adapterStateTurningOffWhenConnectionAttemptInProgressShouldCancelAttempt() {
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        final Future<?> connectTaskFuture = mock(Future.class);
+        final BluetoothStatusMonitor.AdapterStateListener listener =
+                startWithPendingConnectionAttempt(bluetoothDevice, connectTaskFuture);
+        listener.onAdapterStateChanged(BluetoothAdapter.STATE_TURNING_OFF);
+        verify(connectTaskFuture, timeout(1000)).cancel(true);
+    }
+
+    @Test
+    public void adapterStateTurningOnWhenConnectionAttemptInProgressShouldNotCancelAttempt() {
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        final Future<?> connectTaskFuture = mock(Future.class);
+        final BluetoothStatusMonitor.AdapterStateListener listener =
+                startWithPendingConnectionAttempt(bluetoothDevice, connectTaskFuture);
+        listener.onAdapterStateChanged(BluetoothAdapter.STATE_TURNING_ON);
+        verify(connectTaskFuture, never()).cancel(true);
+        assertTrue(mConnectionManager.isConnectedOrConnecting(bluetoothDevice));
+    }
+
+    @Test
+    public void adapterStateTurningOffShouldDrainClientsOfManagedConnectionsOnly() {
+        final BluetoothStatusMonitor.AdapterStateListener listener = startAndCaptureListener();
+        final Connection managedConnection = createOpenConnection();
+        mConnectionManager.registerInboundConnection(mock(BluetoothDevice.class),
+                managedConnection);
+        final ConnectionClientImpl managedClient = new ConnectionClientImpl(managedConnection,
+                16, mock(ConnectionClient.Callback.class));
+        final Connection otherConnection = createOpenConnection();
+        final ConnectionClientImpl otherClient = new ConnectionClientImpl(otherConnection, 16,
+                mock(ConnectionClient.Callback.class));
+        listener.onAdapterStateChanged(BluetoothAdapter.STATE_TURNING_OFF);
+        verify(managedConnection, timeout(1000)).close();
+        try {
+            managedClient.write(new byte[] { 1 });
+            fail("Writes should be refused once quiesced.");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        // Clients of connections which are not managed must keep working.
+        otherClient.write(new byte[] { 1 });
+        verify(otherConnection, never()).close();
+        otherClient.onConnectionClosed(otherConnection, false);
+    }
+
+    @Test
+    public void adapterStateOffShouldDisconnectAllManagedConnections() {
+        final BluetoothStatusMonitor.AdapterStateListener listener = startAndCaptureListener();
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        final Connection connection = createOpenConnection();
+        mConnectionManager.registerInboundConnection(bluetoothDevice, connection);
+        listener.onAdapterStateChanged(BluetoothAdapter.STATE_OFF);
+        verify(connection, timeout(1000)).close();
+    }
+
+    @Test
+    public void adapterStateOnWhenRestoringConnectionsShouldReattemptConnections() {
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        final Future<?> connectTaskFuture = mock(Future.class);
+        final BluetoothStatusMonitor.AdapterStateListener listener =
+                startWithPendingConnectionAttempt(bluetoothDevice, connectTaskFuture);
+        mConnectionManager.setShouldRestoreConnections(true);
+        // The original attempt uses up its retries before the adapter turns off.
+        final ConnectionRetryPolicy retryPolicy = captureConnectTask()
+                .getConnectionConfiguration().getConnectionRetryPolicy();
+        retryPolicy.retry();
+        retryPolicy.retry();
+        turnOffWithPendingConnectionAttempt(listener, bluetoothDevice, connectTaskFuture);
+        listener.onAdapterStateChanged(BluetoothAdapter.STATE_ON);
+        verify(mConnectTaskExecutor, times(2)).submit(any(Runnable.class));
+        assertTrue(mConnectionManager.isConnectedOrConnecting(bluetoothDevice));
+        final ConnectionRetryPolicy restoredRetryPolicy = captureConnectTask()
+                .getConnectionConfiguration().getConnectionRetryPolicy();
+        assertEquals(RETRY_COUNT, restoredRetryPolicy.getRemainingRetryCount());
+        assertEquals(0, restoredRetryPolicy.getNumberOfRetriesAttempted());
+    }
+
+    @Test
+    public void adapterStateOnWhenNotRestoringConnectionsShouldNotReattemptConnections() {
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        final Future<?> connectTaskFuture = mock(Future.class);
+        final BluetoothStatusMonitor.AdapterStateListener listener =
+                startWithPendingConnectionAttempt(bluetoothDevice, connectTaskFuture);
+        mConnectionManager.setShouldRestoreConnections(false);
+        turnOffWithPendingConnectionAttempt(listener, bluetoothDevice, connectTaskFuture);
+        listener.onAdapterStateChanged(BluetoothAdapter.STATE_ON);
+        verify(mConnectTaskExecutor, times(1)).submit(any(Runnable.class));
+        assertFalse(mConnectionManager.isConnectedOrConnecting(bluetoothDevice));
+    }
+
+    private BluetoothStatusMonitor.AdapterStateListener startAndCaptureListener() {
+        mConnectionManager.start();
+        final ArgumentCaptor<BluetoothStatusMonitor.AdapterStateListener> listenerCaptor =
+                ArgumentCaptor.forClass(BluetoothStatusMonitor.AdapterStateListener.class);
+        verify(mAdapterManager).registerAdapterStateListener(listenerCaptor.capture());
+        return listenerCaptor.getValue();
+    }
+
+    private void startWithAclMonitor(ExecutorService connectTaskExecutor) {
+        final AclMonitor aclMonitor = new AclMonitor(RuntimeEnvironment.application,
+                new Handler(Looper.getMainLooper()));
+        mConnectionManager = new ConnectionManager(mAdapterManager, mPairingMonitor, aclMonitor,
+                connectTaskExecutor, mock(Logger.class));
+        aclMonitor.start();
+        mConnectionManager.start();
+    }
+
+    private static void sendLinkLost(BluetoothDevice bluetoothDevice) {
+        RuntimeEnvironment.application.sendBroadcast(
+                new Intent(BluetoothDevice.ACTION_ACL_DISCONNECTED)
+                        .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice));
+        ShadowLooper.getShadowMainLooper().runToEndOfTasks();
+    }
+
+    private BluetoothStatusMonitor.AdapterStateListener startWithPendingConnectionAttempt(
+            BluetoothDevice bluetoothDevice, Future<?> connectTaskFuture) {
+        mConnectTaskExecutor = mock(ExecutorService.class);
+        doReturn(connectTaskFuture).when(mConnectTaskExecutor).submit(any(Runnable.class));
+        mConnectionManager = new ConnectionManager(mAdapterManager, mPairingMonitor, mAclMonitor,
+                mConnectTaskExecutor, mock(Logger.class));
+        final BluetoothStatusMonitor.AdapterStateListener listener = startAndCaptureListener();
+        mConnectionManager.connect(bluetoothDevice, new ConnectionConfiguration(null, true, true,
+                new ConnectionRetryPolicy.Builder().setRetryCount(RETRY_COUNT).build(),
+                mock(Transport.class)), mConnectionAttemptCallback);
+        return listener;
+    }
+
+    private ConnectTask captureConnectTask() {
+        final ArgumentCaptor<ConnectTask> connectTaskCaptor =
+                ArgumentCaptor.forClass(ConnectTask.class);
+        verify(mConnectTaskExecutor, atLeastOnce()).submit(connectTaskCaptor.capture());
+        final List<ConnectTask> connectTasks = connectTaskCaptor.getAllValues();
+        return connectTasks.get(connectTasks.size() - 1);
+    }
+
+    private void turnOffWithPendingConnectionAttempt(
+            BluetoothStatusMonitor.AdapterStateListener listener,
+            BluetoothDevice bluetoothDevice, Future<?> connectTaskFuture) {
+        listener.onAdapterStateChanged(BluetoothAdapter.STATE_TURNING_OFF);
+        verify(connectTaskFuture, timeout(1000)).cancel(true);
+        // The connect task never runs, so report the cancellation on its behalf.
+        mConnectionManager.onConnectionAttemptCancelled(new ConnectionProxy(bluetoothDevice,
+                null, mConnectionManager));
+        listener.onAdapterStateChanged(BluetoothAdapter.STATE_OFF);
+    }
+
+    private static void awaitResultCount(DisconnectAllOperation operation, int count)
+            throws InterruptedException {
+        // Devices are disconnected on a pool of threads, so poll for results.
+        final long deadline = System.currentTimeMillis() + 1000;
+        while (operation.getResults().size() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Expected " + count + " result(s) but got " + operation.getResults());
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static Connection createOpenConnection() {
+        final Connection connection = mock(Connection.class);
+        when(connection.isOpen()).thenReturn(true);
+        return connection;
+    }
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.coiney.android.trueblue.internal;
+
+import com.coiney.android.trueblue.ConnectionStats;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConnectionMetricsTests {
+
+    @Test
+    public void snapshotWhenNothingRecordedShouldReturnZeroes() {
+        final ConnectionStats stats = new ConnectionMetrics().snapshot();
+        assertEquals(0, stats.getBytesRead());
+        assertEquals(0, stats.getBytesWritten());
+        assertEquals(0, stats.getMessagesRead());
+        assertEquals(0, stats.getMessagesWritten());
+        assertEquals(0, stats.getReadErrorCount());
+        assertEquals(0, stats.getWriteErrorCount());
+        assertEquals(0, stats.getWriteQueueDepth());
+        assertEquals(0, stats.getWriteQueueDepthHighWaterMark());
+    }
+
+    @Test
+    public void snapshotShouldReportTransportName() {
+        assertEquals("l2cap", new ConnectionMetrics("l2cap").snapshot()
+                .getTransportName());
+        assertNull(new ConnectionMetrics().snapshot().getTransportName());
+    }
+
+    @Test
+    public void snapshotWhenReadsAndWritesRecordedShouldReturnTotals() {
+        final ConnectionMetrics metrics = new ConnectionMetrics();
+        metrics.recordRead(10);
+        metrics.recordRead(20);
+        metrics.recordWrite(5, System.nanoTime());
+        metrics.recordReadError();
+        metrics.recordWriteError();
+        metrics.recordWriteError();
+        final ConnectionStats stats = metrics.snapshot();
+        assertEquals(30, stats.getBytesRead());
+        assertEquals(2, stats.getMessagesRead());
+        assertEquals(2, stats.getReadChunkSizeHistogram().getTotalCount());
+        assertEquals(5, stats.getBytesWritten());
+        assertEquals(1, stats.getMessagesWritten());
+        assertEquals(1, stats.getWriteLatencyHistogram().getTotalCount());
+        assertEquals(1, stats.getReadErrorCount());
+        assertEquals(2, stats.getWriteErrorCount());
+    }
+
+    @Test
+    public void snapshotShouldTrackWriteQueueDepthHighWaterMark() {
+        final ConnectionMetrics metrics = new ConnectionMetrics();
+        metrics.recordWriteQueued();
+        metrics.recordWriteQueued();
+        metrics.recordWriteQueued();
+        metrics.recordWriteDequeued();
+        metrics.recordWriteDequeued();
+        metrics.recordWriteQueued();
+        final ConnectionStats stats = metrics.snapshot();
+        assertEquals(2, stats.getWriteQueueDepth());
+        assertEquals(3, stats.getWriteQueueDepthHighWaterMark());
+    }
+
+    @Test
+    public void snapshotWhenClosedShouldStopElapsedTime() throws Exception {
+        final ConnectionMetrics metrics = new ConnectionMetrics();
+        metrics.recordClosed();
+        final long elapsedTimeMillis = metrics.snapshot().getElapsedTimeMillis();
+        Thread.sleep(20);
+        assertEquals(elapsedTimeMillis, metrics.snapshot().getElapsedTimeMillis());
+    }
+}
@@ -22,6 +22,7 @@ import android.bluetooth.BluetoothDevice;
 import com.coiney.android.trueblue.BuildConfig;
 import com.coiney.android.trueblue.ConnectionAttemptCallback;
 import com.coiney.android.trueblue.Connection;
+import com.coiney.android.trueblue.DisconnectResult;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -101,6 +102,23 @@ public class ConnectionProxyTests {
         assertFalse(mConnectionProxy.isConnected());
     }
 
+    @Test
+    public void abortWhenConnectedShouldCloseConnectionAndReturnTrue() {
+        mConnectionProxy.connect(mConnectTask, mExecutorService);
+        final Connection connection = mock(Connection.class);
+        when(connection.isOpen()).thenReturn(true);
+        mConnectionProxy.onConnectionSucceeded(mConnectTask, connection);
+        assertTrue(mConnectionProxy.abort());
+        verify(connection, times(1)).close();
+    }
+
+    @Test
+    public void abortWhenConnectingShouldReturnFalse() {
+        mConnectionProxy.connect(mConnectTask, mExecutorService);
+        assertFalse(mConnectionProxy.abort());
+        verify(mConnectTask, times(0)).cancelOrDisconnect();
+    }
+
     @Test
     public void successfulConnectionAttemptShouldInformCallback() {
         mConnectionProxy.connect(mConnectTask, mExecutorService);
@@ -171,4 +189,27 @@ public class ConnectionProxyTests {
         mConnectionProxy.onConnectionClosed(connection, true);
         verify(mListener, times(1)).onConnectionClosed(mConnectionProxy, true);
     }
+
+    @Test
+    public void disconnectWhenConnectedShouldReturnDisconnected() {
+        mConnectionProxy.connect(mConnectTask, mExecutorService);
+        final Connection connection = mock(Connection.class);
+        when(connection.isOpen()).thenReturn(true);
+        mConnectionProxy.onConnectionSucceeded(mConnectTask, connection);
+        assertEquals(DisconnectResult.DISCONNECTED, mConnectionProxy.disconnect());
+        verify(connection, times(1)).close();
+    }
+
+    @Test
+    public void disconnectWhenConnectingShouldReturnConnectionAttemptCancelled() {
+        mConnectionProxy.connect(mConnectTask, mExecutorService);
+        assertEquals(DisconnectResult.CONNECTION_ATTEMPT_CANCELLED,
+                mConnectionProxy.disconnect());
+        verify(mConnectTask, times(1)).cancelOrDisconnect();
+    }
+
+    @Test
+    public void disconnectWhenBeforeConnectionAttemptShouldReturnNotConnected() {
+        assertEquals(DisconnectResult.NOT_CONNECTED, mConnectionProxy.disconnect());
+    }
 }
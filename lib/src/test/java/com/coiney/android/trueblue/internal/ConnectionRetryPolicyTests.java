@@ -151,4 +151,18 @@ public class ConnectionRetryPolicyTests {
         policy.retry();
         assertThat("Retry delay is not 20000.", policy.getCurrentRetryDelay(), is(10000));
     }
+
+    @Test
+    public void multipleRetryWithRetryDelayAndBackoffMultiplierCopyAfterRetries() {
+        final ConnectionRetryPolicy policy = mBuilder.setRetryCount(2).setInitialRetryDelay(5000)
+                .setBackoffMultiplier(2).build();
+        policy.retry();
+        policy.retry();
+        final ConnectionRetryPolicy copy = policy.copy();
+        assertThat("Retry count is not 2.", copy.getRemainingRetryCount(), is(2));
+        assertThat("Retry delay is not 5000.", copy.getCurrentRetryDelay(), is(5000));
+        copy.retry();
+        copy.retry();
+        assertThat("Retry delay is not 10000.", copy.getCurrentRetryDelay(), is(10000));
+    }
 }
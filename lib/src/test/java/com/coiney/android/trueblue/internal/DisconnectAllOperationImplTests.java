@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+
+import com.coiney.android.trueblue.BuildConfig;
+import com.coiney.android.trueblue.DisconnectAllCallback;
+import com.coiney.android.trueblue.DisconnectResult;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class DisconnectAllOperationImplTests {
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock private DisconnectAllCallback mCallback;
+
+    private final BluetoothDevice mFirstDevice = mock(BluetoothDevice.class);
+    private final BluetoothDevice mSecondDevice = mock(BluetoothDevice.class);
+
+    @Test
+    public void constructorWhenThereAreNoDevicesShouldComplete() {
+        final DisconnectAllOperationImpl operation = new DisconnectAllOperationImpl(
+                Collections.<BluetoothDevice>emptySet(), mCallback);
+        assertTrue(operation.isComplete());
+        verify(mCallback, times(1)).onDisconnectAllCompleted(
+                Collections.<BluetoothDevice, DisconnectResult>emptyMap());
+    }
+
+    @Test
+    public void setResultWhenDevicesAreOutstandingShouldNotComplete() {
+        final DisconnectAllOperationImpl operation = createOperation();
+        operation.setResult(mFirstDevice, DisconnectResult.DISCONNECTED);
+        assertFalse(operation.isComplete());
+        assertEquals(1, operation.getResults().size());
+        verify(mCallback, never()).onDisconnectAllCompleted(
+                ArgumentMatchers.<BluetoothDevice, DisconnectResult>anyMap());
+    }
+
+    @Test
+    public void setResultWhenNoDevicesAreOutstandingShouldComplete() {
+        final DisconnectAllOperationImpl operation = createOperation();
+        operation.setResult(mFirstDevice, DisconnectResult.DISCONNECTED);
+        operation.setResult(mSecondDevice, DisconnectResult.CONNECTION_ATTEMPT_CANCELLED);
+        assertTrue(operation.isComplete());
+        verify(mCallback, times(1)).onDisconnectAllCompleted(operation.getResults());
+    }
+
+    @Test
+    public void onDeadlineExpiredShouldReportOutstandingDevicesAsTimedOut() {
+        final DisconnectAllOperationImpl operation = createOperation();
+        operation.setResult(mFirstDevice, DisconnectResult.DISCONNECTED);
+        operation.onDeadlineExpired();
+        final Map<BluetoothDevice, DisconnectResult> results = operation.getResults();
+        assertTrue(operation.isComplete());
+        assertEquals(DisconnectResult.DISCONNECTED, results.get(mFirstDevice));
+        assertEquals(DisconnectResult.TIMED_OUT, results.get(mSecondDevice));
+    }
+
+    @Test
+    public void setResultWhenCompleteShouldBeIgnored() {
+        final DisconnectAllOperationImpl operation = createOperation();
+        operation.onDeadlineExpired();
+        operation.setResult(mFirstDevice, DisconnectResult.DISCONNECTED);
+        assertEquals(DisconnectResult.TIMED_OUT, operation.getResults().get(mFirstDevice));
+        verify(mCallback, times(1)).onDisconnectAllCompleted(
+                ArgumentMatchers.<BluetoothDevice, DisconnectResult>anyMap());
+    }
+
+    @Test
+    public void setResultWhenDeviceIsNotCoveredShouldBeIgnored() {
+        final DisconnectAllOperationImpl operation = createOperation();
+        operation.setResult(mock(BluetoothDevice.class), DisconnectResult.DISCONNECTED);
+        assertTrue(operation.getResults().isEmpty());
+    }
+
+    private DisconnectAllOperationImpl createOperation() {
+        return new DisconnectAllOperationImpl(new HashSet<>(Arrays.asList(mFirstDevice,
+                mSecondDevice)), mCallback);
+    }
+}
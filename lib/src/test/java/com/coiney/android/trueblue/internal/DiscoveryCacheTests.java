@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+
+import com.coiney.android.trueblue.BuildConfig;
+import com.coiney.android.trueblue.DiscoveredDevice;
+import com.coiney.android.trueblue.DiscoveryCacheListener;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class DiscoveryCacheTests {
+
+    private static final long TIME_TO_LIVE_MILLIS = 1000;
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock private BluetoothDevice mBluetoothDevice;
+    @Mock private DiscoveryCacheListener mListener;
+
+    private DiscoveryCache mDiscoveryCache;
+
+    @Before
+    public void setUp() {
+        when(mBluetoothDevice.getAddress()).thenReturn("00:11:22:33:44:55");
+        mDiscoveryCache = new DiscoveryCache(TIME_TO_LIVE_MILLIS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorWhenTimeToLiveIsNotPositiveShouldThrowIllegalArgumentException() {
+        new DiscoveryCache(0);
+    }
+
+    @Test
+    public void recordSightingWhenDeviceIsNotCachedShouldReportAdded() {
+        mDiscoveryCache.recordSighting(mBluetoothDevice, -60, null, "Reader", 100, mListener);
+        final ArgumentCaptor<DiscoveredDevice> captor =
+                ArgumentCaptor.forClass(DiscoveredDevice.class);
+        verify(mListener, times(1)).onDiscoveredDeviceAdded(captor.capture());
+        assertEquals(-60, captor.getValue().getRssi());
+        assertEquals("Reader", captor.getValue().getName());
+        assertEquals(100, captor.getValue().getFirstSeenMillis());
+    }
+
+    @Test
+    public void recordSightingWhenDeviceIsCachedAndUnchangedShouldNotReportUpdated() {
+        mDiscoveryCache.recordSighting(mBluetoothDevice, -60, null, "Reader", 100, mListener);
+        mDiscoveryCache.recordSighting(mBluetoothDevice, -60, null, "Reader", 200, mListener);
+        verify(mListener, times(1)).onDiscoveredDeviceAdded(any(DiscoveredDevice.class));
+        verify(mListener, never()).onDiscoveredDeviceUpdated(any(DiscoveredDevice.class));
+        assertEquals(1, mDiscoveryCache.getSnapshot().size());
+        assertEquals(200, mDiscoveryCache.getSnapshot().get(0).getLastSeenMillis());
+    }
+
+    @Test
+    public void recordSightingWhenRssiChangesShouldReportUpdated() {
+        mDiscoveryCache.recordSighting(mBluetoothDevice, -60, null, "Reader", 100, mListener);
+        mDiscoveryCache.recordSighting(mBluetoothDevice, -70, null, null, 200, mListener);
+        final ArgumentCaptor<DiscoveredDevice> captor =
+                ArgumentCaptor.forClass(DiscoveredDevice.class);
+        verify(mListener, times(1)).onDiscoveredDeviceUpdated(captor.capture());
+        assertEquals(-70, captor.getValue().getRssi());
+        assertEquals("Reader", captor.getValue().getName());
+        assertEquals(100, captor.getValue().getFirstSeenMillis());
+    }
+
+    @Test
+    public void evictStaleWhenDeviceHasNotBeenSeenWithinTimeToLiveShouldReportRemoved() {
+        mDiscoveryCache.recordSighting(mBluetoothDevice, -60, null, null, 100, mListener);
+        mDiscoveryCache.evictStale(100 + TIME_TO_LIVE_MILLIS, mListener);
+        verify(mListener, times(1)).onDiscoveredDeviceRemoved(any(DiscoveredDevice.class));
+        assertTrue(mDiscoveryCache.getSnapshot().isEmpty());
+    }
+
+    @Test
+    public void evictStaleWhenDeviceHasBeenSeenWithinTimeToLiveShouldNotReportRemoved() {
+        mDiscoveryCache.recordSighting(mBluetoothDevice, -60, null, null, 100, mListener);
+        mDiscoveryCache.evictStale(99 + TIME_TO_LIVE_MILLIS, mListener);
+        verify(mListener, never()).onDiscoveredDeviceRemoved(any(DiscoveredDevice.class));
+        assertEquals(1, mDiscoveryCache.getSnapshot().size());
+    }
+
+    @Test
+    public void getNextEvictionMillisWhenEmptyShouldReturnMinusOne() {
+        assertEquals(-1, mDiscoveryCache.getNextEvictionMillis());
+    }
+
+    @Test
+    public void getNextEvictionMillisWhenNotEmptyShouldReturnLastSeenPlusTimeToLive() {
+        mDiscoveryCache.recordSighting(mBluetoothDevice, -60, null, null, 100, mListener);
+        assertEquals(100 + TIME_TO_LIVE_MILLIS, mDiscoveryCache.getNextEvictionMillis());
+    }
+}
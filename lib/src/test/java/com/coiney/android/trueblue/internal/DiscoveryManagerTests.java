@@ -23,31 +23,49 @@ import android.bluetooth.BluetoothDevice;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.ParcelUuid;
+import android.os.Parcelable;
 import android.support.test.filters.SdkSuppress;
 
 import com.coiney.android.trueblue.BuildConfig;
+import com.coiney.android.trueblue.DiscoveredDevice;
+import com.coiney.android.trueblue.DiscoveryCacheListener;
 import com.coiney.android.trueblue.DiscoveryError;
 import com.coiney.android.trueblue.DiscoveryListener;
+import com.coiney.android.trueblue.DiscoveryRequest;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 import org.mockito.quality.Strictness;
+import org.mockito.stubbing.Answer;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.Shadows;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowLooper;
 
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -69,7 +87,8 @@ public class DiscoveryManagerTests {
     public void setUp() {
         final Logger logger = mock(Logger.class);
         mContext = Shadows.shadowOf(RuntimeEnvironment.application).getApplicationContext();
-        mDiscoveryManager = new DiscoveryManager(mAdapterManager, mContext, logger);
+        mDiscoveryManager = new DiscoveryManager(mAdapterManager, mContext,
+                new Handler(Looper.getMainLooper()), logger);
     }
 
     @Test
@@ -227,6 +246,35 @@ public class DiscoveryManagerTests {
         verify(listener, times(1)).onDeviceDiscovered(bluetoothDevice);
     }
 
+    @Test
+    public void deviceFoundBroadcastWhenReceivedOnBackgroundThreadShouldNotifyListenerOnMainThread() {
+        final HandlerThread receiverThread = new HandlerThread("receiver");
+        receiverThread.start();
+        final DiscoveryManager discoveryManager = new DiscoveryManager(mAdapterManager, mContext,
+                new Handler(receiverThread.getLooper()), mock(Logger.class));
+        discoveryManager.start();
+        configureForSuccessfulDiscoveryStart();
+        final AtomicReference<Thread> listenerThread = new AtomicReference<>();
+        final DiscoveryListener listener = mock(DiscoveryListener.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                listenerThread.set(Thread.currentThread());
+                return null;
+            }
+        }).when(listener).onDeviceDiscovered(any(BluetoothDevice.class));
+        discoveryManager.registerListener(listener);
+        discoveryManager.startDiscovery();
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_FOUND)
+                .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice));
+        Shadows.shadowOf(receiverThread.getLooper()).runToEndOfTasks();
+        ShadowLooper.getShadowMainLooper().runToEndOfTasks();
+        verify(listener, times(1)).onDeviceDiscovered(bluetoothDevice);
+        assertEquals(Looper.getMainLooper().getThread(), listenerThread.get());
+        receiverThread.quit();
+    }
+
     @Test
     public void deviceFoundBroadcastWhenManagerStartedAndDiscoveryStartedViaSystemAndListenerRegisteredShouldNotNotifyListener() {
         mDiscoveryManager.start();
@@ -315,6 +363,162 @@ public class DiscoveryManagerTests {
         verify(listener, times(0)).onDiscoveryFinished();
     }
 
+    @Test
+    public void deviceFoundBroadcastsForTheSameDeviceShouldOnlyReportCacheAdditionOnce() {
+        mDiscoveryManager.start();
+        configureForSuccessfulDiscoveryStart();
+        final DiscoveryCacheListener listener = mock(DiscoveryCacheListener.class);
+        mDiscoveryManager.registerCacheListener(listener);
+        mDiscoveryManager.startDiscovery();
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        when(bluetoothDevice.getAddress()).thenReturn("00:11:22:33:44:55");
+        for (int i = 0; i < 2; i++) {
+            mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_FOUND)
+                    .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice)
+                    .putExtra(BluetoothDevice.EXTRA_RSSI, (short) -60));
+            // Only run due tasks, so that the cache eviction is not run.
+            ShadowLooper.idleMainLooper();
+        }
+        verify(listener, times(1)).onDiscoveredDeviceAdded(any(DiscoveredDevice.class));
+        assertEquals(1, mDiscoveryManager.getDiscoveredDevices().size());
+        assertEquals(-60, mDiscoveryManager.getDiscoveredDevices().get(0).getRssi());
+    }
+
+    @Test
+    public void cachedDeviceWhenNotSeenWithinTimeToLiveShouldBeReportedRemoved() {
+        mDiscoveryManager.start();
+        configureForSuccessfulDiscoveryStart();
+        final DiscoveryCacheListener listener = mock(DiscoveryCacheListener.class);
+        mDiscoveryManager.registerCacheListener(listener);
+        mDiscoveryManager.startDiscovery();
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        when(bluetoothDevice.getAddress()).thenReturn("00:11:22:33:44:55");
+        mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_FOUND)
+                .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice));
+        ShadowLooper.getShadowMainLooper().runToEndOfTasks();
+        verify(listener, times(1)).onDiscoveredDeviceRemoved(any(DiscoveredDevice.class));
+        assertTrue(mDiscoveryManager.getDiscoveredDevices().isEmpty());
+    }
+
+    @Test
+    public void deviceFoundBroadcastWhenDeviceDoesNotMatchRequestShouldNotNotifyListener() {
+        mDiscoveryManager.start();
+        configureForSuccessfulDiscoveryStart();
+        final DiscoveryListener listener = mock(DiscoveryListener.class);
+        mDiscoveryManager.registerListener(listener);
+        mDiscoveryManager.startDiscovery(new DiscoveryRequest.Builder()
+                .setNamePrefix("Reader")
+                .build());
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        when(bluetoothDevice.getAddress()).thenReturn("00:11:22:33:44:55");
+        mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_FOUND)
+                .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice)
+                .putExtra(BluetoothDevice.EXTRA_NAME, "Printer"));
+        ShadowLooper.idleMainLooper();
+        verify(listener, never()).onDeviceDiscovered(bluetoothDevice);
+    }
+
+    @Test
+    public void deviceFoundBroadcastWhenMaximumMatchCountReachedShouldStopDiscovery() {
+        mDiscoveryManager.start();
+        configureForSuccessfulDiscoveryStart();
+        final DiscoveryListener listener = mock(DiscoveryListener.class);
+        mDiscoveryManager.registerListener(listener);
+        mDiscoveryManager.startDiscovery(new DiscoveryRequest.Builder()
+                .setNamePrefix("Reader")
+                .setMaximumMatchCount(1)
+                .build());
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        when(bluetoothDevice.getAddress()).thenReturn("00:11:22:33:44:55");
+        mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_FOUND)
+                .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice)
+                .putExtra(BluetoothDevice.EXTRA_NAME, "Reader-1"));
+        ShadowLooper.idleMainLooper();
+        verify(listener, times(1)).onDeviceDiscovered(bluetoothDevice);
+        verify(mAdapterManager, times(1)).stopDiscovery();
+    }
+
+    @Test
+    public void deviceWhenRequiredServiceIsAdvertisedShouldBeReportedAfterServiceQuery() {
+        mDiscoveryManager.start();
+        configureForSuccessfulDiscoveryStart();
+        final DiscoveryListener listener = mock(DiscoveryListener.class);
+        mDiscoveryManager.registerListener(listener);
+        final UUID serviceUuid = UUID.randomUUID();
+        mDiscoveryManager.startDiscovery(new DiscoveryRequest.Builder()
+                .setRequiredServiceUuids(Collections.singleton(serviceUuid))
+                .build());
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        when(bluetoothDevice.getAddress()).thenReturn("00:11:22:33:44:55");
+        when(bluetoothDevice.fetchUuidsWithSdp()).thenReturn(true);
+        mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_FOUND)
+                .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice));
+        mContext.sendBroadcast(new Intent(BluetoothAdapter.ACTION_DISCOVERY_FINISHED));
+        ShadowLooper.idleMainLooper();
+        verify(listener, never()).onDeviceDiscovered(bluetoothDevice);
+        verify(listener, never()).onDiscoveryFinished();
+        verify(bluetoothDevice, times(1)).fetchUuidsWithSdp();
+        mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_UUID)
+                .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice)
+                .putExtra(BluetoothDevice.EXTRA_UUID,
+                        new Parcelable[] { new ParcelUuid(serviceUuid) }));
+        ShadowLooper.idleMainLooper();
+        verify(listener, times(1)).onDeviceDiscovered(bluetoothDevice);
+        verify(listener, times(1)).onDiscoveryFinished();
+        assertEquals(Collections.singleton(serviceUuid),
+                mDiscoveryManager.getDiscoveredDevices().get(0).getServiceUuids());
+    }
+
+    @Test
+    public void discoveryFinishedBroadcastWhenStoppedDuringInquiryWithRequiredServicesShouldNotQueryServices() {
+        mDiscoveryManager.start();
+        configureForSuccessfulDiscoveryStart();
+        final DiscoveryListener listener = mock(DiscoveryListener.class);
+        mDiscoveryManager.registerListener(listener);
+        mDiscoveryManager.startDiscovery(new DiscoveryRequest.Builder()
+                .setRequiredServiceUuids(Collections.singleton(UUID.randomUUID()))
+                .build());
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        when(bluetoothDevice.getAddress()).thenReturn("00:11:22:33:44:55");
+        mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_FOUND)
+                .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice));
+        ShadowLooper.idleMainLooper();
+        when(mAdapterManager.stopDiscovery()).thenReturn(true);
+        assertTrue(mDiscoveryManager.stopDiscovery());
+        mContext.sendBroadcast(new Intent(BluetoothAdapter.ACTION_DISCOVERY_FINISHED));
+        ShadowLooper.idleMainLooper();
+        verify(bluetoothDevice, never()).fetchUuidsWithSdp();
+        verify(listener, never()).onDeviceDiscovered(bluetoothDevice);
+        verify(listener, times(1)).onDiscoveryFinished();
+        assertFalse(mDiscoveryManager.isDiscoveryRunning());
+    }
+
+    @Test
+    public void discoveryFinishedBroadcastWhenStoppedViaAdapterManagerWithRequiredServicesShouldNotQueryServices() {
+        mDiscoveryManager.start();
+        final ArgumentCaptor<AdapterManager.DiscoveryStopListener> stopListenerCaptor =
+                ArgumentCaptor.forClass(AdapterManager.DiscoveryStopListener.class);
+        verify(mAdapterManager).registerDiscoveryStopListener(stopListenerCaptor.capture());
+        configureForSuccessfulDiscoveryStart();
+        final DiscoveryListener listener = mock(DiscoveryListener.class);
+        mDiscoveryManager.registerListener(listener);
+        mDiscoveryManager.startDiscovery(new DiscoveryRequest.Builder()
+                .setRequiredServiceUuids(Collections.singleton(UUID.randomUUID()))
+                .build());
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        when(bluetoothDevice.getAddress()).thenReturn("00:11:22:33:44:55");
+        mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_FOUND)
+                .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice));
+        ShadowLooper.idleMainLooper();
+        // As when a connection attempt stops the scan before connecting.
+        stopListenerCaptor.getValue().onDiscoveryStopRequested();
+        mContext.sendBroadcast(new Intent(BluetoothAdapter.ACTION_DISCOVERY_FINISHED));
+        ShadowLooper.idleMainLooper();
+        verify(bluetoothDevice, never()).fetchUuidsWithSdp();
+        verify(listener, times(1)).onDiscoveryFinished();
+        assertFalse(mDiscoveryManager.isDiscoveryRunning());
+    }
+
     private void configureForSuccessfulDiscoveryStart() {
         Shadows.shadowOf(RuntimeEnvironment.application).grantPermissions(
                 Manifest.permission.ACCESS_COARSE_LOCATION);
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.Manifest;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.coiney.android.trueblue.BuildConfig;
+import com.coiney.android.trueblue.Connection;
+import com.coiney.android.trueblue.ConnectionAttemptCallback;
+import com.coiney.android.trueblue.ConnectionStats;
+import com.coiney.android.trueblue.DiscoveredDevice;
+import com.coiney.android.trueblue.DiscoverySchedule;
+import com.coiney.android.trueblue.DiscoverySchedulerListener;
+import com.coiney.android.trueblue.ScanBudgetUsage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class DiscoverySchedulerTests {
+
+    private static final long INTERVAL_MILLIS = 10000;
+    private static final long SCAN_WINDOW_MILLIS = 2000;
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock private AdapterManager mAdapterManager;
+    @Mock private DiscoverySchedulerListener mListener;
+
+    private ConnectionManager mConnectionManager;
+    private Context mContext;
+    private DiscoveryScheduler mDiscoveryScheduler;
+    private DiscoverySchedule mSchedule;
+
+    @Before
+    public void setUp() {
+        final Logger logger = mock(Logger.class);
+        mContext = Shadows.shadowOf(RuntimeEnvironment.application).getApplicationContext();
+        Shadows.shadowOf(RuntimeEnvironment.application).grantPermissions(
+                Manifest.permission.ACCESS_COARSE_LOCATION);
+        when(mAdapterManager.isAdapterEnabled()).thenReturn(true);
+        when(mAdapterManager.startDiscovery()).thenReturn(true);
+        when(mAdapterManager.stopDiscovery()).thenReturn(true);
+        final DiscoveryManager discoveryManager = new DiscoveryManager(mAdapterManager, mContext,
+                new Handler(Looper.getMainLooper()), logger);
+        discoveryManager.start();
+        // Connect tasks are never run, so connection attempts stay in progress.
+        mConnectionManager = new ConnectionManager(mAdapterManager, mock(PairingMonitor.class),
+                mock(AclMonitor.class), mock(ExecutorService.class), logger);
+        mDiscoveryScheduler = new DiscoveryScheduler(discoveryManager, mConnectionManager,
+                logger);
+        mDiscoveryScheduler.registerListener(mListener);
+        mSchedule = new DiscoverySchedule.Builder()
+                .setAbsenceScanCount(2)
+                .setIntervalMillis(INTERVAL_MILLIS)
+                .setScanWindowMillis(SCAN_WINDOW_MILLIS)
+                .build();
+    }
+
+    @Test
+    public void startWhenNoConnectionActivityShouldStartDiscoveryScan() {
+        mDiscoveryScheduler.start(mSchedule);
+        ShadowLooper.idleMainLooper();
+        verify(mAdapterManager, times(1)).startDiscovery();
+    }
+
+    @Test
+    public void startWhenConnectionAttemptInProgressShouldSkipDiscoveryScan() {
+        mConnectionManager.connect(mock(BluetoothDevice.class),
+                mock(ConnectionConfiguration.class), mock(ConnectionAttemptCallback.class));
+        mDiscoveryScheduler.start(mSchedule);
+        ShadowLooper.idleMainLooper();
+        verify(mAdapterManager, never()).startDiscovery();
+        final ScanBudgetUsage usage = mDiscoveryScheduler.getUsage();
+        assertEquals(0, usage.getScanCount());
+        assertEquals(1, usage.getSkippedScanCount());
+        verify(mListener, times(1)).onScanBudgetUsageChanged(any(ScanBudgetUsage.class));
+    }
+
+    @Test
+    public void scanWindowExpiryShouldStopDiscoveryScan() {
+        mDiscoveryScheduler.start(mSchedule);
+        ShadowLooper.idleMainLooper();
+        ShadowLooper.idleMainLooper(SCAN_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        verify(mAdapterManager, times(1)).stopDiscovery();
+    }
+
+    @Test
+    public void scanFinishedShouldRecordScanAndScheduleNextScanAfterInterval() {
+        mDiscoveryScheduler.start(mSchedule);
+        ShadowLooper.idleMainLooper();
+        finishScan();
+        assertEquals(1, mDiscoveryScheduler.getUsage().getScanCount());
+        verify(mAdapterManager, times(1)).startDiscovery();
+        ShadowLooper.idleMainLooper(INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        verify(mAdapterManager, times(2)).startDiscovery();
+    }
+
+    @Test
+    public void deviceFoundByScheduledScanShouldBeReportedPresentOnce() {
+        final BluetoothDevice device = createDevice("00:11:22:33:44:55");
+        mDiscoveryScheduler.start(mSchedule);
+        ShadowLooper.idleMainLooper();
+        findDevice(device);
+        finishScan();
+        ShadowLooper.idleMainLooper(INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        findDevice(device);
+        finishScan();
+        final ArgumentCaptor<DiscoveredDevice> captor =
+                ArgumentCaptor.forClass(DiscoveredDevice.class);
+        verify(mListener, times(1)).onDevicePresent(captor.capture());
+        assertEquals(device, captor.getValue().getDevice());
+        verify(mListener, never()).onDeviceAbsent(any(DiscoveredDevice.class));
+    }
+
+    @Test
+    public void deviceMissedByAbsenceScanCountConsecutiveScansShouldBeReportedAbsent() {
+        final BluetoothDevice device = createDevice("00:11:22:33:44:55");
+        mDiscoveryScheduler.start(mSchedule);
+        ShadowLooper.idleMainLooper();
+        findDevice(device);
+        finishScan();
+        ShadowLooper.idleMainLooper(INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        finishScan();
+        verify(mListener, never()).onDeviceAbsent(any(DiscoveredDevice.class));
+        ShadowLooper.idleMainLooper(INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        finishScan();
+        verify(mListener, times(1)).onDeviceAbsent(any(DiscoveredDevice.class));
+    }
+
+    @Test
+    public void stopWhenScheduledScanRunningShouldStopDiscoveryScanAndFutureScans() {
+        mDiscoveryScheduler.start(mSchedule);
+        ShadowLooper.idleMainLooper();
+        mDiscoveryScheduler.stop();
+        ShadowLooper.idleMainLooper();
+        verify(mAdapterManager, times(1)).stopDiscovery();
+        finishScan();
+        ShadowLooper.idleMainLooper(INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        verify(mAdapterManager, times(1)).startDiscovery();
+    }
+
+    @Test
+    public void scanDueWhenOneConnectionClosedWhileAnotherIsActiveShouldSkipDiscoveryScan() {
+        final Connection closingConnection = registerConnection(
+                createDevice("00:11:22:33:44:55"), 1000000);
+        final Connection activeConnection = registerConnection(
+                createDevice("00:11:22:33:44:66"), 0);
+        mDiscoveryScheduler.start(new DiscoverySchedule.Builder()
+                .setIntervalMillis(INTERVAL_MILLIS)
+                .setScanWindowMillis(SCAN_WINDOW_MILLIS)
+                .setThroughputThresholdBytesPerSecond(1024)
+                .build());
+        ShadowLooper.idleMainLooper();
+        finishScan();
+        verify(mAdapterManager, times(1)).startDiscovery();
+        // The closed connection takes its bytes out of the total, while the
+        // remaining one transfers well over the threshold.
+        final ArgumentCaptor<Connection.OnCloseListener> captor =
+                ArgumentCaptor.forClass(Connection.OnCloseListener.class);
+        verify(closingConnection).registerOnCloseListener(captor.capture());
+        captor.getValue().onConnectionClosed(closingConnection, false);
+        when(activeConnection.getStats()).thenReturn(createStats(INTERVAL_MILLIS * 10));
+        ShadowLooper.idleMainLooper(INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        verify(mAdapterManager, times(1)).startDiscovery();
+        assertEquals(1, mDiscoveryScheduler.getUsage().getSkippedScanCount());
+    }
+
+    private Connection registerConnection(BluetoothDevice device, long bytesRead) {
+        final Connection connection = mock(Connection.class);
+        when(connection.isOpen()).thenReturn(true);
+        when(connection.getStats()).thenReturn(createStats(bytesRead));
+        mConnectionManager.registerInboundConnection(device, connection);
+        return connection;
+    }
+
+    private static ConnectionStats createStats(long bytesRead) {
+        return new ConnectionStats.Builder()
+                .setBytesRead(bytesRead)
+                .build();
+    }
+
+    private BluetoothDevice createDevice(String address) {
+        final BluetoothDevice device = mock(BluetoothDevice.class);
+        when(device.getAddress()).thenReturn(address);
+        return device;
+    }
+
+    private void findDevice(BluetoothDevice device) {
+        mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_FOUND)
+                .putExtra(BluetoothDevice.EXTRA_DEVICE, device));
+        ShadowLooper.idleMainLooper();
+    }
+
+    private void finishScan() {
+        mContext.sendBroadcast(new Intent(BluetoothAdapter.ACTION_DISCOVERY_FINISHED));
+        ShadowLooper.idleMainLooper();
+    }
+}
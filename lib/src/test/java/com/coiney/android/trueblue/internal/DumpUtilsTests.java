@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothAdapter;
+
+import com.coiney.android.trueblue.ConnectionStats;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DumpUtilsTests {
+
+    @Test
+    public void printLineShouldWriteRecordTypeAndKeyValuePairs() {
+        assertEquals("  record a=1 b=true", printLine("  ", "record", "a", 1, "b", true));
+    }
+
+    @Test
+    public void printLineShouldReplaceSpacesInValues() {
+        assertEquals("record name=two_words", printLine("", "record", "name", "two words"));
+    }
+
+    @Test
+    public void printLineShouldReplaceTabsInValues() {
+        assertEquals("record name=two_words", printLine("", "record", "name", "two\twords"));
+    }
+
+    @Test
+    public void printLineShouldReplaceNewlinesInValues() {
+        final StringWriter stringWriter = new StringWriter();
+        DumpUtils.printLine(new PrintWriter(stringWriter, true), "", "record", "name",
+                "two\nlines\r\n");
+        assertEquals("record name=two_lines__" + System.getProperty("line.separator"),
+                stringWriter.toString());
+    }
+
+    @Test
+    public void printLineShouldReplaceEqualsSignsInValues() {
+        assertEquals("record name=a_b next=1", printLine("", "record", "name", "a=b", "next", 1));
+    }
+
+    @Test
+    public void printLineShouldIgnoreTrailingKeyWithoutValue() {
+        assertEquals("record a=1", printLine("", "record", "a", 1, "b"));
+    }
+
+    @Test
+    public void describeShouldIncludeConnectionStatistics() {
+        final ConnectionStats stats = new ConnectionStats.Builder()
+                .setBytesRead(10)
+                .setWriteQueueDepth(3)
+                .build();
+        final String line = printLine("", "stats", DumpUtils.describe(stats));
+        assertTrue(line.contains(" bytesRead=10 "));
+        assertTrue(line.contains(" writeQueueDepth=3 "));
+    }
+
+    @Test
+    public void getAdapterStateNameShouldNameAllStates() {
+        assertEquals("OFF", DumpUtils.getAdapterStateName(BluetoothAdapter.STATE_OFF));
+        assertEquals("TURNING_ON", DumpUtils.getAdapterStateName(BluetoothAdapter.STATE_TURNING_ON));
+        assertEquals("ON", DumpUtils.getAdapterStateName(BluetoothAdapter.STATE_ON));
+        assertEquals("TURNING_OFF",
+                DumpUtils.getAdapterStateName(BluetoothAdapter.STATE_TURNING_OFF));
+        assertEquals("UNKNOWN(-1)", DumpUtils.getAdapterStateName(-1));
+    }
+
+    private static String printLine(String prefix, String recordType, Object... keyValuePairs) {
+        final StringWriter stringWriter = new StringWriter();
+        DumpUtils.printLine(new PrintWriter(stringWriter, true), prefix, recordType,
+                keyValuePairs);
+        return stringWriter.toString().replace(System.getProperty("line.separator"), "");
+    }
+}
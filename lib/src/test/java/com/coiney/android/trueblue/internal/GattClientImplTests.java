@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+
+import com.coiney.android.trueblue.BuildConfig;
+import com.coiney.android.trueblue.GattClient;
+import com.coiney.android.trueblue.GattOperationType;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class GattClientImplTests {
+
+    private static final UUID CHARACTERISTIC_UUID =
+            UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID SERVICE_UUID =
+            UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock private GattClient.Callback mCallback;
+    @Mock private BluetoothDevice mDevice;
+    @Mock private GattClientImpl.Listener mListener;
+
+    private GattClientImpl mClient;
+
+    @Before
+    public void setUp() {
+        when(mDevice.getAddress()).thenReturn("00:11:22:33:44:55");
+        mClient = new GattClientImpl(mDevice, mCallback, mListener, mock(Logger.class));
+    }
+
+    @Test
+    public void connectWhenConnectionCannotBeStartedShouldReturnFalse() {
+        assertFalse(mClient.connect(mock(Context.class)));
+    }
+
+    @Test
+    public void closeShouldNotifyCallbackOnce() {
+        mClient.close();
+        mClient.close();
+        assertFalse(mClient.isOpen());
+        verify(mListener, times(1)).onGattClientClosed(mClient);
+        verify(mCallback, times(1)).onConnectionClosed(mClient, false);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void readCharacteristicWhenClosedShouldThrowIllegalStateException() {
+        mClient.close();
+        mClient.readCharacteristic(SERVICE_UUID, CHARACTERISTIC_UUID);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requestMtuWhenBelowDefaultShouldThrowIllegalArgumentException() {
+        mClient.requestMtu(GattClient.DEFAULT_MTU - 1);
+    }
+
+    @Test
+    public void onConnectionStateChangeWhenDisconnectedShouldCloseClientByError() {
+        mClient.getGattCallback().onConnectionStateChange(null, BluetoothGatt.GATT_SUCCESS,
+                BluetoothProfile.STATE_DISCONNECTED);
+        assertFalse(mClient.isOpen());
+        verify(mListener).onGattClientClosed(mClient);
+        verify(mCallback).onConnectionClosed(mClient, true);
+    }
+
+    @Test
+    public void onServicesDiscoveredWhenFailedShouldCloseClientByError() {
+        mClient.getGattCallback().onServicesDiscovered(null, BluetoothGatt.GATT_FAILURE);
+        assertFalse(mClient.isReady());
+        verify(mCallback, never()).onReady(mClient);
+        verify(mCallback).onConnectionClosed(mClient, true);
+    }
+
+    @Test
+    public void onServicesDiscoveredShouldReportReadyAndStartQueuedOperations() {
+        mClient.readCharacteristic(SERVICE_UUID, CHARACTERISTIC_UUID);
+        verify(mCallback, never()).onOperationFailed(mClient,
+                GattOperationType.READ_CHARACTERISTIC, CHARACTERISTIC_UUID,
+                BluetoothGatt.GATT_FAILURE);
+        mClient.getGattCallback().onServicesDiscovered(null, BluetoothGatt.GATT_SUCCESS);
+        assertTrue(mClient.isReady());
+        verify(mCallback).onReady(mClient);
+        // The service cannot be found as there is no connection.
+        verify(mCallback).onOperationFailed(mClient, GattOperationType.READ_CHARACTERISTIC,
+                CHARACTERISTIC_UUID, BluetoothGatt.GATT_FAILURE);
+        assertEquals(1, mClient.getStats().getReadErrorCount());
+        assertEquals(1, mClient.getOperationLatencyHistogram(
+                GattOperationType.READ_CHARACTERISTIC).getTotalCount());
+    }
+
+    @Test
+    public void writeCharacteristicWithoutResponseWhenNotReadyShouldBeQueued() {
+        mClient.writeCharacteristicWithoutResponse(SERVICE_UUID, CHARACTERISTIC_UUID,
+                new byte[100]);
+        assertEquals(1, mClient.getStats().getWriteQueueDepth());
+        mClient.close();
+        assertEquals(0, mClient.getStats().getWriteQueueDepth());
+    }
+
+    @Test
+    public void onCharacteristicChangedShouldReportNotification() {
+        final byte[] data = {1, 2, 3, 4};
+        final BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(
+                CHARACTERISTIC_UUID, BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0);
+        characteristic.setValue(data);
+        mClient.getGattCallback().onCharacteristicChanged(null, characteristic);
+        verify(mCallback).onNotificationReceived(mClient, CHARACTERISTIC_UUID, data);
+        assertEquals(4, mClient.getStats().getBytesRead());
+        assertEquals(1, mClient.getStats().getMessagesRead());
+    }
+
+    @Test
+    public void requestConnectionPriorityWhenNotReadyShouldReturnFalse() {
+        assertFalse(mClient.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH));
+    }
+
+    @Test
+    public void dumpShouldDescribeClient() {
+        final StringWriter stringWriter = new StringWriter();
+        mClient.dump(new PrintWriter(stringWriter, true), "");
+        assertTrue(stringWriter.toString().startsWith("gattClient device=00:11:22:33:44:55 " +
+                "open=true ready=false mtu=23 queueDepth=0"));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCallback;
+import android.content.Context;
+
+import com.coiney.android.trueblue.BuildConfig;
+import com.coiney.android.trueblue.GattClient;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class GattManagerTests {
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock private AdapterManager mAdapterManager;
+    @Mock private Context mContext;
+
+    private GattManager mGattManager;
+
+    @Before
+    public void setUp() {
+        mGattManager = new GattManager(mAdapterManager, mContext, mock(Logger.class));
+    }
+
+    @Test
+    public void startShouldRegisterAdapterStateListener() {
+        mGattManager.start();
+        verify(mAdapterManager).registerAdapterStateListener(
+                any(BluetoothStatusMonitor.AdapterStateListener.class));
+    }
+
+    @Test
+    public void connectWhenConnectionCannotBeStartedShouldReturnNullAndForgetClient() {
+        final BluetoothDevice device = mock(BluetoothDevice.class);
+        assertNull(mGattManager.connect(device, mock(GattClient.Callback.class)));
+        assertNull(mGattManager.connect(device, mock(GattClient.Callback.class)));
+        verify(device, times(2)).connectGatt(eq(mContext), anyBoolean(),
+                any(BluetoothGattCallback.class));
+    }
+
+    @Test
+    public void dumpWhenNoClientsAreOpenShouldReportNoClients() {
+        final StringWriter stringWriter = new StringWriter();
+        mGattManager.dump(new PrintWriter(stringWriter, true), "");
+        assertEquals("gattClients openCount=0", stringWriter.toString().trim());
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothGatt;
+import android.support.annotation.NonNull;
+
+import com.coiney.android.trueblue.BuildConfig;
+import com.coiney.android.trueblue.GattOperationType;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class GattOperationQueueTests {
+
+    private static final UUID CHARACTERISTIC_UUID =
+            UUID.fromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e");
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock private GattOperationQueue.Listener mListener;
+
+    private GattOperationQueue mQueue;
+
+    @Before
+    public void setUp() {
+        mQueue = new GattOperationQueue(mListener);
+    }
+
+    @Test
+    public void enqueueWhenNotStartedShouldNotStartOperation() {
+        final FakeOperation operation = new FakeOperation(GattOperationType.READ_CHARACTERISTIC);
+        assertTrue(mQueue.enqueue(operation));
+        assertEquals(0, operation.mStartCount);
+        assertEquals(1, mQueue.getDepth());
+    }
+
+    @Test
+    public void startShouldOnlyStartFirstQueuedOperation() {
+        final FakeOperation first = new FakeOperation(GattOperationType.READ_CHARACTERISTIC);
+        final FakeOperation second = new FakeOperation(GattOperationType.READ_CHARACTERISTIC);
+        mQueue.enqueue(first);
+        mQueue.enqueue(second);
+        mQueue.start();
+        assertEquals(1, first.mStartCount);
+        assertEquals(0, second.mStartCount);
+    }
+
+    @Test
+    public void onRequestCompletedShouldFinishOperationAndStartNext() {
+        final FakeOperation first = new FakeOperation(GattOperationType.READ_CHARACTERISTIC);
+        final FakeOperation second = new FakeOperation(GattOperationType.REQUEST_MTU);
+        mQueue.enqueue(first);
+        mQueue.enqueue(second);
+        mQueue.start();
+        final byte[] result = {1, 2, 3};
+        mQueue.onRequestCompleted(GattOperationType.READ_CHARACTERISTIC,
+                BluetoothGatt.GATT_SUCCESS, result);
+        verify(mListener).onOperationFinished(first, BluetoothGatt.GATT_SUCCESS);
+        assertArrayEquals(result, first.getResult());
+        assertEquals(1, second.mStartCount);
+        assertEquals(1, mQueue.getLatencyHistogram(GattOperationType.READ_CHARACTERISTIC)
+                .getTotalCount());
+    }
+
+    @Test
+    public void onRequestCompletedWhenTypeDoesNotMatchShouldBeIgnored() {
+        final FakeOperation operation = new FakeOperation(GattOperationType.READ_CHARACTERISTIC);
+        mQueue.enqueue(operation);
+        mQueue.start();
+        mQueue.onRequestCompleted(GattOperationType.REQUEST_MTU, BluetoothGatt.GATT_SUCCESS,
+                null);
+        verify(mListener, never()).onOperationFinished(any(GattOperation.class), anyInt());
+        assertEquals(1, mQueue.getDepth());
+    }
+
+    @Test
+    public void startWhenStackRefusesOperationShouldFinishWithFailureAndStartNext() {
+        final FakeOperation first = new FakeOperation(GattOperationType.READ_CHARACTERISTIC);
+        first.mStartResult = false;
+        final FakeOperation second = new FakeOperation(GattOperationType.READ_CHARACTERISTIC);
+        mQueue.enqueue(first);
+        mQueue.enqueue(second);
+        mQueue.start();
+        verify(mListener).onOperationFinished(first, BluetoothGatt.GATT_FAILURE);
+        assertEquals(1, second.mStartCount);
+    }
+
+    @Test
+    public void chunkedWriteShouldWriteNextChunkOnEachCompletion() {
+        final FakeChunkedWrite operation = new FakeChunkedWrite(new byte[] {1, 2, 3, 4, 5}, 2);
+        mQueue.enqueue(operation);
+        mQueue.start();
+        completeWrite();
+        completeWrite();
+        verify(mListener, never()).onOperationFinished(any(GattOperation.class), anyInt());
+        completeWrite();
+        verify(mListener).onOperationFinished(operation, BluetoothGatt.GATT_SUCCESS);
+        assertEquals(3, operation.mChunks.size());
+        assertArrayEquals(new byte[] {1, 2}, operation.mChunks.get(0));
+        assertArrayEquals(new byte[] {3, 4}, operation.mChunks.get(1));
+        assertArrayEquals(new byte[] {5}, operation.mChunks.get(2));
+    }
+
+    @Test
+    public void chunkedWriteWhenDataFitsInOneChunkShouldWriteDataAsIs() {
+        final byte[] data = {1, 2, 3};
+        final FakeChunkedWrite operation = new FakeChunkedWrite(data, 20);
+        mQueue.enqueue(operation);
+        mQueue.start();
+        completeWrite();
+        verify(mListener).onOperationFinished(operation, BluetoothGatt.GATT_SUCCESS);
+        assertEquals(1, operation.mChunks.size());
+        assertTrue(data == operation.mChunks.get(0));
+    }
+
+    @Test
+    public void chunkedWriteWhenStackRefusesNextChunkShouldFinishWithFailure() {
+        final FakeChunkedWrite operation = new FakeChunkedWrite(new byte[] {1, 2, 3, 4}, 2);
+        mQueue.enqueue(operation);
+        mQueue.start();
+        operation.mWriteResult = false;
+        completeWrite();
+        verify(mListener).onOperationFinished(operation, BluetoothGatt.GATT_FAILURE);
+    }
+
+    @Test
+    public void chunkedWriteWhenRequestFailsShouldFinishWithoutWritingNextChunk() {
+        final FakeChunkedWrite operation = new FakeChunkedWrite(new byte[] {1, 2, 3, 4}, 2);
+        mQueue.enqueue(operation);
+        mQueue.start();
+        mQueue.onRequestCompleted(GattOperationType.WRITE_CHARACTERISTIC_WITHOUT_RESPONSE,
+                BluetoothGatt.GATT_WRITE_NOT_PERMITTED, null);
+        verify(mListener).onOperationFinished(operation, BluetoothGatt.GATT_WRITE_NOT_PERMITTED);
+        assertEquals(1, operation.mChunks.size());
+    }
+
+    @Test
+    public void closeShouldReturnUnfinishedOperationsAndRejectFurtherOperations() {
+        final FakeOperation first = new FakeOperation(GattOperationType.READ_CHARACTERISTIC);
+        final FakeOperation second = new FakeOperation(GattOperationType.READ_CHARACTERISTIC);
+        mQueue.enqueue(first);
+        mQueue.enqueue(second);
+        mQueue.start();
+        assertEquals(Arrays.<GattOperation>asList(first, second), mQueue.close());
+        assertFalse(mQueue.enqueue(new FakeOperation(GattOperationType.READ_CHARACTERISTIC)));
+        mQueue.onRequestCompleted(GattOperationType.READ_CHARACTERISTIC,
+                BluetoothGatt.GATT_SUCCESS, null);
+        verify(mListener, never()).onOperationFinished(any(GattOperation.class), anyInt());
+        assertEquals(0, second.mStartCount);
+        assertEquals(0, mQueue.getDepth());
+    }
+
+    private void completeWrite() {
+        mQueue.onRequestCompleted(GattOperationType.WRITE_CHARACTERISTIC_WITHOUT_RESPONSE,
+                BluetoothGatt.GATT_SUCCESS, null);
+    }
+
+    private static final class FakeOperation extends GattOperation {
+
+        int mStartCount;
+        boolean mStartResult = true;
+
+        FakeOperation(@NonNull GattOperationType type) {
+            super(type, CHARACTERISTIC_UUID, null);
+        }
+
+        @Override
+        boolean start() {
+            mStartCount++;
+            return mStartResult;
+        }
+    }
+
+    private static final class FakeChunkedWrite extends GattOperation.ChunkedWrite {
+
+        final List<byte[]> mChunks = new ArrayList<>();
+        boolean mWriteResult = true;
+
+        FakeChunkedWrite(@NonNull byte[] data, int chunkSize) {
+            super(GattOperationType.WRITE_CHARACTERISTIC_WITHOUT_RESPONSE, CHARACTERISTIC_UUID,
+                    data, chunkSize);
+        }
+
+        @Override
+        boolean writeChunk(@NonNull byte[] chunk) {
+            mChunks.add(chunk);
+            return mWriteResult;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.coiney.android.trueblue.BuildConfig;
+import com.coiney.android.trueblue.HeartbeatCodec;
+import com.coiney.android.trueblue.HeartbeatConfiguration;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class HeartbeatMonitorTests {
+
+    private static final long INTERVAL_MILLIS = 1000;
+    private static final byte PING = 0x01;
+    private static final byte PONG = 0x02;
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock private HeartbeatMonitor.Callback mCallback;
+
+    private HeartbeatMonitor mHeartbeatMonitor;
+
+    @Before
+    public void setUp() {
+        // Pings and pongs are two bytes - a type and a sequence number.
+        final HeartbeatCodec codec = new HeartbeatCodec() {
+            @Override
+            public byte[] encodePing(int sequenceNumber) {
+                return new byte[] { PING, (byte) sequenceNumber };
+            }
+
+            @Override
+            public int decodePong(byte[] data) {
+                return (2 == data.length && PONG == data[0]) ? data[1] : NOT_A_PONG;
+            }
+        };
+        mHeartbeatMonitor = new HeartbeatMonitor(new HeartbeatConfiguration.Builder(codec)
+                .setIntervalMillis(INTERVAL_MILLIS)
+                .setMissedHeartbeatThreshold(3)
+                .build(), new Handler(Looper.getMainLooper()), mCallback);
+    }
+
+    @Test
+    public void startShouldSendPingEveryInterval() {
+        mHeartbeatMonitor.start();
+        verify(mCallback, times(1)).onPingDue(new byte[] { PING, 0 });
+        ShadowLooper.idleMainLooper(INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        verify(mCallback, times(1)).onPingDue(new byte[] { PING, 1 });
+    }
+
+    @Test
+    public void startWhenAlreadyStartedShouldHaveNoEffect() {
+        mHeartbeatMonitor.start();
+        mHeartbeatMonitor.start();
+        verify(mCallback, times(1)).onPingDue(new byte[] { PING, 0 });
+    }
+
+    @Test
+    public void tickWhenNothingReadForThresholdShouldReportPeerUnresponsive() {
+        mHeartbeatMonitor.start();
+        ShadowLooper.idleMainLooper(2 * INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        verify(mCallback, never()).onPeerUnresponsive(anyInt());
+        assertEquals(2, mHeartbeatMonitor.getMissedHeartbeatCount());
+        ShadowLooper.idleMainLooper(INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        verify(mCallback).onPeerUnresponsive(3);
+        // The heartbeat stops once the peer is reported as unresponsive.
+        ShadowLooper.idleMainLooper(INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        verify(mCallback, times(3)).onPingDue(any(byte[].class));
+    }
+
+    @Test
+    public void onDataReadWhenAnyDataReadShouldResetMissedHeartbeats() {
+        mHeartbeatMonitor.start();
+        ShadowLooper.idleMainLooper(2 * INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        assertFalse(mHeartbeatMonitor.onDataRead(new byte[] { 0x10, 0x11, 0x12 }));
+        ShadowLooper.idleMainLooper(2 * INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        assertEquals(1, mHeartbeatMonitor.getMissedHeartbeatCount());
+        verify(mCallback, never()).onPeerUnresponsive(anyInt());
+    }
+
+    @Test
+    public void onDataReadWhenPongShouldRecordRoundTripTime() {
+        mHeartbeatMonitor.start();
+        assertTrue(mHeartbeatMonitor.onDataRead(new byte[] { PONG, 0 }));
+        assertEquals(1, mHeartbeatMonitor.getRoundTripTimeHistogram().getTotalCount());
+    }
+
+    @Test
+    public void onDataReadWhenPongRepeatedShouldOnlyRecordRoundTripTimeOnce() {
+        mHeartbeatMonitor.start();
+        mHeartbeatMonitor.onDataRead(new byte[] { PONG, 0 });
+        assertTrue(mHeartbeatMonitor.onDataRead(new byte[] { PONG, 0 }));
+        assertEquals(1, mHeartbeatMonitor.getRoundTripTimeHistogram().getTotalCount());
+    }
+
+    @Test
+    public void isPingShouldOnlyRecognisePingsSent() {
+        mHeartbeatMonitor.start();
+        final ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+        verify(mCallback).onPingDue(captor.capture());
+        assertTrue(mHeartbeatMonitor.isPing(captor.getValue()));
+        // Pings are recognised by identity, not by value.
+        assertFalse(mHeartbeatMonitor.isPing(new byte[] { PING, 0 }));
+    }
+
+    @Test
+    public void stopShouldStopSendingPings() {
+        mHeartbeatMonitor.start();
+        mHeartbeatMonitor.stop();
+        ShadowLooper.idleMainLooper(5 * INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        verify(mCallback, times(1)).onPingDue(any(byte[].class));
+        verify(mCallback, never()).onPeerUnresponsive(anyInt());
+    }
+}
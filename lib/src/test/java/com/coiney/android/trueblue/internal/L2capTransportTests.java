@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import com.coiney.android.trueblue.BuildConfig;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class L2capTransportTests {
+
+    private static final UUID SERVICE_RECORD_UUID =
+            UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock
+    private BluetoothDevice mDevice;
+
+    @Test
+    public void isSupportedWhenBelowApi29ShouldReturnFalse() {
+        assertFalse(L2capTransport.isSupported());
+    }
+
+    @Test
+    public void createSocketWhenNotSupportedShouldFallBackToRfcomm() throws IOException {
+        new L2capTransport(0x80).createSocket(mDevice, SERVICE_RECORD_UUID, true);
+        verify(mDevice).createRfcommSocketToServiceRecord(SERVICE_RECORD_UUID);
+    }
+
+    @Test
+    public void createSocketWhenNotSupportedAndInsecureShouldFallBackToInsecureRfcomm()
+            throws IOException {
+        new L2capTransport(0x80).createSocket(mDevice, SERVICE_RECORD_UUID, false);
+        verify(mDevice).createInsecureRfcommSocketToServiceRecord(SERVICE_RECORD_UUID);
+    }
+
+    @Test
+    public void getNameWhenNotSupportedShouldReturnRfcommName() {
+        assertEquals(RfcommTransport.NAME, new L2capTransport(0x80).getName());
+    }
+
+    @Test(expected = IOException.class)
+    public void listenWhenNotSupportedShouldThrowIOException() throws IOException {
+        L2capTransport.listen(BluetoothAdapter.getDefaultAdapter(), true);
+    }
+}
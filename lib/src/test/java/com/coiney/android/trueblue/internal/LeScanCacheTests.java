@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+
+import com.coiney.android.trueblue.BuildConfig;
+import com.coiney.android.trueblue.DiscoveredDevice;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class LeScanCacheTests {
+
+    private static final int RSSI_CHANGE_THRESHOLD = 3;
+    private static final double RSSI_SMOOTHING_FACTOR = 0.5;
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock private BluetoothDevice mBluetoothDevice;
+
+    private LeScanCache mLeScanCache;
+
+    @Before
+    public void setUp() {
+        when(mBluetoothDevice.getAddress()).thenReturn("00:11:22:33:44:55");
+        mLeScanCache = new LeScanCache(RSSI_SMOOTHING_FACTOR, RSSI_CHANGE_THRESHOLD,
+                DiscoveredDevice.RSSI_UNAVAILABLE, LeScanCache.DEFAULT_MAXIMUM_SIZE);
+    }
+
+    @Test
+    public void recordSightingWhenDeviceIsNewShouldReturnDevice() {
+        final DiscoveredDevice discoveredDevice = mLeScanCache.recordSighting(mBluetoothDevice,
+                -60, "Beacon", null, 100);
+        assertNotNull(discoveredDevice);
+        assertEquals(-60, discoveredDevice.getRssi());
+        assertEquals("Beacon", discoveredDevice.getName());
+        assertEquals(100, discoveredDevice.getFirstSeenMillis());
+    }
+
+    @Test
+    public void recordSightingWhenSmoothedRssiChangeIsBelowThresholdShouldReturnNull() {
+        mLeScanCache.recordSighting(mBluetoothDevice, -60, null, null, 100);
+        // Smoothed to -62.
+        assertNull(mLeScanCache.recordSighting(mBluetoothDevice, -64, null, null, 200));
+    }
+
+    @Test
+    public void recordSightingWhenSmoothedRssiChangeReachesThresholdShouldReturnSmoothedRssi() {
+        mLeScanCache.recordSighting(mBluetoothDevice, -60, null, null, 100);
+        // Smoothed to -65.
+        final DiscoveredDevice discoveredDevice = mLeScanCache.recordSighting(mBluetoothDevice,
+                -70, null, null, 200);
+        assertNotNull(discoveredDevice);
+        assertEquals(-65, discoveredDevice.getRssi());
+        assertEquals(100, discoveredDevice.getFirstSeenMillis());
+        assertEquals(200, discoveredDevice.getLastSeenMillis());
+    }
+
+    @Test
+    public void recordSightingShouldCompareAgainstLastDeliveredRssi() {
+        mLeScanCache.recordSighting(mBluetoothDevice, -60, null, null, 100);
+        // Smoothed to -61 and then -62.5, neither of which is delivered, but
+        // together drift by the threshold.
+        assertNull(mLeScanCache.recordSighting(mBluetoothDevice, -62, null, null, 200));
+        assertNull(mLeScanCache.recordSighting(mBluetoothDevice, -64, null, null, 300));
+        assertNotNull(mLeScanCache.recordSighting(mBluetoothDevice, -64, null, null, 400));
+    }
+
+    @Test
+    public void recordSightingWhenServiceUuidsChangeShouldReturnDevice() {
+        mLeScanCache.recordSighting(mBluetoothDevice, -60, null, null, 100);
+        final DiscoveredDevice discoveredDevice = mLeScanCache.recordSighting(mBluetoothDevice,
+                -60, null, Collections.singleton(UUID.randomUUID()), 200);
+        assertNotNull(discoveredDevice);
+        assertEquals(1, discoveredDevice.getServiceUuids().size());
+    }
+
+    @Test
+    public void recordSightingWhenNameIsNotAdvertisedShouldRetainEarlierName() {
+        mLeScanCache.recordSighting(mBluetoothDevice, -60, "Beacon", null, 100);
+        final DiscoveredDevice discoveredDevice = mLeScanCache.recordSighting(mBluetoothDevice,
+                -70, null, null, 200);
+        assertNotNull(discoveredDevice);
+        assertEquals("Beacon", discoveredDevice.getName());
+    }
+
+    @Test
+    public void recordSightingWhenBelowMinimumRssiShouldReturnNullUntilAboveIt() {
+        mLeScanCache = new LeScanCache(RSSI_SMOOTHING_FACTOR, RSSI_CHANGE_THRESHOLD, -70,
+                LeScanCache.DEFAULT_MAXIMUM_SIZE);
+        assertNull(mLeScanCache.recordSighting(mBluetoothDevice, -80, null, null, 100));
+        // Smoothed to -71.
+        assertNull(mLeScanCache.recordSighting(mBluetoothDevice, -62, null, null, 200));
+        // Smoothed to -70.5, which rounds to -70.
+        final DiscoveredDevice discoveredDevice = mLeScanCache.recordSighting(mBluetoothDevice,
+                -70, null, null, 300);
+        assertNotNull(discoveredDevice);
+        assertEquals(-70, discoveredDevice.getRssi());
+    }
+
+    @Test
+    public void recordSightingWhenMaximumSizeIsExceededShouldEvictLeastRecentlySeen() {
+        mLeScanCache = new LeScanCache(RSSI_SMOOTHING_FACTOR, RSSI_CHANGE_THRESHOLD,
+                DiscoveredDevice.RSSI_UNAVAILABLE, 1);
+        final BluetoothDevice otherDevice = mock(BluetoothDevice.class);
+        when(otherDevice.getAddress()).thenReturn("66:77:88:99:AA:BB");
+        mLeScanCache.recordSighting(mBluetoothDevice, -60, null, null, 100);
+        mLeScanCache.recordSighting(otherDevice, -60, null, null, 200);
+        assertEquals(1, mLeScanCache.size());
+        // The first device was evicted, so is new again.
+        assertNotNull(mLeScanCache.recordSighting(mBluetoothDevice, -60, null, null, 300));
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.Manifest;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.coiney.android.trueblue.BuildConfig;
+import com.coiney.android.trueblue.DiscoveredDevice;
+import com.coiney.android.trueblue.DiscoveryError;
+import com.coiney.android.trueblue.LeScanListener;
+import com.coiney.android.trueblue.LeScanRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class LeScanManagerTests {
+
+    private static final long REPORT_DELAY_MILLIS = 500;
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock private AdapterManager mAdapterManager;
+    @Mock private LeScanListener mListener;
+    @Captor private ArgumentCaptor<List<DiscoveredDevice>> mDevicesCaptor;
+    @Captor private ArgumentCaptor<List<ScanFilter>> mFiltersCaptor;
+
+    private LeScanManager mLeScanManager;
+    private LeScanRequest mRequest;
+
+    @Before
+    public void setUp() {
+        mLeScanManager = new LeScanManager(mAdapterManager, RuntimeEnvironment.application,
+                new Handler(Looper.getMainLooper()), mock(Logger.class),
+                new ScanStartBudget(1, ScanStartBudget.DEFAULT_WINDOW_MILLIS));
+        mLeScanManager.registerListener(mListener);
+        mRequest = new LeScanRequest.Builder()
+                .setReportDelayMillis(REPORT_DELAY_MILLIS)
+                .build();
+    }
+
+    @Test
+    public void startScanWhenScanCanBeStartedShouldReturnNull() {
+        configureForSuccessfulScanStart(true);
+        assertNull(mLeScanManager.startScan(mRequest));
+        assertTrue(mLeScanManager.isScanRunning());
+    }
+
+    @Test
+    public void startScanWhenAlreadyRunningShouldReturnError() {
+        configureForSuccessfulScanStart(true);
+        mLeScanManager.startScan(mRequest);
+        assertEquals(DiscoveryError.ALREADY_RUNNING, mLeScanManager.startScan(mRequest));
+    }
+
+    @Test
+    public void startScanWithoutCoarseLocationPermissionShouldReturnError() {
+        assertEquals(DiscoveryError.COARSE_LOCATION_PERMISSION_REQUIRED,
+                mLeScanManager.startScan(mRequest));
+    }
+
+    @Test
+    public void startScanWhenBluetoothIsDisabledShouldReturnError() {
+        Shadows.shadowOf(RuntimeEnvironment.application).grantPermissions(
+                Manifest.permission.ACCESS_COARSE_LOCATION);
+        assertEquals(DiscoveryError.BLUETOOTH_DISABLED, mLeScanManager.startScan(mRequest));
+    }
+
+    @Test
+    public void startScanWhenScanStartBudgetIsExhaustedShouldReturnError() {
+        configureForSuccessfulScanStart(true);
+        mLeScanManager.startScan(mRequest);
+        mLeScanManager.stopScan();
+        assertEquals(DiscoveryError.SCAN_BUDGET_EXCEEDED, mLeScanManager.startScan(mRequest));
+        verify(mAdapterManager, times(1)).startLeScan(ArgumentMatchers.<ScanFilter>anyList(),
+                any(ScanSettings.class), any(ScanCallback.class));
+    }
+
+    @Test
+    public void startScanWhenSystemCannotStartScanShouldReturnError() {
+        configureForSuccessfulScanStart(true);
+        when(mAdapterManager.startLeScan(ArgumentMatchers.<ScanFilter>anyList(),
+                any(ScanSettings.class), any(ScanCallback.class))).thenReturn(false);
+        assertEquals(DiscoveryError.SYSTEM_ERROR, mLeScanManager.startScan(mRequest));
+        assertFalse(mLeScanManager.isScanRunning());
+    }
+
+    @Test
+    public void startScanShouldCreateFilterForEachAddressAndServiceUuidCombination() {
+        configureForSuccessfulScanStart(true);
+        final UUID serviceUuid = UUID.randomUUID();
+        mLeScanManager.startScan(new LeScanRequest.Builder(mRequest)
+                .setAddresses(Arrays.asList("00:11:22:33:44:55", "66:77:88:99:aa:bb"))
+                .setServiceUuids(Collections.singleton(serviceUuid))
+                .build());
+        verify(mAdapterManager).startLeScan(mFiltersCaptor.capture(), any(ScanSettings.class),
+                any(ScanCallback.class));
+        final List<ScanFilter> filters = mFiltersCaptor.getValue();
+        final Set<String> addresses = new HashSet<>();
+        for (ScanFilter filter : filters) {
+            addresses.add(filter.getDeviceAddress());
+            assertEquals(serviceUuid, filter.getServiceUuid().getUuid());
+        }
+        assertEquals(2, filters.size());
+        assertEquals(new HashSet<>(Arrays.asList("00:11:22:33:44:55", "66:77:88:99:AA:BB")),
+                addresses);
+    }
+
+    @Test
+    public void onBatchScanResultsShouldReportEachDeviceOnce() {
+        configureForSuccessfulScanStart(true);
+        mLeScanManager.startScan(mRequest);
+        final BluetoothDevice first = createDevice("00:11:22:33:44:55");
+        final BluetoothDevice second = createDevice("66:77:88:99:AA:BB");
+        mLeScanManager.getScanCallback().onBatchScanResults(Arrays.asList(
+                createResult(first, -60), createResult(second, -70), createResult(first, -61)));
+        ShadowLooper.runUiThreadTasks();
+        final List<DiscoveredDevice> discoveredDevices = captureDiscoveredDevices();
+        assertEquals(2, discoveredDevices.size());
+        assertEquals(first, discoveredDevices.get(0).getDevice());
+        assertEquals(-60, discoveredDevices.get(0).getRssi());
+        assertEquals(second, discoveredDevices.get(1).getDevice());
+    }
+
+    @Test
+    public void onScanResultWhenBatchingIsNotSupportedByControllerShouldBatchAfterReportDelay() {
+        configureForSuccessfulScanStart(false);
+        mLeScanManager.startScan(mRequest);
+        final ArgumentCaptor<ScanSettings> captor = ArgumentCaptor.forClass(ScanSettings.class);
+        verify(mAdapterManager).startLeScan(ArgumentMatchers.<ScanFilter>anyList(),
+                captor.capture(), any(ScanCallback.class));
+        assertEquals(0, captor.getValue().getReportDelayMillis());
+        final ScanCallback callback = mLeScanManager.getScanCallback();
+        callback.onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES,
+                createResult(createDevice("00:11:22:33:44:55"), -60));
+        callback.onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES,
+                createResult(createDevice("66:77:88:99:AA:BB"), -70));
+        ShadowLooper.runUiThreadTasks();
+        verify(mListener, never())
+                .onLeDevicesDiscovered(ArgumentMatchers.<DiscoveredDevice>anyList());
+        ShadowLooper.idleMainLooper(REPORT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        assertEquals(2, captureDiscoveredDevices().size());
+    }
+
+    @Test
+    public void onScanFailedShouldReportScanStoppedWithError() {
+        configureForSuccessfulScanStart(true);
+        mLeScanManager.startScan(mRequest);
+        mLeScanManager.getScanCallback().onScanFailed(
+                ScanCallback.SCAN_FAILED_FEATURE_UNSUPPORTED);
+        ShadowLooper.runUiThreadTasks();
+        verify(mListener).onLeScanStopped(DiscoveryError.BLUETOOTH_NOT_AVAILABLE);
+        assertFalse(mLeScanManager.isScanRunning());
+    }
+
+    @Test
+    public void stopScanShouldReportPendingDevicesThenScanStopped() {
+        configureForSuccessfulScanStart(false);
+        mLeScanManager.startScan(mRequest);
+        final ScanCallback callback = mLeScanManager.getScanCallback();
+        callback.onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES,
+                createResult(createDevice("00:11:22:33:44:55"), -60));
+        ShadowLooper.runUiThreadTasks();
+        assertTrue(mLeScanManager.stopScan());
+        verify(mAdapterManager).stopLeScan(callback);
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(1, captureDiscoveredDevices().size());
+        verify(mListener).onLeScanStopped(null);
+    }
+
+    @Test
+    public void onScanResultAfterScanStoppedShouldBeIgnored() {
+        configureForSuccessfulScanStart(true);
+        mLeScanManager.startScan(mRequest);
+        final ScanCallback callback = mLeScanManager.getScanCallback();
+        mLeScanManager.stopScan();
+        callback.onBatchScanResults(Collections.singletonList(
+                createResult(createDevice("00:11:22:33:44:55"), -60)));
+        ShadowLooper.runUiThreadTasks();
+        verify(mListener, never())
+                .onLeDevicesDiscovered(ArgumentMatchers.<DiscoveredDevice>anyList());
+    }
+
+    @Test
+    public void stopScanWhenNotRunningShouldReturnFalse() {
+        assertFalse(mLeScanManager.stopScan());
+    }
+
+    @Test
+    public void adapterTurningOffShouldReportScanStoppedWithError() {
+        final ArgumentCaptor<BluetoothStatusMonitor.AdapterStateListener> captor =
+                ArgumentCaptor.forClass(BluetoothStatusMonitor.AdapterStateListener.class);
+        mLeScanManager.start();
+        verify(mAdapterManager).registerAdapterStateListener(captor.capture());
+        configureForSuccessfulScanStart(true);
+        mLeScanManager.startScan(mRequest);
+        captor.getValue().onAdapterStateChanged(BluetoothAdapter.STATE_TURNING_OFF);
+        ShadowLooper.runUiThreadTasks();
+        verify(mListener).onLeScanStopped(DiscoveryError.BLUETOOTH_DISABLED);
+        assertFalse(mLeScanManager.isScanRunning());
+    }
+
+    private void configureForSuccessfulScanStart(boolean isOffloadedScanBatchingSupported) {
+        Shadows.shadowOf(RuntimeEnvironment.application).grantPermissions(
+                Manifest.permission.ACCESS_COARSE_LOCATION);
+        when(mAdapterManager.isAdapterEnabled()).thenReturn(true);
+        when(mAdapterManager.isOffloadedScanBatchingSupported())
+                .thenReturn(isOffloadedScanBatchingSupported);
+        when(mAdapterManager.startLeScan(ArgumentMatchers.<ScanFilter>anyList(),
+                any(ScanSettings.class), any(ScanCallback.class))).thenReturn(true);
+    }
+
+    private List<DiscoveredDevice> captureDiscoveredDevices() {
+        verify(mListener).onLeDevicesDiscovered(mDevicesCaptor.capture());
+        return mDevicesCaptor.getValue();
+    }
+
+    private static BluetoothDevice createDevice(String address) {
+        final BluetoothDevice device = mock(BluetoothDevice.class);
+        when(device.getAddress()).thenReturn(address);
+        return device;
+    }
+
+    private static ScanResult createResult(BluetoothDevice device, int rssi) {
+        return new ScanResult(device, null, rssi, 0);
+    }
+}
@@ -20,6 +20,8 @@ package com.coiney.android.trueblue.internal;
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
 
 import com.coiney.android.trueblue.BuildConfig;
 
@@ -40,6 +42,7 @@ import org.robolectric.shadows.ShadowLooper;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(constants = BuildConfig.class)
@@ -57,15 +60,16 @@ public class PairingMonitorTests {
     @Before
     public void setUp() {
         mContext = Shadows.shadowOf(RuntimeEnvironment.application).getApplicationContext();
-        mPairingMonitor = new PairingMonitor(mContext);
+        mPairingMonitor = new PairingMonitor(mContext, new Handler(Looper.getMainLooper()),
+                mock(Logger.class));
     }
 
     @Test
     public void listenerWhenMonitorStartedAndListenerRegisteredAndPairingStartedShouldReceiveNotification() {
         final PairingMonitor.Listener listener = mock(PairingMonitor.Listener.class);
-        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        final BluetoothDevice bluetoothDevice = createDevice("00:11:22:33:44:55");
         mPairingMonitor.start();
-        mPairingMonitor.registerListener(listener);
+        mPairingMonitor.registerListener(bluetoothDevice, listener);
         mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_BOND_STATE_CHANGED)
                 .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice)
                 .putExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, BluetoothDevice.BOND_NONE)
@@ -77,8 +81,8 @@ public class PairingMonitorTests {
     @Test
     public void listenerWhenMonitorNotStartedAndListenerRegisteredAndPairingStartedShouldNotReceiveNotification() {
         final PairingMonitor.Listener listener = mock(PairingMonitor.Listener.class);
-        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
-        mPairingMonitor.registerListener(listener);
+        final BluetoothDevice bluetoothDevice = createDevice("00:11:22:33:44:55");
+        mPairingMonitor.registerListener(bluetoothDevice, listener);
         mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_BOND_STATE_CHANGED)
                 .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice)
                 .putExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, BluetoothDevice.BOND_NONE)
@@ -90,10 +94,10 @@ public class PairingMonitorTests {
     @Test
     public void listenerWhenMonitorStartedAndListenerUnregisteredAndPairingStartedShouldNotReceiveNotification() {
         final PairingMonitor.Listener listener = mock(PairingMonitor.Listener.class);
-        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        final BluetoothDevice bluetoothDevice = createDevice("00:11:22:33:44:55");
         mPairingMonitor.start();
-        mPairingMonitor.registerListener(listener);
-        mPairingMonitor.unregisterListener(listener);
+        mPairingMonitor.registerListener(bluetoothDevice, listener);
+        mPairingMonitor.unregisterListener(bluetoothDevice, listener);
         mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_BOND_STATE_CHANGED)
                 .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice)
                 .putExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, BluetoothDevice.BOND_NONE)
@@ -105,9 +109,9 @@ public class PairingMonitorTests {
     @Test
     public void listenerWhenMonitorStartedAndListenerRegisteredAndPairingSucceededShouldReceiveNotification() {
         final PairingMonitor.Listener listener = mock(PairingMonitor.Listener.class);
-        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        final BluetoothDevice bluetoothDevice = createDevice("00:11:22:33:44:55");
         mPairingMonitor.start();
-        mPairingMonitor.registerListener(listener);
+        mPairingMonitor.registerListener(bluetoothDevice, listener);
         mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_BOND_STATE_CHANGED)
                 .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice)
                 .putExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, BluetoothDevice.BOND_BONDING)
@@ -119,8 +123,8 @@ public class PairingMonitorTests {
     @Test
     public void listenerWhenMonitorNotStartedAndListenerRegisteredAndPairingSucceededShouldNotReceiveNotification() {
         final PairingMonitor.Listener listener = mock(PairingMonitor.Listener.class);
-        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
-        mPairingMonitor.registerListener(listener);
+        final BluetoothDevice bluetoothDevice = createDevice("00:11:22:33:44:55");
+        mPairingMonitor.registerListener(bluetoothDevice, listener);
         mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_BOND_STATE_CHANGED)
                 .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice)
                 .putExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, BluetoothDevice.BOND_BONDING)
@@ -132,10 +136,10 @@ public class PairingMonitorTests {
     @Test
     public void listenerWhenMonitorStartedAndListenerUnregisteredAndPairingSucceededShouldNotReceiveNotification() {
         final PairingMonitor.Listener listener = mock(PairingMonitor.Listener.class);
-        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        final BluetoothDevice bluetoothDevice = createDevice("00:11:22:33:44:55");
         mPairingMonitor.start();
-        mPairingMonitor.registerListener(listener);
-        mPairingMonitor.unregisterListener(listener);
+        mPairingMonitor.registerListener(bluetoothDevice, listener);
+        mPairingMonitor.unregisterListener(bluetoothDevice, listener);
         mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_BOND_STATE_CHANGED)
                 .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice)
                 .putExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, BluetoothDevice.BOND_BONDING)
@@ -147,9 +151,9 @@ public class PairingMonitorTests {
     @Test
     public void listenerWhenMonitorStartedAndListenerRegisteredAndPairingFailedShouldReceiveNotification() {
         final PairingMonitor.Listener listener = mock(PairingMonitor.Listener.class);
-        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        final BluetoothDevice bluetoothDevice = createDevice("00:11:22:33:44:55");
         mPairingMonitor.start();
-        mPairingMonitor.registerListener(listener);
+        mPairingMonitor.registerListener(bluetoothDevice, listener);
         mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_BOND_STATE_CHANGED)
                 .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice)
                 .putExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, BluetoothDevice.BOND_BONDING)
@@ -161,8 +165,8 @@ public class PairingMonitorTests {
     @Test
     public void listenerWhenMonitorNotStartedAndListenerRegisteredAndPairingFailedShouldNotReceiveNotification() {
         final PairingMonitor.Listener listener = mock(PairingMonitor.Listener.class);
-        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
-        mPairingMonitor.registerListener(listener);
+        final BluetoothDevice bluetoothDevice = createDevice("00:11:22:33:44:55");
+        mPairingMonitor.registerListener(bluetoothDevice, listener);
         mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_BOND_STATE_CHANGED)
                 .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice)
                 .putExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, BluetoothDevice.BOND_BONDING)
@@ -174,15 +178,91 @@ public class PairingMonitorTests {
     @Test
     public void listenerWhenMonitorStartedAndListenerUnregisteredAndPairingFailedShouldNotReceiveNotification() {
         final PairingMonitor.Listener listener = mock(PairingMonitor.Listener.class);
-        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        final BluetoothDevice bluetoothDevice = createDevice("00:11:22:33:44:55");
+        mPairingMonitor.start();
+        mPairingMonitor.registerListener(bluetoothDevice, listener);
+        mPairingMonitor.unregisterListener(bluetoothDevice, listener);
+        mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_BOND_STATE_CHANGED)
+                .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice)
+                .putExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, BluetoothDevice.BOND_BONDING)
+                .putExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.BOND_NONE));
+        ShadowLooper.getShadowMainLooper().runToEndOfTasks();
+        verify(listener, times(0)).onPairingAttemptFailed(bluetoothDevice);
+    }
+
+    @Test
+    public void listenerWhenMonitorStartedAndListenerRegisteredForOtherDeviceAndPairingStartedShouldNotReceiveNotification() {
+        final PairingMonitor.Listener listener = mock(PairingMonitor.Listener.class);
+        final BluetoothDevice bluetoothDevice = createDevice("00:11:22:33:44:55");
+        final BluetoothDevice otherBluetoothDevice = createDevice("00:11:22:33:44:66");
+        mPairingMonitor.start();
+        mPairingMonitor.registerListener(otherBluetoothDevice, listener);
+        mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_BOND_STATE_CHANGED)
+                .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice)
+                .putExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, BluetoothDevice.BOND_NONE)
+                .putExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.BOND_BONDING));
+        ShadowLooper.getShadowMainLooper().runToEndOfTasks();
+        verify(listener, times(0)).onPairingAttemptStarted(bluetoothDevice);
+    }
+
+    @Test
+    public void listenersWhenMonitorStartedAndSeveralRegisteredForDeviceShouldAllReceiveNotification() {
+        final PairingMonitor.Listener listener = mock(PairingMonitor.Listener.class);
+        final PairingMonitor.Listener otherListener = mock(PairingMonitor.Listener.class);
+        final BluetoothDevice bluetoothDevice = createDevice("00:11:22:33:44:55");
+        mPairingMonitor.start();
+        mPairingMonitor.registerListener(bluetoothDevice, listener);
+        mPairingMonitor.registerListener(bluetoothDevice, otherListener);
+        mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_BOND_STATE_CHANGED)
+                .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice)
+                .putExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, BluetoothDevice.BOND_BONDING)
+                .putExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.BOND_BONDED));
+        ShadowLooper.getShadowMainLooper().runToEndOfTasks();
+        verify(listener, times(1)).onPairingAttemptSucceeded(bluetoothDevice);
+        verify(otherListener, times(1)).onPairingAttemptSucceeded(bluetoothDevice);
+    }
+
+    @Test
+    public void listenerWhenOtherListenerForDeviceUnregisteredShouldStillReceiveNotification() {
+        final PairingMonitor.Listener otherListener = mock(PairingMonitor.Listener.class);
+        final PairingMonitor.Listener listener = mock(PairingMonitor.Listener.class);
+        final BluetoothDevice bluetoothDevice = createDevice("00:11:22:33:44:55");
         mPairingMonitor.start();
-        mPairingMonitor.registerListener(listener);
-        mPairingMonitor.unregisterListener(listener);
+        mPairingMonitor.registerListener(bluetoothDevice, otherListener);
+        mPairingMonitor.registerListener(bluetoothDevice, listener);
+        mPairingMonitor.unregisterListener(bluetoothDevice, otherListener);
+        mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_BOND_STATE_CHANGED)
+                .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice)
+                .putExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, BluetoothDevice.BOND_NONE)
+                .putExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.BOND_BONDING));
+        ShadowLooper.getShadowMainLooper().runToEndOfTasks();
+        verify(listener, times(1)).onPairingAttemptStarted(bluetoothDevice);
+        verify(otherListener, times(0)).onPairingAttemptStarted(bluetoothDevice);
+    }
+
+    @Test
+    public void listenerWhenUnregisteredAfterLaterListenerShouldNotReceiveNotification() {
+        final PairingMonitor.Listener listener = mock(PairingMonitor.Listener.class);
+        final PairingMonitor.Listener laterListener = mock(PairingMonitor.Listener.class);
+        final BluetoothDevice bluetoothDevice = createDevice("00:11:22:33:44:55");
+        mPairingMonitor.start();
+        mPairingMonitor.registerListener(bluetoothDevice, listener);
+        mPairingMonitor.registerListener(bluetoothDevice, laterListener);
+        mPairingMonitor.unregisterListener(bluetoothDevice, listener);
+        mPairingMonitor.unregisterListener(bluetoothDevice, laterListener);
+        mPairingMonitor.registerListener(bluetoothDevice, laterListener);
         mContext.sendBroadcast(new Intent(BluetoothDevice.ACTION_BOND_STATE_CHANGED)
                 .putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice)
                 .putExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, BluetoothDevice.BOND_BONDING)
                 .putExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.BOND_NONE));
         ShadowLooper.getShadowMainLooper().runToEndOfTasks();
         verify(listener, times(0)).onPairingAttemptFailed(bluetoothDevice);
+        verify(laterListener, times(1)).onPairingAttemptFailed(bluetoothDevice);
+    }
+
+    private static BluetoothDevice createDevice(String address) {
+        final BluetoothDevice bluetoothDevice = mock(BluetoothDevice.class);
+        when(bluetoothDevice.getAddress()).thenReturn(address);
+        return bluetoothDevice;
     }
 }
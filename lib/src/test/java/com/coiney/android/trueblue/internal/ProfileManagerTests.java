@@ -0,0 +1,231 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothA2dp;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.coiney.android.trueblue.BuildConfig;
+import com.coiney.android.trueblue.ProfileConnectionListener;
+import com.coiney.android.trueblue.ProfileType;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class ProfileManagerTests {
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock private BluetoothAdapter mAdapter;
+    @Mock private BluetoothDevice mDevice;
+    @Mock private ProfileConnectionListener mListener;
+    @Mock private BluetoothProfile mProxy;
+
+    private ProfileManager mProfileManager;
+
+    @Before
+    public void setUp() {
+        when(mAdapter.getProfileProxy(any(Context.class),
+                any(BluetoothProfile.ServiceListener.class), anyInt())).thenReturn(true);
+        mProfileManager = new ProfileManager(mAdapter, RuntimeEnvironment.application,
+                new Handler(Looper.getMainLooper()), EnumSet.of(ProfileType.A2DP),
+                mock(Logger.class));
+        mProfileManager.registerListener(mListener);
+    }
+
+    @Test
+    public void startWhenBluetoothIsEnabledShouldBindConfiguredProfilesOnly() {
+        mProfileManager.start(BluetoothAdapter.STATE_ON);
+        verify(mAdapter).getProfileProxy(any(Context.class),
+                any(BluetoothProfile.ServiceListener.class), eq(BluetoothProfile.A2DP));
+        verify(mAdapter, times(1)).getProfileProxy(any(Context.class),
+                any(BluetoothProfile.ServiceListener.class), anyInt());
+    }
+
+    @Test
+    public void startWhenBluetoothIsDisabledShouldNotBindProfiles() {
+        mProfileManager.start(BluetoothAdapter.STATE_OFF);
+        verify(mAdapter, never()).getProfileProxy(any(Context.class),
+                any(BluetoothProfile.ServiceListener.class), anyInt());
+    }
+
+    @Test
+    public void adapterStateChangeWhenAlreadyBindingShouldNotBindAgain() {
+        mProfileManager.start(BluetoothAdapter.STATE_ON);
+        mProfileManager.onAdapterStateChanged(BluetoothAdapter.STATE_ON);
+        verify(mAdapter, times(1)).getProfileProxy(any(Context.class),
+                any(BluetoothProfile.ServiceListener.class), anyInt());
+    }
+
+    @Test
+    public void proxyBoundShouldLoadConnectionStatesAndNotifyListener() {
+        bindProxyWithConnectedDevice();
+        assertTrue(mProfileManager.isProfileAvailable(ProfileType.A2DP));
+        assertEquals(BluetoothProfile.STATE_CONNECTED,
+                mProfileManager.getConnectionState(ProfileType.A2DP, mDevice));
+        assertEquals(Collections.singletonList(mDevice),
+                mProfileManager.getConnectedDevices(ProfileType.A2DP));
+        verify(mListener).onProfileConnectionStateChanged(ProfileType.A2DP, mDevice,
+                BluetoothProfile.STATE_CONNECTED);
+    }
+
+    @Test
+    public void getConnectionStateWhenProfileNotConfiguredShouldReturnDisconnected() {
+        bindProxyWithConnectedDevice();
+        assertFalse(mProfileManager.isProfileAvailable(ProfileType.HEADSET));
+        assertEquals(BluetoothProfile.STATE_DISCONNECTED,
+                mProfileManager.getConnectionState(ProfileType.HEADSET, mDevice));
+        assertTrue(mProfileManager.getConnectedDevices(ProfileType.HEADSET).isEmpty());
+    }
+
+    @Test
+    public void onReceiveShouldUpdateConnectionStateAndNotifyListener() {
+        bindProxyWithConnectedDevice();
+        mProfileManager.onReceive(RuntimeEnvironment.application,
+                createStateChangedIntent(BluetoothProfile.STATE_DISCONNECTING));
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(BluetoothProfile.STATE_DISCONNECTING,
+                mProfileManager.getConnectionState(ProfileType.A2DP, mDevice));
+        assertTrue(mProfileManager.getConnectedDevices(ProfileType.A2DP).isEmpty());
+        verify(mListener).onProfileConnectionStateChanged(ProfileType.A2DP, mDevice,
+                BluetoothProfile.STATE_DISCONNECTING);
+    }
+
+    @Test
+    public void onReceiveWhenStateUnchangedShouldNotNotifyListener() {
+        bindProxyWithConnectedDevice();
+        mProfileManager.onReceive(RuntimeEnvironment.application,
+                createStateChangedIntent(BluetoothProfile.STATE_CONNECTED));
+        ShadowLooper.runUiThreadTasks();
+        verify(mListener, times(1)).onProfileConnectionStateChanged(ProfileType.A2DP, mDevice,
+                BluetoothProfile.STATE_CONNECTED);
+    }
+
+    @Test
+    public void adapterStateChangeWhenBluetoothDisabledShouldCloseProxyAndDisconnectDevices() {
+        bindProxyWithConnectedDevice();
+        mProfileManager.onAdapterStateChanged(BluetoothAdapter.STATE_TURNING_OFF);
+        ShadowLooper.runUiThreadTasks();
+        verify(mAdapter).closeProfileProxy(BluetoothProfile.A2DP, mProxy);
+        assertFalse(mProfileManager.isProfileAvailable(ProfileType.A2DP));
+        assertEquals(BluetoothProfile.STATE_DISCONNECTED,
+                mProfileManager.getConnectionState(ProfileType.A2DP, mDevice));
+        verify(mListener).onProfileConnectionStateChanged(ProfileType.A2DP, mDevice,
+                BluetoothProfile.STATE_DISCONNECTED);
+    }
+
+    @Test
+    public void adapterStateChangeWhenBluetoothReenabledShouldBindAgain() {
+        bindProxyWithConnectedDevice();
+        mProfileManager.onAdapterStateChanged(BluetoothAdapter.STATE_OFF);
+        mProfileManager.onAdapterStateChanged(BluetoothAdapter.STATE_ON);
+        verify(mAdapter, times(2)).getProfileProxy(any(Context.class),
+                any(BluetoothProfile.ServiceListener.class), eq(BluetoothProfile.A2DP));
+    }
+
+    @Test
+    public void proxyBoundWhenBluetoothDisabledWhileBindingShouldCloseProxy() {
+        mProfileManager.start(BluetoothAdapter.STATE_ON);
+        final BluetoothProfile.ServiceListener serviceListener = captureServiceListener();
+        mProfileManager.onAdapterStateChanged(BluetoothAdapter.STATE_OFF);
+        serviceListener.onServiceConnected(BluetoothProfile.A2DP, mProxy);
+        ShadowLooper.runUiThreadTasks();
+        verify(mAdapter).closeProfileProxy(BluetoothProfile.A2DP, mProxy);
+        assertFalse(mProfileManager.isProfileAvailable(ProfileType.A2DP));
+    }
+
+    @Test
+    public void dumpShouldDescribeProfiles() {
+        bindProxyWithConnectedDevice();
+        final StringWriter stringWriter = new StringWriter();
+        mProfileManager.dump(new PrintWriter(stringWriter, true), "");
+        assertTrue(stringWriter.toString().startsWith("profile type=A2DP bound=true"));
+        assertTrue(stringWriter.toString().contains("connectedDeviceCount=1"));
+    }
+
+    private void bindProxyWithConnectedDevice() {
+        when(mProxy.getDevicesMatchingConnectionStates(any(int[].class))).thenAnswer(
+                new Answer<List<BluetoothDevice>>() {
+                    @Override
+                    public List<BluetoothDevice> answer(InvocationOnMock invocation) {
+                        final int[] states = invocation.getArgument(0);
+                        return (BluetoothProfile.STATE_CONNECTED == states[0]) ?
+                                Collections.singletonList(mDevice) :
+                                Collections.<BluetoothDevice>emptyList();
+                    }
+                });
+        mProfileManager.start(BluetoothAdapter.STATE_ON);
+        captureServiceListener().onServiceConnected(BluetoothProfile.A2DP, mProxy);
+        ShadowLooper.runUiThreadTasks();
+    }
+
+    private BluetoothProfile.ServiceListener captureServiceListener() {
+        final ArgumentCaptor<BluetoothProfile.ServiceListener> captor =
+                ArgumentCaptor.forClass(BluetoothProfile.ServiceListener.class);
+        verify(mAdapter).getProfileProxy(any(Context.class), captor.capture(),
+                eq(BluetoothProfile.A2DP));
+        return captor.getValue();
+    }
+
+    private Intent createStateChangedIntent(int state) {
+        return new Intent(BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED)
+                .putExtra(BluetoothDevice.EXTRA_DEVICE, mDevice)
+                .putExtra(BluetoothProfile.EXTRA_STATE, state);
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+
+import com.coiney.android.trueblue.BuildConfig;
+import com.coiney.android.trueblue.ConnectionAttemptCallback;
+import com.coiney.android.trueblue.ProvisioningListener;
+import com.coiney.android.trueblue.ProvisioningProgress;
+import com.coiney.android.trueblue.ProvisioningRequest;
+import com.coiney.android.trueblue.ProvisioningStatus;
+import com.coiney.android.trueblue.Transport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class ProvisionerTests {
+
+    private static final long PAIRING_TIMEOUT_MILLIS = 10000;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock private AdapterManager mAdapterManager;
+    @Mock private ExecutorService mConnectTaskExecutor;
+    @Mock private ProvisioningListener mListener;
+    @Mock private PairingMonitor mPairingMonitor;
+
+    private ConnectionManager mConnectionManager;
+    private Provisioner mProvisioner;
+
+    @Before
+    public void setUp() {
+        final Logger logger = mock(Logger.class);
+        // Connect tasks are never run, so connection attempts stay in progress.
+        mConnectionManager = new ConnectionManager(mAdapterManager, mPairingMonitor,
+                mock(AclMonitor.class), mConnectTaskExecutor, logger);
+        mProvisioner = new Provisioner(mAdapterManager, mConnectionManager, mPairingMonitor,
+                logger);
+    }
+
+    @Test
+    public void startWhenAlreadyRunningShouldReturnFalse() {
+        final BluetoothDevice device = createDevice("00:11:22:33:44:55",
+                BluetoothDevice.BOND_NONE);
+        when(device.createBond()).thenReturn(true);
+        assertTrue(mProvisioner.start(createRequest(device), null, mListener));
+        assertFalse(mProvisioner.start(createRequest(device), null, mListener));
+    }
+
+    @Test
+    public void startWhenDeviceAlreadyBondedShouldReportAlreadyBondedWithoutPairing() {
+        final BluetoothDevice device = createDevice("00:11:22:33:44:55",
+                BluetoothDevice.BOND_BONDED);
+        mProvisioner.start(createRequest(device), null, mListener);
+        ShadowLooper.runUiThreadTasks();
+        verify(device, never()).createBond();
+        verify(mListener, times(1)).onDeviceProvisioned(eq(device),
+                eq(ProvisioningStatus.ALREADY_BONDED), any(ProvisioningProgress.class));
+        verify(mListener, times(1)).onProvisioningFinished(any(ProvisioningProgress.class));
+    }
+
+    @Test
+    public void pairingSucceededShouldReportBondedAndMoveOnToNextDevice() {
+        final BluetoothDevice device = createDevice("00:11:22:33:44:55",
+                BluetoothDevice.BOND_NONE);
+        final BluetoothDevice nextDevice = createDevice("00:11:22:33:44:66",
+                BluetoothDevice.BOND_NONE);
+        when(device.createBond()).thenReturn(true);
+        when(nextDevice.createBond()).thenReturn(true);
+        mProvisioner.start(createRequest(device, nextDevice), null, mListener);
+        ShadowLooper.runUiThreadTasks();
+        verify(nextDevice, never()).createBond();
+        capturePairingListener(device).onPairingAttemptSucceeded(device);
+        ShadowLooper.runUiThreadTasks();
+        verify(mListener, times(1)).onDeviceProvisioned(eq(device),
+                eq(ProvisioningStatus.BONDED), any(ProvisioningProgress.class));
+        verify(nextDevice, times(1)).createBond();
+        assertEquals(1, mProvisioner.getProgress().getCompletedCount());
+        assertEquals(2, mProvisioner.getProgress().getTotalCount());
+    }
+
+    @Test
+    public void pairingFailedWhenAttemptsRemainShouldRetryAfterRetryDelay() {
+        final BluetoothDevice device = createDevice("00:11:22:33:44:55",
+                BluetoothDevice.BOND_NONE);
+        when(device.createBond()).thenReturn(true);
+        mProvisioner.start(createRequest(device), null, mListener);
+        ShadowLooper.runUiThreadTasks();
+        capturePairingListener(device).onPairingAttemptFailed(device);
+        ShadowLooper.runUiThreadTasks();
+        verify(device, times(1)).createBond();
+        ShadowLooper.idleMainLooper(RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        verify(device, times(2)).createBond();
+        verify(mListener, never()).onDeviceProvisioned(any(BluetoothDevice.class),
+                any(ProvisioningStatus.class), any(ProvisioningProgress.class));
+    }
+
+    @Test
+    public void pairingTimedOutWhenNoAttemptsRemainShouldReportPairingFailed() {
+        final BluetoothDevice device = createDevice("00:11:22:33:44:55",
+                BluetoothDevice.BOND_NONE);
+        when(device.createBond()).thenReturn(true);
+        mProvisioner.start(createRequest(device), null, mListener);
+        ShadowLooper.runUiThreadTasks();
+        ShadowLooper.idleMainLooper(PAIRING_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        ShadowLooper.idleMainLooper(RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        ShadowLooper.idleMainLooper(PAIRING_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        verify(device, times(2)).createBond();
+        verify(mListener, times(1)).onDeviceProvisioned(eq(device),
+                eq(ProvisioningStatus.PAIRING_FAILED), any(ProvisioningProgress.class));
+        assertEquals(1, mProvisioner.getProgress().getFailedCount());
+    }
+
+    @Test
+    public void cancelShouldReportRemainingDevicesCancelledAndFinish() {
+        final BluetoothDevice device = createDevice("00:11:22:33:44:55",
+                BluetoothDevice.BOND_NONE);
+        final BluetoothDevice nextDevice = createDevice("00:11:22:33:44:66",
+                BluetoothDevice.BOND_NONE);
+        when(device.createBond()).thenReturn(true);
+        mProvisioner.start(createRequest(device, nextDevice), null, mListener);
+        ShadowLooper.runUiThreadTasks();
+        final PairingMonitor.Listener pairingListener = capturePairingListener(device);
+        mProvisioner.cancel();
+        ShadowLooper.runUiThreadTasks();
+        verify(mPairingMonitor, times(1)).unregisterListener(device, pairingListener);
+        verify(mListener, times(1)).onDeviceProvisioned(eq(device),
+                eq(ProvisioningStatus.CANCELLED), any(ProvisioningProgress.class));
+        verify(mListener, times(1)).onDeviceProvisioned(eq(nextDevice),
+                eq(ProvisioningStatus.CANCELLED), any(ProvisioningProgress.class));
+        verify(mListener, times(1)).onProvisioningFinished(any(ProvisioningProgress.class));
+        // Late events for the cancelled attempt are ignored.
+        pairingListener.onPairingAttemptSucceeded(device);
+        ShadowLooper.runUiThreadTasks();
+        verify(mListener, never()).onDeviceProvisioned(eq(device),
+                eq(ProvisioningStatus.BONDED), any(ProvisioningProgress.class));
+    }
+
+    @Test
+    public void verificationWhenConnectionAttemptRefusedShouldReportVerificationFailed() {
+        final BluetoothDevice device = createDevice("00:11:22:33:44:55",
+                BluetoothDevice.BOND_BONDED);
+        final ConnectionConfiguration connectionConfiguration =
+                mock(ConnectionConfiguration.class);
+        // A connection attempt already in progress causes the verification
+        // attempt to be refused.
+        mConnectionManager.connect(device, connectionConfiguration,
+                mock(ConnectionAttemptCallback.class));
+        mProvisioner.start(createRequest(device), connectionConfiguration, mListener);
+        ShadowLooper.runUiThreadTasks();
+        verify(mListener, times(1)).onDeviceProvisioned(eq(device),
+                eq(ProvisioningStatus.VERIFICATION_FAILED), any(ProvisioningProgress.class));
+    }
+
+    @Test
+    public void verificationWhenEarlierDeviceUsedRetriesShouldStartWithAllRetries()
+            throws IOException {
+        final BluetoothDevice device = createDevice("00:11:22:33:44:55",
+                BluetoothDevice.BOND_BONDED);
+        final BluetoothDevice nextDevice = createDevice("00:11:22:33:44:66",
+                BluetoothDevice.BOND_BONDED);
+        final Transport transport = mock(Transport.class);
+        when(transport.createSocket(any(BluetoothDevice.class), any(UUID.class), anyBoolean()))
+                .thenThrow(new IOException());
+        final ConnectionConfiguration connectionConfiguration = new ConnectionConfiguration(
+                UUID.randomUUID(), true, true, new ConnectionRetryPolicy.Builder()
+                        .setRetryCount(2)
+                        .setInitialRetryDelay(0)
+                        .build(), transport);
+        mProvisioner.start(createRequest(device, nextDevice), connectionConfiguration,
+                mListener);
+        ShadowLooper.runUiThreadTasks();
+        // Run the first device's connect task, failing every attempt.
+        final ConnectTask connectTask = captureConnectTasks().get(0);
+        connectTask.run();
+        ShadowLooper.runUiThreadTasks();
+        verify(mListener, times(1)).onDeviceProvisioned(eq(device),
+                eq(ProvisioningStatus.VERIFICATION_FAILED), any(ProvisioningProgress.class));
+        final ConnectTask nextConnectTask = captureConnectTasks().get(1);
+        final ConnectionRetryPolicy retryPolicy =
+                connectTask.getConnectionConfiguration().getConnectionRetryPolicy();
+        final ConnectionRetryPolicy nextRetryPolicy =
+                nextConnectTask.getConnectionConfiguration().getConnectionRetryPolicy();
+        assertNotSame(retryPolicy, nextRetryPolicy);
+        assertEquals(0, retryPolicy.getRemainingRetryCount());
+        assertEquals(2, nextRetryPolicy.getRemainingRetryCount());
+        assertEquals(0, nextRetryPolicy.getNumberOfRetriesAttempted());
+    }
+
+    private List<ConnectTask> captureConnectTasks() {
+        final ArgumentCaptor<ConnectTask> captor = ArgumentCaptor.forClass(ConnectTask.class);
+        verify(mConnectTaskExecutor, atLeastOnce()).submit(captor.capture());
+        return captor.getAllValues();
+    }
+
+    private ProvisioningRequest createRequest(BluetoothDevice... devices) {
+        return new ProvisioningRequest.Builder(Arrays.asList(devices))
+                .setMaximumAttemptCount(2)
+                .setPairingTimeoutMillis(PAIRING_TIMEOUT_MILLIS)
+                .setRetryDelayMillis(RETRY_DELAY_MILLIS)
+                .build();
+    }
+
+    private PairingMonitor.Listener capturePairingListener(BluetoothDevice device) {
+        final ArgumentCaptor<PairingMonitor.Listener> captor =
+                ArgumentCaptor.forClass(PairingMonitor.Listener.class);
+        verify(mPairingMonitor, times(1)).registerListener(eq(device), captor.capture());
+        return captor.getValue();
+    }
+
+    private static BluetoothDevice createDevice(String address, int bondState) {
+        final BluetoothDevice device = mock(BluetoothDevice.class);
+        when(device.getAddress()).thenReturn(address);
+        when(device.getBondState()).thenReturn(bondState);
+        return device;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanStartBudgetTests {
+
+    private static final int MAXIMUM_START_COUNT = 2;
+    private static final long WINDOW_MILLIS = 1000;
+
+    private ScanStartBudget mScanStartBudget;
+
+    @Before
+    public void setUp() {
+        mScanStartBudget = new ScanStartBudget(MAXIMUM_START_COUNT, WINDOW_MILLIS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorWhenMaximumStartCountIsNotPositiveShouldThrowIllegalArgumentException() {
+        new ScanStartBudget(0, WINDOW_MILLIS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorWhenWindowIsNotPositiveShouldThrowIllegalArgumentException() {
+        new ScanStartBudget(MAXIMUM_START_COUNT, 0);
+    }
+
+    @Test
+    public void tryAcquireWhenBudgetRemainsShouldReturnTrue() {
+        assertTrue(mScanStartBudget.tryAcquire(0));
+        assertTrue(mScanStartBudget.tryAcquire(100));
+        assertEquals(0, mScanStartBudget.getRemainingStartCount(100));
+    }
+
+    @Test
+    public void tryAcquireWhenBudgetIsExhaustedShouldReturnFalse() {
+        mScanStartBudget.tryAcquire(0);
+        mScanStartBudget.tryAcquire(100);
+        assertFalse(mScanStartBudget.tryAcquire(200));
+        assertEquals(800, mScanStartBudget.getMillisUntilNextStart(200));
+    }
+
+    @Test
+    public void tryAcquireWhenOldestStartHasLeftWindowShouldReturnTrue() {
+        mScanStartBudget.tryAcquire(0);
+        mScanStartBudget.tryAcquire(100);
+        assertTrue(mScanStartBudget.tryAcquire(WINDOW_MILLIS));
+        assertFalse(mScanStartBudget.tryAcquire(WINDOW_MILLIS + 50));
+    }
+
+    @Test
+    public void getMillisUntilNextStartWhenBudgetRemainsShouldReturnZero() {
+        mScanStartBudget.tryAcquire(0);
+        assertEquals(0, mScanStartBudget.getMillisUntilNextStart(100));
+    }
+}
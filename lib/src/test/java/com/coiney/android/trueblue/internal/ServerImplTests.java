@@ -0,0 +1,244 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+
+import com.coiney.android.trueblue.BuildConfig;
+import com.coiney.android.trueblue.Connection;
+import com.coiney.android.trueblue.ConnectionRejectionReason;
+import com.coiney.android.trueblue.ServerCallback;
+import com.coiney.android.trueblue.ServerConfiguration;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class ServerImplTests {
+
+    private static final UUID SERVICE_RECORD_UUID =
+            UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock private ServerCallback mCallback;
+    @Mock private ServerImpl.Listener mListener;
+    @Mock private ListeningSocket mListeningSocket;
+
+    private ConnectionManager mConnectionManager;
+
+    @Before
+    public void setUp() {
+        mConnectionManager = new ConnectionManager(mock(AdapterManager.class),
+                mock(PairingMonitor.class), mock(AclMonitor.class),
+                Executors.newSingleThreadExecutor(), mock(Logger.class));
+    }
+
+    @Test
+    public void runWhenCallbackAcceptsShouldRegisterConnectionAndNotifyCallback()
+            throws IOException {
+        final ListeningSocket.AcceptedSocket socket = createSocket("00:11:22:33:44:55");
+        final BluetoothDevice device = socket.getRemoteDevice();
+        when(mCallback.shouldAcceptConnection(device)).thenReturn(true);
+        final ServerImpl server = createServer(7);
+        acceptThenFail(server, socket);
+        assertTrue(mConnectionManager.isConnected(device));
+        assertEquals(1, server.getClientCount());
+        assertEquals(1, server.getAcceptedConnectionCount());
+        assertEquals(0, server.getRejectedConnectionCount());
+        assertEquals(1, server.getAcceptLatencyHistogram().getTotalCount());
+        ShadowLooper.runUiThreadTasks();
+        verify(mCallback).onConnectionAccepted(any(BluetoothDevice.class), any(Connection.class));
+    }
+
+    @Test
+    public void runWhenCallbackRejectsShouldCloseSocketAndNotifyCallback() throws IOException {
+        final ListeningSocket.AcceptedSocket socket = createSocket("00:11:22:33:44:55");
+        final BluetoothDevice device = socket.getRemoteDevice();
+        final ServerImpl server = createServer(7);
+        acceptThenFail(server, socket);
+        verify(socket).close();
+        assertFalse(mConnectionManager.isConnectedOrConnecting(device));
+        assertEquals(0, server.getClientCount());
+        assertEquals(1, server.getRejectedConnectionCount());
+        ShadowLooper.runUiThreadTasks();
+        verify(mCallback).onConnectionRejected(device,
+                ConnectionRejectionReason.REJECTED_BY_CALLBACK);
+    }
+
+    @Test
+    public void runWhenMaximumClientCountReachedShouldRejectWithoutAskingCallback()
+            throws IOException {
+        final ListeningSocket.AcceptedSocket firstSocket = createSocket("00:11:22:33:44:55");
+        final ListeningSocket.AcceptedSocket secondSocket = createSocket("00:11:22:33:44:66");
+        when(mCallback.shouldAcceptConnection(any(BluetoothDevice.class))).thenReturn(true);
+        final ServerImpl server = createServer(1);
+        acceptThenFail(server, firstSocket, secondSocket);
+        verify(mCallback, never()).shouldAcceptConnection(secondSocket.getRemoteDevice());
+        verify(secondSocket).close();
+        assertEquals(1, server.getClientCount());
+        ShadowLooper.runUiThreadTasks();
+        verify(mCallback).onConnectionRejected(secondSocket.getRemoteDevice(),
+                ConnectionRejectionReason.MAXIMUM_CLIENT_COUNT_REACHED);
+    }
+
+    @Test
+    public void runWhenDeviceIsAlreadyConnectedShouldRejectConnection() throws IOException {
+        final ListeningSocket.AcceptedSocket socket = createSocket("00:11:22:33:44:55");
+        final BluetoothDevice device = socket.getRemoteDevice();
+        when(mCallback.shouldAcceptConnection(device)).thenReturn(true);
+        mConnectionManager.registerInboundConnection(device, mock(Connection.class));
+        final ServerImpl server = createServer(7);
+        acceptThenFail(server, socket);
+        verify(socket).close();
+        assertEquals(0, server.getClientCount());
+        ShadowLooper.runUiThreadTasks();
+        verify(mCallback).onConnectionRejected(device,
+                ConnectionRejectionReason.ALREADY_CONNECTED);
+    }
+
+    @Test
+    public void runWhenStreamsCannotBeObtainedShouldRejectConnectionWithError()
+            throws IOException {
+        final ListeningSocket.AcceptedSocket socket = createSocket("00:11:22:33:44:55");
+        final BluetoothDevice device = socket.getRemoteDevice();
+        when(mCallback.shouldAcceptConnection(device)).thenReturn(true);
+        when(socket.getInputStream()).thenThrow(new IOException());
+        final ServerImpl server = createServer(7);
+        acceptThenFail(server, socket);
+        verify(socket).close();
+        assertEquals(0, server.getClientCount());
+        ShadowLooper.runUiThreadTasks();
+        verify(mCallback).onConnectionRejected(device, ConnectionRejectionReason.ERROR);
+    }
+
+    @Test
+    public void disconnectWhenConnectionWasAcceptedShouldReleaseClientSlot() throws IOException {
+        final ListeningSocket.AcceptedSocket socket = createSocket("00:11:22:33:44:55");
+        final BluetoothDevice device = socket.getRemoteDevice();
+        when(mCallback.shouldAcceptConnection(device)).thenReturn(true);
+        final ServerImpl server = createServer(7);
+        acceptThenFail(server, socket);
+        mConnectionManager.disconnect(device);
+        assertFalse(mConnectionManager.isConnectedOrConnecting(device));
+        assertEquals(0, server.getClientCount());
+    }
+
+    @Test
+    public void runWhenListeningSocketFailsShouldStopServerByError() throws IOException {
+        final ServerImpl server = createServer(7);
+        acceptThenFail(server);
+        assertFalse(server.isRunning());
+        verify(mListeningSocket).close();
+        verify(mListener).onServerStopped(server);
+        ShadowLooper.runUiThreadTasks();
+        verify(mCallback).onServerStopped(true);
+    }
+
+    @Test
+    public void stopShouldCloseListeningSocketAndNotifyCallbackOnce() throws IOException {
+        final ServerImpl server = createServer(7);
+        server.stop();
+        server.stop();
+        assertFalse(server.isRunning());
+        verify(mListeningSocket, times(1)).close();
+        verify(mListener, times(1)).onServerStopped(server);
+        ShadowLooper.runUiThreadTasks();
+        verify(mCallback, times(1)).onServerStopped(false);
+    }
+
+    @Test
+    public void dumpShouldDescribeServer() {
+        final ServerImpl server = createServer(3);
+        final StringWriter stringWriter = new StringWriter();
+        server.dump(new PrintWriter(stringWriter, true), "");
+        assertTrue(stringWriter.toString().startsWith("server serviceName=Counter uuid=" +
+                SERVICE_RECORD_UUID + " secure=true running=true clientCount=0 " +
+                "maximumClientCount=3 accepted=0 rejected=0"));
+    }
+
+    private ServerImpl createServer(int maximumClientCount) {
+        final ServerConfiguration configuration =
+                new ServerConfiguration.Builder("Counter", SERVICE_RECORD_UUID)
+                        .setMaximumClientCount(maximumClientCount)
+                        .build();
+        final Executor directExecutor = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        };
+        return new ServerImpl(configuration, mListeningSocket, mCallback, mConnectionManager,
+                directExecutor, mListener, mock(Logger.class));
+    }
+
+    private void acceptThenFail(ServerImpl server, ListeningSocket.AcceptedSocket... sockets)
+            throws IOException {
+        if (sockets.length > 0) {
+            final ListeningSocket.AcceptedSocket[] remainingSockets =
+                    new ListeningSocket.AcceptedSocket[sockets.length - 1];
+            System.arraycopy(sockets, 1, remainingSockets, 0, remainingSockets.length);
+            when(mListeningSocket.accept()).thenReturn(sockets[0], remainingSockets)
+                    .thenThrow(new IOException());
+        } else {
+            when(mListeningSocket.accept()).thenThrow(new IOException());
+        }
+        server.run();
+    }
+
+    private ListeningSocket.AcceptedSocket createSocket(String address) throws IOException {
+        final BluetoothDevice device = mock(BluetoothDevice.class);
+        when(device.getAddress()).thenReturn(address);
+        final ListeningSocket.AcceptedSocket socket = mock(ListeningSocket.AcceptedSocket.class);
+        when(socket.getRemoteDevice()).thenReturn(device);
+        when(socket.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        when(socket.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        return socket;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import com.coiney.android.trueblue.BuildConfig;
+import com.coiney.android.trueblue.Server;
+import com.coiney.android.trueblue.ServerCallback;
+import com.coiney.android.trueblue.ServerConfiguration;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class ServerManagerTests {
+
+    private static final ServerConfiguration CONFIGURATION = new ServerConfiguration.Builder(
+            "Counter", UUID.fromString("00001101-0000-1000-8000-00805F9B34FB")).build();
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock private AdapterManager mAdapterManager;
+    @Mock private ListeningSocket mListeningSocket;
+
+    private ServerManager mServerManager;
+
+    @Before
+    public void setUp() {
+        final ConnectionManager connectionManager = new ConnectionManager(mAdapterManager,
+                mock(PairingMonitor.class), mock(AclMonitor.class),
+                Executors.newSingleThreadExecutor(), mock(Logger.class));
+        mServerManager = new ServerManager(mAdapterManager, connectionManager,
+                mock(Logger.class));
+    }
+
+    @Test
+    public void startWhenServiceRecordCannotBeRegisteredShouldReturnNull() throws IOException {
+        when(mAdapterManager.listenUsingRfcomm("Counter", CONFIGURATION.getServiceRecordUuid(),
+                true)).thenThrow(new IOException());
+        assertNull(mServerManager.start(CONFIGURATION, mock(ServerCallback.class)));
+    }
+
+    @Test
+    public void startWhenL2capPreferredButNotSupportedShouldRegisterServiceRecord()
+            throws IOException {
+        final ServerConfiguration configuration = new ServerConfiguration.Builder(
+                "Counter", CONFIGURATION.getServiceRecordUuid())
+                .setL2capPreferred(true)
+                .build();
+        when(mAdapterManager.listenUsingRfcomm("Counter", CONFIGURATION.getServiceRecordUuid(),
+                true)).thenThrow(new IOException());
+        assertNull(mServerManager.start(configuration, mock(ServerCallback.class)));
+        verify(mAdapterManager, never()).listenUsingL2cap(anyBoolean());
+    }
+
+    @Test
+    public void stopAllWhenServerIsRunningShouldStopServer() throws Exception {
+        final CountDownLatch closedLatch = new CountDownLatch(1);
+        when(mAdapterManager.listenUsingRfcomm("Counter", CONFIGURATION.getServiceRecordUuid(),
+                true)).thenReturn(mListeningSocket);
+        when(mListeningSocket.accept()).thenAnswer(new Answer<ListeningSocket.AcceptedSocket>() {
+            @Override
+            public ListeningSocket.AcceptedSocket answer(InvocationOnMock invocation)
+                    throws Throwable {
+                closedLatch.await();
+                throw new IOException();
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                closedLatch.countDown();
+                return null;
+            }
+        }).when(mListeningSocket).close();
+        final Server server = mServerManager.start(CONFIGURATION, mock(ServerCallback.class));
+        assertNotNull(server);
+        assertTrue(server.isRunning());
+        assertTrue(dump().contains("runningCount=1"));
+        verify(mListeningSocket, timeout(1000)).accept();
+        mServerManager.stopAll();
+        assertFalse(server.isRunning());
+        assertTrue(dump().contains("runningCount=0"));
+    }
+
+    private String dump() {
+        final StringWriter stringWriter = new StringWriter();
+        mServerManager.dump(new PrintWriter(stringWriter, true), "");
+        return stringWriter.toString();
+    }
+}
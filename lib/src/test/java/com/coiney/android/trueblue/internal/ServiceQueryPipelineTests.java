@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelUuid;
+import android.os.Parcelable;
+
+import com.coiney.android.trueblue.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class ServiceQueryPipelineTests {
+
+    private static final long TIMEOUT_MILLIS = 1000;
+    private static final UUID SERVICE_UUID =
+            UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock private ServiceQueryPipeline.Callback mCallback;
+
+    private final Object mLock = new Object();
+    private ServiceQueryPipeline mServiceQueryPipeline;
+
+    @Before
+    public void setUp() {
+        mServiceQueryPipeline = new ServiceQueryPipeline(new Handler(Looper.getMainLooper()),
+                mLock, 1, mCallback, mock(Logger.class));
+    }
+
+    @Test
+    public void startShouldOnlyKeepMaximumNumberOfQueriesInFlight() {
+        final BluetoothDevice first = createDevice("00:00:00:00:00:01", true);
+        final BluetoothDevice second = createDevice("00:00:00:00:00:02", true);
+        synchronized (mLock) {
+            mServiceQueryPipeline.start(Arrays.asList(first, second), TIMEOUT_MILLIS);
+            assertEquals(1, mServiceQueryPipeline.getInFlightCount());
+            assertEquals(1, mServiceQueryPipeline.getPendingCount());
+        }
+        verify(first, times(1)).fetchUuidsWithSdp();
+        verify(second, never()).fetchUuidsWithSdp();
+    }
+
+    @Test
+    public void onUuidsReceivedShouldReportUuidsAndStartNextQuery() {
+        final BluetoothDevice first = createDevice("00:00:00:00:00:01", true);
+        final BluetoothDevice second = createDevice("00:00:00:00:00:02", true);
+        synchronized (mLock) {
+            mServiceQueryPipeline.start(Arrays.asList(first, second), TIMEOUT_MILLIS);
+            mServiceQueryPipeline.onUuidsReceived(first,
+                    new Parcelable[] { new ParcelUuid(SERVICE_UUID) });
+        }
+        verify(mCallback, times(1)).onServiceQueryCompleted(first,
+                Collections.singleton(SERVICE_UUID));
+        verify(second, times(1)).fetchUuidsWithSdp();
+    }
+
+    @Test
+    public void queryWhenTimedOutShouldReportNullUuidsAndFinish() {
+        final BluetoothDevice device = createDevice("00:00:00:00:00:01", true);
+        synchronized (mLock) {
+            mServiceQueryPipeline.start(Collections.singletonList(device), TIMEOUT_MILLIS);
+        }
+        ShadowLooper.idleMainLooper(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        verify(mCallback, times(1)).onServiceQueryCompleted(device, null);
+        verify(mCallback, times(1)).onServiceQueriesFinished();
+        synchronized (mLock) {
+            assertFalse(mServiceQueryPipeline.isRunning());
+        }
+    }
+
+    @Test
+    public void startWhenQueryCannotBeStartedShouldReportNullUuidsAndFinish() {
+        final BluetoothDevice device = createDevice("00:00:00:00:00:01", false);
+        synchronized (mLock) {
+            mServiceQueryPipeline.start(Collections.singletonList(device), TIMEOUT_MILLIS);
+        }
+        verify(mCallback, times(1)).onServiceQueryCompleted(device, null);
+        verify(mCallback, times(1)).onServiceQueriesFinished();
+    }
+
+    @Test
+    public void cancelWhenRunningShouldFinish() {
+        final BluetoothDevice device = createDevice("00:00:00:00:00:01", true);
+        synchronized (mLock) {
+            mServiceQueryPipeline.start(Collections.singletonList(device), TIMEOUT_MILLIS);
+            assertTrue(mServiceQueryPipeline.isRunning());
+            mServiceQueryPipeline.cancel();
+        }
+        ShadowLooper.idleMainLooper(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        verify(mCallback, never()).onServiceQueryCompleted(device, null);
+        verify(mCallback, times(1)).onServiceQueriesFinished();
+    }
+
+    @Test
+    public void onUuidsReceivedWhenDeviceIsNotBeingQueriedShouldBeIgnored() {
+        final BluetoothDevice device = createDevice("00:00:00:00:00:01", true);
+        synchronized (mLock) {
+            mServiceQueryPipeline.onUuidsReceived(device, new Parcelable[0]);
+        }
+        verify(mCallback, never()).onServiceQueryCompleted(device,
+                Collections.<UUID>emptySet());
+    }
+
+    private static BluetoothDevice createDevice(String address, boolean canFetchUuids) {
+        final BluetoothDevice device = mock(BluetoothDevice.class);
+        when(device.getAddress()).thenReturn(address);
+        when(device.fetchUuidsWithSdp()).thenReturn(canFetchUuids);
+        return device;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.coiney.android.trueblue.internal;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StripedCounterTests {
+
+    @Test
+    public void getWhenNothingAddedShouldReturnZero() {
+        assertEquals(0, new StripedCounter().get());
+    }
+
+    @Test
+    public void getWhenValuesAddedShouldReturnSum() {
+        final StripedCounter counter = new StripedCounter(4);
+        counter.add(5);
+        counter.add(7);
+        counter.increment();
+        assertEquals(13, counter.get());
+    }
+
+    @Test
+    public void getWhenValuesAddedFromMultipleThreadsShouldReturnSum() throws Exception {
+        final StripedCounter counter = new StripedCounter(4);
+        final int numberOfThreads = 8;
+        final int incrementsPerThread = 10000;
+        final CountDownLatch latch = new CountDownLatch(numberOfThreads);
+        for (int i = 0; i < numberOfThreads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < incrementsPerThread; j++) {
+                        counter.increment();
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        assertEquals(numberOfThreads * incrementsPerThread, counter.get());
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.internal;
+
+import android.bluetooth.BluetoothDevice;
+
+import com.coiney.android.trueblue.BuildConfig;
+import com.coiney.android.trueblue.TransportSocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class TcpTransportTests {
+
+    private static final byte[] DATA = new byte[] { 0x01, 0x02, 0x03 };
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock
+    private BluetoothDevice mDevice;
+    private ServerSocket mServerSocket;
+    private TcpTransport mTransport;
+
+    @Before
+    public void setUp() throws Exception {
+        mServerSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        mTransport = new TcpTransport(mServerSocket.getInetAddress().getHostAddress(),
+                mServerSocket.getLocalPort(), TIMEOUT_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        CloseableUtils.closeSilently(mServerSocket);
+    }
+
+    @Test
+    public void connectWhenEndpointIsListeningShouldAllowDataToBeExchanged() throws Exception {
+        final TransportSocket socket = mTransport.createSocket(mDevice, UUID.randomUUID(), true);
+        socket.connect();
+        final Socket peer = mServerSocket.accept();
+        try {
+            socket.getOutputStream().write(DATA);
+            assertArrayEquals(DATA, read(peer.getInputStream(), DATA.length));
+            peer.getOutputStream().write(DATA);
+            assertArrayEquals(DATA, read(socket.getInputStream(), DATA.length));
+        } finally {
+            socket.close();
+            peer.close();
+        }
+    }
+
+    @Test
+    public void connectWhenEndpointIsNotListeningShouldThrowIOException() throws Exception {
+        mServerSocket.close();
+        final TransportSocket socket = mTransport.createSocket(mDevice, UUID.randomUUID(), true);
+        try {
+            socket.connect();
+            fail();
+        } catch (IOException ignored) {}
+    }
+
+    @Test
+    public void connectWhenSocketClosedShouldThrowIOException() throws Exception {
+        final TransportSocket socket = mTransport.createSocket(mDevice, UUID.randomUUID(), true);
+        socket.close();
+        try {
+            socket.connect();
+            fail();
+        } catch (IOException ignored) {}
+    }
+
+    @Test
+    public void getNameShouldNotIncludeEndpoint() {
+        final TcpTransport transport = new TcpTransport("10.0.2.2", 9000, 0);
+        assertEquals("tcp", transport.getName());
+    }
+
+    private static byte[] read(InputStream inputStream, int length) throws IOException {
+        final byte[] buffer = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            final int numberOfBytesRead = inputStream.read(buffer, offset, length - offset);
+            if (numberOfBytesRead < 0) {
+                break;
+            }
+            offset += numberOfBytesRead;
+        }
+        return Arrays.copyOf(buffer, offset);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.coiney.android.trueblue.internal;
+
+import com.coiney.android.trueblue.BuildConfig;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class TraceUtilsTests {
+
+    @After
+    public void tearDown() {
+        TraceUtils.setEnabled(false);
+    }
+
+    @Test
+    public void isEnabledByDefaultShouldReturnFalse() {
+        assertFalse(TraceUtils.isEnabled());
+    }
+
+    @Test
+    public void beginSectionWhenDisabledShouldReturnFalse() {
+        assertFalse(TraceUtils.beginSection("test"));
+    }
+
+    @Test
+    public void beginSectionWhenEnabledShouldReturnTrue() {
+        TraceUtils.setEnabled(true);
+        final boolean isTracing = TraceUtils.beginSection("test");
+        TraceUtils.endSection(isTracing);
+        assertTrue(isTracing);
+    }
+
+    @Test
+    public void asyncSectionsAndCountersWhenNotSupportedShouldNotCrash() {
+        TraceUtils.setEnabled(true);
+        TraceUtils.beginAsyncSection("test", 1);
+        TraceUtils.endAsyncSection("test", 1);
+        TraceUtils.setCounter("test", 1);
+    }
+}
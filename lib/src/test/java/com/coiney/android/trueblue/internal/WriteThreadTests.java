@@ -17,15 +17,161 @@
 
 package com.coiney.android.trueblue.internal;
 
+import com.coiney.android.trueblue.BuildConfig;
+import com.coiney.android.trueblue.Connection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
 /**
- * There are currently no tests for WriteThread. It relies inherently on
- * threading and incorporates blocking I/O, so is very difficult to test
- * reliably.
- *
- * Coverage will be provided by static code analysis, code review, and manual
- * testing on actual devices.
- *
- * This file exists for the sake of completeness.
+ * Writes are performed on the thread under test, so each test waits on
+ * latches (with generous timeouts) rather than sleeping.
  */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
 public class WriteThreadTests {
+
+    private static final long TIMEOUT_MILLIS = 1000;
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock private WriteThread.Callback mCallback;
+    @Mock private Connection mConnection;
+
+    private final CountDownLatch mReleaseLatch = new CountDownLatch(1);
+    private final CountDownLatch mWriteStartedLatch = new CountDownLatch(1);
+    private WriteThread mWriteThread;
+
+    @Before
+    public void setUp() {
+        when(mConnection.isOpen()).thenReturn(true);
+        mWriteThread = new WriteThread(mConnection, new ConnectionMetrics(), mCallback);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mReleaseLatch.countDown();
+        mWriteThread.interrupt();
+        mWriteThread.join(TIMEOUT_MILLIS);
+    }
+
+    @Test
+    public void drainWhenThreadNotStartedShouldReleaseLatchImmediately() {
+        assertEquals(0, mWriteThread.drain().getCount());
+    }
+
+    @Test
+    public void drainWhenQueuedDataIsWrittenShouldReleaseLatchAfterEveryWrite() throws Exception {
+        final byte[] first = new byte[] { 1 };
+        final byte[] second = new byte[] { 2 };
+        mWriteThread.start();
+        mWriteThread.write(first);
+        mWriteThread.write(second);
+        assertTrue(mWriteThread.drain().await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        final InOrder inOrder = inOrder(mConnection, mCallback);
+        inOrder.verify(mConnection).write(first);
+        inOrder.verify(mCallback).onDataWritten(first);
+        inOrder.verify(mConnection).write(second);
+        inOrder.verify(mCallback).onDataWritten(second);
+        assertTrue(mWriteThread.removeUnsentData().isEmpty());
+    }
+
+    @Test
+    public void drainWhenWriteIsBlockedShouldNotReleaseLatch() throws Exception {
+        blockFirstWrite();
+        mWriteThread.start();
+        mWriteThread.write(new byte[] { 1 });
+        mWriteThread.write(new byte[] { 2 });
+        assertTrue(mWriteStartedLatch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertFalse(mWriteThread.drain().await(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void removeUnsentDataWhenWriteIsBlockedShouldReturnQueuedDataInOrder()
+            throws Exception {
+        final byte[] first = new byte[] { 1 };
+        final byte[] second = new byte[] { 2 };
+        final byte[] third = new byte[] { 3 };
+        blockFirstWrite();
+        mWriteThread.start();
+        mWriteThread.write(first);
+        mWriteThread.write(second);
+        mWriteThread.write(third);
+        assertTrue(mWriteStartedLatch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        final CountDownLatch drainLatch = mWriteThread.drain();
+        final List<byte[]> unsentData = mWriteThread.removeUnsentData();
+        assertEquals(2, unsentData.size());
+        assertSame(second, unsentData.get(0));
+        assertSame(third, unsentData.get(1));
+        // Removing the data also removes the marker queued behind it.
+        assertEquals(0, drainLatch.getCount());
+        mReleaseLatch.countDown();
+        verify(mCallback, timeout(TIMEOUT_MILLIS)).onDataWritten(first);
+        verify(mConnection, never()).write(second);
+        verify(mConnection, never()).write(third);
+    }
+
+    @Test
+    public void removeUnsentDataWhenWriteInProgressFailsShouldReportOnlyThatWrite()
+            throws Exception {
+        final byte[] first = new byte[] { 1 };
+        final byte[] second = new byte[] { 2 };
+        blockFirstWrite();
+        mWriteThread.start();
+        mWriteThread.write(first);
+        mWriteThread.write(second);
+        assertTrue(mWriteStartedLatch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        mWriteThread.drain();
+        assertSame(second, mWriteThread.removeUnsentData().get(0));
+        mWriteThread.interrupt();
+        verify(mCallback, timeout(TIMEOUT_MILLIS)).onWriteErrorEncountered(first);
+        verify(mCallback, never()).onWriteErrorEncountered(second);
+    }
+
+    // Block the first write until released, failing it if interrupted.
+    private void blockFirstWrite() throws IOException {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                mWriteStartedLatch.countDown();
+                try {
+                    mReleaseLatch.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted.");
+                }
+                return null;
+            }
+        }).doNothing().when(mConnection).write(any(byte[].class));
+    }
 }
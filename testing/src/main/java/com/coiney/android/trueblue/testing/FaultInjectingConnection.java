@@ -0,0 +1,636 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.testing;
+
+import android.support.annotation.NonNull;
+
+import com.coiney.android.trueblue.Connection;
+import com.coiney.android.trueblue.ConnectionClients;
+import com.coiney.android.trueblue.ConnectionStats;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * A {@link Connection} decorator which injects faults and delays into the
+ * reads, writes and closure of the connection it wraps, for seeing how code
+ * built on connections - including {@link ConnectionClients#wrap} - copes
+ * with them.
+ * </p>
+ *
+ * <p>
+ * The following faults are supported:
+ * </p>
+ *
+ * <ul>
+ *     <li>Delayed (slow) reads, writes and closure.</li>
+ *     <li>Read and write errors, either at given operation indices or at
+ *     random. These close the connection by error, just as a real error
+ *     would.</li>
+ *     <li>Partial writes, which write a random prefix of the data and then
+ *     fail as above.</li>
+ *     <li>Half-closure via {@link #shutdownInput()} and {@link
+ *     #shutdownOutput()}, after which every read or write respectively fails,
+ *     but the connection is left open.</li>
+ * </ul>
+ *
+ * <p>
+ * Random decisions for reads and writes are drawn from separate
+ * generators derived from a single seed, so they do not depend on how reads
+ * and writes on different threads interleave. Every operation is recorded in
+ * an event log - if a run fails, rerunning it with the seed from {@link
+ * #getRandomSeed()} replays the same faults.
+ * </p>
+ *
+ * <p>
+ * This class cannot be instantiated directly - instead, use an instance of
+ * the contained Builder class.
+ * </p>
+ */
+@ThreadSafe
+public final class FaultInjectingConnection implements Connection {
+
+    private final AtomicInteger mCloseCount = new AtomicInteger();
+    private final long mCloseDelayMillis;
+    private final Connection mDelegate;
+    private final List<Event> mEvents = new ArrayList<>();
+    private final Set<Integer> mFailingReadIndices;
+    private final Set<Integer> mFailingWriteIndices;
+    private final AtomicBoolean mIsClosedByFault = new AtomicBoolean(false);
+    private volatile boolean mIsInputShutdown;
+    private volatile boolean mIsOutputShutdown;
+    private final Set<OnCloseListener> mOnCloseListeners = new CopyOnWriteArraySet<>();
+    private final double mPartialWriteProbability;
+    private final AtomicInteger mReadCount = new AtomicInteger();
+    private final long mMaximumReadDelayMillis;
+    private final long mMinimumReadDelayMillis;
+    private final double mReadErrorProbability;
+    private final Random mReadRandom;
+    private final long mRandomSeed;
+    private final AtomicInteger mSequenceNumber = new AtomicInteger();
+    private final AtomicInteger mWriteCount = new AtomicInteger();
+    private final long mMaximumWriteDelayMillis;
+    private final long mMinimumWriteDelayMillis;
+    private final double mWriteErrorProbability;
+    private final Random mWriteRandom;
+
+    private FaultInjectingConnection(@NonNull Builder builder) {
+        mCloseDelayMillis = builder.mCloseDelayMillis;
+        mDelegate = builder.mDelegate;
+        mFailingReadIndices = new HashSet<>(builder.mFailingReadIndices);
+        mFailingWriteIndices = new HashSet<>(builder.mFailingWriteIndices);
+        mMaximumReadDelayMillis = builder.mMaximumReadDelayMillis;
+        mMaximumWriteDelayMillis = builder.mMaximumWriteDelayMillis;
+        mMinimumReadDelayMillis = builder.mMinimumReadDelayMillis;
+        mMinimumWriteDelayMillis = builder.mMinimumWriteDelayMillis;
+        mPartialWriteProbability = builder.mPartialWriteProbability;
+        mRandomSeed = builder.mRandomSeed != null ? builder.mRandomSeed : new Random().nextLong();
+        mReadErrorProbability = builder.mReadErrorProbability;
+        mWriteErrorProbability = builder.mWriteErrorProbability;
+        mReadRandom = new Random(mRandomSeed);
+        mWriteRandom = new Random(mRandomSeed + 1);
+        mDelegate.registerOnCloseListener(new OnCloseListener() {
+            @Override
+            public void onConnectionClosed(@NonNull Connection connection,
+                    boolean wasClosedByError) {
+                handleDelegateClosed(wasClosedByError);
+            }
+        });
+    }
+
+    /**
+     * Get the seed from which every random decision is derived, whether it was
+     * set explicitly or generated.
+     *
+     * @return random seed.
+     */
+    public long getRandomSeed() {
+        return mRandomSeed;
+    }
+
+    /**
+     * Get every operation performed on the connection so far, in the order in
+     * which they finished.
+     *
+     * @return snapshot of the event log.
+     */
+    @NonNull
+    public List<Event> getEvents() {
+        synchronized (mEvents) {
+            return Collections.unmodifiableList(new ArrayList<>(mEvents));
+        }
+    }
+
+    /**
+     * Shut down the input side of the connection, so that every subsequent
+     * read fails without closing the connection.
+     */
+    public void shutdownInput() {
+        mIsInputShutdown = true;
+    }
+
+    /**
+     * Shut down the output side of the connection, so that every subsequent
+     * write fails without closing the connection.
+     */
+    public void shutdownOutput() {
+        mIsOutputShutdown = true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mDelegate.isOpen();
+    }
+
+    @Override
+    public void close() {
+        final int index = mCloseCount.getAndIncrement();
+        try {
+            sleep(mCloseDelayMillis);
+        } catch (InterruptedIOException ignored) {
+            // Close regardless - the interrupt status has been restored.
+        }
+        record(Operation.CLOSE, index, Fault.NONE, mCloseDelayMillis, 0);
+        mDelegate.close();
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer) throws IOException {
+        final int index = mReadCount.getAndIncrement();
+        final long delayMillis;
+        final boolean shouldFail;
+        synchronized (mReadRandom) {
+            delayMillis = nextDelay(mReadRandom, mMinimumReadDelayMillis,
+                    mMaximumReadDelayMillis);
+            shouldFail = mReadRandom.nextDouble() < mReadErrorProbability
+                    || mFailingReadIndices.contains(index);
+        }
+        sleep(delayMillis);
+        if (mIsInputShutdown) {
+            record(Operation.READ, index, Fault.INPUT_SHUTDOWN, delayMillis, 0);
+            throw new IOException("Input shut down.");
+        }
+        if (shouldFail) {
+            record(Operation.READ, index, Fault.ERROR, delayMillis, 0);
+            failConnection();
+            throw new IOException("Injected read error.");
+        }
+        final int numberOfBytesRead = mDelegate.read(buffer);
+        record(Operation.READ, index, Fault.NONE, delayMillis, numberOfBytesRead);
+        return numberOfBytesRead;
+    }
+
+    @Override
+    public void write(@NonNull byte[] data) throws IOException {
+        final int index = mWriteCount.getAndIncrement();
+        final long delayMillis;
+        final boolean shouldFail;
+        final int partialWriteLength;
+        synchronized (mWriteRandom) {
+            delayMillis = nextDelay(mWriteRandom, mMinimumWriteDelayMillis,
+                    mMaximumWriteDelayMillis);
+            shouldFail = mWriteRandom.nextDouble() < mWriteErrorProbability
+                    || mFailingWriteIndices.contains(index);
+            partialWriteLength = mWriteRandom.nextDouble() < mPartialWriteProbability
+                    && data.length > 1 ? 1 + mWriteRandom.nextInt(data.length - 1) : 0;
+        }
+        sleep(delayMillis);
+        if (mIsOutputShutdown) {
+            record(Operation.WRITE, index, Fault.OUTPUT_SHUTDOWN, delayMillis, 0);
+            throw new IOException("Output shut down.");
+        }
+        if (shouldFail) {
+            record(Operation.WRITE, index, Fault.ERROR, delayMillis, 0);
+            failConnection();
+            throw new IOException("Injected write error.");
+        }
+        if (partialWriteLength > 0) {
+            mDelegate.write(Arrays.copyOf(data, partialWriteLength));
+            record(Operation.WRITE, index, Fault.PARTIAL_WRITE, delayMillis, partialWriteLength);
+            failConnection();
+            throw new IOException("Injected partial write.");
+        }
+        mDelegate.write(data);
+        record(Operation.WRITE, index, Fault.NONE, delayMillis, data.length);
+    }
+
+    @Override
+    public void registerOnCloseListener(@NonNull OnCloseListener listener) {
+        mOnCloseListeners.add(listener);
+    }
+
+    @Override
+    public void unregisterOnCloseListener(@NonNull OnCloseListener listener) {
+        mOnCloseListeners.remove(listener);
+    }
+
+    /**
+     * Get the statistics of the wrapped connection, which do not include any
+     * operations failed by injected faults.
+     *
+     * @return statistics snapshot.
+     */
+    @NonNull
+    @Override
+    public ConnectionStats getStats() {
+        return mDelegate.getStats();
+    }
+
+    private void failConnection() {
+        mIsClosedByFault.set(true);
+        mDelegate.close();
+    }
+
+    private void handleDelegateClosed(boolean wasClosedByError) {
+        final boolean wasClosedByFault = mIsClosedByFault.get();
+        for (OnCloseListener listener : mOnCloseListeners) {
+            listener.onConnectionClosed(this, wasClosedByError || wasClosedByFault);
+        }
+        mOnCloseListeners.clear();
+    }
+
+    private void record(@NonNull Operation operation, int index, @NonNull Fault fault,
+            long delayMillis, int byteCount) {
+        synchronized (mEvents) {
+            mEvents.add(new Event(mSequenceNumber.getAndIncrement(), operation, index, fault,
+                    delayMillis, byteCount));
+        }
+    }
+
+    private static long nextDelay(@NonNull Random random, long minimumMillis,
+            long maximumMillis) {
+        // Always draw, so that the sequence does not depend on configuration.
+        final double fraction = random.nextDouble();
+        return minimumMillis + (long) (fraction * (maximumMillis - minimumMillis));
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Operations recorded in the event log.
+     */
+    public enum Operation {
+        READ,
+        WRITE,
+        CLOSE
+    }
+
+    /**
+     * Faults recorded in the event log.
+     */
+    public enum Fault {
+
+        /**
+         * The operation was passed to the wrapped connection (possibly after
+         * a delay).
+         */
+        NONE,
+
+        /**
+         * The operation failed, closing the connection by error.
+         */
+        ERROR,
+
+        /**
+         * Only part of the data was written before the write failed, closing
+         * the connection by error.
+         */
+        PARTIAL_WRITE,
+
+        /**
+         * The read failed since the input side of the connection is shut
+         * down.
+         */
+        INPUT_SHUTDOWN,
+
+        /**
+         * The write failed since the output side of the connection is shut
+         * down.
+         */
+        OUTPUT_SHUTDOWN
+    }
+
+    /**
+     * A single operation performed on the connection.
+     */
+    public static final class Event {
+
+        private final int mByteCount;
+        private final long mDelayMillis;
+        private final Fault mFault;
+        private final int mIndex;
+        private final Operation mOperation;
+        private final int mSequenceNumber;
+
+        Event(int sequenceNumber, @NonNull Operation operation, int index,
+                @NonNull Fault fault, long delayMillis, int byteCount) {
+            mByteCount = byteCount;
+            mDelayMillis = delayMillis;
+            mFault = fault;
+            mIndex = index;
+            mOperation = operation;
+            mSequenceNumber = sequenceNumber;
+        }
+
+        /**
+         * Get the number of bytes actually read or written.
+         *
+         * @return byte count.
+         */
+        public int getByteCount() {
+            return mByteCount;
+        }
+
+        /**
+         * Get the delay injected before the operation.
+         *
+         * @return delay in milliseconds.
+         */
+        public long getDelayMillis() {
+            return mDelayMillis;
+        }
+
+        /**
+         * Get the fault injected into the operation.
+         *
+         * @return fault.
+         */
+        @NonNull
+        public Fault getFault() {
+            return mFault;
+        }
+
+        /**
+         * Get the index of the operation amongst operations of the same type.
+         *
+         * @return zero based index.
+         */
+        public int getIndex() {
+            return mIndex;
+        }
+
+        /**
+         * Get the type of operation.
+         *
+         * @return operation.
+         */
+        @NonNull
+        public Operation getOperation() {
+            return mOperation;
+        }
+
+        /**
+         * Get the position of the event in the log.
+         *
+         * @return zero based sequence number.
+         */
+        public int getSequenceNumber() {
+            return mSequenceNumber;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "#%d %s[%d] %s delayMs=%d bytes=%d",
+                    mSequenceNumber, mOperation, mIndex, mFault, mDelayMillis, mByteCount);
+        }
+    }
+
+    /**
+     * Builds {@link FaultInjectingConnection} instances.
+     */
+    public static final class Builder {
+
+        private long mCloseDelayMillis;
+        private final Connection mDelegate;
+        private final Set<Integer> mFailingReadIndices = new HashSet<>();
+        private final Set<Integer> mFailingWriteIndices = new HashSet<>();
+        private long mMaximumReadDelayMillis;
+        private long mMaximumWriteDelayMillis;
+        private long mMinimumReadDelayMillis;
+        private long mMinimumWriteDelayMillis;
+        private double mPartialWriteProbability;
+        private Long mRandomSeed;
+        private double mReadErrorProbability;
+        private double mWriteErrorProbability;
+
+        /**
+         * Create a builder instance for a decorator of the provided
+         * connection, with the default values - no faults or delays, and a
+         * randomly generated seed.
+         *
+         * @param connection to wrap.
+         */
+        public Builder(@NonNull Connection connection) {
+            mDelegate = connection;
+        }
+
+        /**
+         * Fail the read with the provided index (counting from zero), closing
+         * the connection by error.
+         *
+         * @param index of the read to fail.
+         *
+         * @return builder instance.
+         */
+        public Builder failRead(int index) {
+            mFailingReadIndices.add(index);
+            return this;
+        }
+
+        /**
+         * Fail the write with the provided index (counting from zero), closing
+         * the connection by error.
+         *
+         * @param index of the write to fail.
+         *
+         * @return builder instance.
+         */
+        public Builder failWrite(int index) {
+            mFailingWriteIndices.add(index);
+            return this;
+        }
+
+        /**
+         * Set the delay before the connection is closed.
+         *
+         * @param closeDelayMillis in milliseconds.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if closeDelayMillis is less than
+         *                                  zero.
+         */
+        public Builder setCloseDelayMillis(long closeDelayMillis) {
+            if (closeDelayMillis < 0) {
+                throw new IllegalArgumentException("Close delay must be at least 0.");
+            }
+            mCloseDelayMillis = closeDelayMillis;
+            return this;
+        }
+
+        /**
+         * Set the probability of any given write only writing a random part
+         * of its data before failing, closing the connection by error.
+         *
+         * @param partialWriteProbability between 0 and 1.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if partialWriteProbability is not
+         *                                  between 0 and 1.
+         */
+        public Builder setPartialWriteProbability(double partialWriteProbability) {
+            checkProbability(partialWriteProbability);
+            mPartialWriteProbability = partialWriteProbability;
+            return this;
+        }
+
+        /**
+         * Set the seed from which every random decision is derived, in order
+         * to replay a previous run.
+         *
+         * @param randomSeed to use.
+         *
+         * @return builder instance.
+         */
+        public Builder setRandomSeed(long randomSeed) {
+            mRandomSeed = randomSeed;
+            return this;
+        }
+
+        /**
+         * Set the range from which the delay before each read is randomly
+         * chosen.
+         *
+         * @param minimumMillis in milliseconds.
+         * @param maximumMillis in milliseconds.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if minimumMillis is less than zero
+         *                                  or greater than maximumMillis.
+         */
+        public Builder setReadDelayMillis(long minimumMillis, long maximumMillis) {
+            checkDelayRange(minimumMillis, maximumMillis);
+            mMaximumReadDelayMillis = maximumMillis;
+            mMinimumReadDelayMillis = minimumMillis;
+            return this;
+        }
+
+        /**
+         * Set the probability of any given read failing, closing the
+         * connection by error.
+         *
+         * @param readErrorProbability between 0 and 1.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if readErrorProbability is not
+         *                                  between 0 and 1.
+         */
+        public Builder setReadErrorProbability(double readErrorProbability) {
+            checkProbability(readErrorProbability);
+            mReadErrorProbability = readErrorProbability;
+            return this;
+        }
+
+        /**
+         * Set the range from which the delay before each write is randomly
+         * chosen.
+         *
+         * @param minimumMillis in milliseconds.
+         * @param maximumMillis in milliseconds.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if minimumMillis is less than zero
+         *                                  or greater than maximumMillis.
+         */
+        public Builder setWriteDelayMillis(long minimumMillis, long maximumMillis) {
+            checkDelayRange(minimumMillis, maximumMillis);
+            mMaximumWriteDelayMillis = maximumMillis;
+            mMinimumWriteDelayMillis = minimumMillis;
+            return this;
+        }
+
+        /**
+         * Set the probability of any given write failing, closing the
+         * connection by error.
+         *
+         * @param writeErrorProbability between 0 and 1.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if writeErrorProbability is not
+         *                                  between 0 and 1.
+         */
+        public Builder setWriteErrorProbability(double writeErrorProbability) {
+            checkProbability(writeErrorProbability);
+            mWriteErrorProbability = writeErrorProbability;
+            return this;
+        }
+
+        /**
+         * Create the decorator instance with the set values.
+         *
+         * @return fault injecting connection instance.
+         */
+        @NonNull
+        public FaultInjectingConnection build() {
+            return new FaultInjectingConnection(this);
+        }
+
+        private static void checkDelayRange(long minimumMillis, long maximumMillis) {
+            if (minimumMillis < 0 || minimumMillis > maximumMillis) {
+                throw new IllegalArgumentException("Delay range must be non-negative and " +
+                        "the minimum must not exceed the maximum.");
+            }
+        }
+
+        private static void checkProbability(double probability) {
+            if (probability < 0 || probability > 1) {
+                throw new IllegalArgumentException("Probability must be between 0 and 1.");
+            }
+        }
+    }
+}
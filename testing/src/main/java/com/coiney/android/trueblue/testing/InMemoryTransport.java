@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.testing;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+
+import com.coiney.android.trueblue.Connection;
+import com.coiney.android.trueblue.ConnectionAttemptConfiguration;
+import com.coiney.android.trueblue.Transport;
+import com.coiney.android.trueblue.TransportSocket;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * <p>
+ * A transport whose sockets connect to a {@link SimulatedDevice} entirely in
+ * memory, so that the whole connection pipeline - connection attempts,
+ * retries, connection management and connection clients - can be exercised
+ * without any Bluetooth hardware.
+ * </p>
+ *
+ * <p>
+ * Every device is connected to via the same simulated device, and the service
+ * record UUID and security flag are ignored. Set the transport via {@link
+ * ConnectionAttemptConfiguration.Builder#setTransport(Transport)}.
+ * </p>
+ */
+@ThreadSafe
+public final class InMemoryTransport implements Transport {
+
+    /**
+     * Name of the transport, as reported in connection statistics.
+     */
+    static final String NAME = "inMemory";
+
+    private final SimulatedDevice mDevice;
+
+    /**
+     * Create a transport which connects to the provided simulated device.
+     *
+     * @param device to connect to.
+     */
+    public InMemoryTransport(@NonNull SimulatedDevice device) {
+        mDevice = device;
+    }
+
+    @NonNull
+    @Override
+    public TransportSocket createSocket(@NonNull BluetoothDevice device,
+            @NonNull UUID serviceRecordUuid, boolean isSecure) {
+        return new InMemorySocket();
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * Socket which opens a new connection to the simulated device when
+     * connected, and exposes it via streams.
+     */
+    private final class InMemorySocket implements TransportSocket {
+
+        @GuardedBy("this")
+        private Connection mConnection;
+        @GuardedBy("this")
+        private boolean mIsClosed;
+
+        @Override
+        public synchronized void connect() throws IOException {
+            if (mIsClosed) {
+                throw new IOException("Socket closed.");
+            }
+            if (mConnection != null) {
+                throw new IOException("Socket already connected.");
+            }
+            mConnection = mDevice.connect();
+        }
+
+        @NonNull
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new ConnectionInputStream(getConnection());
+        }
+
+        @NonNull
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return new ConnectionOutputStream(getConnection());
+        }
+
+        @Override
+        public synchronized void close() {
+            mIsClosed = true;
+            if (mConnection != null) {
+                mConnection.close();
+            }
+        }
+
+        private synchronized Connection getConnection() throws IOException {
+            if (null == mConnection) {
+                throw new IOException("Socket not connected.");
+            }
+            return mConnection;
+        }
+    }
+
+    private static final class ConnectionInputStream extends InputStream {
+
+        private final Connection mConnection;
+
+        ConnectionInputStream(@NonNull Connection connection) {
+            mConnection = connection;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] buffer = new byte[1];
+            return read(buffer, 0, 1) < 0 ? -1 : buffer[0] & 0xFF;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (offset == 0 && length == buffer.length) {
+                return mConnection.read(buffer);
+            }
+            final byte[] chunk = new byte[length];
+            final int numberOfBytesRead = mConnection.read(chunk);
+            System.arraycopy(chunk, 0, buffer, offset, numberOfBytesRead);
+            return numberOfBytesRead;
+        }
+
+        @Override
+        public void close() {
+            mConnection.close();
+        }
+    }
+
+    private static final class ConnectionOutputStream extends OutputStream {
+
+        private final Connection mConnection;
+
+        ConnectionOutputStream(@NonNull Connection connection) {
+            mConnection = connection;
+        }
+
+        @Override
+        public void write(int value) throws IOException {
+            mConnection.write(new byte[] { (byte) value });
+        }
+
+        @Override
+        public void write(@NonNull byte[] data, int offset, int length) throws IOException {
+            mConnection.write(offset == 0 && length == data.length ? data
+                    : Arrays.copyOfRange(data, offset, offset + length));
+        }
+
+        @Override
+        public void close() {
+            mConnection.close();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.testing;
+
+import android.support.annotation.NonNull;
+
+import com.coiney.android.trueblue.Connection;
+
+/**
+ * <p>
+ * A {@link Connection} to a {@link SimulatedDevice}.
+ * </p>
+ *
+ * <p>
+ * Reads return the device's responses to data written to the connection, as
+ * well as any data pushed via {@link #push(byte[])}, each becoming readable
+ * once the device's latency has elapsed.
+ * </p>
+ */
+public interface SimulatedConnection extends Connection {
+
+    /**
+     * Make the provided data available to read from the connection, as if the
+     * device had sent it without being prompted. Has no effect if the
+     * connection is closed.
+     *
+     * @param data to send.
+     */
+    void push(@NonNull byte[] data);
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.testing;
+
+import android.support.annotation.NonNull;
+
+import com.coiney.android.trueblue.ConnectionStats;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Implementation of the {@link SimulatedConnection} interface, which mirrors
+ * the behaviour of the library's own connections - including closing the
+ * connection by error upon any read or write failure - without a Bluetooth
+ * socket.
+ * </p>
+ *
+ * <p>
+ * Data waiting to be read is held as a queue of chunks, each stamped with the
+ * time at which it becomes readable. Reads block until the chunk at the head
+ * of the queue is readable, and never span more than one chunk.
+ * </p>
+ *
+ * <p>
+ * Statistics are limited to counts and elapsed time - histograms are left
+ * empty, although write latencies are still measured by any client wrapping
+ * the connection.
+ * </p>
+ */
+@ThreadSafe
+final class SimulatedConnectionImpl implements SimulatedConnection {
+
+    private static final String TRANSPORT_NAME = "simulated";
+
+    private final AtomicLong mBytesRead = new AtomicLong();
+    private final AtomicLong mBytesWritten = new AtomicLong();
+    @GuardedBy("mClosedLock")
+    private long mClosedAtNanos;
+    private final Object mClosedLock = new Object();
+    private final long mCreatedAtNanos = System.nanoTime();
+    private final SimulatedDevice mDevice;
+    private final AtomicBoolean mIsOpen = new AtomicBoolean(true);
+    private final AtomicLong mMessagesRead = new AtomicLong();
+    private final AtomicLong mMessagesWritten = new AtomicLong();
+    private final Set<OnCloseListener> mOnCloseListeners = new CopyOnWriteArraySet<>();
+    @GuardedBy("mReadLock")
+    private final Queue<Chunk> mPendingChunks = new ArrayDeque<>();
+    private final Random mRandom;
+    private final AtomicLong mReadErrorCount = new AtomicLong();
+    private final Object mReadLock = new Object();
+    private final AtomicLong mWriteErrorCount = new AtomicLong();
+    private final Object mWriteLock = new Object();
+
+    /**
+     * Create a new connection to the provided device.
+     *
+     * @param device to simulate.
+     * @param random source for stalls, errors and fragmentation.
+     */
+    SimulatedConnectionImpl(@NonNull SimulatedDevice device, @NonNull Random random) {
+        mDevice = device;
+        mRandom = random;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mIsOpen.get();
+    }
+
+    @Override
+    public void close() {
+        closeConnection(false);
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer) throws IOException {
+        try {
+            stallRandomly();
+            failRandomly(mDevice.getReadErrorProbability(), "Simulated read error.");
+            final int numberOfBytesRead;
+            synchronized (mReadLock) {
+                final Chunk chunk = awaitReadableChunk();
+                numberOfBytesRead = chunk.read(buffer, getReadSize(buffer.length));
+                if (chunk.isEmpty()) {
+                    mPendingChunks.remove();
+                }
+            }
+            throttle(numberOfBytesRead);
+            if (numberOfBytesRead > 0) {
+                mBytesRead.addAndGet(numberOfBytesRead);
+                mMessagesRead.incrementAndGet();
+            }
+            return numberOfBytesRead;
+        } catch (IOException e) {
+            mReadErrorCount.incrementAndGet();
+            closeConnection(true);
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(@NonNull byte[] data) throws IOException {
+        synchronized (mWriteLock) {
+            try {
+                stallRandomly();
+                failRandomly(mDevice.getWriteErrorProbability(), "Simulated write error.");
+                throttle(data.length);
+                if (!mIsOpen.get()) {
+                    throw new IOException("Connection closed.");
+                }
+                mBytesWritten.addAndGet(data.length);
+                mMessagesWritten.incrementAndGet();
+            } catch (IOException e) {
+                mWriteErrorCount.incrementAndGet();
+                closeConnection(true);
+                throw e;
+            }
+            final byte[] response = mDevice.getResponder().respond(data);
+            if (response != null) {
+                push(response);
+            }
+        }
+    }
+
+    @Override
+    public void push(@NonNull byte[] data) {
+        if (data.length == 0) {
+            return;
+        }
+        final long readableAtNanos = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(mDevice.getLatencyMillis());
+        synchronized (mReadLock) {
+            if (mIsOpen.get()) {
+                mPendingChunks.add(new Chunk(data.clone(), readableAtNanos));
+                mReadLock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void registerOnCloseListener(@NonNull OnCloseListener listener) {
+        mOnCloseListeners.add(listener);
+    }
+
+    @Override
+    public void unregisterOnCloseListener(@NonNull OnCloseListener listener) {
+        mOnCloseListeners.remove(listener);
+    }
+
+    @NonNull
+    @Override
+    public ConnectionStats getStats() {
+        final long endNanos;
+        synchronized (mClosedLock) {
+            endNanos = mIsOpen.get() ? System.nanoTime() : mClosedAtNanos;
+        }
+        return new ConnectionStats.Builder()
+                .setBytesRead(mBytesRead.get())
+                .setBytesWritten(mBytesWritten.get())
+                .setElapsedTimeMillis(TimeUnit.NANOSECONDS.toMillis(endNanos - mCreatedAtNanos))
+                .setMessagesRead(mMessagesRead.get())
+                .setMessagesWritten(mMessagesWritten.get())
+                .setReadErrorCount(mReadErrorCount.get())
+                .setTransportName(TRANSPORT_NAME)
+                .setWriteErrorCount(mWriteErrorCount.get())
+                .build();
+    }
+
+    @GuardedBy("mReadLock")
+    private Chunk awaitReadableChunk() throws IOException {
+        try {
+            while (true) {
+                if (!mIsOpen.get()) {
+                    throw new IOException("Connection closed.");
+                }
+                final Chunk chunk = mPendingChunks.peek();
+                if (chunk == null) {
+                    mReadLock.wait();
+                    continue;
+                }
+                final long remainingNanos = chunk.mReadableAtNanos - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    return chunk;
+                }
+                TimeUnit.NANOSECONDS.timedWait(mReadLock, remainingNanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private int getReadSize(int bufferSize) {
+        final int maximumReadSize = mDevice.getMaximumReadSize();
+        if (maximumReadSize <= 0) {
+            return bufferSize;
+        }
+        return Math.min(bufferSize, 1 + mRandom.nextInt(maximumReadSize));
+    }
+
+    private void stallRandomly() throws IOException {
+        if (mRandom.nextDouble() < mDevice.getStallProbability()) {
+            sleep(TimeUnit.MILLISECONDS.toNanos(mDevice.getStallDurationMillis()));
+        }
+    }
+
+    private void failRandomly(double probability, String message) throws IOException {
+        if (mRandom.nextDouble() < probability) {
+            throw new IOException(message);
+        }
+    }
+
+    private void throttle(int numberOfBytes) throws IOException {
+        final long bandwidthBytesPerSecond = mDevice.getBandwidthBytesPerSecond();
+        if (bandwidthBytesPerSecond > 0) {
+            sleep(TimeUnit.SECONDS.toNanos(numberOfBytes) / bandwidthBytesPerSecond);
+        }
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void closeConnection(boolean wasClosedByError) {
+        // Stop the clock before the connection is seen to be closed.
+        synchronized (mClosedLock) {
+            if (!mIsOpen.get()) {
+                return;
+            }
+            mClosedAtNanos = System.nanoTime();
+            mIsOpen.set(false);
+        }
+        synchronized (mReadLock) {
+            mPendingChunks.clear();
+            mReadLock.notifyAll();
+        }
+        for (OnCloseListener listener : mOnCloseListeners) {
+            listener.onConnectionClosed(this, wasClosedByError);
+        }
+        mOnCloseListeners.clear();
+    }
+
+    /**
+     * Data sent by the device, which becomes readable at a given time.
+     */
+    private static final class Chunk {
+
+        private final byte[] mData;
+        private int mPosition;
+        final long mReadableAtNanos;
+
+        Chunk(@NonNull byte[] data, long readableAtNanos) {
+            mData = data;
+            mReadableAtNanos = readableAtNanos;
+        }
+
+        int read(@NonNull byte[] buffer, int maximumLength) {
+            final int numberOfBytes = Math.min(maximumLength, mData.length - mPosition);
+            System.arraycopy(mData, mPosition, buffer, 0, numberOfBytes);
+            mPosition += numberOfBytes;
+            return numberOfBytes;
+        }
+
+        boolean isEmpty() {
+            return mPosition == mData.length;
+        }
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.testing;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.coiney.android.trueblue.Connection;
+import com.coiney.android.trueblue.ConnectionClients;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A scriptable stand-in for a real Bluetooth device, allowing code built on
+ * {@link Connection} and {@link ConnectionClients} to be exercised under
+ * realistic conditions without any hardware - whether from Robolectric tests
+ * or from standalone load and soak harnesses.
+ * </p>
+ *
+ * <p>
+ * Each call to {@link #connect()} creates a new, independent connection to the
+ * device. Data written to a connection is passed to the device's responder,
+ * and any response becomes readable from the connection once the configured
+ * latency has elapsed. Reads and writes can additionally be limited to a
+ * maximum bandwidth, fragmented, randomly stalled and randomly failed. An
+ * injected failure closes the connection, just as a real read or write error
+ * would.
+ * </p>
+ *
+ * <p>
+ * This class cannot be instantiated directly - instead, use an instance of
+ * the contained Builder class.
+ * </p>
+ */
+public final class SimulatedDevice {
+
+    /**
+     * Responder which sends every message straight back.
+     */
+    public static final Responder ECHO = new Responder() {
+        @Nullable
+        @Override
+        public byte[] respond(@NonNull byte[] data) {
+            return data;
+        }
+    };
+
+    private final long mBandwidthBytesPerSecond;
+    private final AtomicLong mConnectionCount = new AtomicLong();
+    private final long mLatencyMillis;
+    private final int mMaximumReadSize;
+    private final Long mRandomSeed;
+    private final double mReadErrorProbability;
+    private final Responder mResponder;
+    private final long mStallDurationMillis;
+    private final double mStallProbability;
+    private final double mWriteErrorProbability;
+
+    private SimulatedDevice(@NonNull Builder builder) {
+        mBandwidthBytesPerSecond = builder.mBandwidthBytesPerSecond;
+        mLatencyMillis = builder.mLatencyMillis;
+        mMaximumReadSize = builder.mMaximumReadSize;
+        mRandomSeed = builder.mRandomSeed;
+        mReadErrorProbability = builder.mReadErrorProbability;
+        mResponder = new ScriptedResponder(new HashMap<>(builder.mScriptedResponses),
+                builder.mResponder);
+        mStallDurationMillis = builder.mStallDurationMillis;
+        mStallProbability = builder.mStallProbability;
+        mWriteErrorProbability = builder.mWriteErrorProbability;
+    }
+
+    /**
+     * Open a new connection to the device.
+     *
+     * @return connection.
+     */
+    @NonNull
+    public SimulatedConnection connect() {
+        // Derive a distinct but reproducible seed for each connection.
+        final long connectionIndex = mConnectionCount.getAndIncrement();
+        final Random random = mRandomSeed != null ? new Random(mRandomSeed + connectionIndex)
+                : new Random();
+        return new SimulatedConnectionImpl(this, random);
+    }
+
+    /**
+     * Get the maximum rate at which data is read from and written to each
+     * connection.
+     *
+     * @return bandwidth in bytes per second, or 0 if unlimited.
+     */
+    public long getBandwidthBytesPerSecond() {
+        return mBandwidthBytesPerSecond;
+    }
+
+    /**
+     * Get the time between data being sent by the device and it becoming
+     * readable from the connection.
+     *
+     * @return latency in milliseconds.
+     */
+    public long getLatencyMillis() {
+        return mLatencyMillis;
+    }
+
+    /**
+     * Get the maximum number of bytes returned by a single read. Each read
+     * returns a random number of bytes up to this limit.
+     *
+     * @return maximum read size, or 0 if reads are not fragmented.
+     */
+    public int getMaximumReadSize() {
+        return mMaximumReadSize;
+    }
+
+    /**
+     * Get the probability of any given read failing.
+     *
+     * @return probability between 0 and 1.
+     */
+    public double getReadErrorProbability() {
+        return mReadErrorProbability;
+    }
+
+    /**
+     * Get the responder which determines how the device responds to data
+     * written to it, taking any scripted responses into account.
+     *
+     * @return responder.
+     */
+    @NonNull
+    public Responder getResponder() {
+        return mResponder;
+    }
+
+    /**
+     * Get the duration of each random stall.
+     *
+     * @return stall duration in milliseconds.
+     */
+    public long getStallDurationMillis() {
+        return mStallDurationMillis;
+    }
+
+    /**
+     * Get the probability of any given read or write stalling before it
+     * proceeds.
+     *
+     * @return probability between 0 and 1.
+     */
+    public double getStallProbability() {
+        return mStallProbability;
+    }
+
+    /**
+     * Get the probability of any given write failing.
+     *
+     * @return probability between 0 and 1.
+     */
+    public double getWriteErrorProbability() {
+        return mWriteErrorProbability;
+    }
+
+    /**
+     * Determines how a simulated device responds to data written to it.
+     * Implementations must be thread safe, since they may be called for
+     * several connections at once.
+     */
+    public interface Responder {
+
+        /**
+         * Respond to data written to the device.
+         *
+         * @param data written, exactly as passed to {@link
+         *             Connection#write(byte[])}.
+         *
+         * @return response to make readable, or null if there is none.
+         */
+        @Nullable
+        byte[] respond(@NonNull byte[] data);
+    }
+
+    /**
+     * Responds with the scripted response for any exactly matching message,
+     * and defers to the fallback responder (if any) otherwise.
+     */
+    private static final class ScriptedResponder implements Responder {
+
+        private final Responder mFallbackResponder;
+        private final Map<ByteBuffer, byte[]> mScriptedResponses;
+
+        ScriptedResponder(@NonNull Map<ByteBuffer, byte[]> scriptedResponses,
+                @Nullable Responder fallbackResponder) {
+            mFallbackResponder = fallbackResponder;
+            mScriptedResponses = Collections.unmodifiableMap(scriptedResponses);
+        }
+
+        @Nullable
+        @Override
+        public byte[] respond(@NonNull byte[] data) {
+            final byte[] response = mScriptedResponses.get(ByteBuffer.wrap(data));
+            if (response != null) {
+                return response.clone();
+            }
+            return mFallbackResponder != null ? mFallbackResponder.respond(data) : null;
+        }
+    }
+
+    /**
+     * Builds {@link SimulatedDevice} instances.
+     */
+    public static final class Builder {
+
+        private long mBandwidthBytesPerSecond;
+        private long mLatencyMillis;
+        private int mMaximumReadSize;
+        private Long mRandomSeed;
+        private double mReadErrorProbability;
+        private Responder mResponder;
+        private final Map<ByteBuffer, byte[]> mScriptedResponses = new HashMap<>();
+        private long mStallDurationMillis;
+        private double mStallProbability;
+        private double mWriteErrorProbability;
+
+        /**
+         * Create a builder instance with the default values - a device with no
+         * latency, unlimited bandwidth, unfragmented reads, no stalls or
+         * errors, and which never responds.
+         */
+        public Builder() {}
+
+        /**
+         * Add a scripted response, sent whenever data exactly matching the
+         * request is written. Scripted responses take precedence over the
+         * responder.
+         *
+         * @param request to respond to.
+         * @param response to send.
+         *
+         * @return builder instance.
+         */
+        public Builder addScriptedResponse(@NonNull byte[] request, @NonNull byte[] response) {
+            mScriptedResponses.put(ByteBuffer.wrap(request.clone()), response.clone());
+            return this;
+        }
+
+        /**
+         * Set the maximum rate at which data is read from and written to each
+         * connection.
+         *
+         * @param bandwidthBytesPerSecond in bytes per second, or 0 for
+         *                                unlimited.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if bandwidthBytesPerSecond is less
+         *                                  than zero.
+         */
+        public Builder setBandwidthBytesPerSecond(long bandwidthBytesPerSecond) {
+            if (bandwidthBytesPerSecond < 0) {
+                throw new IllegalArgumentException("Bandwidth must be at least 0.");
+            }
+            mBandwidthBytesPerSecond = bandwidthBytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Set the time between data being sent by the device and it becoming
+         * readable from the connection.
+         *
+         * @param latencyMillis in milliseconds.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if latencyMillis is less than zero.
+         */
+        public Builder setLatencyMillis(long latencyMillis) {
+            if (latencyMillis < 0) {
+                throw new IllegalArgumentException("Latency must be at least 0.");
+            }
+            mLatencyMillis = latencyMillis;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of bytes returned by a single read, so that
+         * messages are split across several reads. Each read returns a random
+         * number of bytes up to this limit.
+         *
+         * @param maximumReadSize in bytes, or 0 for unfragmented reads.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if maximumReadSize is less than
+         *                                  zero.
+         */
+        public Builder setMaximumReadSize(int maximumReadSize) {
+            if (maximumReadSize < 0) {
+                throw new IllegalArgumentException("Maximum read size must be at least 0.");
+            }
+            mMaximumReadSize = maximumReadSize;
+            return this;
+        }
+
+        /**
+         * Set the seed for the random stalls, errors and fragmentation, so
+         * that runs can be reproduced.
+         *
+         * @param randomSeed to use.
+         *
+         * @return builder instance.
+         */
+        public Builder setRandomSeed(long randomSeed) {
+            mRandomSeed = randomSeed;
+            return this;
+        }
+
+        /**
+         * Set the probability of any given read failing.
+         *
+         * @param readErrorProbability between 0 and 1.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if readErrorProbability is not
+         *                                  between 0 and 1.
+         */
+        public Builder setReadErrorProbability(double readErrorProbability) {
+            checkProbability(readErrorProbability);
+            mReadErrorProbability = readErrorProbability;
+            return this;
+        }
+
+        /**
+         * Set the responder which determines how the device responds to data
+         * written to it which does not match a scripted response.
+         *
+         * @param responder to use (e.g. {@link #ECHO}), or null if the device
+         *                  is not to respond.
+         *
+         * @return builder instance.
+         */
+        public Builder setResponder(@Nullable Responder responder) {
+            mResponder = responder;
+            return this;
+        }
+
+        /**
+         * Set the probability of any given read or write stalling, and how
+         * long each stall lasts.
+         *
+         * @param stallProbability between 0 and 1.
+         * @param stallDurationMillis in milliseconds.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if stallProbability is not between 0
+         *                                  and 1, or stallDurationMillis is less
+         *                                  than zero.
+         */
+        public Builder setStalls(double stallProbability, long stallDurationMillis) {
+            checkProbability(stallProbability);
+            if (stallDurationMillis < 0) {
+                throw new IllegalArgumentException("Stall duration must be at least 0.");
+            }
+            mStallDurationMillis = stallDurationMillis;
+            mStallProbability = stallProbability;
+            return this;
+        }
+
+        /**
+         * Set the probability of any given write failing.
+         *
+         * @param writeErrorProbability between 0 and 1.
+         *
+         * @return builder instance.
+         *
+         * @throws IllegalArgumentException if writeErrorProbability is not
+         *                                  between 0 and 1.
+         */
+        public Builder setWriteErrorProbability(double writeErrorProbability) {
+            checkProbability(writeErrorProbability);
+            mWriteErrorProbability = writeErrorProbability;
+            return this;
+        }
+
+        /**
+         * Create the simulated device instance with the set values.
+         *
+         * @return simulated device instance.
+         */
+        @NonNull
+        public SimulatedDevice build() {
+            return new SimulatedDevice(this);
+        }
+
+        private static void checkProbability(double probability) {
+            if (probability < 0 || probability > 1) {
+                throw new IllegalArgumentException("Probability must be between 0 and 1.");
+            }
+        }
+    }
+}
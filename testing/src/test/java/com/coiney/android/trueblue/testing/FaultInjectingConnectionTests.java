@@ -0,0 +1,223 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.testing;
+
+import com.coiney.android.trueblue.Connection;
+import com.coiney.android.trueblue.ConnectionClient;
+import com.coiney.android.trueblue.ConnectionClients;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class FaultInjectingConnectionTests {
+
+    private static final byte[] DATA = new byte[] { 0x01, 0x02, 0x03, 0x04, 0x05, 0x06 };
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Test
+    public void readAndWriteWhenNoFaultsConfiguredShouldPassThrough() throws Exception {
+        final FaultInjectingConnection connection =
+                new FaultInjectingConnection.Builder(createEchoConnection()).build();
+        connection.write(DATA);
+        assertArrayEquals(DATA, read(connection));
+        assertEquals(2, connection.getEvents().size());
+        assertEquals(FaultInjectingConnection.Fault.NONE,
+                connection.getEvents().get(0).getFault());
+    }
+
+    @Test
+    public void writeAtFailingIndexShouldThrowAndCloseConnectionByError() throws Exception {
+        final FaultInjectingConnection connection =
+                new FaultInjectingConnection.Builder(createEchoConnection())
+                        .failWrite(1)
+                        .build();
+        final Connection.OnCloseListener listener = mock(Connection.OnCloseListener.class);
+        connection.registerOnCloseListener(listener);
+        connection.write(DATA);
+        try {
+            connection.write(DATA);
+            fail();
+        } catch (IOException ignored) {}
+        assertFalse(connection.isOpen());
+        verify(listener, times(1)).onConnectionClosed(connection, true);
+    }
+
+    @Test
+    public void readAtFailingIndexShouldThrowAndCloseConnectionByError() throws Exception {
+        final FaultInjectingConnection connection =
+                new FaultInjectingConnection.Builder(createEchoConnection())
+                        .failRead(0)
+                        .build();
+        connection.write(DATA);
+        try {
+            read(connection);
+            fail();
+        } catch (IOException ignored) {}
+        assertFalse(connection.isOpen());
+    }
+
+    @Test
+    public void writeWhenPartialWriteInjectedShouldOnlyWritePartOfData() {
+        final Connection delegate = createEchoConnection();
+        final FaultInjectingConnection connection =
+                new FaultInjectingConnection.Builder(delegate)
+                        .setPartialWriteProbability(1)
+                        .build();
+        try {
+            connection.write(DATA);
+            fail();
+        } catch (IOException ignored) {}
+        final FaultInjectingConnection.Event event = connection.getEvents().get(0);
+        assertEquals(FaultInjectingConnection.Fault.PARTIAL_WRITE, event.getFault());
+        assertTrue(event.getByteCount() > 0 && event.getByteCount() < DATA.length);
+        assertEquals(event.getByteCount(), delegate.getStats().getBytesWritten());
+        assertFalse(connection.isOpen());
+    }
+
+    @Test
+    public void shutdownOutputShouldFailWritesButLeaveConnectionOpenForReads() throws Exception {
+        final SimulatedConnection delegate = createEchoConnection();
+        final FaultInjectingConnection connection =
+                new FaultInjectingConnection.Builder(delegate).build();
+        connection.shutdownOutput();
+        try {
+            connection.write(DATA);
+            fail();
+        } catch (IOException ignored) {}
+        assertTrue(connection.isOpen());
+        delegate.push(DATA);
+        assertArrayEquals(DATA, read(connection));
+    }
+
+    @Test
+    public void shutdownInputShouldFailReadsButLeaveConnectionOpenForWrites() throws Exception {
+        final FaultInjectingConnection connection =
+                new FaultInjectingConnection.Builder(createEchoConnection()).build();
+        connection.shutdownInput();
+        connection.write(DATA);
+        try {
+            read(connection);
+            fail();
+        } catch (IOException ignored) {}
+        assertTrue(connection.isOpen());
+        connection.write(DATA);
+    }
+
+    @Test
+    public void readWhenReadDelayConfiguredShouldBeDelayed() throws Exception {
+        final FaultInjectingConnection connection =
+                new FaultInjectingConnection.Builder(createEchoConnection())
+                        .setReadDelayMillis(100, 100)
+                        .build();
+        connection.write(DATA);
+        final long startedAtNanos = System.nanoTime();
+        read(connection);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAtNanos) >= 100);
+        assertEquals(100, connection.getEvents().get(1).getDelayMillis());
+    }
+
+    @Test
+    public void runsWithSameSeedShouldInjectSameFaults() {
+        final List<FaultInjectingConnection.Fault> firstFaults = runRandomWrites(42);
+        final List<FaultInjectingConnection.Fault> secondFaults = runRandomWrites(42);
+        assertEquals(firstFaults, secondFaults);
+        assertTrue(firstFaults.contains(FaultInjectingConnection.Fault.ERROR));
+    }
+
+    @Test
+    public void getRandomSeedWhenNotSetShouldReturnGeneratedSeedWhichReplaysRun() {
+        final FaultInjectingConnection connection =
+                new FaultInjectingConnection.Builder(createEchoConnection()).build();
+        assertEquals(runRandomWrites(connection.getRandomSeed()),
+                runRandomWrites(connection.getRandomSeed()));
+    }
+
+    @Test
+    public void wrapWhenWriteFailsShouldReportConnectionClosedByError() {
+        final FaultInjectingConnection connection =
+                new FaultInjectingConnection.Builder(createEchoConnection())
+                        .failWrite(0)
+                        .build();
+        final ConnectionClient.Callback callback = mock(ConnectionClient.Callback.class);
+        final ConnectionClient client = ConnectionClients.wrap(connection, 16, callback);
+        client.write(DATA);
+        verify(callback, timeout(TIMEOUT_MILLIS)).onConnectionClosed(client, true);
+        verify(callback, timeout(TIMEOUT_MILLIS)).onWriteErrorEncountered(client, DATA);
+    }
+
+    private static SimulatedConnection createEchoConnection() {
+        return new SimulatedDevice.Builder()
+                .setResponder(SimulatedDevice.ECHO)
+                .build()
+                .connect();
+    }
+
+    private static List<FaultInjectingConnection.Fault> runRandomWrites(long seed) {
+        final List<FaultInjectingConnection.Fault> faults = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final FaultInjectingConnection connection =
+                    new FaultInjectingConnection.Builder(createEchoConnection())
+                            .setRandomSeed(seed + i)
+                            .setWriteErrorProbability(0.2)
+                            .build();
+            try {
+                while (connection.isOpen()) {
+                    connection.write(DATA);
+                }
+            } catch (IOException ignored) {}
+            for (FaultInjectingConnection.Event event : connection.getEvents()) {
+                faults.add(event.getFault());
+            }
+        }
+        return faults;
+    }
+
+    private static byte[] read(Connection connection) throws IOException {
+        final byte[] buffer = new byte[64];
+        final int numberOfBytesRead = connection.read(buffer);
+        return Arrays.copyOf(buffer, numberOfBytesRead);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.testing;
+
+import android.bluetooth.BluetoothDevice;
+
+import com.coiney.android.trueblue.TransportSocket;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class InMemoryTransportTests {
+
+    private static final byte[] DATA = new byte[] { 0x01, 0x02, 0x03 };
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Mock
+    private BluetoothDevice mDevice;
+    private InMemoryTransport mTransport;
+
+    @Before
+    public void setUp() {
+        mTransport = new InMemoryTransport(new SimulatedDevice.Builder()
+                .setResponder(SimulatedDevice.ECHO)
+                .build());
+    }
+
+    @Test
+    public void connectShouldAllowDataToBeExchangedWithSimulatedDevice() throws Exception {
+        final TransportSocket socket = mTransport.createSocket(mDevice, UUID.randomUUID(), true);
+        socket.connect();
+        socket.getOutputStream().write(DATA);
+        assertArrayEquals(DATA, read(socket.getInputStream(), 16));
+    }
+
+    @Test
+    public void getInputStreamWhenNotConnectedShouldThrowIOException() throws Exception {
+        final TransportSocket socket = mTransport.createSocket(mDevice, UUID.randomUUID(), true);
+        try {
+            socket.getInputStream();
+            fail();
+        } catch (IOException ignored) {}
+    }
+
+    @Test
+    public void connectWhenSocketClosedShouldThrowIOException() throws Exception {
+        final TransportSocket socket = mTransport.createSocket(mDevice, UUID.randomUUID(), true);
+        socket.close();
+        try {
+            socket.connect();
+            fail();
+        } catch (IOException ignored) {}
+    }
+
+    @Test
+    public void readWhenSocketClosedShouldThrowIOException() throws Exception {
+        final TransportSocket socket = mTransport.createSocket(mDevice, UUID.randomUUID(), true);
+        socket.connect();
+        final InputStream inputStream = socket.getInputStream();
+        socket.close();
+        try {
+            inputStream.read(new byte[16]);
+            fail();
+        } catch (IOException ignored) {}
+    }
+
+    @Test
+    public void readWhenBufferRangeProvidedShouldReadIntoRange() throws Exception {
+        final TransportSocket socket = mTransport.createSocket(mDevice, UUID.randomUUID(), true);
+        socket.connect();
+        socket.getOutputStream().write(DATA);
+        final byte[] buffer = new byte[8];
+        final int numberOfBytesRead = socket.getInputStream().read(buffer, 2, 4);
+        assertEquals(DATA.length, numberOfBytesRead);
+        assertArrayEquals(DATA, Arrays.copyOfRange(buffer, 2, 2 + DATA.length));
+    }
+
+    private static byte[] read(InputStream inputStream, int bufferSize) throws IOException {
+        final byte[] buffer = new byte[bufferSize];
+        final int numberOfBytesRead = inputStream.read(buffer);
+        return Arrays.copyOf(buffer, numberOfBytesRead);
+    }
+}
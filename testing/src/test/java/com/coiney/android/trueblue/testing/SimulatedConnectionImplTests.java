@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.testing;
+
+import com.coiney.android.trueblue.Connection;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class SimulatedConnectionImplTests {
+
+    private static final byte[] REQUEST = new byte[] { 0x01, 0x02, 0x03 };
+    private static final byte[] RESPONSE = new byte[] { 0x04, 0x05 };
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Test
+    public void writeWhenDeviceEchoesShouldMakeDataReadable() throws Exception {
+        final SimulatedConnection connection = new SimulatedDevice.Builder()
+                .setResponder(SimulatedDevice.ECHO)
+                .build()
+                .connect();
+        connection.write(REQUEST);
+        assertArrayEquals(REQUEST, read(connection, 16));
+    }
+
+    @Test
+    public void writeWhenScriptedResponseMatchesShouldMakeScriptedResponseReadable()
+            throws Exception {
+        final SimulatedConnection connection = new SimulatedDevice.Builder()
+                .addScriptedResponse(REQUEST, RESPONSE)
+                .setResponder(SimulatedDevice.ECHO)
+                .build()
+                .connect();
+        connection.write(REQUEST);
+        assertArrayEquals(RESPONSE, read(connection, 16));
+    }
+
+    @Test
+    public void writeWhenDeviceDoesNotRespondShouldNotMakeAnythingReadable() throws Exception {
+        final SimulatedConnection connection = new SimulatedDevice.Builder().build().connect();
+        connection.write(REQUEST);
+        connection.push(RESPONSE);
+        assertArrayEquals(RESPONSE, read(connection, 16));
+    }
+
+    @Test
+    public void readWhenMaximumReadSizeSetShouldFragmentData() throws Exception {
+        final SimulatedConnection connection = new SimulatedDevice.Builder()
+                .setMaximumReadSize(2)
+                .setRandomSeed(0)
+                .build()
+                .connect();
+        final byte[] data = new byte[64];
+        connection.push(data);
+        int totalBytesRead = 0;
+        int readCount = 0;
+        final byte[] buffer = new byte[64];
+        while (totalBytesRead < data.length) {
+            final int numberOfBytesRead = connection.read(buffer);
+            assertTrue(numberOfBytesRead >= 1 && numberOfBytesRead <= 2);
+            totalBytesRead += numberOfBytesRead;
+            readCount++;
+        }
+        assertEquals(data.length, totalBytesRead);
+        assertTrue(readCount >= data.length / 2);
+    }
+
+    @Test
+    public void readShouldNotReturnDataBeforeLatencyHasElapsed() throws Exception {
+        final SimulatedConnection connection = new SimulatedDevice.Builder()
+                .setLatencyMillis(100)
+                .build()
+                .connect();
+        final long startedAtNanos = System.nanoTime();
+        connection.push(RESPONSE);
+        read(connection, 16);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAtNanos) >= 100);
+    }
+
+    @Test
+    public void writeWhenBandwidthCappedShouldBeThrottled() throws Exception {
+        final SimulatedConnection connection = new SimulatedDevice.Builder()
+                .setBandwidthBytesPerSecond(10000)
+                .build()
+                .connect();
+        final long startedAtNanos = System.nanoTime();
+        connection.write(new byte[1000]);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAtNanos) >= 100);
+    }
+
+    @Test
+    public void writeWhenStallProbabilityIsOneShouldStall() throws Exception {
+        final SimulatedConnection connection = new SimulatedDevice.Builder()
+                .setStalls(1, 100)
+                .build()
+                .connect();
+        final long startedAtNanos = System.nanoTime();
+        connection.write(REQUEST);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAtNanos) >= 100);
+    }
+
+    @Test
+    public void writeWhenWriteErrorInjectedShouldThrowAndCloseConnectionByError() {
+        final SimulatedConnection connection = new SimulatedDevice.Builder()
+                .setWriteErrorProbability(1)
+                .build()
+                .connect();
+        final Connection.OnCloseListener listener = mock(Connection.OnCloseListener.class);
+        connection.registerOnCloseListener(listener);
+        try {
+            connection.write(REQUEST);
+            fail();
+        } catch (IOException ignored) {}
+        assertFalse(connection.isOpen());
+        verify(listener, times(1)).onConnectionClosed(connection, true);
+        assertEquals(1, connection.getStats().getWriteErrorCount());
+    }
+
+    @Test
+    public void readWhenReadErrorInjectedShouldThrowAndCloseConnectionByError() {
+        final SimulatedConnection connection = new SimulatedDevice.Builder()
+                .setReadErrorProbability(1)
+                .build()
+                .connect();
+        final Connection.OnCloseListener listener = mock(Connection.OnCloseListener.class);
+        connection.registerOnCloseListener(listener);
+        connection.push(RESPONSE);
+        try {
+            connection.read(new byte[16]);
+            fail();
+        } catch (IOException ignored) {}
+        assertFalse(connection.isOpen());
+        verify(listener, times(1)).onConnectionClosed(connection, true);
+        assertEquals(1, connection.getStats().getReadErrorCount());
+    }
+
+    @Test
+    public void readWhenConnectionClosedWhileBlockedShouldThrow() throws Exception {
+        final SimulatedConnection connection = new SimulatedDevice.Builder().build().connect();
+        final Thread closeThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {}
+                connection.close();
+            }
+        };
+        closeThread.start();
+        try {
+            connection.read(new byte[16]);
+            fail();
+        } catch (IOException ignored) {}
+        closeThread.join();
+        assertFalse(connection.isOpen());
+    }
+
+    @Test
+    public void closeIsIdempotent() {
+        final SimulatedConnection connection = new SimulatedDevice.Builder().build().connect();
+        final Connection.OnCloseListener listener = mock(Connection.OnCloseListener.class);
+        connection.registerOnCloseListener(listener);
+        connection.close();
+        connection.close();
+        verify(listener, times(1)).onConnectionClosed(connection, false);
+    }
+
+    @Test
+    public void getStatsShouldIncludeBytesReadAndWritten() throws Exception {
+        final SimulatedConnection connection = new SimulatedDevice.Builder()
+                .setResponder(SimulatedDevice.ECHO)
+                .build()
+                .connect();
+        connection.write(REQUEST);
+        read(connection, 16);
+        assertEquals(REQUEST.length, connection.getStats().getBytesWritten());
+        assertEquals(REQUEST.length, connection.getStats().getBytesRead());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setStallsWhenProbabilityGreaterThanOneShouldThrowIllegalArgumentException() {
+        new SimulatedDevice.Builder().setStalls(1.5, 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setLatencyMillisWhenNegativeShouldThrowIllegalArgumentException() {
+        new SimulatedDevice.Builder().setLatencyMillis(-1);
+    }
+
+    private static byte[] read(Connection connection, int bufferSize) throws IOException {
+        final byte[] buffer = new byte[bufferSize];
+        final int numberOfBytesRead = connection.read(buffer);
+        return Arrays.copyOf(buffer, numberOfBytesRead);
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2017 Coiney, Inc.
+ * Copyright 2016 - 2017 Daniel Carter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.coiney.android.trueblue.testing;
+
+import android.support.annotation.NonNull;
+
+import com.coiney.android.trueblue.ConnectionClient;
+import com.coiney.android.trueblue.ConnectionClients;
+import com.coiney.android.trueblue.ConnectionStats;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.quality.Strictness;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs many concurrent connections to simulated devices for a sustained
+ * period, and checks that resource usage stays bounded throughout. The
+ * duration defaults to a few seconds so that the suite can run with every
+ * build, and can be extended via the trueblue.soakDurationMillis system
+ * property.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class SimulatedDeviceSoakTests {
+
+    private static final int CONNECTION_COUNT = 16;
+    private static final long DEFAULT_DURATION_MILLIS = 3000;
+    private static final String DURATION_PROPERTY = "trueblue.soakDurationMillis";
+    private static final long MAXIMUM_HEAP_GROWTH_BYTES = 16 * 1024 * 1024;
+    private static final int MAXIMUM_MESSAGES_IN_FLIGHT = 8;
+    private static final int MESSAGE_SIZE = 256;
+    private static final long MINIMUM_BYTES_PER_SECOND = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 1024;
+    private static final long SETTLE_TIMEOUT_MILLIS = 5000;
+
+    // Ensure that Mockito is used despite using Robolectric's test runner.
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule().strictness(Strictness.WARN);
+
+    @Test
+    public void echoConnectionsShouldKeepResourceUsageBoundedAndDeliverEverything()
+            throws Exception {
+        final SimulatedDevice device = new SimulatedDevice.Builder()
+                .setLatencyMillis(2)
+                .setMaximumReadSize(64)
+                .setRandomSeed(0)
+                .setResponder(SimulatedDevice.ECHO)
+                .setStalls(0.001, 20)
+                .build();
+        final SoakResult result = soak(device);
+        assertEquals(CONNECTION_COUNT, result.mConnectionCount.get());
+        assertEquals(result.mBytesWritten.get(), result.mBytesRead.get());
+        assertTrue(result.getBytesPerSecond() >= MINIMUM_BYTES_PER_SECOND);
+        assertTrue(result.mWriteQueueDepthHighWaterMark.get() <= MAXIMUM_MESSAGES_IN_FLIGHT);
+    }
+
+    @Test
+    public void connectionsWithInjectedErrorsShouldBeReplacedWithoutLeakingResources()
+            throws Exception {
+        final SimulatedDevice device = new SimulatedDevice.Builder()
+                .setLatencyMillis(2)
+                .setMaximumReadSize(64)
+                .setRandomSeed(0)
+                .setReadErrorProbability(0.001)
+                .setResponder(SimulatedDevice.ECHO)
+                .setWriteErrorProbability(0.001)
+                .build();
+        final SoakResult result = soak(device);
+        assertTrue(result.mConnectionCount.get() > CONNECTION_COUNT);
+        assertTrue(result.mBytesRead.get() > 0);
+        assertTrue(result.mWriteQueueDepthHighWaterMark.get() <= MAXIMUM_MESSAGES_IN_FLIGHT);
+    }
+
+    /**
+     * Drive the configured number of connections to the provided device
+     * concurrently for the soak duration, replacing any which are closed by
+     * error, and check that every thread started is finished and that the
+     * heap has not grown unduly once they are all closed.
+     */
+    private static SoakResult soak(final SimulatedDevice device) throws Exception {
+        final long durationMillis = Long.getLong(DURATION_PROPERTY, DEFAULT_DURATION_MILLIS);
+        final int baselineThreadCount = Thread.activeCount();
+        final long baselineHeapBytes = getUsedHeapBytes();
+        final SoakResult result = new SoakResult();
+        final AtomicBoolean isStopped = new AtomicBoolean(false);
+        final ExecutorService executor = Executors.newFixedThreadPool(CONNECTION_COUNT);
+        final long startedAtNanos = System.nanoTime();
+        for (int i = 0; i < CONNECTION_COUNT; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    while (!isStopped.get()) {
+                        new SoakConnection(device.connect()).run(isStopped, result);
+                    }
+                }
+            });
+        }
+        Thread.sleep(durationMillis);
+        isStopped.set(true);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(SETTLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        result.mElapsedNanos = System.nanoTime() - startedAtNanos;
+
+        final long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(SETTLE_TIMEOUT_MILLIS);
+        while (Thread.activeCount() > baselineThreadCount && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(Thread.activeCount() <= baselineThreadCount);
+        assertTrue(getUsedHeapBytes() - baselineHeapBytes < MAXIMUM_HEAP_GROWTH_BYTES);
+        return result;
+    }
+
+    private static long getUsedHeapBytes() {
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Totals gathered across every connection made during a soak.
+     */
+    private static final class SoakResult {
+
+        final AtomicLong mBytesRead = new AtomicLong();
+        final AtomicLong mBytesWritten = new AtomicLong();
+        final AtomicLong mConnectionCount = new AtomicLong();
+        volatile long mElapsedNanos;
+        final AtomicLong mWriteQueueDepthHighWaterMark = new AtomicLong();
+
+        long getBytesPerSecond() {
+            return mBytesRead.get() * TimeUnit.SECONDS.toNanos(1) / mElapsedNanos;
+        }
+
+        void add(@NonNull ConnectionStats stats) {
+            mBytesRead.addAndGet(stats.getBytesRead());
+            mBytesWritten.addAndGet(stats.getBytesWritten());
+            mConnectionCount.incrementAndGet();
+            long highWaterMark;
+            while (stats.getWriteQueueDepthHighWaterMark()
+                    > (highWaterMark = mWriteQueueDepthHighWaterMark.get())) {
+                if (mWriteQueueDepthHighWaterMark.compareAndSet(highWaterMark,
+                        stats.getWriteQueueDepthHighWaterMark())) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * A single connection, which writes messages with a bounded number in
+     * flight - each message being in flight until its echo has been read.
+     */
+    private static final class SoakConnection implements ConnectionClient.Callback {
+
+        private final AtomicLong mBytesRead = new AtomicLong();
+        private final ConnectionClient mClient;
+        private final CountDownLatch mClosedLatch = new CountDownLatch(1);
+        private final byte[] mMessage = new byte[MESSAGE_SIZE];
+        private final Semaphore mPermits = new Semaphore(MAXIMUM_MESSAGES_IN_FLIGHT);
+        private long mPermitsReleased;
+
+        SoakConnection(@NonNull SimulatedConnection connection) {
+            mClient = ConnectionClients.wrap(connection, READ_BUFFER_SIZE, this);
+        }
+
+        void run(@NonNull AtomicBoolean isStopped, @NonNull SoakResult result) {
+            mClient.startReading();
+            try {
+                while (!isStopped.get() && mClient.isOpen()) {
+                    if (mPermits.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+                        mClient.write(mMessage);
+                    }
+                }
+                // Let everything in flight arrive before closing, so that the
+                // totals can be checked.
+                if (mClient.isOpen()) {
+                    mPermits.tryAcquire(MAXIMUM_MESSAGES_IN_FLIGHT, SETTLE_TIMEOUT_MILLIS,
+                            TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IllegalStateException ignored) {
+                // Closed by error between checking and writing.
+            }
+            mClient.close();
+            try {
+                mClosedLatch.await(SETTLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            result.add(mClient.getStats());
+        }
+
+        @Override
+        public void onConnectionClosed(@NonNull ConnectionClient client,
+                boolean wasClosedByError) {
+            mClosedLatch.countDown();
+        }
+
+        @Override
+        public void onDataRead(@NonNull ConnectionClient client, @NonNull byte[] data) {
+            // Only ever called on the read thread.
+            final long messagesRead = mBytesRead.addAndGet(data.length) / MESSAGE_SIZE;
+            if (messagesRead > mPermitsReleased) {
+                mPermits.release((int) (messagesRead - mPermitsReleased));
+                mPermitsReleased = messagesRead;
+            }
+        }
+
+        @Override
+        public void onDataWritten(@NonNull ConnectionClient client, @NonNull byte[] data) {}
+
+        @Override
+        public void onReadErrorEncountered(@NonNull ConnectionClient client) {}
+
+        @Override
+        public void onWriteErrorEncountered(@NonNull ConnectionClient client,
+                @NonNull byte[] data) {}
+    }
+}